@@ -0,0 +1,124 @@
+package it.polimi.dima.mediatracker.adapters.media_items_list;
+
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.ViewGroup;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import it.polimi.dima.mediatracker.model.Section;
+import it.polimi.dima.mediatracker.model.Sectioned;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Times the translations between items and elements positions of the sectioned adapter on 50k items and 10 sections,
+ * also after some removals (results are printed in the log with the "SectionedAdapterBenchmark" tag)
+ */
+public class SectionedAdapterBenchmarkTest
+{
+    private final static String TAG = "SectionedAdapterBenchmark";
+
+    private final static int SECTIONS = 10;
+    private final static int ITEMS_PER_SECTION = 5000;
+    private final static int MIDDLE_REMOVALS = 1000;
+
+    private List<BenchmarkItem> items;
+
+    @Before
+    public void setUp()
+    {
+        items = new ArrayList<>();
+        for(int i=0; i<SECTIONS; i++)
+        {
+            Section section = new Section("S"+i, "Section "+i);
+            for(int j=0; j<ITEMS_PER_SECTION; j++) items.add(new BenchmarkItem((long) (i*ITEMS_PER_SECTION+j), section));
+        }
+    }
+
+    @Test
+    public void benchmark50k()
+    {
+        long start = System.nanoTime();
+        BenchmarkAdapter adapter = new BenchmarkAdapter(items);
+        long setupMs = (System.nanoTime()-start)/1000000;
+
+        // Elements to items
+        start = System.nanoTime();
+        int elements = adapter.getAdapter().getItemCount();
+        for(int i=0; i<elements; i++) adapter.getAtListPosition(i);
+        long toItemsMs = (System.nanoTime()-start)/1000000;
+
+        // Items to elements
+        start = System.nanoTime();
+        for(int i=0; i<items.size(); i++) adapter.notifyItemChanged(i);
+        long toElementsMs = (System.nanoTime()-start)/1000000;
+
+        // Removals (including a whole section)
+        start = System.nanoTime();
+        for(int i=0; i<ITEMS_PER_SECTION; i++) adapter.removeItemAndNotify(0);
+        for(int i=0; i<MIDDLE_REMOVALS; i++) adapter.removeItemAndNotify(adapter.getItemCount()/2);
+        long removeMs = (System.nanoTime()-start)/1000000;
+
+        assertEquals("Wrong number of internal elements", items.size()-ITEMS_PER_SECTION-MIDDLE_REMOVALS+SECTIONS-1, adapter.getAdapter().getItemCount());
+
+        Log.i(TAG, items.size()+" items in "+SECTIONS+" sections: setup "+setupMs+" ms, "+elements+" elements to items "+toItemsMs+" ms, "+
+                items.size()+" items to elements "+toElementsMs+" ms, "+(ITEMS_PER_SECTION+MIDDLE_REMOVALS)+" removals "+removeMs+" ms");
+    }
+
+    private static class BenchmarkItem implements Sectioned
+    {
+        private Long id;
+        private Section section;
+
+        BenchmarkItem(Long id, Section section)
+        {
+            this.id = id;
+            this.section = section;
+        }
+
+        @Override
+        public Section getSection()
+        {
+            return section;
+        }
+
+        @Override
+        public Long getId()
+        {
+            return id;
+        }
+    }
+
+    private static class BenchmarkAdapter extends SectionedRecyclerViewAdapter<BenchmarkItem>
+    {
+        BenchmarkAdapter(List<BenchmarkItem> items)
+        {
+            setAdapterFromSubclass(new BenchmarkInternal(items));
+        }
+
+        private class BenchmarkInternal extends SectionedInternalAdapter
+        {
+            BenchmarkInternal(List<BenchmarkItem> itemsList)
+            {
+                super(itemsList);
+            }
+
+            @Override
+            protected RecyclerView.ViewHolder onCreateItemViewHolder(ViewGroup parent, int viewType)
+            {
+                return null;
+            }
+
+            @Override
+            protected void onBindItemViewHolder(RecyclerView.ViewHolder itemHolder, int actualItemPosition)
+            {
+
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package it.polimi.dima.mediatracker.controllers;
+
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import it.polimi.dima.mediatracker.R;
+import it.polimi.dima.mediatracker.controllers.backup.BackupFormat;
+import it.polimi.dima.mediatracker.controllers.backup.BackupReader;
+import it.polimi.dima.mediatracker.model.Category;
+import it.polimi.dima.mediatracker.model.DeletedRow;
+import it.polimi.dima.mediatracker.model.ImportanceLevel;
+import it.polimi.dima.mediatracker.model.MediaItem;
+import it.polimi.dima.mediatracker.model.MediaType;
+import it.polimi.dima.mediatracker.model.Movie;
+import it.polimi.dima.mediatracker.test_utils.InstrumentationTestUtils;
+
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests the incremental export checkpoint: an export that the user did not save must not leave any change out of the
+ * next incremental export
+ */
+public class DatabaseManagerExportTest
+{
+    private Context context;
+    private MediaItemsAbstractController controller;
+    private Category createdFakeCategory;
+
+    @Before
+    public void before()
+    {
+        context = InstrumentationRegistry.getTargetContext();
+        createdFakeCategory = new Category(context, InstrumentationTestUtils.getRandomName(), R.color.colorPrimary, MediaType.MOVIES);
+        CategoriesController.getInstance().saveCategory(createdFakeCategory);
+        controller = createdFakeCategory.getMediaType().getController();
+    }
+
+    @After
+    public void after()
+    {
+        if(createdFakeCategory!=null) CategoriesController.getInstance().deleteCategory(createdFakeCategory);
+    }
+
+    /**
+     * An abandoned incremental export (not confirmed) followed by another one: the second one still contains the changes
+     * and the deletes of the first one
+     */
+    @Test
+    public void testAbandonedExportFollowedByDelta() throws IOException
+    {
+        DatabaseManager databaseManager = DatabaseManager.getInstance();
+        MediaItem toDelete = createMovie();
+        MediaItem toChange = createMovie();
+
+        // Saved full export
+        databaseManager.exportDatabase(context, BackupFormat.BINARY);
+        databaseManager.confirmExport(context);
+
+        // Changes
+        long deletedId = toDelete.getId();
+        controller.deleteMediaItem(toDelete);
+        toChange.setTitle(InstrumentationTestUtils.getRandomName());
+        controller.saveMediaItem(toChange);
+
+        // Incremental export never saved by the user
+        databaseManager.exportDatabaseChanges(context, BackupFormat.BINARY);
+        databaseManager.discardExport(context);
+
+        // Next incremental export
+        Set<Long> deletedIds = new HashSet<>();
+        Set<String> mediaItemIds = new HashSet<>();
+        readDeltaExport(databaseManager.exportDatabaseChanges(context, BackupFormat.BINARY), deletedIds, mediaItemIds);
+        databaseManager.discardExport(context);
+
+        assertTrue("Deleted media item missing", deletedIds.contains(deletedId));
+        assertTrue("Changed media item missing", mediaItemIds.contains(String.valueOf(toChange.getId())));
+    }
+
+    /**
+     * An export left pending (the user never answered) followed by another one behaves the same way
+     */
+    @Test
+    public void testPendingExportFollowedByDelta() throws IOException
+    {
+        DatabaseManager databaseManager = DatabaseManager.getInstance();
+        MediaItem toDelete = createMovie();
+
+        databaseManager.exportDatabase(context, BackupFormat.BINARY);
+        databaseManager.confirmExport(context);
+
+        long deletedId = toDelete.getId();
+        controller.deleteMediaItem(toDelete);
+        databaseManager.exportDatabaseChanges(context, BackupFormat.BINARY);
+
+        Set<Long> deletedIds = new HashSet<>();
+        readDeltaExport(databaseManager.exportDatabaseChanges(context, BackupFormat.BINARY), deletedIds, new HashSet<String>());
+        databaseManager.discardExport(context);
+
+        assertTrue("Deleted media item missing", deletedIds.contains(deletedId));
+    }
+
+    /**
+     * Helper to create a tracked movie in the test category
+     * @return the saved movie
+     */
+    private MediaItem createMovie()
+    {
+        Movie movie = new Movie();
+        movie.setTitle(InstrumentationTestUtils.getRandomName());
+        movie.setCategory(createdFakeCategory.getId());
+        movie.setImportanceLevel(ImportanceLevel.MEDIUM);
+        controller.saveMediaItem(movie);
+        return movie;
+    }
+
+    /**
+     * Helper to read the exported delta file
+     * @param chooserIntent the intent returned by the export
+     * @param deletedIds filled with the row IDs of the deleted rows
+     * @param mediaItemIds filled with the IDs of the media items
+     * @throws IOException if the file cannot be read
+     */
+    private void readDeltaExport(Intent chooserIntent, Set<Long> deletedIds, Set<String> mediaItemIds) throws IOException
+    {
+        Intent shareIntent = chooserIntent.getParcelableExtra(Intent.EXTRA_INTENT);
+        Uri uri = shareIntent.getParcelableExtra(Intent.EXTRA_STREAM);
+        InputStream in = StorageManager.openInputStreamFromUri(context, uri);
+        BackupReader reader = null;
+        try
+        {
+            reader = BackupFormat.detect(in).newReader(in);
+            assertTrue("Not a delta export", reader.getDeltaFromVersion()>=0);
+
+            DeletedRow deletedRow;
+            while((deletedRow = reader.nextDeletedRow())!=null) deletedIds.add(deletedRow.getRowId());
+
+            Map<String, String> categoryValues = new HashMap<>();
+            Map<String, String> mediaItemValues = new HashMap<>();
+            while(reader.nextCategory(categoryValues))
+            {
+                while(reader.nextMediaItem(mediaItemValues)) mediaItemIds.add(mediaItemValues.get(MediaItem.COLUMN_ID));
+            }
+        }
+        finally
+        {
+            StorageManager.closeQuietly(reader);
+            StorageManager.closeQuietly(in);
+        }
+    }
+}
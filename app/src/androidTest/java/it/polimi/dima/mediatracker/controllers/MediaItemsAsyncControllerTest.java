@@ -0,0 +1,248 @@
+package it.polimi.dima.mediatracker.controllers;
+
+import android.os.Looper;
+import android.support.test.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import it.polimi.dima.mediatracker.R;
+import it.polimi.dima.mediatracker.controllers.database.DatabaseExecutor;
+import it.polimi.dima.mediatracker.model.Category;
+import it.polimi.dima.mediatracker.model.ImportanceLevel;
+import it.polimi.dima.mediatracker.model.MediaItem;
+import it.polimi.dima.mediatracker.model.MediaType;
+import it.polimi.dima.mediatracker.model.Movie;
+import it.polimi.dima.mediatracker.test_utils.InstrumentationTestUtils;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests the asynchronous controller used by the list screens: no database access on the main thread, results on the
+ * main thread, reads that see the writes submitted before them
+ */
+public class MediaItemsAsyncControllerTest
+{
+    private final static long TIMEOUT_SECONDS = 10;
+
+    private CategoriesController categoriesController;
+    private Category createdFakeCategory;
+
+    private ThreadCheckingController controller;
+    private MediaItemsAsyncController asyncController;
+
+    @Before
+    public void before()
+    {
+        categoriesController = CategoriesController.getInstance();
+        createdFakeCategory = new Category(InstrumentationRegistry.getTargetContext(), InstrumentationTestUtils.getRandomName(), R.color.colorPrimary, MediaType.MOVIES);
+        categoriesController.saveCategory(createdFakeCategory);
+
+        controller = new ThreadCheckingController();
+        asyncController = new MediaItemsAsyncController(controller);
+    }
+
+    @After
+    public void after()
+    {
+        if(createdFakeCategory!=null) categoriesController.deleteCategory(createdFakeCategory);
+    }
+
+    /**
+     * The operations submitted by the main thread (as the list screen does) never access the database on the main thread
+     */
+    @Test
+    public void testNoDatabaseAccessOnMainThread() throws InterruptedException
+    {
+        final MediaItem first = createMediaItem("First");
+        final MediaItem second = createMediaItem("Second");
+        controller.saveMediaItem(first);
+        controller.saveMediaItem(second);
+        final List<List<MediaItem>> results = new ArrayList<>();
+        final AtomicInteger callbacksOnOtherThreads = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(1);
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                // Writes followed immediately by reads, as the list screen does
+                asyncController.saveMediaItem(first, null);
+                asyncController.setMediaItemAsDoingNow(second, true, null);
+                asyncController.saveMediaItemAfterMove(createdFakeCategory, first, null, null, null, null);
+                asyncController.getTrackedMediaItemsPageInCategory(null, createdFakeCategory, new DatabaseExecutor.ResultCallback<MediaItemsAbstractController.MediaItemsPage>()
+                {
+                    @Override
+                    public void onResult(MediaItemsAbstractController.MediaItemsPage page)
+                    {
+                        if(Looper.myLooper()!=Looper.getMainLooper()) callbacksOnOtherThreads.incrementAndGet();
+                        results.add(page.getMediaItems());
+                    }
+                });
+                asyncController.fullTextSearchMediaItemsInCategory(0, createdFakeCategory, "First", false, new DatabaseExecutor.ResultCallback<List<MediaItem>>()
+                {
+                    @Override
+                    public void onResult(List<MediaItem> searchResults)
+                    {
+                        if(Looper.myLooper()!=Looper.getMainLooper()) callbacksOnOtherThreads.incrementAndGet();
+                        results.add(searchResults);
+                    }
+                });
+
+                // Complete one, delete the other, then read the completed list
+                asyncController.setMediaItemAsCompleted(first, new Date(), null);
+                asyncController.deleteMediaItem(second, null);
+                asyncController.getCompletedMediaItemsPageInCategory(null, createdFakeCategory, new DatabaseExecutor.ResultCallback<MediaItemsAbstractController.MediaItemsPage>()
+                {
+                    @Override
+                    public void onResult(MediaItemsAbstractController.MediaItemsPage page)
+                    {
+                        if(Looper.myLooper()!=Looper.getMainLooper()) callbacksOnOtherThreads.incrementAndGet();
+                        results.add(page.getMediaItems());
+                        done.countDown();
+                    }
+                });
+            }
+        });
+
+        assertTrue("Timeout", done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+
+        // Database accessed only by the executor threads
+        assertTrue("No database access", controller.calls.get()>=9);
+        assertEquals("Database accessed on the main thread", 0, controller.mainThreadCalls.get());
+        assertEquals("Callback not on the main thread", 0, callbacksOnOtherThreads.get());
+
+        // Each read saw the writes submitted before it
+        assertEquals(3, results.size());
+        assertEquals(2, results.get(0).size());
+        assertEquals("Second", results.get(0).get(0).getTitle());
+        assertTrue(results.get(0).get(0).isDoingNow());
+        assertEquals(1, results.get(1).size());
+        assertEquals("First", results.get(1).get(0).getTitle());
+        assertEquals(1, results.get(2).size());
+        assertEquals(first.getId(), results.get(2).get(0).getId());
+    }
+
+    /**
+     * The writes never touch the given media item outside the main thread: it changes only when the callback is called
+     */
+    @Test
+    public void testWritesOnCopy() throws InterruptedException
+    {
+        final MediaItem mediaItem = createMediaItem("Copied");
+        controller.saveMediaItem(mediaItem);
+        final List<MediaItem> results = new ArrayList<>();
+        final AtomicInteger changedBeforeCallback = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(1);
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                asyncController.setMediaItemAsOwned(mediaItem, true, new DatabaseExecutor.ResultCallback<MediaItem>()
+                {
+                    @Override
+                    public void onResult(MediaItem result)
+                    {
+                        results.add(result);
+                        done.countDown();
+                    }
+                });
+
+                // The callback can't run before this method returns, so the write can only be applied to a copy
+                if(mediaItem.isOwned()) changedBeforeCallback.incrementAndGet();
+            }
+        });
+
+        assertTrue("Timeout", done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        assertEquals("Media item changed before the callback", 0, changedBeforeCallback.get());
+        assertEquals(1, results.size());
+        assertTrue("Callback without the given media item", results.get(0)==mediaItem);
+        assertTrue("Result not applied to the given media item", mediaItem.isOwned());
+        assertTrue("Write not saved", controller.getMediaItemById(createdFakeCategory, mediaItem.getId()).isOwned());
+    }
+
+    /**
+     * Helper to create a media item in the test category
+     * @param name the media item name
+     * @return the media item (not saved)
+     */
+    private MediaItem createMediaItem(String name)
+    {
+        MediaItem mi = new Movie();
+        mi.setTitle(name);
+        mi.setImportanceLevel(ImportanceLevel.HIGH);
+        mi.setCategory(createdFakeCategory.getId());
+        return mi;
+    }
+
+    /**
+     * Movies controller that records the thread of each database access
+     */
+    private static class ThreadCheckingController extends MoviesController
+    {
+        private final AtomicInteger calls = new AtomicInteger();
+        private final AtomicInteger mainThreadCalls = new AtomicInteger();
+
+        private void check()
+        {
+            calls.incrementAndGet();
+            if(Looper.myLooper()==Looper.getMainLooper()) mainThreadCalls.incrementAndGet();
+        }
+
+        @Override
+        public MediaItemsPage getTrackedMediaItemsPageInCategory(String continuationToken, Category category)
+        {
+            check();
+            return super.getTrackedMediaItemsPageInCategory(continuationToken, category);
+        }
+
+        @Override
+        public MediaItemsPage getCompletedMediaItemsPageInCategory(String continuationToken, Category category)
+        {
+            check();
+            return super.getCompletedMediaItemsPageInCategory(continuationToken, category);
+        }
+
+        @Override
+        public List<MediaItem> fullTextSearchMediaItemsInCategory(int page, Category category, String query, Boolean completed)
+        {
+            check();
+            return super.fullTextSearchMediaItemsInCategory(page, category, query, completed);
+        }
+
+        @Override
+        public void saveMediaItem(MediaItem mediaItem)
+        {
+            check();
+            super.saveMediaItem(mediaItem);
+        }
+
+        @Override
+        public void deleteMediaItem(MediaItem mediaItem)
+        {
+            check();
+            super.deleteMediaItem(mediaItem);
+        }
+
+        @Override
+        public void setOrderInSectionAfterMove(Category category, MediaItem movedMediaItem, MediaItem previousMediaItemInSection, MediaItem nextMediaItemInSection)
+        {
+            check();
+            super.setOrderInSectionAfterMove(category, movedMediaItem, previousMediaItemInSection, nextMediaItemInSection);
+        }
+    }
+}
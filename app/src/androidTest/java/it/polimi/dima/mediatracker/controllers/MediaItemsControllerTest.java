@@ -10,9 +10,12 @@ import org.junit.Test;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import it.polimi.dima.mediatracker.R;
+import it.polimi.dima.mediatracker.controllers.database.CategoryRepository;
 import it.polimi.dima.mediatracker.model.Category;
 import it.polimi.dima.mediatracker.model.ImportanceLevel;
 import it.polimi.dima.mediatracker.model.MediaItem;
@@ -116,6 +119,47 @@ public class MediaItemsControllerTest
         assertTrue("Completed are not null", completed==null || completed.size()==0);
     }
 
+    /**
+     * Tests that the cached category counts follow the saves and deletes, matching the ones loaded from the database
+     */
+    @Test
+    public void testCategoryCounts()
+    {
+        // Load the counts before the writes, so that they are updated incrementally
+        assertEquals("Counts of a new category", 0, categoriesController.getCategoryCounts(createdFakeCategory.getId()).getTotal());
+
+        List<MediaItem> added = initTrackedAndCompleted(6, 4);
+        Calendar calendar = Calendar.getInstance();
+        calendar.add(Calendar.YEAR, 1);
+        MediaItem upcoming = createMediaItem(null, false);
+        upcoming.setReleaseDate(calendar.getTime());
+        controller.saveMediaItem(upcoming);
+        for(MediaItem mi: added)
+        {
+            if(!mi.isCompleted())
+            {
+                controller.setMediaItemAsDoingNow(mi, true);
+                controller.setMediaItemAsCompleted(mi, new Date());
+                break;
+            }
+        }
+        controller.deleteMediaItem(added.get(added.size()-1));
+
+        CategoryRepository.CategoryCounts counts = categoriesController.getCategoryCounts(createdFakeCategory.getId());
+        assertEquals("Wrong total", 10, counts.getTotal());
+        assertEquals("Wrong upcoming", 1, counts.getUpcoming());
+
+        CategoryRepository.getInstance().invalidate();
+        CategoryRepository.CategoryCounts loaded = categoriesController.getCategoryCounts(createdFakeCategory.getId());
+        assertEquals("Wrong tracked", loaded.getTracked(), counts.getTracked());
+        assertEquals("Wrong completed", loaded.getCompleted(), counts.getCompleted());
+        assertEquals("Wrong doing now", loaded.getDoingNow(), counts.getDoingNow());
+        assertEquals("Wrong upcoming", loaded.getUpcoming(), counts.getUpcoming());
+
+        controller.deleteAllMediaItemsInCategory(createdFakeCategory);
+        assertEquals("Counts after deleting all", 0, categoriesController.getCategoryCounts(createdFakeCategory.getId()).getTotal());
+    }
+
     /**
      * Tests getTrackedMediaItems()
      */
@@ -218,6 +262,321 @@ public class MediaItemsControllerTest
         assertSearch("VB", true, shouldBe);
     }
 
+    /**
+     * Tests that consecutive random suggestions do not repeat until all matching media items have been suggested
+     */
+    @Test
+    public void testGetRandomMediaItemDoesNotRepeat()
+    {
+        int count = 5;
+        List<Long> ids = new ArrayList<>();
+        for(int i=0; i<count; i++)
+        {
+            MediaItem mi = createMediaItem(null, true);
+            controller.saveMediaItem(mi);
+            ids.add(mi.getId());
+        }
+
+        List<Long> suggested = new ArrayList<>();
+        Long previous = null;
+        for(int i=0; i<count; i++)
+        {
+            MediaItem suggestion = controller.getRandomCompletedMediaItem(createdFakeCategory, previous, null, 0, 0, 0);
+            assertNotNull("No suggestion", suggestion);
+            assertTrue("Wrong suggestion", ids.contains(suggestion.getId()));
+            assertTrue("Repeated suggestion", !suggested.contains(suggestion.getId()));
+            suggested.add(suggestion.getId());
+            previous = suggestion.getId();
+        }
+
+        // New round, never the same media item twice in a row
+        MediaItem suggestion = controller.getRandomCompletedMediaItem(createdFakeCategory, previous, null, 0, 0, 0);
+        assertNotNull("No suggestion", suggestion);
+        assertTrue("Same suggestion twice in a row", !previous.equals(suggestion.getId()));
+
+        // No match
+        assertNull("Suggestion without matches", controller.getRandomCompletedMediaItem(createdFakeCategory, null, null, 0, 1, 2));
+    }
+
+    /**
+     * Tests that the weighted suggestions do not repeat in a round and follow the media items saved in the meantime
+     */
+    @Test
+    public void testGetWeightedRandomMediaItemFollowsSaves()
+    {
+        List<MediaItem> mediaItems = new ArrayList<>();
+        for(int i=0; i<4; i++)
+        {
+            MediaItem mi = createMediaItem(null, true);
+            controller.saveMediaItem(mi);
+            mediaItems.add(mi);
+        }
+
+        // Half of the round
+        List<Long> suggested = new ArrayList<>();
+        for(int i=0; i<2; i++)
+        {
+            MediaItem suggestion = controller.getRandomCompletedMediaItem(createdFakeCategory, null, null, 0, 0, 0, true);
+            assertNotNull("No suggestion", suggestion);
+            assertTrue("Repeated suggestion", !suggested.contains(suggestion.getId()));
+            suggested.add(suggestion.getId());
+        }
+
+        // One media item added, one not matching anymore, one of the not suggested ones changed
+        MediaItem added = createMediaItem(null, true);
+        controller.saveMediaItem(added);
+        List<Long> expected = new ArrayList<>();
+        expected.add(added.getId());
+        for(MediaItem mi: mediaItems)
+        {
+            if(!suggested.contains(mi.getId())) expected.add(mi.getId());
+        }
+        MediaItem removed = controller.getMediaItemById(createdFakeCategory, expected.remove(1));
+        removed.setCompletionDate(null);
+        controller.saveMediaItem(removed);
+        MediaItem changed = controller.getMediaItemById(createdFakeCategory, expected.get(1));
+        changed.setImportanceLevel(ImportanceLevel.LOW);
+        controller.saveMediaItem(changed);
+
+        // The rest of the round
+        for(int i=0; i<expected.size(); i++)
+        {
+            MediaItem suggestion = controller.getRandomCompletedMediaItem(createdFakeCategory, null, null, 0, 0, 0, true);
+            assertNotNull("No suggestion", suggestion);
+            assertTrue("Wrong suggestion", expected.contains(suggestion.getId()));
+            assertTrue("Repeated suggestion", !suggested.contains(suggestion.getId()));
+            suggested.add(suggestion.getId());
+        }
+    }
+
+    /**
+     * Tests that the genre filter matches whole genre names only and the genre counts
+     */
+    @Test
+    public void testGenreFilterAndCounts()
+    {
+        String[] genres = {"Action-Adventure", "Action, RPG", " action ,Sport, Action", "Sport"};
+        List<Long> ids = new ArrayList<>();
+        for(String g: genres)
+        {
+            MediaItem mi = createMediaItem(null, true);
+            mi.setGenres(g);
+            controller.saveMediaItem(mi);
+            ids.add(mi.getId());
+        }
+
+        // "Action" is not "Action-Adventure"
+        List<Long> suggested = new ArrayList<>();
+        for(int i=0; i<2; i++)
+        {
+            MediaItem suggestion = controller.getRandomCompletedMediaItem(createdFakeCategory, null, "Action", 0, 0, 0);
+            assertNotNull("No suggestion", suggestion);
+            suggested.add(suggestion.getId());
+        }
+        assertTrue(suggested.contains(ids.get(1)));
+        assertTrue(suggested.contains(ids.get(2)));
+        assertNull(controller.getRandomCompletedMediaItem(createdFakeCategory, null, "Adventure", 0, 0, 0));
+
+        // Genres changed
+        MediaItem changed = controller.getMediaItemById(createdFakeCategory, ids.get(3));
+        changed.setGenres("Adventure");
+        controller.saveMediaItem(changed);
+        assertEquals(ids.get(3), controller.getRandomCompletedMediaItem(createdFakeCategory, null, "adventure", 0, 0, 0).getId());
+
+        // Counts
+        Map<String, Integer> counts = controller.getGenreCounts(createdFakeCategory, true);
+        assertEquals(5, counts.size());
+        assertEquals("Action", counts.keySet().iterator().next());
+        assertEquals(Integer.valueOf(2), counts.get("Action"));
+        assertEquals(Integer.valueOf(1), counts.get("Sport"));
+        assertEquals(0, controller.getGenreCounts(createdFakeCategory, false).size());
+
+        // Deleted
+        controller.deleteMediaItem(controller.getMediaItemById(createdFakeCategory, ids.get(2)));
+        assertEquals(Integer.valueOf(1), controller.getGenreCounts(createdFakeCategory, null).get("Action"));
+        assertNull(controller.getGenreCounts(createdFakeCategory, null).get("Sport"));
+    }
+
+    /**
+     * Tests saveMediaItems(): counts and genres are kept up to date as with single saves
+     */
+    @Test
+    public void testSaveMediaItems()
+    {
+        List<MediaItem> mediaItems = new ArrayList<>();
+        for(int i=0; i<3; i++)
+        {
+            MediaItem mi = createMediaItem(null, false);
+            mi.setGenres("Action");
+            mediaItems.add(mi);
+        }
+        controller.saveMediaItems(mediaItems);
+        for(MediaItem mi: mediaItems) assertNotNull("Not saved", controller.getMediaItemById(createdFakeCategory, mi.getId()));
+        assertEquals("Wrong total", 3, categoriesController.getCategoryCounts(createdFakeCategory.getId()).getTotal());
+        assertEquals(Integer.valueOf(3), controller.getGenreCounts(createdFakeCategory, null).get("Action"));
+
+        // Only the second one changes genres
+        mediaItems.get(0).setOrderInSection(10);
+        mediaItems.get(1).setGenres("Sport");
+        controller.setMediaItemAsCompleted(mediaItems.get(2), new Date());
+        controller.saveMediaItems(mediaItems);
+        assertEquals(10, controller.getMediaItemById(createdFakeCategory, mediaItems.get(0).getId()).getOrderInSection());
+        assertEquals(Integer.valueOf(2), controller.getGenreCounts(createdFakeCategory, null).get("Action"));
+        assertEquals(Integer.valueOf(1), controller.getGenreCounts(createdFakeCategory, null).get("Sport"));
+        assertEquals("Wrong completed", 1, categoriesController.getCategoryCounts(createdFakeCategory.getId()).getCompleted());
+    }
+
+    /**
+     * Tests getMediaItemsToRefresh() and updateRefreshedMediaItems()
+     */
+    @Test
+    public void testRefreshMediaItems()
+    {
+        Calendar calendar = Calendar.getInstance();
+        calendar.add(Calendar.MONTH, 1);
+        Date nextMonth = calendar.getTime();
+        calendar.add(Calendar.MONTH, -2);
+        Date lastMonth = calendar.getTime();
+
+        MediaItem upcoming = createMediaItem(null, false);
+        upcoming.setReleaseDate(nextMonth);
+        upcoming.setExternalServiceId("1001");
+        controller.saveMediaItem(upcoming);
+
+        MediaItem released = createMediaItem(null, false);
+        released.setReleaseDate(lastMonth);
+        released.setExternalServiceId("1002");
+        controller.saveMediaItem(released);
+
+        MediaItem notLinked = createMediaItem(null, false);
+        notLinked.setReleaseDate(nextMonth);
+        controller.saveMediaItem(notLinked);
+
+        // Only the upcoming media item linked with the external service
+        List<MediaItem> toRefresh = new ArrayList<>();
+        for(MediaItem mi: controller.getMediaItemsToRefresh())
+        {
+            if(createdFakeCategory.getId().equals(mi.getCategory())) toRefresh.add(mi);
+        }
+        assertEquals(1, toRefresh.size());
+        assertEquals(upcoming.getId(), toRefresh.get(0).getId());
+
+        // The service moved the release date to the past
+        MediaItem fetched = new Movie();
+        fetched.setReleaseDate(lastMonth);
+        Map<String, MediaItem> fetchedMediaItems = new HashMap<>();
+        fetchedMediaItems.put("1001", fetched);
+        assertEquals(1, controller.updateRefreshedMediaItems(toRefresh, fetchedMediaItems));
+
+        MediaItem updated = controller.getMediaItemById(createdFakeCategory, upcoming.getId());
+        assertEquals(lastMonth, updated.getReleaseDate());
+        assertEquals(ImportanceLevel.HIGH.getDbValue(), updated.getSectionRank());
+        assertEquals(upcoming.getTitle(), updated.getTitle());
+
+        // Nothing changed
+        assertEquals(0, controller.updateRefreshedMediaItems(toRefresh, fetchedMediaItems));
+    }
+
+    /**
+     * Tests updateRefreshedMediaItems() with media items changed, completed or deleted while their data was being loaded
+     */
+    @Test
+    public void testRefreshMediaItemsChangedMeanwhile()
+    {
+        Calendar calendar = Calendar.getInstance();
+        calendar.add(Calendar.MONTH, 1);
+        Date nextMonth = calendar.getTime();
+        calendar.add(Calendar.MONTH, -2);
+        Date lastMonth = calendar.getTime();
+
+        Map<String, MediaItem> fetchedMediaItems = new HashMap<>();
+        List<MediaItem> upcoming = new ArrayList<>();
+        for(int i=0; i<3; i++)
+        {
+            MediaItem mi = createMediaItem(null, false);
+            mi.setReleaseDate(nextMonth);
+            mi.setExternalServiceId("200"+i);
+            controller.saveMediaItem(mi);
+            upcoming.add(mi);
+
+            MediaItem fetched = new Movie();
+            fetched.setReleaseDate(lastMonth);
+            fetchedMediaItems.put(mi.getExternalServiceId(), fetched);
+        }
+        List<MediaItem> toRefresh = new ArrayList<>();
+        for(MediaItem mi: controller.getMediaItemsToRefresh())
+        {
+            if(createdFakeCategory.getId().equals(mi.getCategory())) toRefresh.add(mi);
+        }
+        assertEquals(3, toRefresh.size());
+
+        // Changes made by the user while loading
+        MediaItem changed = controller.getMediaItemById(createdFakeCategory, upcoming.get(0).getId());
+        changed.setImportanceLevel(ImportanceLevel.LOW);
+        controller.saveMediaItem(changed);
+        controller.setMediaItemAsCompleted(controller.getMediaItemById(createdFakeCategory, upcoming.get(1).getId()), new Date());
+        controller.deleteMediaItem(controller.getMediaItemById(createdFakeCategory, upcoming.get(2).getId()));
+
+        // Only the changed one is updated, keeping the user changes
+        assertEquals(1, controller.updateRefreshedMediaItems(toRefresh, fetchedMediaItems));
+        MediaItem updated = controller.getMediaItemById(createdFakeCategory, changed.getId());
+        assertEquals(lastMonth, updated.getReleaseDate());
+        assertEquals(ImportanceLevel.LOW, updated.getImportanceLevel());
+        assertEquals(ImportanceLevel.LOW.getDbValue(), updated.getSectionRank());
+        assertNull(controller.getMediaItemById(createdFakeCategory, upcoming.get(2).getId()));
+
+        // Category counts still match the database
+        CategoryRepository.CategoryCounts counts = categoriesController.getCategoryCounts(createdFakeCategory.getId());
+        CategoryRepository.getInstance().invalidate();
+        CategoryRepository.CategoryCounts loaded = categoriesController.getCategoryCounts(createdFakeCategory.getId());
+        assertEquals("Wrong total", loaded.getTotal(), counts.getTotal());
+        assertEquals("Wrong tracked", loaded.getTracked(), counts.getTracked());
+        assertEquals("Wrong completed", loaded.getCompleted(), counts.getCompleted());
+        assertEquals("Wrong upcoming", loaded.getUpcoming(), counts.getUpcoming());
+    }
+
+    /**
+     * Tests fullTextSearchMediaItemsInCategory() with FTS operators and punctuation in the query
+     */
+    @Test
+    public void testFullTextSearchSpecialInput()
+    {
+        MediaItem starWars = createMediaItem("Star Wars", false);
+        controller.saveMediaItem(starWars);
+        MediaItem notAnother = createMediaItem("Not Another Teen Movie", false);
+        controller.saveMediaItem(notAnother);
+
+        // Operators are searched as words
+        assertSearchResults("not", notAnother);
+        assertSearchResults("NOT another", notAnother);
+        assertSearchResults("star OR", new MediaItem[0]);
+        assertSearchResults("NEAR star", new MediaItem[0]);
+
+        // Punctuation does not break the query
+        assertSearchResults("\"star", starWars);
+        assertSearchResults("star -wars", starWars);
+        assertSearchResults("(star) wa*", starWars);
+        assertSearchResults("title:star", new MediaItem[0]);
+        assertSearchResults("( - \" ^", new MediaItem[0]);
+    }
+
+    /**
+     * Helper to check the full-text search results in the test category
+     * @param query the query
+     * @param expected the expected media items, in any order
+     */
+    private void assertSearchResults(String query, MediaItem... expected)
+    {
+        List<MediaItem> results = controller.fullTextSearchMediaItemsInCategory(0, createdFakeCategory, query, null);
+        assertEquals("Wrong results for "+query, expected.length, results.size());
+        for(MediaItem mediaItem: expected)
+        {
+            boolean found = false;
+            for(MediaItem result: results) found |= result.getId().equals(mediaItem.getId());
+            assertTrue("Missing result for "+query, found);
+        }
+    }
+
     /**
      * Tests getMediaItemsReleasedToday()
      */
@@ -0,0 +1,154 @@
+package it.polimi.dima.mediatracker.controllers;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.orm.SugarDatabaseAccessor;
+import com.orm.util.NamingHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import it.polimi.dima.mediatracker.R;
+import it.polimi.dima.mediatracker.model.Category;
+import it.polimi.dima.mediatracker.model.ImportanceLevel;
+import it.polimi.dima.mediatracker.model.MediaItem;
+import it.polimi.dima.mediatracker.model.MediaType;
+import it.polimi.dima.mediatracker.model.Movie;
+import it.polimi.dima.mediatracker.test_utils.InstrumentationTestUtils;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Compares the compiled queries + cursor mappers layer of the media items controller with the plain Sugar ORM "find()"
+ * on the same tracked list query (results are printed in the log with the "QueryBenchmark" tag)
+ */
+public class MediaItemsQueryBenchmarkTest
+{
+    private final static String TAG = "QueryBenchmark";
+
+    private final static int PAGES = 20;
+    private final static int PAGE_LENGTH = 50;
+
+    private MediaItemsAbstractController controller;
+    private CategoriesController categoriesController;
+
+    private Category createdFakeCategory;
+
+    @Before
+    public void setUp()
+    {
+        categoriesController = CategoriesController.getInstance();
+        createdFakeCategory = new Category("colorPrimary", InstrumentationTestUtils.getRandomName(), R.color.colorPrimary, MediaType.MOVIES);
+        categoriesController.saveCategory(createdFakeCategory);
+
+        controller = createdFakeCategory.getMediaType().getController();
+    }
+
+    @After
+    public void tearDown()
+    {
+        if(createdFakeCategory!=null) categoriesController.deleteCategory(createdFakeCategory);
+    }
+
+    @Test
+    public void benchmark10k()
+    {
+        benchmark(10000);
+    }
+
+    @Test
+    public void benchmark100k()
+    {
+        benchmark(100000);
+    }
+
+    /**
+     * Inserts the given number of rows and then loads the first pages of the tracked list with both query paths
+     * @param rows the number of rows
+     */
+    @SuppressWarnings("unchecked")
+    private void benchmark(int rows)
+    {
+        insertRows(rows);
+
+        // Warm up both paths (also computes the sort keys of the inserted rows)
+        controller.getTrackedMediaItemsInCategory(0, createdFakeCategory);
+        String where = MediaItem.COLUMN_CATEGORY+" = ? AND "+MediaItem.COLUMN_COMPLETION_DATE+" IS NULL";
+        String[] whereArgs = new String[]{createdFakeCategory.getId().toString()};
+        String orderBy = MediaItem.COLUMN_SECTION_RANK+" DESC, "+MediaItem.COLUMN_SECTION_ORDER+" ASC, "+MediaItem.COLUMN_ID+" ASC";
+        MediaItem.find(Movie.class, where, whereArgs, "", orderBy, "0, "+PAGE_LENGTH);
+
+        // Sugar path
+        long start = System.nanoTime();
+        List<Movie>[] sugarPages = new List[PAGES];
+        for(int page=0; page<PAGES; page++)
+        {
+            sugarPages[page] = MediaItem.find(Movie.class, where, whereArgs, "", orderBy, page*PAGE_LENGTH+", "+PAGE_LENGTH);
+        }
+        long sugarMs = (System.nanoTime()-start)/1000000;
+
+        // Compiled queries path
+        start = System.nanoTime();
+        List<MediaItem>[] compiledPages = new List[PAGES];
+        for(int page=0; page<PAGES; page++)
+        {
+            compiledPages[page] = controller.getTrackedMediaItemsInCategory(page, createdFakeCategory);
+        }
+        long compiledMs = (System.nanoTime()-start)/1000000;
+
+        // Same results
+        for(int page=0; page<PAGES; page++)
+        {
+            assertEquals("Different page size", sugarPages[page].size(), compiledPages[page].size());
+            for(int i=0; i<sugarPages[page].size(); i++)
+            {
+                assertEquals("Different media item", sugarPages[page].get(i).getId(), compiledPages[page].get(i).getId());
+                assertEquals("Different title", sugarPages[page].get(i).getTitle(), compiledPages[page].get(i).getTitle());
+            }
+        }
+
+        Log.i(TAG, rows+" rows, "+PAGES+" pages: Sugar find() "+sugarMs+" ms, compiled queries "+compiledMs+" ms");
+    }
+
+    /**
+     * Helper to quickly insert the benchmark rows in the fake category
+     * @param rows the number of rows
+     */
+    private void insertRows(int rows)
+    {
+        SQLiteDatabase db = SugarDatabaseAccessor.getDatabase();
+        String table = NamingHelper.toSQLName(Movie.class);
+        ImportanceLevel[] importanceLevels = ImportanceLevel.values();
+
+        db.beginTransaction();
+        try
+        {
+            SQLiteStatement insert = db.compileStatement("INSERT INTO "+table+" ("+
+                    MediaItem.COLUMN_NAME+", "+MediaItem.COLUMN_CATEGORY+", "+MediaItem.COLUMN_IMPORTANCE_LEVEL+", "+MediaItem.COLUMN_ORDER_IN_SECTION+", "+
+                    MediaItem.COLUMN_DOING_NOW+", "+MediaItem.COLUMN_OWNED+", "+MediaItem.COLUMN_TIMES_COMPLETED+", "+Movie.COLUMN_DIRECTOR+", "+Movie.COLUMN_DURATION+") "+
+                    "VALUES (?, ?, ?, ?, 0, 0, 0, ?, ?)");
+            for(int i=0; i<rows; i++)
+            {
+                insert.clearBindings();
+                insert.bindString(1, "Movie "+i);
+                insert.bindLong(2, createdFakeCategory.getId());
+                insert.bindLong(3, importanceLevels[i%importanceLevels.length].getDbValue());
+                insert.bindLong(4, i*1000);
+                insert.bindString(5, "Director "+i);
+                insert.bindLong(6, 90+i%60);
+                insert.executeInsert();
+            }
+            insert.close();
+            db.setTransactionSuccessful();
+        }
+        finally
+        {
+            db.endTransaction();
+        }
+    }
+}
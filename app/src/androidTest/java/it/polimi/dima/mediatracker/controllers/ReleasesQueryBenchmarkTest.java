@@ -0,0 +1,162 @@
+package it.polimi.dima.mediatracker.controllers;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.orm.SugarDatabaseAccessor;
+import com.orm.util.NamingHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import it.polimi.dima.mediatracker.R;
+import it.polimi.dima.mediatracker.controllers.database.ReleasesQuery;
+import it.polimi.dima.mediatracker.model.Category;
+import it.polimi.dima.mediatracker.model.MediaItem;
+import it.polimi.dima.mediatracker.model.MediaType;
+import it.polimi.dima.mediatracker.model.Movie;
+import it.polimi.dima.mediatracker.test_utils.InstrumentationTestUtils;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Compares the single UNION query of the new releases notifications with the previous per-category queries (results are
+ * printed in the log with the "ReleasesBenchmark" tag)
+ */
+public class ReleasesQueryBenchmarkTest
+{
+    private final static String TAG = "ReleasesBenchmark";
+
+    private final static int CATEGORIES = 50;
+    private final static int ROWS_PER_CATEGORY = 200;
+    private final static int RELEASED_TODAY_PER_CATEGORY = 3;
+    private final static int REPETITIONS = 10;
+
+    private CategoriesController categoriesController;
+    private List<Category> createdFakeCategories;
+
+    @Before
+    public void setUp()
+    {
+        categoriesController = CategoriesController.getInstance();
+        createdFakeCategories = new ArrayList<>();
+        for(int i=0; i<CATEGORIES; i++)
+        {
+            Category category = new Category("colorPrimary", InstrumentationTestUtils.getRandomName(), R.color.colorPrimary, MediaType.MOVIES);
+            categoriesController.saveCategory(category);
+            createdFakeCategories.add(category);
+        }
+    }
+
+    @After
+    public void tearDown()
+    {
+        for(Category category: createdFakeCategories)
+        {
+            categoriesController.deleteCategory(category);
+        }
+    }
+
+    @Test
+    public void benchmark50Categories()
+    {
+        // Today window
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        long todayStart = calendar.getTimeInMillis();
+        calendar.add(Calendar.DAY_OF_MONTH, 1);
+        long todayEnd = calendar.getTimeInMillis()-1;
+
+        insertRows(todayStart);
+
+        // Warm up both paths
+        Map<Long, List<ReleasesQuery.Release>> unionResult = ReleasesQuery.getInstance().getReleasesByCategory(todayStart, todayEnd);
+        createdFakeCategories.get(0).getMediaType().getController().getMediaItemsReleasedToday(createdFakeCategories.get(0));
+
+        // Per-category path (as the notifications did before)
+        long start = System.nanoTime();
+        int perCategoryCount = 0;
+        for(int r=0; r<REPETITIONS; r++)
+        {
+            perCategoryCount = 0;
+            Iterator<Category> categories = categoriesController.getAllCategories();
+            while(categories.hasNext())
+            {
+                Category category = categories.next();
+                List<MediaItem> released = category.getMediaType().getController().getMediaItemsReleasedToday(category);
+                if(released!=null) perCategoryCount += released.size();
+            }
+        }
+        long perCategoryMs = (System.nanoTime()-start)/1000000/REPETITIONS;
+
+        // Single query path
+        start = System.nanoTime();
+        for(int r=0; r<REPETITIONS; r++)
+        {
+            unionResult = ReleasesQuery.getInstance().getReleasesByCategory(todayStart, todayEnd);
+        }
+        long unionMs = (System.nanoTime()-start)/1000000/REPETITIONS;
+
+        // Same results
+        int unionCount = 0;
+        for(List<ReleasesQuery.Release> releases: unionResult.values())
+        {
+            unionCount += releases.size();
+        }
+        assertEquals("Different results", perCategoryCount, unionCount);
+        for(Category category: createdFakeCategories)
+        {
+            assertEquals("Wrong releases in category", RELEASED_TODAY_PER_CATEGORY, unionResult.get(category.getId()).size());
+        }
+
+        Log.i(TAG, CATEGORIES+" categories, "+CATEGORIES*ROWS_PER_CATEGORY+" rows: per-category queries "+perCategoryMs+" ms, single query "+unionMs+" ms");
+    }
+
+    /**
+     * Helper to quickly insert the benchmark rows in the fake categories (a few released today, the others in the past days)
+     * @param todayStart the start of today
+     */
+    private void insertRows(long todayStart)
+    {
+        SQLiteDatabase db = SugarDatabaseAccessor.getDatabase();
+        String table = NamingHelper.toSQLName(Movie.class);
+
+        db.beginTransaction();
+        try
+        {
+            SQLiteStatement insert = db.compileStatement("INSERT INTO "+table+" ("+
+                    MediaItem.COLUMN_NAME+", "+MediaItem.COLUMN_CATEGORY+", "+MediaItem.COLUMN_RELEASE_DATE+", "+MediaItem.COLUMN_IMPORTANCE_LEVEL+", "+
+                    MediaItem.COLUMN_DOING_NOW+", "+MediaItem.COLUMN_OWNED+", "+MediaItem.COLUMN_TIMES_COMPLETED+") "+
+                    "VALUES (?, ?, ?, 100, 0, 0, 0)");
+            for(Category category: createdFakeCategories)
+            {
+                for(int i=0; i<ROWS_PER_CATEGORY; i++)
+                {
+                    long releaseDate = i<RELEASED_TODAY_PER_CATEGORY ? todayStart+i*3600000L : todayStart-(i+1)*86400000L;
+                    insert.clearBindings();
+                    insert.bindString(1, "Movie "+i);
+                    insert.bindLong(2, category.getId());
+                    insert.bindLong(3, releaseDate);
+                    insert.executeInsert();
+                }
+            }
+            insert.close();
+            db.setTransactionSuccessful();
+        }
+        finally
+        {
+            db.endTransaction();
+        }
+    }
+}
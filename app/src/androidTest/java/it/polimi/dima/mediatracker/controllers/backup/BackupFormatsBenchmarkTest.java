@@ -0,0 +1,117 @@
+package it.polimi.dima.mediatracker.controllers.backup;
+
+import android.util.Log;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Compares size, write time and read time of the backup formats on 100k media items (results are printed in the log with
+ * the "BackupBenchmark" tag)
+ */
+public class BackupFormatsBenchmarkTest
+{
+    private final static String TAG = "BackupBenchmark";
+
+    private final static int CATEGORIES = 10;
+    private final static int MEDIA_ITEMS_PER_CATEGORY = 10000;
+
+    private final static List<String> CATEGORY_COLUMNS = Arrays.asList("NAME", "MEDIA_TYPE_NAME", "COLOR_RESOURCE_NAME");
+    private final static List<String> MEDIA_ITEM_COLUMNS = Arrays.asList("NAME", "GENRES", "DESCRIPTION", "RELEASE_DATE", "COMPLETION_DATE",
+            "IMPORTANCE_LEVEL", "OWNED", "TIMES_COMPLETED", "AUTHOR", "EXTERNAL_SERVICE_ID");
+
+    private final static String[] GENRES = new String[]{"Fantasy", "Science Fiction, Horror", "Drama", "Comedy, Romance", null};
+    private final static String[] AUTHORS = new String[]{"J. R. R. Tolkien", "Isaac Asimov", "Ursula K. Le Guin", "宮崎 駿"};
+
+    private final static String[] FORMATS = new String[]{"JSON", "binary", "binary (deflate)"};
+
+    @Test
+    public void benchmark100k() throws IOException
+    {
+        long[] sizes = new long[FORMATS.length];
+        for(int f=0; f<FORMATS.length; f++)
+        {
+            // Warm up
+            write(f);
+
+            long start = System.nanoTime();
+            byte[] bytes = write(f);
+            long writeMs = (System.nanoTime()-start)/1000000;
+
+            start = System.nanoTime();
+            int mediaItems = count(f==0 ? new JsonBackupReader(new ByteArrayInputStream(bytes)) : new BinaryBackupReader(new ByteArrayInputStream(bytes)));
+            long readMs = (System.nanoTime()-start)/1000000;
+
+            assertEquals("Wrong number of media items in the "+FORMATS[f]+" backup", CATEGORIES*MEDIA_ITEMS_PER_CATEGORY, mediaItems);
+            sizes[f] = bytes.length;
+            Log.i(TAG, FORMATS[f]+": "+bytes.length/1024+" KB, write "+writeMs+" ms, read "+readMs+" ms");
+        }
+
+        assertTrue("Binary backup not smaller than JSON", sizes[1]<sizes[0]);
+        assertTrue("Compressed binary backup not smaller than uncompressed", sizes[2]<sizes[1]);
+    }
+
+    /**
+     * Helper to write the fake backup
+     * @param format the index of the format in {@link #FORMATS}
+     * @return the written bytes
+     */
+    private static byte[] write(int format) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BackupWriter writer = format==0 ? new JsonBackupWriter(out) : new BinaryBackupWriter(out, format==2);
+        String[] mediaItemValues = new String[MEDIA_ITEM_COLUMNS.size()];
+        long releaseDate = 1262304000000L;
+        for(int c=0; c<CATEGORIES; c++)
+        {
+            writer.beginCategory(CATEGORY_COLUMNS, new String[]{"Category "+c, "BOOKS", "colorPrimary"});
+            writer.beginMediaItems(MEDIA_ITEM_COLUMNS);
+            for(int i=0; i<MEDIA_ITEMS_PER_CATEGORY; i++)
+            {
+                mediaItemValues[0] = "Book "+c+"-"+i;
+                mediaItemValues[1] = GENRES[i%GENRES.length];
+                mediaItemValues[2] = i%7==0 ? "A long description of the book number "+i+", with some accents (àèìòù) and more than sixty-four characters" : null;
+                mediaItemValues[3] = String.valueOf(releaseDate+i*86400000L);
+                mediaItemValues[4] = i%5==0 ? String.valueOf(releaseDate+i*3600000L) : null;
+                mediaItemValues[5] = i%3==0 ? "HIGH" : "MEDIUM";
+                mediaItemValues[6] = String.valueOf(i%2);
+                mediaItemValues[7] = String.valueOf(i%4);
+                mediaItemValues[8] = AUTHORS[i%AUTHORS.length];
+                mediaItemValues[9] = null;
+                writer.writeMediaItem(mediaItemValues);
+            }
+            writer.endCategory();
+        }
+        writer.finish();
+        writer.close();
+        return out.toByteArray();
+    }
+
+    /**
+     * Helper to count the media items of a backup
+     * @param reader the reader
+     * @return the number of media items
+     */
+    private static int count(BackupReader reader) throws IOException
+    {
+        int mediaItems = 0;
+        Map<String, String> category = new HashMap<>();
+        Map<String, String> item = new HashMap<>();
+        while(reader.nextCategory(category))
+        {
+            while(reader.nextMediaItem(item)) mediaItems++;
+        }
+        reader.close();
+        return mediaItems;
+    }
+}
@@ -0,0 +1,152 @@
+package it.polimi.dima.mediatracker.model;
+
+import android.os.Debug;
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+import it.polimi.dima.mediatracker.R;
+import it.polimi.dima.mediatracker.utils.GlobalConstants;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Counts the allocations of {@link MediaItem#getSection()} over a large list, compared with the previous implementation that
+ * built a new section each time (results are printed in the log with the "SectionBenchmark" tag)
+ */
+public class SectionAllocationBenchmarkTest
+{
+    private final static String TAG = "SectionBenchmark";
+
+    private final static int ITEMS = 100000;
+
+    private List<MediaItem> mediaItems;
+
+    @Before
+    public void setUp()
+    {
+        // Mix of all sections: completed in the last 10 years, upcoming, doing now and all importance levels
+        ImportanceLevel[] importanceLevels = ImportanceLevel.values();
+        Calendar calendar = Calendar.getInstance();
+        mediaItems = new ArrayList<>(ITEMS);
+        for(int i=0; i<ITEMS; i++)
+        {
+            MediaItem mediaItem = new Movie();
+            mediaItem.setTitle("Movie "+i);
+            mediaItem.setImportanceLevel(importanceLevels[i%importanceLevels.length]);
+            switch(i%4)
+            {
+                case 0:
+                    calendar.setTimeInMillis(System.currentTimeMillis());
+                    calendar.add(Calendar.DAY_OF_YEAR, -(i/4)%3650);
+                    mediaItem.setCompletionDate(calendar.getTime());
+                    break;
+
+                case 1:
+                    calendar.setTimeInMillis(System.currentTimeMillis());
+                    calendar.add(Calendar.DAY_OF_YEAR, 1+i%365);
+                    mediaItem.setReleaseDate(calendar.getTime());
+                    break;
+
+                case 2:
+                    mediaItem.setDoingNow(i%8==2);
+                    break;
+            }
+            mediaItems.add(mediaItem);
+        }
+    }
+
+    /**
+     * The sections are the canonical instances, equal to the ones built by the previous implementation
+     */
+    @Test
+    public void testSameSections()
+    {
+        for(MediaItem mediaItem: mediaItems)
+        {
+            Section section = mediaItem.getSection();
+            assertEquals("Wrong section", legacyGetSection(mediaItem), section);
+            assertSame("Section not canonical", section, mediaItem.getSection());
+        }
+    }
+
+    /**
+     * Counts the allocations of both implementations
+     */
+    @Test
+    @SuppressWarnings("deprecation")
+    public void benchmarkAllocations()
+    {
+        // Warm up (also caches the upcoming flag of each media item and the year sections)
+        for(MediaItem mediaItem: mediaItems)
+        {
+            mediaItem.getSection();
+            legacyGetSection(mediaItem);
+        }
+
+        // Previous implementation
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        long start = System.nanoTime();
+        for(int i=0; i<mediaItems.size(); i++)
+        {
+            legacyGetSection(mediaItems.get(i));
+        }
+        long legacyMs = (System.nanoTime()-start)/1000000;
+        Debug.stopAllocCounting();
+        int legacyAllocations = Debug.getThreadAllocCount();
+
+        // Registry
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        start = System.nanoTime();
+        for(int i=0; i<mediaItems.size(); i++)
+        {
+            mediaItems.get(i).getSection();
+        }
+        long registryMs = (System.nanoTime()-start)/1000000;
+        Debug.stopAllocCounting();
+        int registryAllocations = Debug.getThreadAllocCount();
+
+        Log.i(TAG, ITEMS+" items: new sections "+legacyAllocations+" allocations, "+legacyMs+" ms; " +
+                "registry "+registryAllocations+" allocations, "+registryMs+" ms");
+
+        // Only the year changes may allocate (the calendar fields), not each item
+        assertTrue("Too many allocations: "+registryAllocations, registryAllocations<ITEMS/10);
+    }
+
+    /**
+     * The previous {@link MediaItem#getSection()} implementation, that built a new section each time
+     * @param mediaItem the media item
+     * @return the media item section
+     */
+    private static Section legacyGetSection(MediaItem mediaItem)
+    {
+        if(mediaItem.isCompleted())
+        {
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTime(mediaItem.getCompletionDate());
+            String year = String.valueOf(calendar.get(Calendar.YEAR));
+            return new Section(year, year);
+        }
+        else if(mediaItem.isUpcoming())
+        {
+            return new Section(GlobalConstants.SECTION_UPCOMING, R.string.upcoming);
+        }
+        else if(mediaItem.isDoingNow())
+        {
+            return new Section(GlobalConstants.SECTION_DOING_NOW, mediaItem.getDoingNowName());
+        }
+        else
+        {
+            return new Section(mediaItem.getImportanceLevel().name(), mediaItem.getImportanceLevel().getNameResource());
+        }
+    }
+}
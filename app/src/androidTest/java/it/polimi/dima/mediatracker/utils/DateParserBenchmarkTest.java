@@ -0,0 +1,101 @@
+package it.polimi.dima.mediatracker.utils;
+
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Compares the date parser of the external services data with the previous implementation, that created a new
+ * SimpleDateFormat for each date (results are printed in the log with the "DateParserBenchmark" tag)
+ */
+public class DateParserBenchmarkTest
+{
+    private final static String TAG = "DateParserBenchmark";
+
+    private final static int DATES = 100000;
+    private final static int WARM_UP_DATES = 10000;
+
+    private String[] dateStrings;
+    private String[] formats;
+
+    @Before
+    public void setUp()
+    {
+        // Like the release dates of many search results, with some date-times
+        dateStrings = new String[DATES];
+        formats = new String[DATES];
+        for(int i=0; i<DATES; i++)
+        {
+            if(i%4==3)
+            {
+                dateStrings[i] = String.format(Locale.ENGLISH, "%04d-%02d-%02d %02d:%02d:%02d", 1980+i%40, 1+i%12, 1+i%28, i%24, i%60, i%60);
+                formats[i] = "yyyy-MM-dd HH:mm:ss";
+            }
+            else
+            {
+                dateStrings[i] = String.format(Locale.ENGLISH, "%04d-%02d-%02d", 1980+i%40, 1+i%12, 1+i%28);
+                formats[i] = "yyyy-MM-dd";
+            }
+        }
+    }
+
+    @Test
+    public void benchmark100k()
+    {
+        // Warm up
+        for(int i=0; i<WARM_UP_DATES; i++)
+        {
+            legacyParseDate(dateStrings[i], formats[i]);
+            DateParser.parseDate(dateStrings[i], formats[i]);
+        }
+
+        long start = System.nanoTime();
+        Date[] legacyDates = new Date[DATES];
+        for(int i=0; i<DATES; i++) legacyDates[i] = legacyParseDate(dateStrings[i], formats[i]);
+        long legacyMs = (System.nanoTime()-start)/1000000;
+
+        start = System.nanoTime();
+        Date[] parserDates = new Date[DATES];
+        for(int i=0; i<DATES; i++) parserDates[i] = DateParser.parseDate(dateStrings[i], formats[i]);
+        long parserMs = (System.nanoTime()-start)/1000000;
+
+        for(int i=0; i<DATES; i++)
+        {
+            assertEquals("Wrong date for "+dateStrings[i], legacyDates[i], parserDates[i]);
+        }
+
+        Log.i(TAG, DATES+" dates: new formatter each time "+legacyMs+" ms, date parser "+parserMs+" ms");
+    }
+
+    /**
+     * The previous implementation of {@link Utils#parseDateFromString(String, String)}, that created a formatter and a
+     * calendar for each date
+     * @param dateString the string containing the date
+     * @param format the format of the date in the string
+     * @return the date, null if not valid
+     */
+    private static Date legacyParseDate(String dateString, String format)
+    {
+        if(dateString==null || "".equals(dateString)) return null;
+
+        try
+        {
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTime((new SimpleDateFormat(format, Locale.ENGLISH)).parse(dateString));
+            return calendar.getTime();
+        }
+        catch(ParseException e)
+        {
+            return null;
+        }
+    }
+}
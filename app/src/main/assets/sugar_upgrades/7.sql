@@ -0,0 +1,4 @@
+create index if not exists IDX_BOOK_TRACKED_LIST on BOOK (category, completion_date, section_rank desc, section_order);
+create index if not exists IDX_MOVIE_TRACKED_LIST on MOVIE (category, completion_date, section_rank desc, section_order);
+create index if not exists IDX_TV_SHOW_TRACKED_LIST on TV_SHOW (category, completion_date, section_rank desc, section_order);
+create index if not exists IDX_VIDEOGAME_TRACKED_LIST on VIDEOGAME (category, completion_date, section_rank desc, section_order);
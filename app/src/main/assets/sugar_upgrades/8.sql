@@ -0,0 +1,11 @@
+update CATEGORY set change_version=0;
+update BOOK set change_version=0;
+update MOVIE set change_version=0;
+update TV_SHOW set change_version=0;
+update VIDEOGAME set change_version=0;
+create index if not exists IDX_CATEGORY_CHANGE_VERSION on CATEGORY (change_version);
+create index if not exists IDX_BOOK_CHANGE_VERSION on BOOK (change_version);
+create index if not exists IDX_MOVIE_CHANGE_VERSION on MOVIE (change_version);
+create index if not exists IDX_TV_SHOW_CHANGE_VERSION on TV_SHOW (change_version);
+create index if not exists IDX_VIDEOGAME_CHANGE_VERSION on VIDEOGAME (change_version);
+create index if not exists IDX_DELETED_ROW_CHANGE_VERSION on DELETED_ROW (change_version);
@@ -0,0 +1,4 @@
+create index if not exists IDX_BOOK_RELEASES on BOOK (release_date, category);
+create index if not exists IDX_MOVIE_RELEASES on MOVIE (release_date, category);
+create index if not exists IDX_TV_SHOW_RELEASES on TV_SHOW (release_date, category);
+create index if not exists IDX_VIDEOGAME_RELEASES on VIDEOGAME (release_date, category);
@@ -0,0 +1,27 @@
+package com.orm;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Gives access to the database connection opened by Sugar ORM, that the library only exposes to its own package.
+ * Used by the queries that bypass Sugar (see {@link it.polimi.dima.mediatracker.controllers.database.CompiledQueriesRegistry})
+ */
+public class SugarDatabaseAccessor
+{
+    /**
+     * Private constructor
+     */
+    private SugarDatabaseAccessor()
+    {
+
+    }
+
+    /**
+     * Getter
+     * @return the database used by Sugar ORM
+     */
+    public static SQLiteDatabase getDatabase()
+    {
+        return SugarContext.getSugarContext().getSugarDb().getDB();
+    }
+}
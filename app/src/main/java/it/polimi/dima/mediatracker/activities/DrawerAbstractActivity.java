@@ -8,11 +8,14 @@ import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.Toolbar;
+import android.view.View;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
 import it.polimi.dima.mediatracker.R;
 import it.polimi.dima.mediatracker.adapters.drawer.DrawerAdapter;
@@ -20,6 +23,8 @@ import it.polimi.dima.mediatracker.adapters.drawer.DrawerElement;
 import it.polimi.dima.mediatracker.adapters.drawer.DrawerSubElement;
 import it.polimi.dima.mediatracker.controllers.CategoriesController;
 import it.polimi.dima.mediatracker.controllers.ScreenController;
+import it.polimi.dima.mediatracker.controllers.database.CategoryRepository;
+import it.polimi.dima.mediatracker.controllers.database.DatabaseExecutor;
 import it.polimi.dima.mediatracker.model.Category;
 import it.polimi.dima.mediatracker.model.Subcategory;
 
@@ -72,6 +77,17 @@ public abstract class DrawerAbstractActivity extends AppCompatActivity implement
         ActionBarDrawerToggle toggle = new ActionBarDrawerToggle(this, drawerLayout, toolbar, R.string.navigation_drawer_open, R.string.navigation_drawer_close);
         drawerLayout.addDrawerListener(toggle);
         toggle.syncState();
+
+        // Show the category counts, refreshed each time the drawer is opened (they are cached, so only the first load queries the database)
+        drawerLayout.addDrawerListener(new DrawerLayout.SimpleDrawerListener()
+        {
+            @Override
+            public void onDrawerOpened(View drawerView)
+            {
+                loadDrawerCounts();
+            }
+        });
+        loadDrawerCounts();
     }
 
     /**
@@ -109,6 +125,44 @@ public abstract class DrawerAbstractActivity extends AppCompatActivity implement
     {
         buildDrawerElements();
         drawerAdapter.notifyDataSetChanged();
+        loadDrawerCounts();
+    }
+
+    /**
+     * Loads the category counts in background and shows them in the drawer
+     */
+    private void loadDrawerCounts()
+    {
+        DatabaseExecutor.getInstance().read(new Callable<Map<Long, CategoryRepository.CategoryCounts>>()
+        {
+            @Override
+            public Map<Long, CategoryRepository.CategoryCounts> call()
+            {
+                return CategoriesController.getInstance().getAllCategoryCounts();
+            }
+        }, new DatabaseExecutor.ResultCallback<Map<Long, CategoryRepository.CategoryCounts>>()
+        {
+            @Override
+            public void onResult(Map<Long, CategoryRepository.CategoryCounts> counts)
+            {
+                setDrawerCounts(counts);
+            }
+        });
+    }
+
+    /**
+     * Helper to show the category counts in the drawer (the number of tracked media items)
+     * @param counts the counts, by category ID
+     */
+    private void setDrawerCounts(Map<Long, CategoryRepository.CategoryCounts> counts)
+    {
+        if(counts==null) return;
+        for(int i=0; i<categories.size() && i+1<drawerElements.size(); i++)
+        {
+            CategoryRepository.CategoryCounts categoryCounts = counts.get(categories.get(i).getId());
+            drawerElements.get(i+1).setCount(categoryCounts==null ? null : String.valueOf(categoryCounts.getTracked()));
+        }
+        drawerAdapter.notifyDataSetChanged();
     }
 
     /**
@@ -45,6 +45,9 @@ public class HomeActivity extends DrawerAbstractActivity
         // If it's the first time the application is run, perform some actions
         if(settingsManager.isFirstRun()) performFirstRunOperations();
 
+        // Otherwise make sure that the metadata refresh alarm is set (it didn't exist at the first run of older versions)
+        else AlarmScheduler.getInstance(this).startMetadataRefreshAlarm();
+
         // Setup toolbar and drawer
         Toolbar toolbar = (Toolbar) findViewById(R.id.toolbar);
         setSupportActionBar(toolbar);
@@ -4,6 +4,7 @@ import android.Manifest;
 import android.app.AlertDialog;
 import android.app.TimePickerDialog;
 import android.content.DialogInterface;
+import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
 import android.preference.Preference;
@@ -22,11 +23,13 @@ import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
+import java.util.concurrent.Callable;
 
 import it.polimi.dima.mediatracker.R;
 import it.polimi.dima.mediatracker.alarms.AlarmScheduler;
 import it.polimi.dima.mediatracker.controllers.DatabaseManager;
 import it.polimi.dima.mediatracker.controllers.SettingsManager;
+import it.polimi.dima.mediatracker.controllers.backup.BackupFormat;
 import it.polimi.dima.mediatracker.utils.GlobalConstants;
 import it.polimi.dima.mediatracker.utils.Utils;
 
@@ -131,6 +134,8 @@ public class SettingsActivity extends AppCompatActivity
             setupNewReleasesNotificationsActivePreference();
             setupNotificationsTimePreference();
             setupExportDatabasePreference();
+            setupExportDatabaseBinaryPreference();
+            setupExportDatabaseChangesPreference();
             setupImportDatabasePreference();
         }
 
@@ -221,12 +226,132 @@ public class SettingsActivity extends AppCompatActivity
                 public boolean onPreferenceClick(final Preference preference)
                 {
                     // Call the database manager
-                    DatabaseManager.getInstance().exportDatabase(getActivity());
+                    exportAndShare(new Callable<Intent>()
+                    {
+                        @Override
+                        public Intent call() throws IOException
+                        {
+                            return DatabaseManager.getInstance().exportDatabase(getActivity());
+                        }
+                    });
+                    return true;
+                }
+            });
+        }
+
+        /**
+         * Manages special preference for database export in the compact binary format
+         */
+        private void setupExportDatabaseBinaryPreference()
+        {
+            // Get button
+            final Preference exportButton = findPreference(getString(R.string.key_export_db_binary_button));
+
+            // Add onClick on the button
+            exportButton.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener()
+            {
+                @Override
+                public boolean onPreferenceClick(final Preference preference)
+                {
+                    // Call the database manager
+                    exportAndShare(new Callable<Intent>()
+                    {
+                        @Override
+                        public Intent call() throws IOException
+                        {
+                            return DatabaseManager.getInstance().exportDatabase(getActivity(), BackupFormat.BINARY);
+                        }
+                    });
                     return true;
                 }
             });
         }
 
+        /**
+         * Manages special preference for the export of the database changes since the last export (compact binary format)
+         */
+        private void setupExportDatabaseChangesPreference()
+        {
+            // Get button
+            final Preference exportButton = findPreference(getString(R.string.key_export_db_changes_button));
+
+            // Add onClick on the button
+            exportButton.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener()
+            {
+                @Override
+                public boolean onPreferenceClick(final Preference preference)
+                {
+                    // Call the database manager
+                    exportAndShare(new Callable<Intent>()
+                    {
+                        @Override
+                        public Intent call() throws IOException
+                        {
+                            return DatabaseManager.getInstance().exportDatabaseChanges(getActivity(), BackupFormat.BINARY);
+                        }
+                    });
+                    return true;
+                }
+            });
+        }
+
+        /**
+         * Helper to run a database export and share the exported file, or tell the user that the export failed
+         * @param export the export, returns the send intent of the database manager
+         */
+        private void exportAndShare(Callable<Intent> export)
+        {
+            try
+            {
+                shareExportedFile(export.call());
+            }
+            catch(Exception e)
+            {
+                Toast.makeText(getActivity(), R.string.export_database_error, Toast.LENGTH_SHORT).show();
+                e.printStackTrace();
+            }
+        }
+
+        /**
+         * Helper to let the user save an exported backup file with the send intent
+         * @param shareIntent the send intent returned by the database manager
+         */
+        private void shareExportedFile(Intent shareIntent)
+        {
+            startActivityForResult(shareIntent, GlobalConstants.EXPORT_DATABASE_REQUEST_CODE);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onActivityResult(int requestCode, int resultCode, Intent data)
+        {
+            super.onActivityResult(requestCode, resultCode, data);
+            if(requestCode!=GlobalConstants.EXPORT_DATABASE_REQUEST_CODE) return;
+
+            // The send intent result does not tell if the file was saved: ask the user before moving the incremental export checkpoint
+            new AlertDialog.Builder(getActivity())
+                    .setMessage(R.string.export_database_confirm_saved)
+                    .setCancelable(false)
+                    .setPositiveButton(android.R.string.yes, new DialogInterface.OnClickListener()
+                    {
+                        @Override
+                        public void onClick(DialogInterface dialog, int id)
+                        {
+                            DatabaseManager.getInstance().confirmExport(getActivity());
+                        }
+                    })
+                    .setNegativeButton(android.R.string.no, new DialogInterface.OnClickListener()
+                    {
+                        @Override
+                        public void onClick(DialogInterface dialog, int id)
+                        {
+                            DatabaseManager.getInstance().discardExport(getActivity());
+                        }
+                    }).show();
+        }
+
         /**
          * Manages special preference for database import
          */
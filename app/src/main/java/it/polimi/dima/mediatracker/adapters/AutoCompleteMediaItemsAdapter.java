@@ -14,6 +14,7 @@ import android.widget.Toast;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import it.polimi.dima.mediatracker.R;
 import it.polimi.dima.mediatracker.external_services.services.MediaItemService;
@@ -29,6 +30,9 @@ public class AutoCompleteMediaItemsAdapter extends BaseAdapter implements Filter
     private List<MediaItemSearchResult> resultList = new ArrayList<>();
     private MediaItemService service;
 
+    private final AtomicInteger lastSearchSequence = new AtomicInteger();
+    private MediaItemService.RequestHandle runningSearch;
+
     private ProgressBar loadingIndicator;
 
     /**
@@ -135,12 +139,19 @@ public class AutoCompleteMediaItemsAdapter extends BaseAdapter implements Filter
                     // Get title given by the user
                     String mediaItemTitle = constraint.toString();
 
+                    // The previous search is superseded by this one
+                    final int sequence = lastSearchSequence.incrementAndGet();
+                    if(runningSearch!=null) runningSearch.cancel();
+
                     // Call service to search for media items
-                    service.searchMediaItems(mediaItemTitle, new MediaItemService.MediaItemSearchCallback()
+                    runningSearch = service.searchMediaItems(mediaItemTitle, new MediaItemService.MediaItemSearchCallback()
                     {
                         @Override
                         public void onLoad(List<MediaItemSearchResult> results)
                         {
+                            // Drop the results of an old search, if they arrive anyway
+                            if(sequence!=lastSearchSequence.get()) return;
+
                             // Notify changes
                             if(results!=null && results.size()>0)
                             {
@@ -159,6 +170,8 @@ public class AutoCompleteMediaItemsAdapter extends BaseAdapter implements Filter
                         @Override
                         public void onFailure()
                         {
+                            if(sequence!=lastSearchSequence.get()) return;
+
                             // Show error
                             Toast.makeText(context, R.string.form_error_external_service, Toast.LENGTH_SHORT).show();
                             notifyDataSetInvalidated();
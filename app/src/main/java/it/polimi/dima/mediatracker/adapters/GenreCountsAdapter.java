@@ -0,0 +1,59 @@
+package it.polimi.dima.mediatracker.adapters;
+
+import android.content.Context;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ArrayAdapter;
+import android.widget.TextView;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import it.polimi.dima.mediatracker.R;
+
+/**
+ * Adapter for the autocomplete genre input used in {@link it.polimi.dima.mediatracker.fragments.SuggestionsAbstractFragment}:
+ * each option shows the genre with its media items count, but only the genre name is inserted in the input
+ */
+public class GenreCountsAdapter extends ArrayAdapter<String>
+{
+    private Map<String, Integer> genreCounts = new HashMap<>();
+
+    /**
+     * Constructor
+     * @param context the context
+     */
+    public GenreCountsAdapter(Context context)
+    {
+        super(context, android.R.layout.simple_dropdown_item_1line);
+    }
+
+    /**
+     * Replaces the available genres
+     * @param genreCounts the genre names with their media items count, in display order
+     */
+    public void setGenreCounts(Map<String, Integer> genreCounts)
+    {
+        this.genreCounts = genreCounts;
+
+        setNotifyOnChange(false);
+        clear();
+        addAll(genreCounts.keySet());
+        notifyDataSetChanged();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent)
+    {
+        TextView view = (TextView) super.getView(position, convertView, parent);
+
+        String genre = getItem(position);
+        Integer count = genreCounts.get(genre);
+        view.setText(getContext().getString(R.string.suggestions_genre_option, genre, count==null ? 0 : count));
+
+        return view;
+    }
+}
@@ -78,6 +78,7 @@ public class DrawerAdapter extends RecyclerView.Adapter<DrawerAdapter.ViewHolder
         int icon = 0;
         String name = "";
         int color = 0;
+        String count = null;
         boolean selected = false;
         if(viewHolder.getItemViewType()==ELEMENT_TYPE)
         {
@@ -86,6 +87,7 @@ public class DrawerAdapter extends RecyclerView.Adapter<DrawerAdapter.ViewHolder
             icon = element.getIcon();
             name = element.getName();
             color = element.getColor();
+            count = element.getCount();
             selected = selectedSubElement == -1 && position == selectedElement;
         }
         else if(viewHolder.getItemViewType()==SUB_ELEMENT_TYPE)
@@ -102,6 +104,7 @@ public class DrawerAdapter extends RecyclerView.Adapter<DrawerAdapter.ViewHolder
         viewHolder.icon.setImageDrawable(ContextCompat.getDrawable(context, icon));
         viewHolder.icon.setColorFilter(ContextCompat.getColor(context, color));
         viewHolder.name.setText(name);
+        if(viewHolder.count!=null) viewHolder.count.setText(count==null ? "" : count);
         viewHolder.container.setSelected(selected);
     }
 
@@ -195,6 +198,7 @@ public class DrawerAdapter extends RecyclerView.Adapter<DrawerAdapter.ViewHolder
     public static class ViewHolder extends RecyclerView.ViewHolder
     {
         TextView name;
+        TextView count;
         ImageView icon;
         LinearLayout container;
 
@@ -204,6 +208,7 @@ public class DrawerAdapter extends RecyclerView.Adapter<DrawerAdapter.ViewHolder
 
             container = (LinearLayout) itemView.findViewById(R.id.drawer_element_container);
             name = (TextView) drawerElement.findViewById(R.id.drawer_element_name);
+            count = (TextView) drawerElement.findViewById(R.id.drawer_element_count);
             icon = (ImageView) drawerElement.findViewById(R.id.drawer_element_icon);
 
             // Redirect clicks to the adapter
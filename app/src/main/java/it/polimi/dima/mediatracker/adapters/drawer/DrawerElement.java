@@ -11,6 +11,7 @@ public class DrawerElement
     private int icon;
     private int color;
     private List<DrawerSubElement> subItems;
+    private String count;
 
     /**
      * Constructor
@@ -62,4 +63,22 @@ public class DrawerElement
     {
         return subItems;
     }
+
+    /**
+     * Getter
+     * @return the count shown next to the name (e.g. the tracked media items of a category), null if none
+     */
+    public String getCount()
+    {
+        return count;
+    }
+
+    /**
+     * Setter
+     * @param count the count shown next to the name, null if none
+     */
+    public void setCount(String count)
+    {
+        this.count = count;
+    }
 }
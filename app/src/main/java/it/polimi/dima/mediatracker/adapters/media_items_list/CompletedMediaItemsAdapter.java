@@ -82,6 +82,9 @@ public class CompletedMediaItemsAdapter extends MediaItemsAbstractAdapter
             // Hide drag handler
             holder.handleView.setVisibility(View.GONE);
 
+            // Thumbnail
+            setupThumbnail(context, holder.thumbnail, mediaItem);
+
             // Set title
             holder.title.setText(mediaItem.getTitle());
             holder.title.setTextColor(ContextCompat.getColor(context, R.color.completed_media_item_text_color));
@@ -0,0 +1,347 @@
+package it.polimi.dima.mediatracker.adapters.media_items_list;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Difference between two versions of a list, each element identified by a key. The elements kept in place are found
+ * with the Myers algorithm (linear space version), so the inserts and removes are the minimal ones; elements present
+ * in both versions but out of order become moves. The result is dispatched as a sequence of list updates (e.g. the
+ * RecyclerView notify methods).
+ */
+class ListDiff
+{
+    private long[] oldKeys;
+    private long[] newKeys;
+
+    private int[] oldToNew;
+    private int[] newToOld;
+    private boolean[] moved;
+    private boolean[] changed;
+
+    /**
+     * Private constructor, use {@link #compute(long[], long[], ContentComparator)}
+     * @param oldKeys the keys of the old list
+     * @param newKeys the keys of the new list
+     */
+    private ListDiff(long[] oldKeys, long[] newKeys)
+    {
+        this.oldKeys = oldKeys;
+        this.newKeys = newKeys;
+
+        oldToNew = new int[oldKeys.length];
+        newToOld = new int[newKeys.length];
+        for(int i=0; i<oldToNew.length; i++) oldToNew[i] = -1;
+        for(int i=0; i<newToOld.length; i++) newToOld[i] = -1;
+        moved = new boolean[newKeys.length];
+        changed = new boolean[newKeys.length];
+    }
+
+    /**
+     * Computes the difference between two lists (can be slow for long lists with many changes, better to run it in
+     * background)
+     * @param oldKeys the keys of the old list elements (should be unique)
+     * @param newKeys the keys of the new list elements (should be unique)
+     * @param comparator tells whether an element present in both lists needs to be updated
+     * @return the difference
+     */
+    static ListDiff compute(long[] oldKeys, long[] newKeys, ContentComparator comparator)
+    {
+        ListDiff diff = new ListDiff(oldKeys, newKeys);
+
+        // Elements kept in place (the search diagonals go from -(size+max length) to +(size+max length))
+        int size = 2*(oldKeys.length+newKeys.length)+5;
+        diff.findMatches(0, oldKeys.length, 0, newKeys.length, new int[2*size], new int[2*size]);
+
+        // Elements moved: same key, not kept in place
+        HashMap<Long, Integer> unmatchedNew = new HashMap<>();
+        for(int i=0; i<newKeys.length; i++)
+        {
+            if(diff.newToOld[i]<0 && !unmatchedNew.containsKey(newKeys[i])) unmatchedNew.put(newKeys[i], i);
+        }
+        if(!unmatchedNew.isEmpty())
+        {
+            for(int i=0; i<oldKeys.length; i++)
+            {
+                if(diff.oldToNew[i]>=0) continue;
+                Integer newPosition = unmatchedNew.remove(oldKeys[i]);
+                if(newPosition!=null)
+                {
+                    diff.match(i, newPosition);
+                    diff.moved[newPosition] = true;
+                }
+            }
+        }
+
+        // Elements to update
+        for(int i=0; i<newKeys.length; i++)
+        {
+            diff.changed[i] = diff.newToOld[i]>=0 && !comparator.areContentsTheSame(diff.newToOld[i], i);
+        }
+
+        return diff;
+    }
+
+    /**
+     * Dispatches the difference as a sequence of updates that transforms the old list into the new one. Removes come
+     * first (from the last), then inserts and moves in the new list order, then updates (new positions)
+     * @param callback the update callback
+     */
+    void dispatchUpdates(UpdateCallback callback)
+    {
+        // Removes, from the end so that the positions are still the old ones
+        List<Long> current = new ArrayList<>(oldKeys.length);
+        for(long key: oldKeys) current.add(key);
+        int rangeEnd = -1;
+        for(int i=oldKeys.length-1; i>=0; i--)
+        {
+            if(oldToNew[i]<0)
+            {
+                if(rangeEnd<0) rangeEnd = i+1;
+                current.remove(i);
+            }
+            else if(rangeEnd>=0)
+            {
+                callback.onRemoved(i+1, rangeEnd-i-1);
+                rangeEnd = -1;
+            }
+        }
+        if(rangeEnd>0) callback.onRemoved(0, rangeEnd);
+
+        // Inserts and moves, in new list order: each element is placed right after the previous one (the elements kept
+        // in place are already in order, the moved ones not placed yet may still be in between)
+        int cursor = -1;
+        int insertStart = -1;
+        for(int i=0; i<newKeys.length; i++)
+        {
+            // Inserted
+            if(newToOld[i]<0)
+            {
+                if(insertStart<0) insertStart = cursor+1;
+                current.add(++cursor, newKeys[i]);
+                continue;
+            }
+            if(insertStart>=0)
+            {
+                callback.onInserted(insertStart, cursor+1-insertStart);
+                insertStart = -1;
+            }
+
+            // Kept in place: somewhere after the previous one
+            if(!moved[i])
+            {
+                cursor++;
+                while(current.get(cursor)!=newKeys[i]) cursor++;
+                continue;
+            }
+
+            // Moved: right after the previous one
+            int from = current.indexOf(newKeys[i]);
+            int to = from>cursor ? cursor+1 : cursor;
+            if(from!=to)
+            {
+                current.add(to, current.remove(from));
+                callback.onMoved(from, to);
+            }
+            cursor = to;
+        }
+        if(insertStart>=0) callback.onInserted(insertStart, cursor+1-insertStart);
+
+        // Updates
+        int changeStart = -1;
+        for(int i=0; i<=newKeys.length; i++)
+        {
+            if(i<newKeys.length && changed[i])
+            {
+                if(changeStart<0) changeStart = i;
+            }
+            else if(changeStart>=0)
+            {
+                callback.onChanged(changeStart, i-changeStart);
+                changeStart = -1;
+            }
+        }
+    }
+
+    /**
+     * Getter
+     * @return true if the two lists are the same (no update to dispatch)
+     */
+    boolean isEmpty()
+    {
+        if(oldKeys.length!=newKeys.length) return false;
+        for(int i=0; i<newKeys.length; i++)
+        {
+            if(newToOld[i]!=i || changed[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Helper to link an old element to a new one
+     * @param oldPosition the old list position
+     * @param newPosition the new list position
+     */
+    private void match(int oldPosition, int newPosition)
+    {
+        oldToNew[oldPosition] = newPosition;
+        newToOld[newPosition] = oldPosition;
+    }
+
+    /**
+     * Finds the longest common subsequence of the given ranges (divide and conquer on the middle snake)
+     * @param oldStart the old range start
+     * @param oldEnd the old range end (exclusive)
+     * @param newStart the new range start
+     * @param newEnd the new range end (exclusive)
+     * @param forward buffer for the forward search
+     * @param backward buffer for the backward search
+     */
+    private void findMatches(int oldStart, int oldEnd, int newStart, int newEnd, int[] forward, int[] backward)
+    {
+        // Common prefix and suffix
+        while(oldStart<oldEnd && newStart<newEnd && oldKeys[oldStart]==newKeys[newStart])
+        {
+            match(oldStart++, newStart++);
+        }
+        while(oldStart<oldEnd && newStart<newEnd && oldKeys[oldEnd-1]==newKeys[newEnd-1])
+        {
+            match(--oldEnd, --newEnd);
+        }
+        if(oldStart==oldEnd || newStart==newEnd) return;
+
+        // Split on the middle snake
+        int[] snake = middleSnake(oldStart, oldEnd, newStart, newEnd, forward, backward);
+        findMatches(oldStart, snake[0], newStart, snake[1], forward, backward);
+        for(int x=snake[0], y=snake[1]; x<snake[2]; x++, y++)
+        {
+            match(x, y);
+        }
+        findMatches(snake[2], oldEnd, snake[3], newEnd, forward, backward);
+    }
+
+    /**
+     * Finds the snake (sequence of matching elements) in the middle of the shortest edit script of the given ranges,
+     * searching at the same time from the start and from the end
+     * @param oldStart the old range start
+     * @param oldEnd the old range end (exclusive)
+     * @param newStart the new range start
+     * @param newEnd the new range end (exclusive)
+     * @param forward buffer for the forward search (furthest x reached on each diagonal)
+     * @param backward buffer for the backward search (smallest x reached on each diagonal)
+     * @return the snake start and end coordinates (old start, new start, old end, new end)
+     */
+    private int[] middleSnake(int oldStart, int oldEnd, int newStart, int newEnd, int[] forward, int[] backward)
+    {
+        int n = oldEnd-oldStart;
+        int m = newEnd-newStart;
+        int delta = n-m;
+        boolean odd = (delta & 1)!=0;
+        int offset = forward.length/2;
+
+        forward[offset+1] = 0;
+        backward[offset+delta+1] = n+1;
+
+        int maxD = (n+m+1)/2;
+        for(int d=0; d<=maxD; d++)
+        {
+            // Forward step
+            for(int k=-d; k<=d; k+=2)
+            {
+                int x;
+                if(k==-d || (k!=d && forward[offset+k-1]<forward[offset+k+1])) x = forward[offset+k+1];
+                else x = forward[offset+k-1]+1;
+                int y = x-k;
+
+                int startX = x;
+                int startY = y;
+                while(x<n && y<m && oldKeys[oldStart+x]==newKeys[newStart+y])
+                {
+                    x++;
+                    y++;
+                }
+                forward[offset+k] = x;
+
+                if(odd && k>=delta-(d-1) && k<=delta+(d-1) && backward[offset+k]<=x)
+                {
+                    return new int[]{oldStart+startX, newStart+startY, oldStart+x, newStart+y};
+                }
+            }
+
+            // Backward step
+            for(int c=-d; c<=d; c+=2)
+            {
+                int k = c+delta;
+                int x;
+                if(c==-d || (c!=d && backward[offset+k+1]-1<backward[offset+k-1])) x = backward[offset+k+1]-1;
+                else x = backward[offset+k-1];
+                int y = x-k;
+
+                int endX = x;
+                int endY = y;
+                while(x>0 && y>0 && oldKeys[oldStart+x-1]==newKeys[newStart+y-1])
+                {
+                    x--;
+                    y--;
+                }
+                backward[offset+k] = x;
+
+                if(!odd && k>=-d && k<=d && forward[offset+k]>=x)
+                {
+                    return new int[]{oldStart+x, newStart+y, oldStart+endX, newStart+endY};
+                }
+            }
+        }
+
+        throw new IllegalStateException("No middle snake found");
+    }
+
+    /**
+     * Tells whether an element present in both lists needs to be updated
+     */
+    interface ContentComparator
+    {
+        /**
+         * Called for each element present in both lists
+         * @param oldPosition the element position in the old list
+         * @param newPosition the element position in the new list
+         * @return true if the element is unchanged
+         */
+        boolean areContentsTheSame(int oldPosition, int newPosition);
+    }
+
+    /**
+     * Receives the list updates
+     */
+    interface UpdateCallback
+    {
+        /**
+         * Elements inserted
+         * @param position the first inserted position
+         * @param count the number of inserted elements
+         */
+        void onInserted(int position, int count);
+
+        /**
+         * Elements removed
+         * @param position the first removed position
+         * @param count the number of removed elements
+         */
+        void onRemoved(int position, int count);
+
+        /**
+         * Element moved
+         * @param fromPosition the current position
+         * @param toPosition the new position
+         */
+        void onMoved(int fromPosition, int toPosition);
+
+        /**
+         * Elements changed
+         * @param position the first changed position
+         * @param count the number of changed elements
+         */
+        void onChanged(int position, int count);
+    }
+}
@@ -14,9 +14,11 @@ import android.widget.LinearLayout;
 import android.widget.PopupMenu;
 import android.widget.TextView;
 
+import java.net.URL;
 import java.util.List;
 
 import it.polimi.dima.mediatracker.R;
+import it.polimi.dima.mediatracker.images.ImageLoader;
 import it.polimi.dima.mediatracker.model.MediaItem;
 
 /**
@@ -58,6 +60,24 @@ public abstract class MediaItemsAbstractAdapter extends SectionedRecyclerViewAda
         enableMovement(!searchMode);
     }
 
+    /**
+     * Loads the thumbnails of the media items in the given positions, so that they are already in memory when the user
+     * scrolls to them
+     * @param context the context
+     * @param fromListPosition the first list position (sections included)
+     * @param toListPosition the last list position (sections included)
+     */
+    public void prefetchThumbnails(Context context, int fromListPosition, int toListPosition)
+    {
+        ImageLoader imageLoader = ImageLoader.getInstance(context);
+        int size = context.getResources().getDimensionPixelSize(R.dimen.list_thumbnail_size);
+        for(int i=fromListPosition; i<=toListPosition; i++)
+        {
+            MediaItem mediaItem = getAtListPosition(i);
+            if(mediaItem!=null && mediaItem.getImageUrl()!=null) imageLoader.prefetchImage(mediaItem.getImageUrl(), size, size);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -71,6 +91,55 @@ public abstract class MediaItemsAbstractAdapter extends SectionedRecyclerViewAda
             super(mediaItems);
         }
 
+        /**
+         * {@inheritDoc}
+         *
+         * The media items change version is updated each time they are saved. The upcoming state is included because it
+         * changes without a save when the media item is released
+         */
+        @Override
+        protected long getItemContentVersion(MediaItem mediaItem)
+        {
+            return mediaItem.getChangeVersion()*2+(mediaItem.isUpcoming() ? 1 : 0);
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * Cancels the thumbnail load of the recycled row
+         */
+        @Override
+        public void onViewRecycled(RecyclerView.ViewHolder holder)
+        {
+            super.onViewRecycled(holder);
+            if(holder instanceof ElementAbstractViewHolder)
+            {
+                ImageView thumbnail = ((ElementAbstractViewHolder) holder).thumbnail;
+                ImageLoader.getInstance(thumbnail.getContext()).cancelImage(thumbnail);
+            }
+        }
+
+        /**
+         * Helper to display the media item thumbnail (the default image is displayed while loading or if the media item
+         * has no image)
+         * @param context the context
+         * @param thumbnail the thumbnail view
+         * @param mediaItem the media item
+         */
+        void setupThumbnail(Context context, ImageView thumbnail, MediaItem mediaItem)
+        {
+            ImageLoader imageLoader = ImageLoader.getInstance(context);
+            imageLoader.cancelImage(thumbnail);
+            thumbnail.setImageResource(R.drawable.form_image_default);
+
+            URL imageUrl = mediaItem.getImageUrl();
+            if(imageUrl!=null)
+            {
+                int size = context.getResources().getDimensionPixelSize(R.dimen.list_thumbnail_size);
+                imageLoader.loadImage(imageUrl, thumbnail, size, size);
+            }
+        }
+
         /**
          * Helper to add the onClick behavior to the options menu for each item in the list
          * @param context the context
@@ -199,6 +268,7 @@ public abstract class MediaItemsAbstractAdapter extends SectionedRecyclerViewAda
         TextView title;
         TextView subtitle;
         ImageView handleView;
+        ImageView thumbnail;
 
         public ElementAbstractViewHolder(View itemView)
         {
@@ -210,6 +280,7 @@ public abstract class MediaItemsAbstractAdapter extends SectionedRecyclerViewAda
             title = (TextView) itemView.findViewById(R.id.item_title);
             subtitle = (TextView) itemView.findViewById(R.id.item_subtitle);
             handleView = (ImageView) itemView.findViewById(R.id.handle);
+            thumbnail = (ImageView) itemView.findViewById(R.id.item_thumbnail);
         }
     }
 
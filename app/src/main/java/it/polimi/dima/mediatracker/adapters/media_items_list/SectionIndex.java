@@ -0,0 +1,137 @@
+package it.polimi.dima.mediatracker.adapters.media_items_list;
+
+import java.util.Arrays;
+
+/**
+ * Sorted positions of the section elements in the elements list of {@link SectionedRecyclerViewAdapter}. Allows to
+ * translate between elements list positions and items list indices with binary searches, and it's updated in
+ * O(number of sections) when an element is added, removed or moved
+ */
+class SectionIndex
+{
+    private final static int INITIAL_CAPACITY = 16;
+
+    private int[] sectionPositions = new int[INITIAL_CAPACITY];
+    private int sectionCount = 0;
+
+    /**
+     * Adds a section at the end of the list
+     * @param listPosition the section position, must be after all the other sections
+     */
+    void addSection(int listPosition)
+    {
+        if(sectionCount==sectionPositions.length) sectionPositions = Arrays.copyOf(sectionPositions, sectionCount*2);
+        sectionPositions[sectionCount++] = listPosition;
+    }
+
+    /**
+     * Getter
+     * @return the number of sections
+     */
+    int getSectionCount()
+    {
+        return sectionCount;
+    }
+
+    /**
+     * Getter
+     * @param section the section number (0 is the first section)
+     * @return the elements list position of the section
+     */
+    int getSectionPosition(int section)
+    {
+        return sectionPositions[section];
+    }
+
+    /**
+     * Counts the sections before the given position
+     * @param listPosition the elements list position
+     * @return the number of sections with a lower position
+     */
+    int getSectionsBefore(int listPosition)
+    {
+        int low = 0;
+        int high = sectionCount;
+        while(low<high)
+        {
+            int middle = (low+high) >>> 1;
+            if(sectionPositions[middle]<listPosition) low = middle+1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * Translation between an ELEMENTS LIST position to the corresponding ITEMS LIST index
+     * @param listPosition elements list position
+     * @return the item index, or the index of the first item after it if the position is a section
+     */
+    int getItemIndex(int listPosition)
+    {
+        return listPosition-getSectionsBefore(listPosition);
+    }
+
+    /**
+     * Translation between an ITEMS LIST index to the corresponding ELEMENTS LIST position
+     * @param itemIndex the item index
+     * @return the elements list position
+     */
+    int getListPosition(int itemIndex)
+    {
+        // Find the number of sections before the item: the section k starts at item index (position - k)
+        int low = 0;
+        int high = sectionCount;
+        while(low<high)
+        {
+            int middle = (low+high) >>> 1;
+            if(sectionPositions[middle]-middle<=itemIndex) low = middle+1;
+            else high = middle;
+        }
+        return itemIndex+low;
+    }
+
+    /**
+     * Updates the index after the removal of an element
+     * @param listPosition the removed position
+     * @param wasSection true if the removed element was a section
+     */
+    void onElementRemoved(int listPosition, boolean wasSection)
+    {
+        int first = getSectionsBefore(listPosition);
+        if(wasSection)
+        {
+            System.arraycopy(sectionPositions, first+1, sectionPositions, first, sectionCount-first-1);
+            sectionCount--;
+        }
+        for(int i=first; i<sectionCount; i++)
+        {
+            sectionPositions[i]--;
+        }
+    }
+
+    /**
+     * Updates the index after an item (not a section) is moved: the elements between the two positions shift by one
+     * @param fromListPosition the starting position
+     * @param toListPosition the final position
+     */
+    void onItemMoved(int fromListPosition, int toListPosition)
+    {
+        // Downwards: the sections in (from, to] go up by one
+        if(fromListPosition<toListPosition)
+        {
+            for(int i=getSectionsBefore(fromListPosition+1); i<sectionCount && sectionPositions[i]<=toListPosition; i++)
+            {
+                sectionPositions[i]--;
+            }
+        }
+
+        // Upwards: the sections in [to, from) go down by one
+        else
+        {
+            for(int i=getSectionsBefore(toListPosition); i<sectionCount && sectionPositions[i]<fromListPosition; i++)
+            {
+                sectionPositions[i]++;
+            }
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package it.polimi.dima.mediatracker.adapters.media_items_list;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.helper.ItemTouchHelper;
 import android.view.LayoutInflater;
@@ -10,7 +12,14 @@ import android.widget.TextView;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import it.polimi.dima.mediatracker.R;
 import it.polimi.dima.mediatracker.model.Section;
@@ -24,12 +33,21 @@ import it.polimi.dima.mediatracker.model.Sectioned;
  *
  * The wrapper is interfaced using the positions of the items list passed as parameter but
  * internally it uses a list that contains both items and sections
+ *
+ * The translations between the two lists use a {@link SectionIndex} of the section positions.
+ * When the whole list is reloaded, the underlying adapter is notified only of the differences between the
+ * old and the new elements (see {@link ListDiff}), computed in background for long lists
  */
 public abstract class SectionedRecyclerViewAdapter<T extends Sectioned>
 {
     public static final int VIEW_TYPE_SECTION = 1;
     public static final int VIEW_TYPE_ITEM = 2;
 
+    private final static int BACKGROUND_DIFF_MIN_ELEMENTS = 300;
+
+    private static ExecutorService diffExecutor;
+    private static Handler mainThreadHandler;
+
     private boolean enableSectioning = true;
     private boolean enableMovement = true;
 
@@ -39,6 +57,9 @@ public abstract class SectionedRecyclerViewAdapter<T extends Sectioned>
 
     private View emptyView;
 
+    private PendingUpdate pendingUpdate = null;
+    private int modificationCount = 0;
+
     /**
      * Helper that needs to be called by the subclass to set the actual (private) adapter
      * @param adapter the {@link SectionedInternalAdapter} implementation of the subclass
@@ -81,18 +102,21 @@ public abstract class SectionedRecyclerViewAdapter<T extends Sectioned>
      */
     public void removeItemAndNotify(int position)
     {
+        modificationCount++;
+
+        // Get elements list position
+        int listPosition = adapter.getListPositionFromItemIndex(position);
+
         // Remove item from items list
         T removed = adapter.itemsList.remove(position);
 
         // Also remove it from allItems list
-        int index = adapter.allItems.indexOf(removed);
+        int index = getIndexInAllItems(removed, position);
         if(index>=0) adapter.allItems.remove(index);
 
-        // Get elements list position
-        int listPosition = adapter.getListPositionFromItemIndex(position);
-
         // Remove item from the elements list and notify to the adapter
         adapter.elements.remove(listPosition);
+        adapter.sectionIndex.onElementRemoved(listPosition, false);
         adapter.notifyItemRemoved(listPosition);
 
         // Also remove its section if this was the only item in it
@@ -103,12 +127,8 @@ public abstract class SectionedRecyclerViewAdapter<T extends Sectioned>
             {
                 if(listPosition == adapter.elements.size() || adapter.elements.get(listPosition).isSection)
                 {
-                    for (int i=listPosition; i<adapter.elements.size(); i++)
-                    {
-                        if(!adapter.elements.get(i).isSection) adapter.elements.get(i).numberOfSectionsBefore--;
-                    }
-
                     adapter.elements.remove(listPosition - 1);
+                    adapter.sectionIndex.onElementRemoved(listPosition - 1, true);
                     adapter.notifyItemRemoved(listPosition - 1);
                     alsoRemovedSection = true;
                 }
@@ -138,6 +158,8 @@ public abstract class SectionedRecyclerViewAdapter<T extends Sectioned>
      */
     public void moveItemAndNotify(int fromPosition, int toPosition, Section fromSection, Section toSection)
     {
+        modificationCount++;
+
         // If we actually have a position change (method might have been triggered only by a section change)
         if(fromPosition!=toPosition)
         {
@@ -145,8 +167,8 @@ public abstract class SectionedRecyclerViewAdapter<T extends Sectioned>
             swapHelper(adapter.itemsList, fromPosition, toPosition);
 
             // Do the same in allItems array
-            int index1 = adapter.allItems.indexOf(adapter.itemsList.get(fromPosition));
-            int index2 = adapter.allItems.indexOf(adapter.itemsList.get(toPosition));
+            int index1 = getIndexInAllItems(adapter.itemsList.get(fromPosition), fromPosition);
+            int index2 = getIndexInAllItems(adapter.itemsList.get(toPosition), toPosition);
             if(index1>=0 && index2>=0) swapHelper(adapter.allItems, index1, index2);
         }
 
@@ -154,24 +176,27 @@ public abstract class SectionedRecyclerViewAdapter<T extends Sectioned>
         int fromListPosition = adapter.getListPositionFromItemIndex(fromPosition);
         int toListPosition = lastMoveTargetListPosition;
 
-        // Swap all items between fromListPosition and toListPosition in the elements list
+        // Swap all items between fromListPosition and toListPosition in the elements list (the sections in between
+        // shift by one, so the section of the moved item is updated too)
         swapHelper(adapter.elements, fromListPosition, toListPosition);
-
-        // If the section changed, we need to update the "numberOfSectionsBefore" parameter of the moved item
-        if(!fromSection.equals(toSection))
-        {
-            int sectionsBeforeToSet = 0;
-            for(int i=toListPosition-1; i>=0; i--)
-            {
-                if(adapter.elements.get(i).isSection) sectionsBeforeToSet++;
-            }
-            adapter.elements.get(toListPosition).numberOfSectionsBefore = sectionsBeforeToSet;
-        }
+        adapter.sectionIndex.onItemMoved(fromListPosition, toListPosition);
 
         // Notify movement in the adapter
         adapter.notifyItemMoved(fromListPosition, toListPosition);
     }
 
+    /**
+     * Helper to find an item in the allItems list, that usually has the same order of the items list
+     * @param item the item
+     * @param position the item position in the items list
+     * @return the index in the allItems list, -1 if not found
+     */
+    private int getIndexInAllItems(T item, int position)
+    {
+        if(position<adapter.allItems.size() && adapter.allItems.get(position)==item) return position;
+        return adapter.allItems.indexOf(item);
+    }
+
     /**
      * Helper that swaps all items in the given list between the two positions
      * @param list the list where the operation is performed
@@ -200,42 +225,195 @@ public abstract class SectionedRecyclerViewAdapter<T extends Sectioned>
     }
 
     /**
-     * Reloads the whole list of items and notifies the underlying adapter of the data set change
+     * Reloads the whole list of items and notifies the underlying adapter of the differences with the current one.
+     * For long lists the differences are computed in background: until then the current items are still displayed
+     * (and returned by the getters)
      * @param items the new items
      */
     public void setItemsAndNotifyDataSetChanged(List<T> items)
     {
-        // Save items
-        adapter.allItems = new ArrayList<>(items);
-        adapter.itemsList = new ArrayList<>(items);
+        // Build the new elements list, without touching the displayed one
+        List<T> newItems = new ArrayList<>(items);
+        SectionIndex newSectionIndex = new SectionIndex();
+        List<ListElement> newElements = adapter.buildListElements(newItems, newSectionIndex);
+        final ElementsSnapshot oldSnapshot = new ElementsSnapshot(adapter.elements);
+        final ElementsSnapshot newSnapshot = new ElementsSnapshot(newElements);
+
+        // Short lists: compute the differences right away
+        if(adapter.elements.size()+newElements.size()<BACKGROUND_DIFF_MIN_ELEMENTS)
+        {
+            pendingUpdate = null;
+            applyUpdate(newItems, newElements, newSectionIndex, ListDiff.compute(oldSnapshot.ids, newSnapshot.ids, oldSnapshot.getComparator(newSnapshot)));
+            return;
+        }
+
+        // Long lists: compute them in background, this update replaces any other one still pending
+        final PendingUpdate update = new PendingUpdate(newItems, newElements, newSectionIndex, modificationCount);
+        pendingUpdate = update;
+        getDiffExecutor().execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                final ListDiff diff = ListDiff.compute(oldSnapshot.ids, newSnapshot.ids, oldSnapshot.getComparator(newSnapshot));
+                mainThreadHandler.post(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        // Discard it if superseded, reload the whole list if the displayed one was modified in the meantime
+                        if(pendingUpdate!=update) return;
+                        pendingUpdate = null;
+                        applyUpdate(update.items, update.elements, update.sectionIndex, update.modificationCount==modificationCount ? diff : null);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Moves the given items, whose section changed, to their new position and notifies the underlying adapter of the differences
+     * (i.e. only the moved items and the added/removed sections) instead of reloading the whole list. If sections are disabled
+     * the items are only bound again
+     * @param changedItems the items of the list whose section changed
+     * @param order the order of the items list, that already takes into account the new sections
+     */
+    public void resectionItemsAndNotify(List<T> changedItems, Comparator<? super T> order)
+    {
+        if(changedItems.isEmpty()) return;
 
-        // Build the elements list
-        adapter.setupListElements();
+        // Without sections the order doesn't change
+        if(!enableSectioning)
+        {
+            for(T item: changedItems)
+            {
+                int position = adapter.itemsList.indexOf(item);
+                if(position>=0) notifyItemChanged(position);
+            }
+            return;
+        }
 
-        // Reload list
-        adapter.notifyDataSetChanged();
+        // Remove the changed items and insert them again in their new position (the other items are still in order)
+        Set<T> changedItemsSet = Collections.newSetFromMap(new IdentityHashMap<T, Boolean>());
+        changedItemsSet.addAll(changedItems);
+        List<T> currentItems = getLatestItems();
+        List<T> newItems = new ArrayList<>(currentItems.size());
+        for(T item: currentItems)
+        {
+            if(!changedItemsSet.contains(item)) newItems.add(item);
+        }
+        for(T item: changedItems)
+        {
+            int index = Collections.binarySearch(newItems, item, order);
+            newItems.add(index<0 ? -index-1 : index, item);
+        }
+
+        // The differences are the same of a reload
+        setItemsAndNotifyDataSetChanged(newItems);
+    }
+
+    /**
+     * Helper for subclasses
+     * @return the items that will be displayed once the pending reload (if any) is applied
+     */
+    List<T> getLatestItems()
+    {
+        return pendingUpdate!=null ? pendingUpdate.items : adapter.itemsList;
+    }
+
+    /**
+     * Helper to set the new items and elements lists and notify the underlying adapter
+     * @param newItems the new items
+     * @param newElements the new elements
+     * @param newSectionIndex the section index of the new elements
+     * @param diff the differences between the current elements and the new ones, null to reload the whole list
+     */
+    private void applyUpdate(List<T> newItems, List<ListElement> newElements, SectionIndex newSectionIndex, ListDiff diff)
+    {
+        // Save items and elements
+        adapter.allItems = new ArrayList<>(newItems);
+        adapter.itemsList = newItems;
+        adapter.elements = newElements;
+        adapter.sectionIndex = newSectionIndex;
+
+        // Notify the changes
+        if(diff==null)
+        {
+            adapter.notifyDataSetChanged();
+        }
+        else
+        {
+            diff.dispatchUpdates(new ListDiff.UpdateCallback()
+            {
+                @Override
+                public void onInserted(int position, int count)
+                {
+                    adapter.notifyItemRangeInserted(position, count);
+                }
+
+                @Override
+                public void onRemoved(int position, int count)
+                {
+                    adapter.notifyItemRangeRemoved(position, count);
+                }
+
+                @Override
+                public void onMoved(int fromPosition, int toPosition)
+                {
+                    adapter.notifyItemMoved(fromPosition, toPosition);
+                }
+
+                @Override
+                public void onChanged(int position, int count)
+                {
+                    adapter.notifyItemRangeChanged(position, count);
+                }
+            });
+        }
 
         // Show/hide the empty view
         showEmptyViewIfAdapterIsEmpty();
     }
 
+    /**
+     * Helper to get the (lazily created) executor for the background differences computation
+     * @return the executor
+     */
+    private static synchronized ExecutorService getDiffExecutor()
+    {
+        if(diffExecutor==null)
+        {
+            diffExecutor = Executors.newSingleThreadExecutor();
+            mainThreadHandler = new Handler(Looper.getMainLooper());
+        }
+        return diffExecutor;
+    }
+
     /**
      * Adds the given items at the end of the current list and notifies the underlying adapter of the data set change
      * @param newItems the items to be added
      */
     public void addItemsAtTheEndAndNotify(List<T> newItems)
     {
-        int oldSize = adapter.itemsList.size();
+        // If a reload is still pending, the items are added at the end of the new list
+        if(pendingUpdate!=null)
+        {
+            PendingUpdate update = pendingUpdate;
+            pendingUpdate = null;
+            applyUpdate(update.items, update.elements, update.sectionIndex, null);
+        }
+
+        int oldElementsSize = adapter.elements.size();
 
         // Add items
         adapter.allItems.addAll(newItems);
         adapter.itemsList.addAll(newItems);
 
         // Update the elements list
-        adapter.addToListElements(newItems);
+        adapter.addToListElements(adapter.elements, adapter.sectionIndex, newItems);
 
-        // Notify
-        notifyItemRangeInserted(oldSize, newItems.size());
+        // Notify (new sections included)
+        adapter.notifyItemRangeInserted(oldElementsSize, adapter.elements.size()-oldElementsSize);
 
         // Show/hide the empty view
         showEmptyViewIfAdapterIsEmpty();
@@ -259,20 +437,12 @@ public abstract class SectionedRecyclerViewAdapter<T extends Sectioned>
      */
     public void notifyItemRangeChanged(int positionStart, int itemCount)
     {
-        // Get elements list position
+        // Get elements list positions (the count includes the sections in the interval to update)
         int listPositionStart = adapter.getListPositionFromItemIndex(positionStart);
-
-        // Increase the item count adding the number of sections in the interval to update
-        for(int i=listPositionStart+1, totalItems = itemCount, counter = 1; i<adapter.elements.size(); i++)
-        {
-            if(adapter.elements.get(i).isSection) itemCount++;
-            else counter++;
-
-            if(totalItems==counter) break;
-        }
+        int elementsCount = getElementsCount(positionStart, itemCount);
 
         // Notify changes to the adapter
-        adapter.notifyItemRangeChanged(listPositionStart, itemCount);
+        adapter.notifyItemRangeChanged(listPositionStart, elementsCount);
     }
 
     /**
@@ -282,20 +452,25 @@ public abstract class SectionedRecyclerViewAdapter<T extends Sectioned>
      */
     public void notifyItemRangeInserted(int positionStart, int itemCount)
     {
-        // Get elements list position
+        // Get elements list positions (the count includes the sections in the interval to insert)
         int listPositionStart = adapter.getListPositionFromItemIndex(positionStart);
-
-        // Increase the item count adding the number of sections in the interval to insert
-        for(int i=listPositionStart+1, totalItems = itemCount, counter = 1; i<adapter.elements.size(); i++)
-        {
-            if(adapter.elements.get(i).isSection) itemCount++;
-            else counter++;
-
-            if(totalItems==counter) break;
-        }
+        int elementsCount = getElementsCount(positionStart, itemCount);
 
         // Notify insertions to the adapter
-        adapter.notifyItemRangeInserted(listPositionStart, itemCount);
+        adapter.notifyItemRangeInserted(listPositionStart, elementsCount);
+    }
+
+    /**
+     * Helper to count the elements (items and sections) from an item to another one
+     * @param positionStart the first item position
+     * @param itemCount the number of items
+     * @return the number of elements from the first to the last item
+     */
+    private int getElementsCount(int positionStart, int itemCount)
+    {
+        int lastPosition = Math.min(positionStart+itemCount, adapter.itemsList.size())-1;
+        if(lastPosition<=positionStart) return itemCount;
+        return adapter.getListPositionFromItemIndex(lastPosition)-adapter.getListPositionFromItemIndex(positionStart)+1;
     }
 
     /**
@@ -308,6 +483,17 @@ public abstract class SectionedRecyclerViewAdapter<T extends Sectioned>
         return adapter.itemsList.get(position);
     }
 
+    /**
+     * Getter
+     * @param listPosition the position in the RecyclerView (sections included)
+     * @return the item displayed at the given position, null if it's a section or the position is not valid
+     */
+    public T getAtListPosition(int listPosition)
+    {
+        if(listPosition<0 || listPosition>=adapter.elements.size() || adapter.elements.get(listPosition).isSection) return null;
+        return adapter.itemsList.get(adapter.getItemIndexFromListPosition(listPosition));
+    }
+
     /**
      * @see RecyclerView.Adapter#getItemCount()
      */
@@ -358,11 +544,12 @@ public abstract class SectionedRecyclerViewAdapter<T extends Sectioned>
         private Context context;
 
         private List<ListElement> elements;
+        private SectionIndex sectionIndex;
         private List<T> itemsList;
         private List<T> allItems;
 
-        private Section currentLastSection = null;
-        private int currentSectionCount = 0;
+        private Map<String, Long> sectionIds = new HashMap<>();
+        private long nextGeneratedId = RecyclerView.NO_ID-1;
 
         /**
          * Constructor. Builds the list of ListElement objects from the given items list
@@ -373,6 +560,7 @@ public abstract class SectionedRecyclerViewAdapter<T extends Sectioned>
             this.itemsList = new ArrayList<>(itemsList);
             this.allItems = new ArrayList<>(itemsList);
 
+            setHasStableIds(true);
             setupListElements();
         }
 
@@ -390,19 +578,40 @@ public abstract class SectionedRecyclerViewAdapter<T extends Sectioned>
          */
         public void setupListElements()
         {
-            // Setting is like adding starting from an empty list
-            elements = new ArrayList<>();
-            currentLastSection = null;
-            currentSectionCount = 0;
-            addToListElements(getItemsList());
+            sectionIndex = new SectionIndex();
+            elements = buildListElements(getItemsList(), sectionIndex);
         }
 
         /**
-         * Adds items to the list of ListElement objects (sections and items) from the given items list
+         * Builds a new list of ListElement objects (sections and items) from the given items list
+         * @param items the items
+         * @param newSectionIndex the (empty) section index to fill with the sections of the new list
+         * @return the elements list
+         */
+        List<ListElement> buildListElements(List<T> items, SectionIndex newSectionIndex)
+        {
+            // Building is like adding starting from an empty list
+            List<ListElement> newElements = new ArrayList<>();
+            addToListElements(newElements, newSectionIndex, items);
+            return newElements;
+        }
+
+        /**
+         * Adds items to the given list of ListElement objects (sections and items) from the given items list
+         * @param elementsList the elements list
+         * @param elementsSectionIndex the section index of the elements list, updated with the added sections
          * @param newItems the items to add
          */
-        public void addToListElements(List<T> newItems)
+        public void addToListElements(List<ListElement> elementsList, SectionIndex elementsSectionIndex, List<T> newItems)
         {
+            // Continue from the last section of the list
+            Section currentLastSection = null;
+            int sectionCount = elementsSectionIndex.getSectionCount();
+            if(enableSectioning && sectionCount>0)
+            {
+                currentLastSection = elementsList.get(elementsSectionIndex.getSectionPosition(sectionCount-1)).section;
+            }
+
             // Loop all items
             Section previousItemSection = currentLastSection;
             for(int i = 0; i < newItems.size(); i++)
@@ -417,14 +626,66 @@ public abstract class SectionedRecyclerViewAdapter<T extends Sectioned>
                     if(previousItemSection==null || !currentLastSection.equals(previousItemSection))
                     {
                         previousItemSection = currentLastSection;
-                        elements.add(new ListElement(currentLastSection));
-                        currentSectionCount++;
+                        elementsSectionIndex.addSection(elementsList.size());
+                        elementsList.add(new ListElement(currentLastSection, getSectionElementId(currentLastSection)));
                     }
                 }
 
                 // In any case add the item to the list
-                elements.add(new ListElement<>(newItems.get(i), currentSectionCount));
+                T item = newItems.get(i);
+                elementsList.add(new ListElement<>(item, getItemElementId(item), getItemContentVersion(item)));
+            }
+        }
+
+        /**
+         * Helper to get the stable ID of a section element: negative values, so that they never clash with the items IDs
+         * @param section the section
+         * @return the element ID, the same for all the sections with the same section ID
+         */
+        private long getSectionElementId(Section section)
+        {
+            if(section.getSectionId()==null) return nextGeneratedId--;
+
+            Long id = sectionIds.get(section.getSectionId());
+            if(id==null)
+            {
+                id = nextGeneratedId--;
+                sectionIds.put(section.getSectionId(), id);
             }
+            return id;
+        }
+
+        /**
+         * Helper to get the stable ID of an item element
+         * @param item the item
+         * @return the element ID, i.e. the item ID or a new (negative) value if the item has none
+         */
+        private long getItemElementId(T item)
+        {
+            Long id = item.getId();
+            return id!=null && id>=0 ? id : nextGeneratedId--;
+        }
+
+        /**
+         * Returns the version of the item contents, used after a reload of the whole list to bind again only the
+         * changed items. By default all items are bound again
+         * @param item the item
+         * @return a value that changes each time the item contents change, a negative value if unknown
+         */
+        protected long getItemContentVersion(T item)
+        {
+            return -1;
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * Items have their ID, sections a (negative) ID linked to their section ID
+         */
+        @Override
+        public long getItemId(int position)
+        {
+            return elements.get(position).id;
         }
 
         /**
@@ -530,24 +791,8 @@ public abstract class SectionedRecyclerViewAdapter<T extends Sectioned>
          */
         private int getItemIndexFromListPosition(int listPosition)
         {
-            // If the element in the given position is a section...
-            if(adapter.elements.get(listPosition).isSection)
-            {
-                // Get first item upwards and return its index + 1
-                for(int i=listPosition; i>=0; i--)
-                {
-                    if(!adapter.elements.get(i).isSection) return getItemIndexFromListPosition(i) + 1;
-                }
-
-                // If no item was found, it means that the index is 0
-                return 0;
-            }
-
-            // Otherwise simply return the corresponding item
-            else
-            {
-                return listPosition - elements.get(listPosition).numberOfSectionsBefore;
-            }
+            // Items before the position (if it's a section, this is the index of the first item after it)
+            return sectionIndex.getItemIndex(listPosition);
         }
 
         /**
@@ -557,14 +802,20 @@ public abstract class SectionedRecyclerViewAdapter<T extends Sectioned>
          */
         private int getListPositionFromItemIndex(int itemIndex)
         {
-            for(int i=itemIndex; i<elements.size(); i++)
-            {
-                if(!elements.get(i).isSection && i - elements.get(i).numberOfSectionsBefore==itemIndex)
-                {
-                    return i;
-                }
-            }
-            return -1;
+            if(itemIndex<0 || itemIndex>=itemsList.size()) return -1;
+            return sectionIndex.getListPosition(itemIndex);
+        }
+
+        /**
+         * Helper to get the section an ELEMENTS LIST position belongs to
+         * @param listPosition elements list position
+         * @return the last section at or before the given position, null if none
+         */
+        private Section getLastSectionUpTo(int listPosition)
+        {
+            int sections = sectionIndex.getSectionsBefore(listPosition+1);
+            if(sections==0) return null;
+            return elements.get(sectionIndex.getSectionPosition(sections-1)).section;
         }
     }
 
@@ -576,33 +827,39 @@ public abstract class SectionedRecyclerViewAdapter<T extends Sectioned>
         boolean isSection;
 
         U item;
-        int numberOfSectionsBefore;
 
         Section section;
 
+        long id;
+        long contentVersion;
+
         /**
          * Constructor for items
          * @param item the linked item
-         * @param numberOfSectionsBefore the number of sections created before this item
+         * @param id the stable ID of the element
+         * @param contentVersion the version of the item contents when the element was created
          */
-        public ListElement(U item, int numberOfSectionsBefore)
+        public ListElement(U item, long id, long contentVersion)
         {
             this.isSection = false;
             this.item = item;
-            this.numberOfSectionsBefore = numberOfSectionsBefore;
             this.section = null;
+            this.id = id;
+            this.contentVersion = contentVersion;
         }
 
         /**
          * Constructor for sections
          * @param section the linked section
+         * @param id the stable ID of the element
          */
-        public ListElement(Section section)
+        public ListElement(Section section, long id)
         {
             this.isSection = true;
             this.item = null;
-            this.numberOfSectionsBefore = 0;
             this.section = section;
+            this.id = id;
+            this.contentVersion = 0;
         }
 
         /**
@@ -619,6 +876,81 @@ public abstract class SectionedRecyclerViewAdapter<T extends Sectioned>
         }
     }
 
+    /**
+     * Copy of the data of an elements list needed to compute the differences with another one, so that the computation
+     * can run in background while the list is modified
+     */
+    private static class ElementsSnapshot
+    {
+        long[] ids;
+        long[] contentVersions;
+        int[] itemIndices;
+
+        /**
+         * Constructor
+         * @param elements the elements list
+         */
+        ElementsSnapshot(List<ListElement> elements)
+        {
+            ids = new long[elements.size()];
+            contentVersions = new long[elements.size()];
+            itemIndices = new int[elements.size()];
+            int itemIndex = 0;
+            for(int i=0; i<elements.size(); i++)
+            {
+                ListElement element = elements.get(i);
+                ids[i] = element.id;
+                contentVersions[i] = element.contentVersion;
+                itemIndices[i] = element.isSection ? -1 : itemIndex++;
+            }
+        }
+
+        /**
+         * Builds the comparator between the elements of this (old) list and the given new one: an item needs to be bound
+         * again if its contents changed or if its index changed (the index is saved by the item views listeners)
+         * @param newSnapshot the new list
+         * @return the comparator
+         */
+        ListDiff.ContentComparator getComparator(final ElementsSnapshot newSnapshot)
+        {
+            return new ListDiff.ContentComparator()
+            {
+                @Override
+                public boolean areContentsTheSame(int oldPosition, int newPosition)
+                {
+                    return itemIndices[oldPosition]==newSnapshot.itemIndices[newPosition] &&
+                            contentVersions[oldPosition]>=0 && contentVersions[oldPosition]==newSnapshot.contentVersions[newPosition];
+                }
+            };
+        }
+    }
+
+    /**
+     * A reload of the whole list waiting for the background computation of the differences
+     */
+    private class PendingUpdate
+    {
+        List<T> items;
+        List<ListElement> elements;
+        SectionIndex sectionIndex;
+        int modificationCount;
+
+        /**
+         * Constructor
+         * @param items the new items
+         * @param elements the new elements
+         * @param sectionIndex the section index of the new elements
+         * @param modificationCount the modifications counter of the displayed list when the update was requested
+         */
+        PendingUpdate(List<T> items, List<ListElement> elements, SectionIndex sectionIndex, int modificationCount)
+        {
+            this.items = items;
+            this.elements = elements;
+            this.sectionIndex = sectionIndex;
+            this.modificationCount = modificationCount;
+        }
+    }
+
 
 
     /**
@@ -696,39 +1028,17 @@ public abstract class SectionedRecyclerViewAdapter<T extends Sectioned>
             }
 
             // Get "from" section
-            Section fromSection = null;
-            for(int i=fromListPosition-1; i>=0; i--)
-            {
-                if(adapter.elements.get(i).isSection)
-                {
-                    fromSection = adapter.elements.get(i).section;
-                    break;
-                }
-            }
+            Section fromSection = adapter.getLastSectionUpTo(fromListPosition-1);
 
             // Get "to" section (if we are going downwards we must also consider the element itself, otherwise we do not)
             Section toSection = null;
             if(fromListPosition<toListPosition)
             {
-                for(int i=toListPosition; i>=0; i--)
-                {
-                    if(adapter.elements.get(i).isSection)
-                    {
-                        toSection = adapter.elements.get(i).section;
-                        break;
-                    }
-                }
+                toSection = adapter.getLastSectionUpTo(toListPosition);
             }
             else if(fromListPosition>toListPosition)
             {
-                for(int i=toListPosition-1; i>=0; i--)
-                {
-                    if(adapter.elements.get(i).isSection)
-                    {
-                        toSection = adapter.elements.get(i).section;
-                        break;
-                    }
-                }
+                toSection = adapter.getLastSectionUpTo(toListPosition-1);
             }
 
             // Do nothing if we lack data or if both indices and sections are the same
@@ -1,6 +1,8 @@
 package it.polimi.dima.mediatracker.adapters.media_items_list;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.content.ContextCompat;
 import android.support.v7.widget.RecyclerView;
 import android.text.format.DateFormat;
@@ -9,12 +11,15 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Comparator;
 import java.util.List;
 
 import it.polimi.dima.mediatracker.R;
 import it.polimi.dima.mediatracker.inputs.DatePickerInput;
 import it.polimi.dima.mediatracker.model.MediaItem;
+import it.polimi.dima.mediatracker.utils.Clock;
 import it.polimi.dima.mediatracker.utils.Utils;
 
 /**
@@ -22,20 +27,113 @@ import it.polimi.dima.mediatracker.utils.Utils;
  */
 public class TrackedMediaItemsAdapter extends MediaItemsAbstractAdapter
 {
+    private final static long MAX_UPCOMING_CHECK_DELAY_MS = 60*60*1000;
+
     private Context context;
 
+    private Comparator<MediaItem> trackedOrder;
+    private Handler handler = new Handler(Looper.getMainLooper());
+    private boolean upcomingChecksActive = false;
+    private Runnable upcomingCheck = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            resectionReleasedMediaItems();
+        }
+    };
+
     /**
      * Constructor
      * @param mediaItemList the media items in the list
      * @param optionNameDone the resource ID of the string for "I've done this" option
      * @param optionNameDoing the resource ID of the string for "I'm doing this" option
+     * @param trackedOrder the order of the media items in the list, used to move the released media items
      */
-    public TrackedMediaItemsAdapter(List<MediaItem> mediaItemList, int optionNameDone, int optionNameDoing)
+    public TrackedMediaItemsAdapter(List<MediaItem> mediaItemList, int optionNameDone, int optionNameDoing, Comparator<MediaItem> trackedOrder)
     {
+        this.trackedOrder = trackedOrder;
         TrackedInternalAdapter adapter = new TrackedInternalAdapter(mediaItemList, optionNameDone, optionNameDoing);
         super.setAdapterFromSubclass(adapter);
     }
 
+    /**
+     * Starts moving the upcoming media items out of the upcoming section when they are released (e.g. when the list is displayed)
+     */
+    public void startUpcomingChecks()
+    {
+        upcomingChecksActive = true;
+        scheduleUpcomingCheck();
+    }
+
+    /**
+     * Stops the checks started by {@link TrackedMediaItemsAdapter#startUpcomingChecks()}
+     */
+    public void stopUpcomingChecks()
+    {
+        upcomingChecksActive = false;
+        handler.removeCallbacks(upcomingCheck);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setItemsAndNotifyDataSetChanged(List<MediaItem> items)
+    {
+        super.setItemsAndNotifyDataSetChanged(items);
+        scheduleUpcomingCheck();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void addItemsAtTheEndAndNotify(List<MediaItem> newItems)
+    {
+        super.addItemsAtTheEndAndNotify(newItems);
+        scheduleUpcomingCheck();
+    }
+
+    /**
+     * Helper to schedule the next check at the first release time among the upcoming media items in the list (or later, if
+     * there are none or it's too far away, since the handler time does not advance while the device sleeps)
+     */
+    private void scheduleUpcomingCheck()
+    {
+        handler.removeCallbacks(upcomingCheck);
+        if(!upcomingChecksActive) return;
+
+        long nextFlipTime = Long.MAX_VALUE;
+        for(MediaItem mediaItem: getLatestItems())
+        {
+            nextFlipTime = Math.min(nextFlipTime, mediaItem.getUpcomingFlipTime());
+        }
+        if(nextFlipTime==Long.MAX_VALUE) return;
+
+        long delay = Math.max(0, nextFlipTime-Clock.getInstance().now());
+        handler.postDelayed(upcomingCheck, Math.min(delay, MAX_UPCOMING_CHECK_DELAY_MS));
+    }
+
+    /**
+     * Helper to move the media items released since the list was loaded to their new section. Only their rows and the
+     * affected sections are updated, the list is not loaded again
+     */
+    private void resectionReleasedMediaItems()
+    {
+        // All media items released by now, with the same time
+        long now = Clock.getInstance().now();
+        List<MediaItem> releasedMediaItems = new ArrayList<>();
+        for(MediaItem mediaItem: getLatestItems())
+        {
+            if(mediaItem.getUpcomingFlipTime()<=now && mediaItem.updateUpcoming(now)) releasedMediaItems.add(mediaItem);
+        }
+
+        // Move them (this also schedules the next check)
+        if(releasedMediaItems.isEmpty()) scheduleUpcomingCheck();
+        else resectionItemsAndNotify(releasedMediaItems, trackedOrder);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -104,6 +202,9 @@ public class TrackedMediaItemsAdapter extends MediaItemsAbstractAdapter
             // "Drag handler" icon
             setupDragHandler(holder, !mediaItem.isUpcoming());
 
+            // Thumbnail
+            setupThumbnail(context, holder.thumbnail, mediaItem);
+
             // Set title
             holder.title.setText(mediaItem.getTitle());
             holder.title.setTextColor(ContextCompat.getColor(context, titleColor));
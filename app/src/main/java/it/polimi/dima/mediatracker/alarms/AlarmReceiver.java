@@ -4,6 +4,7 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.os.PowerManager;
+import android.support.v4.content.WakefulBroadcastReceiver;
 
 import it.polimi.dima.mediatracker.controllers.NotificationsManager;
 
@@ -41,6 +42,13 @@ public class AlarmReceiver extends BroadcastReceiver
                     // Send notifications if needed
                     NotificationsManager.getInstance(context).sendNewReleasesNotifications(context);
                 }
+
+                // If it's the metadata refresh alarm...
+                else if(intent.getAction().equals(AlarmScheduler.METADATA_REFRESH_ALARM_ACTION))
+                {
+                    // Start the refresh in its service (it needs the network, the wakelock is kept until it starts)
+                    WakefulBroadcastReceiver.startWakefulService(context, new Intent(context, MetadataRefreshService.class));
+                }
             }
         }
         finally
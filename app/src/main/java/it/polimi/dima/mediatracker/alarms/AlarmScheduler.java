@@ -18,6 +18,9 @@ public class AlarmScheduler
 {
     final static String NEW_RELEASES_NOTIFICATIONS_ALARM_ACTION = "NEW_RELEASES_NOTIFICATIONS_ALARM_ACTION";
     private final static String NEW_RELEASES_NOTIFICATIONS_ALARM_NAME = "NEW_RELEASES_NOTIFICATIONS_ALARM_NAME";
+    final static String METADATA_REFRESH_ALARM_ACTION = "METADATA_REFRESH_ALARM_ACTION";
+    private final static String METADATA_REFRESH_ALARM_NAME = "METADATA_REFRESH_ALARM_NAME";
+    private final static int METADATA_REFRESH_HOUR = 4;
 
     private static AlarmScheduler instance = null;
     private Context appContext;
@@ -80,6 +83,25 @@ public class AlarmScheduler
         alarmManager.setRepeating(AlarmManager.RTC_WAKEUP, date.getTime(), intervalMilliseconds, pendingIntent);
     }
 
+    /**
+     * Helper to setup an inexact repeating alarm (the system may batch it with the other alarms to save battery)
+     * @param date the date for the alarm to schedule
+     * @param intervalMilliseconds the interval in milliseconds between two calls of the alarm
+     * @param action the action name (the one used by AlarmReceiver to understand the alarm type)
+     * @param uniqueName the alarm unique name
+     */
+    private void scheduleInexactRepeatingAlarm(Date date, long intervalMilliseconds, String action, String uniqueName)
+    {
+        // Get alarm manager
+        AlarmManager alarmManager = (AlarmManager) appContext.getSystemService(Context.ALARM_SERVICE);
+
+        // Build intent for the AlarmReceiver
+        PendingIntent pendingIntent = buildPendingIntentForAlarms(action, uniqueName);
+
+        // Schedule the alarm around the given date
+        alarmManager.setInexactRepeating(AlarmManager.RTC_WAKEUP, date.getTime(), intervalMilliseconds, pendingIntent);
+    }
+
     /**
      * Helper to remove an alarm
      * @param action the action name (the one used by AlarmReceiver to understand the alarm type)
@@ -155,6 +177,29 @@ public class AlarmScheduler
         startNewReleasesAlarm();
     }
 
+    /**
+     * Starts the daily alarm for the metadata refresh of the upcoming media items, at night (before the new releases
+     * notifications of the morning)
+     */
+    public void startMetadataRefreshAlarm()
+    {
+        // Set calendar date to today at the refresh time
+        Calendar calendar = Calendar.getInstance();
+        Date now = calendar.getTime();
+        calendar.set(Calendar.HOUR_OF_DAY, METADATA_REFRESH_HOUR);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+
+        // If it's already past, set it to tomorrow
+        if(now.after(calendar.getTime()))
+        {
+            calendar.add(Calendar.DATE, 1);
+        }
+
+        // Setup repeating alarm (exact time not needed)
+        scheduleInexactRepeatingAlarm(calendar.getTime(), GlobalConstants.MILLISECONDS_IN_DAY, METADATA_REFRESH_ALARM_ACTION, METADATA_REFRESH_ALARM_NAME);
+    }
+
     /**
      * Starts all the application's alarms, to be called e.g. at first run or after boot
      */
@@ -164,5 +209,6 @@ public class AlarmScheduler
         {
             startNewReleasesAlarm();
         }
+        startMetadataRefreshAlarm();
     }
 }
@@ -0,0 +1,50 @@
+package it.polimi.dima.mediatracker.alarms;
+
+import android.app.IntentService;
+import android.content.Context;
+import android.content.Intent;
+import android.os.PowerManager;
+import android.support.v4.content.WakefulBroadcastReceiver;
+
+import it.polimi.dima.mediatracker.controllers.MetadataRefresher;
+
+/**
+ * Runs the periodic metadata refresh started by the AlarmReceiver. The refresh waits for the network, so it can't run
+ * in the receiver itself: the service is started by {@link WakefulBroadcastReceiver}, whose wakelock only lasts one minute,
+ * so the service keeps its own until the refresh is completed
+ */
+public class MetadataRefreshService extends IntentService
+{
+    private final static long WAKELOCK_TIMEOUT_MS = 30*60*1000;
+
+    /**
+     * Constructor
+     */
+    public MetadataRefreshService()
+    {
+        super(MetadataRefreshService.class.getSimpleName());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void onHandleIntent(Intent intent)
+    {
+        // Get wakelock (need to keep device awake)
+        PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        PowerManager.WakeLock wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, this.getClass().getSimpleName());
+        try
+        {
+            wakeLock.acquire(WAKELOCK_TIMEOUT_MS);
+            WakefulBroadcastReceiver.completeWakefulIntent(intent);
+
+            MetadataRefresher.getInstance(this).refreshAll();
+        }
+        finally
+        {
+            // Release wakelock
+            if(wakeLock.isHeld()) wakeLock.release();
+        }
+    }
+}
@@ -5,6 +5,8 @@ import android.content.Context;
 import java.util.HashMap;
 
 import it.polimi.dima.mediatracker.R;
+import it.polimi.dima.mediatracker.controllers.database.BookCursorMapper;
+import it.polimi.dima.mediatracker.controllers.database.MediaItemCursorMapper;
 import it.polimi.dima.mediatracker.external_services.services.BookService;
 import it.polimi.dima.mediatracker.external_services.services.MediaItemService;
 import it.polimi.dima.mediatracker.fragments.FormBookFragment;
@@ -95,6 +97,15 @@ public class BooksController extends MediaItemsAbstractController
         return Book.COLUMN_PAGES_NUMBER;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected MediaItemCursorMapper<Book> getCursorMapper()
+    {
+        return new BookCursorMapper();
+    }
+
     /**
      * {@inheritDoc}
      */
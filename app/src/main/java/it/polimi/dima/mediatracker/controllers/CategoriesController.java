@@ -6,8 +6,11 @@ import android.content.res.TypedArray;
 
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 
 import it.polimi.dima.mediatracker.R;
+import it.polimi.dima.mediatracker.controllers.database.CategoryRepository;
+import it.polimi.dima.mediatracker.controllers.database.ChangeTracker;
 import it.polimi.dima.mediatracker.model.Category;
 import it.polimi.dima.mediatracker.model.MediaType;
 import it.polimi.dima.mediatracker.utils.Utils;
@@ -35,21 +38,40 @@ public class CategoriesController
 
     /**
      * Getter
-     * @return an iterator containing all categories
+     * @return an iterator containing all categories (cached, copies can be modified)
      */
     public Iterator<Category> getAllCategories()
     {
-        return Category.findAll(Category.class);
+        return CategoryRepository.getInstance().getCategories().iterator();
     }
 
     /**
      * Getter
      * @param categoryId the ID of the category
-     * @return the category with the given ID or null if not found
+     * @return the category with the given ID or null if not found (cached, the copy can be modified)
      */
     public Category getCategoryById(Long categoryId)
     {
-        return Category.findById(Category.class, categoryId);
+        return CategoryRepository.getInstance().getCategory(categoryId);
+    }
+
+    /**
+     * Getter
+     * @param categoryId the ID of the category
+     * @return the media items counts of the category (cached, the database is queried only the first time)
+     */
+    public CategoryRepository.CategoryCounts getCategoryCounts(Long categoryId)
+    {
+        return CategoryRepository.getInstance().getCounts(categoryId);
+    }
+
+    /**
+     * Getter
+     * @return the media items counts of all categories, by category ID (cached, the database is queried only the first time)
+     */
+    public Map<Long, CategoryRepository.CategoryCounts> getAllCategoryCounts()
+    {
+        return CategoryRepository.getInstance().getAllCounts();
     }
 
     /**
@@ -85,7 +107,7 @@ public class CategoriesController
             for(MediaType mediaType: MediaType.values())
             {
                 category = new Category(context, mediaType.getNamePlural(context), mediaType.getColor(), mediaType);
-                category.save();
+                saveCategory(category);
             }
         }
     }
@@ -96,7 +118,13 @@ public class CategoriesController
      */
     public void saveCategory(Category category)
     {
+        // Mark the change for incremental backups
+        category.setChangeVersion(ChangeTracker.getInstance().nextChangeVersion());
+
         category.save();
+
+        // Keep the cached categories up to date
+        CategoryRepository.getInstance().onCategorySaved(category);
     }
 
 
@@ -108,8 +136,15 @@ public class CategoriesController
      */
     public void deleteCategory(Category category)
     {
+        // The category tombstone also stands for its media items in incremental backups
+        if(category.getId()!=null) ChangeTracker.getInstance().recordDeletion(Category.class, category.getId());
+
+        Long categoryId = category.getId();
         category.getMediaType().getController().deleteAllMediaItemsInCategory(category);
         category.delete();
+
+        // Keep the cached categories up to date
+        CategoryRepository.getInstance().onCategoryDeleted(categoryId);
     }
 
 
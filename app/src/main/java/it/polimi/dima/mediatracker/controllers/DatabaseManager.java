@@ -7,27 +7,39 @@ import android.content.pm.PackageManager;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.v4.content.FileProvider;
 import android.text.TextUtils;
+import android.util.MalformedJsonException;
 
 import com.orm.util.NamingHelper;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import it.polimi.dima.mediatracker.R;
+import it.polimi.dima.mediatracker.controllers.backup.BackupFormat;
+import it.polimi.dima.mediatracker.controllers.backup.BackupFormatException;
+import it.polimi.dima.mediatracker.controllers.backup.BackupReader;
+import it.polimi.dima.mediatracker.controllers.backup.BackupWriter;
+import it.polimi.dima.mediatracker.controllers.database.CategoryRepository;
+import it.polimi.dima.mediatracker.controllers.database.ChangeTracker;
+import it.polimi.dima.mediatracker.controllers.database.GenreIndex;
 import it.polimi.dima.mediatracker.model.Category;
+import it.polimi.dima.mediatracker.model.DeletedRow;
 import it.polimi.dima.mediatracker.model.ImportanceLevel;
 import it.polimi.dima.mediatracker.model.MediaItem;
 import it.polimi.dima.mediatracker.model.MediaType;
@@ -42,15 +54,11 @@ import it.polimi.dima.mediatracker.model.MediaType;
 public class DatabaseManager
 {
     private final static String EXPORT_FILE_DIR = "files_to_share";
-    private final static String EXPORT_FILE_NAME = "MediaTrackerDatabase.JSON";
     private final static String FILE_PROVIDER_AUTHORITIES = "it.polimi.dima.mediatracker.fileprovider";
 
     private final static String META_DB_NAME = "DATABASE";
     private final static String META_DB_VERSION = "VERSION";
 
-    private final static String MEDIA_ITEMS_FIELD_NAME = "MEDIA_ITEMS";
-    private final static String ROOT_FIELD_NAME = "CATEGORIES";
-
     private static DatabaseManager instance;
 
     /**
@@ -72,54 +80,172 @@ public class DatabaseManager
 
     /**
      * Function to export the application database to a JSON file. The method creates the JSON file and then
-     * opens a send intent to allow the user to save the file somewhere
+     * returns a send intent to allow the user to save the file somewhere
+     * @param context the context
+     * @return the send intent, to be started by the caller. Once the user saved the file, {@link DatabaseManager#confirmExport(Context)} must be called
+     * @throws IOException if the file cannot be written completely
+     */
+    public Intent exportDatabase(Context context) throws IOException
+    {
+        return exportDatabase(context, BackupFormat.JSON);
+    }
+
+    /**
+     * Function to export the application database to a file with the given format. The method creates the file and then
+     * returns a send intent to allow the user to save the file somewhere
+     * @param context the context
+     * @param format the backup format
+     * @return the send intent, to be started by the caller. Once the user saved the file, {@link DatabaseManager#confirmExport(Context)} must be called
+     * @throws IOException if the file cannot be written completely
+     */
+    public Intent exportDatabase(Context context, BackupFormat format) throws IOException
+    {
+        return exportDatabase(context, format, false);
+    }
+
+    /**
+     * Function to export only the changes (saved and deleted rows) since the last export, full or incremental. The file
+     * can be imported on top of the database restored from the previous exports. If the database was never exported,
+     * it's a full export. Only the exports confirmed with {@link DatabaseManager#confirmExport(Context)} count as previous exports
+     * @param context the context
+     * @param format the backup format
+     * @return the send intent, to be started by the caller. Once the user saved the file, {@link DatabaseManager#confirmExport(Context)} must be called
+     * @throws IOException if the file cannot be written completely
+     */
+    public Intent exportDatabaseChanges(Context context, BackupFormat format) throws IOException
+    {
+        return exportDatabase(context, format, true);
+    }
+
+    /**
+     * Confirms that the user saved the last exported file: the next incremental export starts after it and the tombstones
+     * it contains are not needed anymore. Until then the checkpoint does not move, so an abandoned export (e.g. the send
+     * intent was cancelled) does not leave any change out of the next incremental export
+     * @param context the context
+     */
+    public void confirmExport(Context context)
+    {
+        SettingsManager settingsManager = SettingsManager.getInstance(context);
+        long exportedVersion = settingsManager.getPendingBackupChangeVersion();
+        if(exportedVersion<0) return;
+
+        // Save the checkpoint for the next incremental export (older tombstones are not needed anymore)
+        settingsManager.setLastBackupChangeVersion(exportedVersion);
+        settingsManager.setPendingBackupChangeVersion(-1);
+        SQLiteDatabase db = (new DBHelper(context, getDatabaseName(context), getDatabaseVersion(context))).getWritableDatabase();
+        deleteOldDeletedRows(db, exportedVersion);
+    }
+
+    /**
+     * Forgets the last exported file, because the user did not save it: the next incremental export still starts after the
+     * last confirmed export
+     * @param context the context
+     */
+    public void discardExport(Context context)
+    {
+        SettingsManager.getInstance(context).setPendingBackupChangeVersion(-1);
+    }
+
+    /**
+     * Helper to export the application database (see public methods)
      * @param context the context
+     * @param format the backup format
+     * @param delta true to export only the changes since the last export
+     * @return the send intent
+     * @throws IOException if the file cannot be written completely
      */
     @SuppressWarnings("ResultOfMethodCallIgnored")
-    public void exportDatabase(Context context)
+    private Intent exportDatabase(Context context, BackupFormat format, boolean delta) throws IOException
     {
         // Get database
         SQLiteDatabase db = (new DBHelper(context, getDatabaseName(context), getDatabaseVersion(context))).getWritableDatabase();
 
+        // Get the change counter values of the previous export and of this one
+        SettingsManager settingsManager = SettingsManager.getInstance(context);
+        long fromVersion = delta ? settingsManager.getLastBackupChangeVersion() : -1;
+        long toVersion = ChangeTracker.getInstance().getLastChangeVersion();
+
         // Get/create directory in the internal storage (setup for sharing with the file provider)
         File directory = new File(context.getFilesDir(), EXPORT_FILE_DIR);
         directory.mkdir();
 
-        // Convert database to JSON object
-        JSONObject databaseJson = dbToJson(db);
+        // Write the database directly to a file in the internal storage
+        File databaseFile = new File(directory, format.getFileName(fromVersion>=0));
+        BackupWriter writer = null;
+        try
+        {
+            writer = format.newWriter(StorageManager.openOutputStreamToInternalStorage(databaseFile));
+            dbToBackup(db, writer, fromVersion, toVersion);
+
+            // The last bytes are written on close (e.g. disk full): the file is complete only if it succeeds
+            writer.close();
+            writer = null;
+        }
+        finally
+        {
+            // Only after an error, the exception is already being thrown
+            StorageManager.closeQuietly(writer);
+        }
 
-        // Save JSON object to a file in the internal storage
-        File databaseJsonFile = new File(directory, EXPORT_FILE_NAME);
-        StorageManager.saveJsonObjectToInternalStorage(databaseJsonFile, databaseJson);
+        // The file is complete, but the checkpoint moves only once the user confirms that it has been saved
+        settingsManager.setPendingBackupChangeVersion(toVersion);
 
         // Get the file URI from the file provider
-        Uri dbUri = FileProvider.getUriForFile(context, FILE_PROVIDER_AUTHORITIES, databaseJsonFile);
+        Uri dbUri = FileProvider.getUriForFile(context, FILE_PROVIDER_AUTHORITIES, databaseFile);
 
-        // Start sharing intent setting the file URI
+        // Build sharing intent setting the file URI
         Intent intent = new Intent(android.content.Intent.ACTION_SEND);
         intent.setType("application/octet-stream");
         intent.putExtra(Intent.EXTRA_STREAM, dbUri);
         intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
-        context.startActivity(Intent.createChooser(intent, ""));
+        return Intent.createChooser(intent, "");
     }
 
     /**
-     * Function to import the application database from a JSON file
+     * Function to import the application database from a backup file (the format, JSON or binary, is detected automatically).
+     * A full backup replaces the whole database, a delta backup (see {@link DatabaseManager#exportDatabaseChanges(Context, BackupFormat)})
+     * is merged into it. The file is read one category/media item at a time, so the memory used does not depend on the file size
      * @param context the context
      * @param fileUri the URL of the file
      * @throws DBImportValidationException if something went wrong with the import
      * @throws IOException if the file cannot be accessed
+     * @throws JSONException if the file contains unrecognized data
      */
     public void importDatabase(Context context, Uri fileUri) throws DBImportValidationException, IOException, JSONException
     {
         // Get database
         SQLiteDatabase db = (new DBHelper(context, getDatabaseName(context), getDatabaseVersion(context))).getWritableDatabase();
 
-        // Get JSON object from the file
-        JSONObject databaseObject = StorageManager.getJsonObjectFromUri(context, fileUri);
+        // Open the file and detect its format
+        InputStream in = StorageManager.openInputStreamFromUri(context, fileUri);
+        BackupReader reader = null;
 
         // Insert values from the file
-        jsonToDb(context, db, databaseObject);
+        try
+        {
+            reader = BackupFormat.detect(in).newReader(in);
+            backupToDb(context, db, reader);
+        }
+        catch(IllegalStateException | MalformedJsonException | EOFException | BackupFormatException e)
+        {
+            // Unexpected JSON token, invalid syntax, truncated file or invalid binary data
+            throw new JSONException(e.getMessage());
+        }
+        finally
+        {
+            StorageManager.closeQuietly(reader);
+            StorageManager.closeQuietly(in);
+
+            // The change counter must be read again from the imported rows
+            ChangeTracker.getInstance().reset();
+
+            // The cached categories and counts too
+            CategoryRepository.getInstance().invalidate();
+        }
+
+        // The imported rows are already in a backup: the next incremental export starts after them
+        SettingsManager.getInstance(context).setLastBackupChangeVersion(ChangeTracker.getInstance().getLastChangeVersion());
+        SettingsManager.getInstance(context).setPendingBackupChangeVersion(-1);
     }
 
     /**
@@ -163,264 +289,251 @@ public class DatabaseManager
     }
 
     /**
-     * Helper that creates a JSON object from the database
+     * Helper that writes the database backup, reading one row at a time (the whole database is never kept in memory)
      * @param db the database
-     * @return the JSON object representing a database: {TABLE_NAME1=>ROWS,TABLE_NAME2=>ROWS,...} where ROWS={{COLUMN_NAME1=>VALUE1, COLUMN_NAME2=>VALUE2,...},...}
+     * @param writer the backup writer
+     * @param fromVersion for a delta backup, the change counter value of the previous export (only rows changed after it
+     *                    are written); -1 for a full backup
+     * @param toVersion the current change counter value
+     * @throws IOException if the backup cannot be written
      */
-    private JSONObject dbToJson(SQLiteDatabase db)
+    private void dbToBackup(SQLiteDatabase db, BackupWriter writer, long fromVersion, long toVersion) throws IOException
     {
-        try
-        {
-            // Variables used in the function
-            JSONObject databaseObject = new JSONObject();
-            JSONObject categoryObject;
-            JSONObject mediaItemObject;
-            JSONArray categoriesArray;
-            JSONArray mediaItemsArray;
-            Cursor categoriesCursor;
-            Cursor mediaItemsCursor;
-            int columnIndex;
-            String table;
-            Long categoryId;
-            MediaType mediaType;
-            String value;
+        boolean delta = fromVersion>=0;
 
-            // Category table
-            String categoryTableName = getCategoryTableName();
+        // Category table and columns
+        String categoryTableName = getCategoryTableName();
+        List<String> categoriesColumnNames = getCategoryTableColumnNames(db);
 
-            // Category column names
-            List<String> categoriesColumnNames = getCategoryTableColumnNames(db);
-
-            // Loop all media types
-            HashMap<MediaType, String> mediaItemTableNames = new HashMap<>();
-            HashMap<MediaType, List<String>> mediaItemColumnNames = new HashMap<>();
-            for(MediaType mt: MediaType.values())
-            {
-                // Media type table
-                table = getMediaTypeTableName(mt);
-                mediaItemTableNames.put(mt, table);
-
-                // Media type columns
-                mediaItemColumnNames.put(mt, getMediaTypeTableColumnNames(db, mt));
-            }
+        // Loop all media types
+        HashMap<MediaType, String> mediaItemTableNames = new HashMap<>();
+        HashMap<MediaType, List<String>> mediaItemColumnNames = new HashMap<>();
+        for(MediaType mt: MediaType.values())
+        {
+            // Media type table
+            mediaItemTableNames.put(mt, getMediaTypeTableName(mt));
 
-            // Get all rows in the categories table
-            categoriesCursor = db.query(categoryTableName, null, null, null, null, null, null);
+            // Media type columns
+            mediaItemColumnNames.put(mt, getMediaTypeTableColumnNames(db, mt));
+        }
 
-            // Loop all categories
-            categoriesArray = new JSONArray();
-            while(categoriesCursor.moveToNext())
+        // Delta backup: deleted rows
+        if(delta)
+        {
+            writer.beginDelta(fromVersion, toVersion);
+            Cursor deletedRowsCursor = db.query(NamingHelper.toSQLName(DeletedRow.class), null, DeletedRow.COLUMN_CHANGE_VERSION + " > ?",
+                    new String[]{String.valueOf(fromVersion)}, null, null, DeletedRow.COLUMN_CHANGE_VERSION);
+            try
             {
-                // Initialize row object
-                categoryObject = new JSONObject();
-
-                // Loop all column names
-                for(String columnName: categoriesColumnNames)
+                int tableIndex = deletedRowsCursor.getColumnIndexOrThrow(DeletedRow.COLUMN_TABLE_NAME);
+                int rowIdIndex = deletedRowsCursor.getColumnIndexOrThrow(DeletedRow.COLUMN_ROW_ID);
+                int changeVersionIndex = deletedRowsCursor.getColumnIndexOrThrow(DeletedRow.COLUMN_CHANGE_VERSION);
+                while(deletedRowsCursor.moveToNext())
                 {
-                    // Put data in the row (columnName => value)
-                    columnIndex = categoriesCursor.getColumnIndexOrThrow(columnName);
-                    value = categoriesCursor.getString(columnIndex);
-                    categoryObject.put(columnName, manageSpecialColumns(true, columnName, value));
+                    writer.writeDeletedRow(new DeletedRow(deletedRowsCursor.getString(tableIndex), deletedRowsCursor.getLong(rowIdIndex), deletedRowsCursor.getLong(changeVersionIndex)));
                 }
+            }
+            finally
+            {
+                deletedRowsCursor.close();
+            }
+        }
 
-                // Get category ID
-                columnIndex = categoriesCursor.getColumnIndexOrThrow(Category.COLUMN_ID);
-                categoryId = Long.valueOf(categoriesCursor.getString(columnIndex));
-
-                // Get category media type
-                columnIndex = categoriesCursor.getColumnIndexOrThrow(Category.COLUMN_MEDIA_TYPE_NAME);
-                mediaType = MediaType.valueOf(categoriesCursor.getString(columnIndex));
-
-                // Get all media items in the category
-                mediaItemsCursor = db.query(mediaItemTableNames.get(mediaType), null, MediaItem.COLUMN_CATEGORY + " = ?", new String[]{String.valueOf(categoryId)}, null, null, null);
+        // Media items query (only changed rows for delta backups)
+        String mediaItemsWhere = MediaItem.COLUMN_CATEGORY + " = ?";
+        if(delta) mediaItemsWhere += " AND " + MediaItem.COLUMN_CHANGE_VERSION + " > ?";
 
-                // Loop all media items
-                mediaItemsArray = new JSONArray();
-                while(mediaItemsCursor.moveToNext())
+        // Loop all categories
+        Cursor categoriesCursor = db.query(categoryTableName, null, null, null, null, null, null);
+        try
+        {
+            int[] categoryColumnIndexes = getColumnIndexes(categoriesCursor, categoriesColumnNames);
+            String[] categoryValues = new String[categoryColumnIndexes.length];
+            int categoryIdIndex = categoriesCursor.getColumnIndexOrThrow(Category.COLUMN_ID);
+            int categoryMediaTypeIndex = categoriesCursor.getColumnIndexOrThrow(Category.COLUMN_MEDIA_TYPE_NAME);
+            int categoryChangeVersionIndex = categoriesCursor.getColumnIndexOrThrow(Category.COLUMN_CHANGE_VERSION);
+            while(categoriesCursor.moveToNext())
+            {
+                // Get category ID and media type
+                String categoryId = categoriesCursor.getString(categoryIdIndex);
+                MediaType mediaType = MediaType.valueOf(categoriesCursor.getString(categoryMediaTypeIndex));
+                List<String> columnNames = mediaItemColumnNames.get(mediaType);
+
+                // Get media items in the category
+                String[] mediaItemsWhereArgs = delta ? new String[]{categoryId, String.valueOf(fromVersion)} : new String[]{categoryId};
+                Cursor mediaItemsCursor = db.query(mediaItemTableNames.get(mediaType), null, mediaItemsWhere, mediaItemsWhereArgs, null, null, null);
+                try
                 {
-                    // Initialize row object
-                    mediaItemObject = new JSONObject();
-
-                    // Loop all column names
-                    for(String columnName: mediaItemColumnNames.get(mediaType))
+                    // Delta backup: skip categories without changes (the category row is written anyway if a media item changed)
+                    if(delta && categoriesCursor.getLong(categoryChangeVersionIndex)<=fromVersion && mediaItemsCursor.getCount()==0) continue;
+
+                    // Write the category columns
+                    readRowColumns(categoriesCursor, categoriesColumnNames, categoryColumnIndexes, categoryValues);
+                    writer.beginCategory(categoriesColumnNames, categoryValues);
+
+                    // Loop all media items in the category
+                    writer.beginMediaItems(columnNames);
+                    int[] columnIndexes = getColumnIndexes(mediaItemsCursor, columnNames);
+                    String[] values = new String[columnIndexes.length];
+                    while(mediaItemsCursor.moveToNext())
                     {
-                        // Put data in the row (columnName => value)
-                        columnIndex = mediaItemsCursor.getColumnIndexOrThrow(columnName);
-                        value = mediaItemsCursor.getString(columnIndex);
-                        mediaItemObject.put(columnName, manageSpecialColumns(true, columnName, value));
+                        readRowColumns(mediaItemsCursor, columnNames, columnIndexes, values);
+                        writer.writeMediaItem(values);
                     }
-
-                    // Add media item to array
-                    mediaItemsArray.put(mediaItemObject);
                 }
-                mediaItemsCursor.close();
-
-                // Add media items to category object
-                categoryObject.put(MEDIA_ITEMS_FIELD_NAME, mediaItemsArray);
+                finally
+                {
+                    mediaItemsCursor.close();
+                }
 
-                // Add row object to the rows array
-                categoriesArray.put(categoryObject);
+                writer.endCategory();
             }
+        }
+        finally
+        {
             categoriesCursor.close();
+        }
 
-            // Add categories array to final object
-            databaseObject.put(ROOT_FIELD_NAME, categoriesArray);
+        writer.finish();
+    }
 
-            // Return final object
-            return databaseObject;
+    /**
+     * Helper for DB export to delete the tombstones already exported (the last one is kept anyway: the change counter is
+     * the maximum value in the database, it must not go back)
+     * @param db the database
+     * @param exportedVersion the change counter value of the export
+     */
+    private void deleteOldDeletedRows(SQLiteDatabase db, long exportedVersion)
+    {
+        String table = NamingHelper.toSQLName(DeletedRow.class);
+        db.delete(table, DeletedRow.COLUMN_CHANGE_VERSION + " <= ? AND " + DeletedRow.COLUMN_CHANGE_VERSION + " < " +
+                "(SELECT MAX(" + DeletedRow.COLUMN_CHANGE_VERSION + ") FROM " + table + ")", new String[]{String.valueOf(exportedVersion)});
+    }
+
+    /**
+     * Helper for DB export to resolve the column indexes once per cursor
+     * @param cursor the cursor
+     * @param columnNames the column names
+     * @return the column indexes
+     */
+    private int[] getColumnIndexes(Cursor cursor, List<String> columnNames)
+    {
+        int[] indexes = new int[columnNames.size()];
+        for(int i=0; i<indexes.length; i++)
+        {
+            indexes[i] = cursor.getColumnIndexOrThrow(columnNames.get(i));
         }
-        catch (JSONException e)
+        return indexes;
+    }
+
+    /**
+     * Helper for DB export to read the columns of the current row
+     * @param cursor the cursor, on the current row
+     * @param columnNames the column names
+     * @param columnIndexes the column indexes
+     * @param values filled with the values to export (null for NULL columns)
+     */
+    private void readRowColumns(Cursor cursor, List<String> columnNames, int[] columnIndexes, String[] values)
+    {
+        for(int i=0; i<columnIndexes.length; i++)
         {
-            e.printStackTrace();
-            return new JSONObject();
+            Object value = manageSpecialColumns(true, columnNames.get(i), cursor.getString(columnIndexes[i]));
+            values[i] = value==null ? null : value.toString();
         }
     }
 
     /**
-     * Deletes current database content and inserts all rows represented in the JSON object
+     * Deletes current database content and inserts all rows read from the backup. If the backup is a delta backup, the
+     * current content is kept instead: the deleted rows are removed and the saved rows are inserted or replaced. Everything
+     * is done in a single transaction, rows are inserted with a compiled statement per table as soon as they are read and validated
      * @param context the context
      * @param db the database
-     * @param databaseObject the JSON object
+     * @param reader the backup reader
      * @throws DBImportValidationException if something went wrong with the import
-     * @throws JSONException if the JSON file has a wrong structure
+     * @throws IOException if the file cannot be read or it's not a valid backup
      */
-    private void jsonToDb(Context context, SQLiteDatabase db, JSONObject databaseObject) throws DBImportValidationException, JSONException
+    private void backupToDb(Context context, SQLiteDatabase db, BackupReader reader) throws DBImportValidationException, IOException
     {
-        // Variables used in the function
-        JSONObject rowObject;
-        HashMap<String, Object> insertValues;
-        CategoriesController categoriesController = CategoriesController.getInstance();
-        MediaItemsAbstractController mediaItemsController;
-        String validationError;
-
         // Start a DB transaction
         db.beginTransaction();
+        ImportTable categoryTable = null;
+        HashMap<MediaType, ImportTable> mediaItemTables = new HashMap<>();
+        HashMap<MediaType, GenreIndex> genreIndexes = new HashMap<>();
         try
         {
             // Category table
-            String categoryTableName = getCategoryTableName();
-
-            // Category column names
-            List<String> categoriesColumnNames = getCategoryTableColumnNames(db);
+            categoryTable = new ImportTable(db, getCategoryTableName(), getCategoryTableColumnNames(db));
 
-            // Category ID
-            int categoryId = 1;
-
-            // Loop all media types
-            HashMap<MediaType, String> mediaItemTableNames = new HashMap<>();
-            HashMap<MediaType, List<String>> mediaItemColumnNames = new HashMap<>();
-            HashMap<MediaType, Integer> mediaItemIds = new HashMap<>();
+            // Media type tables (the category ID is the one of the parent category)
             for(MediaType mediaType: MediaType.values())
             {
-                // Media type table
-                mediaItemTableNames.put(mediaType, getMediaTypeTableName(mediaType));
-
-                // Media type columns
-                mediaItemColumnNames.put(mediaType, getMediaTypeTableColumnNames(db, mediaType));
+                mediaItemTables.put(mediaType, new ImportTable(db, getMediaTypeTableName(mediaType), getMediaTypeTableColumnNames(db, mediaType), MediaItem.COLUMN_CATEGORY));
 
-                // Media item ID
-                mediaItemIds.put(mediaType, 1);
+                // Genre index (its trigger also cleans it up when the rows are deleted below)
+                GenreIndex genreIndex = new GenreIndex(getMediaTypeTableName(mediaType));
+                genreIndex.ensureIndex(db);
+                genreIndexes.put(mediaType, genreIndex);
             }
 
-            // Empty all tables
-            for(String t: mediaItemTableNames.values())
+            boolean merge = reader.getDeltaFromVersion()>=0;
+            if(!merge)
             {
-                db.execSQL("DELETE FROM " + t);
+                // Full backup: empty all tables
+                for(ImportTable t: mediaItemTables.values())
+                {
+                    db.execSQL("DELETE FROM " + t.getTableName());
+                }
+                db.execSQL("DELETE FROM "+categoryTable.getTableName());
             }
-            db.execSQL("DELETE FROM "+categoryTableName);
-
-            // Get all categories in the JSON object
-            JSONArray categoriesArray = databaseObject.getJSONArray(ROOT_FIELD_NAME);
-            JSONObject categoryObject;
-            if(categoriesArray!=null)
+            else
             {
-                // Loop categories
-                for(int i=0; i<categoriesArray.length(); i++)
+                // Delta backup: remove the deleted rows
+                DeletedRow deletedRow;
+                while((deletedRow = reader.nextDeletedRow())!=null)
                 {
-                    // Get current category
-                    categoryObject = categoriesArray.getJSONObject(i);
-
-                    // Get media type (must be correct!)
-                    MediaType mediaType;
-                    try
-                    {
-                        mediaType = MediaType.valueOf((String) categoryObject.get(Category.COLUMN_MEDIA_TYPE_NAME));
-                        if(mediaType==null)
-                        {
-                            throw new Exception();
-                        }
-                    }
-                    catch(Exception e)
-                    {
-                        throw new DBImportValidationException(categoryId, -1, context.getString(R.string.validation_category_no_media_type));
-                    }
-
-                    // Setup insert map
-                    insertValues = new HashMap<>();
-                    setupInsertHashMapForImport(categoryObject, categoriesColumnNames, insertValues);
-
-                    // Add the ID (generated dynamically during import)
-                    insertValues.put(Category.COLUMN_ID, categoryId);
-
-                    // Validate category
-                    validationError = categoriesController.validateCategoryDbRow(context, insertValues);
-                    if(validationError!=null)
-                    {
-                        throw new DBImportValidationException(categoryId, -1, validationError);
-                    }
-
-                    // Insert category
-                    insertRowForImport(db, categoryTableName, insertValues);
-
-                    // Get media type controller
-                    mediaItemsController = mediaType.getController();
-
-                    // Get media items in this category (if any)
-                    JSONArray mediaItemsArray;
-                    try
-                    {
-                        mediaItemsArray = categoryObject.getJSONArray(MEDIA_ITEMS_FIELD_NAME);
-                    }
-                    catch(JSONException e)
-                    {
-                        mediaItemsArray = null;
-                    }
-                    if(mediaItemsArray!=null && mediaItemsArray.length()>0)
-                    {
-                        // Loop media items
-                        for(int j=0; j<mediaItemsArray.length(); j++)
-                        {
-                            // Get current media item
-                            rowObject = mediaItemsArray.getJSONObject(j);
-
-                            // Setup insert lists
-                            insertValues = new HashMap<>();
-                            setupInsertHashMapForImport(rowObject, mediaItemColumnNames.get(mediaType), insertValues);
-
-                            // Add the ID (generated dynamically during import)
-                            insertValues.put(MediaItem.COLUMN_ID, mediaItemIds.get(mediaType));
+                    importDeletedRow(db, categoryTable, mediaItemTables, deletedRow);
+                }
+            }
 
-                            // Add the category ID
-                            insertValues.put(MediaItem.COLUMN_CATEGORY, categoryId);
+            // Loop categories
+            HashMap<String, String> categoryValues = new HashMap<>();
+            HashMap<String, String> mediaItemValues = new HashMap<>();
+            int categoryPosition = 0;
+            while(reader.nextCategory(categoryValues))
+            {
+                categoryPosition++;
 
-                            // Validate media item
-                            validationError = mediaItemsController.validateMediaItemDbRow(context, insertValues);
-                            if(validationError!=null)
-                            {
-                                throw new DBImportValidationException(categoryId, j+1, validationError);
-                            }
+                // Category ID (the one in the backup if available, otherwise generated dynamically during import)
+                long categoryId = categoryTable.resolveId(categoryValues.get(Category.COLUMN_ID), merge);
 
-                            // Insert media item
-                            insertRowForImport(db, mediaItemTableNames.get(mediaType), insertValues);
+                // Get media type (must be correct!)
+                MediaType mediaType = getImportMediaType(categoryValues);
+                if(mediaType==null)
+                {
+                    throw new DBImportValidationException(categoryPosition, -1, context.getString(R.string.validation_category_no_media_type));
+                }
 
-                            // Increase media item ID
-                            mediaItemIds.put(mediaType, mediaItemIds.get(mediaType)+1);
-                        }
-                    }
+                // Loop media items
+                ImportTable mediaItemTable = mediaItemTables.get(mediaType);
+                int mediaItemPosition = 0;
+                while(reader.nextMediaItem(mediaItemValues))
+                {
+                    mediaItemPosition++;
+                    setupImportRow(mediaItemTable, mediaItemValues);
+                    importMediaItem(context, db, mediaType, mediaItemTable, genreIndexes.get(mediaType), categoryId, categoryPosition, mediaItemValues.get(MediaItem.COLUMN_ID), merge, mediaItemPosition);
+                }
 
-                    // Increase category ID
-                    categoryId++;
+                // Validate category (all its values are available only after its media items)
+                setupImportRow(categoryTable, categoryValues);
+                categoryTable.putValue(Category.COLUMN_ID, categoryId);
+                String validationError = CategoriesController.getInstance().validateCategoryDbRow(context, categoryTable.getValues());
+                if(validationError!=null)
+                {
+                    throw new DBImportValidationException(categoryPosition, -1, validationError);
                 }
+
+                // Insert category
+                categoryTable.insert();
             }
 
             // If we are here, transaction is successful
@@ -428,61 +541,116 @@ public class DatabaseManager
         }
         finally
         {
+            // Release compiled statements
+            if(categoryTable!=null) categoryTable.close();
+            for(ImportTable t: mediaItemTables.values())
+            {
+                t.close();
+            }
+
             // End transaction (commit only if we called setTransactionSuccessful)
             db.endTransaction();
         }
     }
 
     /**
-     * Helper for DB import to build the insert lists
-     * @param object contains data to import
-     * @param columnNames all column names
-     * @param insertValues map column => value
+     * Helper for DB import to validate and insert the media item currently stored in the table values
+     * @param context the context
+     * @param db the database
+     * @param mediaType the media type of the parent category
+     * @param mediaItemTable the media type table, contains the media item values
+     * @param genreIndex the genre index of the media type table
+     * @param categoryId the parent category ID
+     * @param categoryPosition the parent category position in the backup (starting from 1)
+     * @param backupId the media item ID in the backup (may be null)
+     * @param merge true if the media item replaces the existing one with the same ID
+     * @param mediaItemPosition the media item position in the category (starting from 1)
+     * @throws DBImportValidationException if the media item is not valid
      */
-    private void setupInsertHashMapForImport(JSONObject object, List<String> columnNames, HashMap<String, Object> insertValues)
+    private void importMediaItem(Context context, SQLiteDatabase db, MediaType mediaType, ImportTable mediaItemTable, GenreIndex genreIndex, long categoryId, int categoryPosition, String backupId, boolean merge, int mediaItemPosition) throws DBImportValidationException
     {
-        // Loop all column names
-        for(String column: columnNames)
+        // Add the ID (the one in the backup if available, otherwise generated dynamically during import) and the category ID
+        long id = mediaItemTable.resolveId(backupId, merge);
+        mediaItemTable.putValue(MediaItem.COLUMN_ID, id);
+        mediaItemTable.putValue(MediaItem.COLUMN_CATEGORY, categoryId);
+
+        // Validate media item
+        String validationError = mediaType.getController().validateMediaItemDbRow(context, mediaItemTable.getValues());
+        if(validationError!=null)
         {
-            // Add column => value in the map
-            try
+            throw new DBImportValidationException(categoryPosition, mediaItemPosition, validationError);
+        }
+
+        // Insert media item and its genres
+        mediaItemTable.insert();
+        Object genres = mediaItemTable.getValues().get(MediaItem.COLUMN_GENRES);
+        genreIndex.indexMediaItem(db, id, genres==null ? null : genres.toString());
+    }
+
+    /**
+     * Helper for DB import to remove a row deleted after the previous backup (a deleted category also removes its media
+     * items, as in {@link CategoriesController#deleteCategory(Category)})
+     * @param db the database
+     * @param categoryTable the categories table
+     * @param mediaItemTables the media type tables
+     * @param deletedRow the deleted row read from the backup
+     */
+    private void importDeletedRow(SQLiteDatabase db, ImportTable categoryTable, HashMap<MediaType, ImportTable> mediaItemTables, DeletedRow deletedRow)
+    {
+        String[] whereArgs = new String[]{String.valueOf(deletedRow.getRowId())};
+        if(categoryTable.getTableName().equals(deletedRow.getTableName()))
+        {
+            for(ImportTable t: mediaItemTables.values())
             {
-                insertValues.put(column, manageSpecialColumns(false, column, object.get(column)));
+                db.delete(t.getTableName(), MediaItem.COLUMN_CATEGORY + " = ?", whereArgs);
             }
-            catch(JSONException e)
+            db.delete(categoryTable.getTableName(), Category.COLUMN_ID + " = ?", whereArgs);
+            return;
+        }
+
+        for(ImportTable t: mediaItemTables.values())
+        {
+            if(t.getTableName().equals(deletedRow.getTableName()))
             {
-                insertValues.put(column, null);
+                db.delete(t.getTableName(), MediaItem.COLUMN_ID + " = ?", whereArgs);
+                return;
             }
         }
     }
 
     /**
-     * Helper for DB import to add a row
-     * @param db the DB
+     * Helper for DB import to get the media type of a category
+     * @param categoryValues the category values read from the backup
+     * @return the media type, null if not available or not valid
+     */
+    private MediaType getImportMediaType(Map<String, String> categoryValues)
+    {
+        String mediaTypeName = categoryValues.get(Category.COLUMN_MEDIA_TYPE_NAME);
+        if(mediaTypeName==null) return null;
+        try
+        {
+            return MediaType.valueOf(mediaTypeName);
+        }
+        catch(IllegalArgumentException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Helper for DB import to copy the values read from the backup into the table values (columns not in the table are ignored)
      * @param table the table
-     * @param insertValues map column => value
+     * @param values the values read from the backup
      */
-    private void insertRowForImport(SQLiteDatabase db, String table, HashMap<String, Object> insertValues)
+    private void setupImportRow(ImportTable table, Map<String, String> values)
     {
-        // If we have data...
-        if(insertValues.size()>0)
-        {
-            // Get columns, placeholders and values
-            List<String> insertColumnsList = new ArrayList<>();
-            List<String> insertPlaceholdersList = new ArrayList<>();
-            List<Object> insertValuesList = new ArrayList<>();
-            for(Map.Entry<String, Object> pair: insertValues.entrySet())
+        table.clearValues();
+        for(Map.Entry<String, String> pair: values.entrySet())
+        {
+            if(table.isImportedColumn(pair.getKey()))
             {
-                insertColumnsList.add(pair.getKey());
-                insertPlaceholdersList.add("?");
-                insertValuesList.add(pair.getValue());
+                table.putValue(pair.getKey(), manageSpecialColumns(false, pair.getKey(), pair.getValue()));
             }
-
-            // Insert row
-            db.execSQL("INSERT OR REPLACE INTO " + table + " (" +
-                            TextUtils.join(", ", insertColumnsList) + ") " +
-                            "VALUES (" + TextUtils.join(", ", insertPlaceholdersList) + ") ",
-                    insertValuesList.toArray());
         }
     }
 
@@ -498,15 +666,14 @@ public class DatabaseManager
     /**
      * Getter
      * @param db the DB
-     * @return all columns to import/export in the categories table
+     * @return all columns to import/export in the categories table (the ID is exported to allow delta backups to be
+     * applied on top of an imported one)
      */
     private List<String> getCategoryTableColumnNames(SQLiteDatabase db)
     {
         Cursor rowsCursor = db.query(getCategoryTableName(), null, null, null, null, null, null);
         List<String> columnNames = new ArrayList<>(Arrays.asList(rowsCursor.getColumnNames()));
 
-        columnNames.remove(Category.COLUMN_ID);
-
         rowsCursor.close();
         return columnNames;
     }
@@ -525,23 +692,28 @@ public class DatabaseManager
      * Getter
      * @param db the DB
      * @param mediaType the media type
-     * @return all columns to import/export in the media item table linked with the given media type
+     * @return all columns to import/export in the media item table linked with the given media type (the ID is exported
+     * to allow delta backups to be applied on top of an imported one)
      */
     private List<String> getMediaTypeTableColumnNames(SQLiteDatabase db, MediaType mediaType)
     {
         Cursor rowsCursor = db.query(getMediaTypeTableName(mediaType), null, null, null, null, null, null);
         List<String> columnNames = new ArrayList<>(Arrays.asList(rowsCursor.getColumnNames()));
 
-        columnNames.remove(MediaItem.COLUMN_ID);
+        // The category ID is implied by the parent category
         columnNames.remove(MediaItem.COLUMN_CATEGORY);
 
+        // Tracked list sort key is derived from the other columns, it's recomputed when the list is loaded
+        columnNames.remove(MediaItem.COLUMN_SECTION_RANK);
+        columnNames.remove(MediaItem.COLUMN_SECTION_ORDER);
+
         rowsCursor.close();
         return columnNames;
     }
 
     /**
      * Manages special columns that are not exported/imported exactly as they are in the database
-     * @param fromDbToJson true if we are translating from the DB to a JSON file, false otherwise
+     * @param fromDbToJson true if we are translating from the DB to a backup file, false otherwise
      * @param column the column name
      * @param value the column value
      * @return the new value of the object (possibly different from the one passed as argument)
@@ -598,6 +770,149 @@ public class DatabaseManager
         public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion){}
     }
 
+    /**
+     * Helper for DB import: a table with its compiled insert statement (reused for all rows) and the values of the row being imported
+     */
+    private static class ImportTable
+    {
+        private String tableName;
+        private Set<String> importedColumns;
+        private List<String> insertColumns;
+        private SQLiteStatement insertStatement;
+        private HashMap<String, Object> values = new HashMap<>();
+        private SQLiteStatement existsStatement;
+        private SQLiteStatement nextIdStatement;
+
+        /**
+         * Constructor
+         * @param db the DB
+         * @param tableName the table name
+         * @param importedColumns the columns read from the backup file
+         * @param generatedColumns the columns generated during import (e.g. the parent category ID)
+         */
+        public ImportTable(SQLiteDatabase db, String tableName, List<String> importedColumns, String... generatedColumns)
+        {
+            this.tableName = tableName;
+            this.importedColumns = new HashSet<>(importedColumns);
+            this.insertColumns = new ArrayList<>(importedColumns);
+            this.insertColumns.addAll(Arrays.asList(generatedColumns));
+
+            String[] placeholders = new String[insertColumns.size()];
+            Arrays.fill(placeholders, "?");
+            insertStatement = db.compileStatement("INSERT OR REPLACE INTO " + tableName + " (" +
+                    TextUtils.join(", ", insertColumns) + ") " +
+                    "VALUES (" + TextUtils.join(", ", placeholders) + ")");
+            existsStatement = db.compileStatement("SELECT COUNT(*) FROM " + tableName + " WHERE ID = ?");
+            nextIdStatement = db.compileStatement("SELECT IFNULL(MAX(ID), 0) + 1 FROM " + tableName);
+        }
+
+        /**
+         * Getter
+         * @return the table name
+         */
+        public String getTableName()
+        {
+            return tableName;
+        }
+
+        /**
+         * Getter
+         * @param column the column name
+         * @return true if the column is read from the JSON file
+         */
+        public boolean isImportedColumn(String column)
+        {
+            return importedColumns.contains(column);
+        }
+
+        /**
+         * Getter
+         * @param backupId the row ID read from the backup (may be null, e.g. in old backups)
+         * @param replaceExisting true if the row can replace an existing one with the same ID
+         * @return the ID to use for the row: the backup one if valid, otherwise the next free ID in the table
+         */
+        public long resolveId(Object backupId, boolean replaceExisting)
+        {
+            long id = -1;
+            if(backupId!=null)
+            {
+                try
+                {
+                    id = Long.parseLong(backupId.toString());
+                }
+                catch(NumberFormatException e)
+                {
+                    id = -1;
+                }
+            }
+
+            if(id>0 && !replaceExisting)
+            {
+                existsStatement.bindLong(1, id);
+                if(existsStatement.simpleQueryForLong()>0) id = -1;
+            }
+
+            return id>0 ? id : nextIdStatement.simpleQueryForLong();
+        }
+
+        /**
+         * Getter
+         * @return map column => value of the current row (the same instance is reused for all rows)
+         */
+        public HashMap<String, Object> getValues()
+        {
+            return values;
+        }
+
+        /**
+         * Setter
+         * @param column the column name
+         * @param value the column value of the current row
+         */
+        public void putValue(String column, Object value)
+        {
+            values.put(column, value);
+        }
+
+        /**
+         * Starts a new row, with all columns set to null
+         */
+        public void clearValues()
+        {
+            values.clear();
+            for(String column: insertColumns)
+            {
+                values.put(column, null);
+            }
+        }
+
+        /**
+         * Inserts the current row (numbers are bound as integers, everything else as strings)
+         */
+        public void insert()
+        {
+            insertStatement.clearBindings();
+            for(int i=0; i<insertColumns.size(); i++)
+            {
+                Object value = values.get(insertColumns.get(i));
+                if(value==null) insertStatement.bindNull(i+1);
+                else if(value instanceof Number) insertStatement.bindLong(i+1, ((Number) value).longValue());
+                else insertStatement.bindString(i+1, value.toString());
+            }
+            insertStatement.executeInsert();
+        }
+
+        /**
+         * Releases the compiled statements
+         */
+        public void close()
+        {
+            insertStatement.close();
+            existsStatement.close();
+            nextIdStatement.close();
+        }
+    }
+
     /**
      * An exception thrown during DB import if data has some validation error
      */
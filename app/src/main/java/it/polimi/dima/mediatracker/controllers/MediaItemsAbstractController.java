@@ -1,16 +1,32 @@
 package it.polimi.dima.mediatracker.controllers;
 
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 import android.text.TextUtils;
 
+import com.orm.SugarDatabaseAccessor;
+import com.orm.util.NamingHelper;
+
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import it.polimi.dima.mediatracker.R;
+import it.polimi.dima.mediatracker.controllers.database.CategoryRepository;
+import it.polimi.dima.mediatracker.controllers.database.ChangeTracker;
+import it.polimi.dima.mediatracker.controllers.database.CompiledQueriesRegistry;
+import it.polimi.dima.mediatracker.controllers.database.GenreIndex;
+import it.polimi.dima.mediatracker.controllers.database.MediaItemCursorMapper;
+import it.polimi.dima.mediatracker.controllers.database.RandomMediaItemSampler;
 import it.polimi.dima.mediatracker.external_services.services.MediaItemService;
 import it.polimi.dima.mediatracker.fragments.FormMediaItemAbstractFragment;
 import it.polimi.dima.mediatracker.fragments.SuggestionsAbstractFragment;
@@ -19,6 +35,7 @@ import it.polimi.dima.mediatracker.model.ImportanceLevel;
 import it.polimi.dima.mediatracker.model.MediaItem;
 import it.polimi.dima.mediatracker.model.Section;
 import it.polimi.dima.mediatracker.model.Subcategory;
+import it.polimi.dima.mediatracker.utils.Clock;
 import it.polimi.dima.mediatracker.utils.GlobalConstants;
 import it.polimi.dima.mediatracker.utils.Utils;
 
@@ -30,6 +47,18 @@ public abstract class MediaItemsAbstractController
 {
     private final static int ORDER_DEFAULT_STEP = 1000;
     private final static int PAGE_LENGTH = 50;
+    private final static int RANDOM_PICK_ATTEMPTS = 3;
+
+    // Weight of a media item in the weighted suggestions: importance level (1 to 4), doubled if owned, divided by the times completed
+    private final static String SUGGESTIONS_WEIGHT = "("+MediaItem.COLUMN_IMPORTANCE_LEVEL+" / 100.0) * (1 + IFNULL("+MediaItem.COLUMN_OWNED+", 0)) / (1 + IFNULL("+MediaItem.COLUMN_TIMES_COMPLETED+", 0))";
+
+    private boolean trackedListIndexChecked = false;
+    private boolean searchIndexChecked = false;
+
+    private CompiledQueriesRegistry queriesRegistry;
+    private RandomMediaItemSampler randomSampler;
+    private GenreIndex genreIndex;
+    private MediaItemsAsyncController asyncController;
 
 
     /************************************************ GENERAL (classes, services, etc.) ************************************************/
@@ -72,11 +101,71 @@ public abstract class MediaItemsAbstractController
     public abstract int getDoingOptionName();
 
     /**
-     * "Internal" getter (used in {@link MediaItemsAbstractController#getRandomMediaItem(Category, Long, List, List, String, int, int)})
+     * "Internal" getter (used in {@link MediaItemsAbstractController#getRandomMediaItem(Category, Long, List, List, String, int, int, boolean)})
      * @return the database column name for the duration (pages number, runtime, etc.) for this media type
      */
     protected abstract String getDurationDatabaseFieldName();
 
+    /**
+     * "Internal" getter (used by {@link MediaItemsAbstractController#getQueriesRegistry()})
+     * @return the mapper that converts the database rows of this media type into media items
+     */
+    protected abstract MediaItemCursorMapper<? extends MediaItem> getCursorMapper();
+
+    /**
+     * Getter
+     * @return the registry of the compiled queries of this media type
+     */
+    protected synchronized CompiledQueriesRegistry getQueriesRegistry()
+    {
+        if(queriesRegistry==null) queriesRegistry = new CompiledQueriesRegistry(getCursorMapper());
+        return queriesRegistry;
+    }
+
+    /**
+     * Getter
+     * @return the random sampler of the media items of this media type (used by the suggestions)
+     */
+    private synchronized RandomMediaItemSampler getRandomSampler()
+    {
+        if(randomSampler==null) randomSampler = new RandomMediaItemSampler(getQueriesRegistry(), getTableName());
+        return randomSampler;
+    }
+
+    /**
+     * Getter
+     * @return the genre index of this media type (its tables are checked and filled only the first time)
+     */
+    private synchronized GenreIndex getGenreIndex()
+    {
+        if(genreIndex==null)
+        {
+            GenreIndex index = new GenreIndex(getTableName());
+            index.ensureIndex(SugarDatabaseAccessor.getDatabase());
+            genreIndex = index;
+        }
+        return genreIndex;
+    }
+
+    /**
+     * Getter
+     * @return the asynchronous version of this controller, to be used by the UI
+     */
+    public synchronized MediaItemsAsyncController getAsyncController()
+    {
+        if(asyncController==null) asyncController = new MediaItemsAsyncController(this);
+        return asyncController;
+    }
+
+    /**
+     * Getter
+     * @return the name of the database table of this media type
+     */
+    private String getTableName()
+    {
+        return NamingHelper.toSQLName(getModelClass());
+    }
+
     /**
      * The subcategories of this media type (= subcategories of each category of this media type)
      * @return the array of subcategories
@@ -117,52 +206,335 @@ public abstract class MediaItemsAbstractController
         return page*PAGE_LENGTH+", "+PAGE_LENGTH;
     }
 
+    /**
+     * Helper to build a SELECT query on the table of this media type
+     * @param where the WHERE value
+     * @param orderBy the ORDER BY value, may be null
+     * @param limit the LIMIT value, may be null
+     * @return the query SQL
+     */
+    private String buildSelectQuery(String where, String orderBy, String limit)
+    {
+        return "SELECT * FROM "+getTableName()+" WHERE "+where+
+                (orderBy==null ? "" : " ORDER BY "+orderBy)+
+                (limit==null ? "" : " LIMIT "+limit);
+    }
+
+    /**
+     * Helper to get the section rank of the "doing now" section (first one in the tracked list)
+     * @return the section rank
+     */
+    private int getDoingNowSectionRank()
+    {
+        Integer maxIl = null;
+        for(ImportanceLevel il: ImportanceLevel.values())
+        {
+            if(maxIl==null || il.getDbValue()>maxIl) maxIl = il.getDbValue();
+        }
+        if(maxIl==null) throw new IllegalStateException("Something went really wrong with importance levels");
+        return maxIl+1;
+    }
+
+    /**
+     * Helper to get the section rank of the "upcoming" section (last one in the tracked list)
+     * @return the section rank
+     */
+    private int getUpcomingSectionRank()
+    {
+        Integer minIl = null;
+        for(ImportanceLevel il: ImportanceLevel.values())
+        {
+            if(minIl==null || il.getDbValue()<minIl) minIl = il.getDbValue();
+        }
+        if(minIl==null) throw new IllegalStateException("Something went really wrong with importance levels");
+        return minIl-1;
+    }
+
+    /**
+     * Helper to build the SQL condition that checks if a media item is upcoming
+     * @param now the SQL value of the current time in milliseconds (e.g. a parameter placeholder)
+     * @return the SQL condition
+     */
+    private String buildIsUpcomingCondition(String now)
+    {
+        return "("+MediaItem.COLUMN_RELEASE_DATE+" IS NOT NULL AND "+MediaItem.COLUMN_RELEASE_DATE+" > "+now+")";
+    }
+
+    /**
+     * Helper to build the SQL expression of the tracked section rank (higher rank = higher in the list). Upcoming media items
+     * are always in the upcoming section, even if they were set as "doing now", like in {@link MediaItem#getSection()}
+     * @param now the SQL value of the current time in milliseconds (e.g. a parameter placeholder)
+     * @return the SQL expression
+     */
+    private String buildTrackedSectionRankExpression(String now)
+    {
+        return "(CASE WHEN "+buildIsUpcomingCondition(now)+" "+
+                    "THEN "+getUpcomingSectionRank()+" "+
+                    "ELSE "+
+                        "(CASE WHEN "+MediaItem.COLUMN_DOING_NOW+" = 1 "+
+                            "THEN "+getDoingNowSectionRank()+" "+
+                            "ELSE "+MediaItem.COLUMN_IMPORTANCE_LEVEL+" END) END)";
+    }
+
+    /**
+     * Helper to build the SQL expression of the tracked media item order inside its section (release date for upcoming media items)
+     * @param now the SQL value of the current time in milliseconds (e.g. a parameter placeholder)
+     * @return the SQL expression
+     */
+    private String buildTrackedValueInSectionExpression(String now)
+    {
+        return "(CASE WHEN "+buildIsUpcomingCondition(now)+" "+
+                    "THEN "+MediaItem.COLUMN_RELEASE_DATE+" "+
+                    "ELSE "+MediaItem.COLUMN_ORDER_IN_SECTION+" END)";
+    }
+
+    /**
+     * Helper to build the ORDER BY value of the tracked media items list. It only uses the persisted sort key columns, so it's
+     * served by the tracked list index (see {@link MediaItemsAbstractController#refreshTrackedSectionSortKeys(Category)})
+     * @return the ORDER BY value
+     */
+    private String buildTrackedOrderBy()
+    {
+        return MediaItem.COLUMN_SECTION_RANK+" DESC, "+
+                MediaItem.COLUMN_SECTION_ORDER+" ASC, "+
+                MediaItem.COLUMN_ID+" ASC";
+    }
+
+    /**
+     * Java counterpart of {@link MediaItemsAbstractController#buildTrackedSectionRankExpression(String)}
+     * @param mediaItem the tracked media item
+     * @param now the current time in milliseconds
+     * @return the section rank
+     */
+    private int getTrackedSectionRank(MediaItem mediaItem, long now)
+    {
+        return getTrackedSectionRank(mediaItem, mediaItem.getReleaseDate()!=null && mediaItem.getReleaseDate().getTime()>now);
+    }
+
+    /**
+     * Helper to get the section rank of a tracked media item
+     * @param mediaItem the tracked media item
+     * @param upcoming true if the media item is upcoming
+     * @return the section rank
+     */
+    private int getTrackedSectionRank(MediaItem mediaItem, boolean upcoming)
+    {
+        if(upcoming) return getUpcomingSectionRank();
+        else if(mediaItem.isDoingNow()) return getDoingNowSectionRank();
+        else return mediaItem.getImportanceLevel()==null ? 0 : mediaItem.getImportanceLevel().getDbValue();
+    }
+
+    /**
+     * Java counterpart of {@link MediaItemsAbstractController#buildTrackedValueInSectionExpression(String)}
+     * @param mediaItem the tracked media item
+     * @param now the current time in milliseconds
+     * @return the order value inside the section
+     */
+    private long getTrackedValueInSection(MediaItem mediaItem, long now)
+    {
+        return getTrackedValueInSection(mediaItem, mediaItem.getReleaseDate()!=null && mediaItem.getReleaseDate().getTime()>now);
+    }
+
+    /**
+     * Helper to get the order value of a tracked media item inside its section
+     * @param mediaItem the tracked media item
+     * @param upcoming true if the media item is upcoming
+     * @return the order value inside the section
+     */
+    private long getTrackedValueInSection(MediaItem mediaItem, boolean upcoming)
+    {
+        if(upcoming) return mediaItem.getReleaseDate().getTime();
+        else return mediaItem.getOrderInSection();
+    }
+
+    /**
+     * Gets the order of the tracked media items list, the same of the database query, but based on the upcoming state of the
+     * media items in memory (see {@link MediaItem#updateUpcoming(long)}): it allows to move a released media item to its new
+     * section without loading the list again
+     * @return the tracked list comparator
+     */
+    public Comparator<MediaItem> getTrackedOrderComparator()
+    {
+        return new Comparator<MediaItem>()
+        {
+            @Override
+            public int compare(MediaItem mediaItem1, MediaItem mediaItem2)
+            {
+                // Section rank descending
+                boolean upcoming1 = mediaItem1.isUpcoming();
+                boolean upcoming2 = mediaItem2.isUpcoming();
+                int result = Integer.compare(getTrackedSectionRank(mediaItem2, upcoming2), getTrackedSectionRank(mediaItem1, upcoming1));
+                if(result!=0) return result;
+
+                // Order in section ascending
+                result = Long.compare(getTrackedValueInSection(mediaItem1, upcoming1), getTrackedValueInSection(mediaItem2, upcoming2));
+                if(result!=0) return result;
+
+                // ID ascending
+                long id1 = mediaItem1.getId()==null ? 0 : mediaItem1.getId();
+                long id2 = mediaItem2.getId()==null ? 0 : mediaItem2.getId();
+                return Long.compare(id1, id2);
+            }
+        };
+    }
+
+    /**
+     * Makes sure that the persisted sort key columns of the tracked media items in the given category are up to date and indexed.
+     * They are computed when a media item is saved, so the only rows to fix are the ones that were never computed (e.g. imported
+     * ones) and the upcoming ones that were released in the meantime.
+     * @param category the media items category
+     */
+    private void refreshTrackedSectionSortKeys(Category category)
+    {
+        final String table = getTableName();
+
+        // Index for the tracked list (created only the first time, covers new installs where the upgrade scripts don't run)
+        if(!trackedListIndexChecked)
+        {
+            MediaItem.executeQuery("CREATE INDEX IF NOT EXISTS IDX_"+table+"_TRACKED_LIST ON "+table+" ("+
+                    MediaItem.COLUMN_CATEGORY+", "+MediaItem.COLUMN_COMPLETION_DATE+", "+MediaItem.COLUMN_SECTION_RANK+" DESC, "+MediaItem.COLUMN_SECTION_ORDER+")");
+            trackedListIndexChecked = true;
+        }
+
+        // Recompute stale rows (?1 = now, ?2 = category)
+        getQueriesRegistry().executeUpdate("REFRESH_TRACKED_SORT_KEYS", new CompiledQueriesRegistry.QueryBuilder()
+        {
+            @Override
+            public String build()
+            {
+                return "UPDATE "+table+" SET "+
+                            MediaItem.COLUMN_SECTION_RANK+" = "+buildTrackedSectionRankExpression("?1")+", "+
+                            MediaItem.COLUMN_SECTION_ORDER+" = "+buildTrackedValueInSectionExpression("?1")+" "+
+                        "WHERE "+MediaItem.COLUMN_CATEGORY+" = ?2 AND "+MediaItem.COLUMN_COMPLETION_DATE+" IS NULL AND ("+
+                            MediaItem.COLUMN_SECTION_RANK+" IS NULL OR "+
+                            "("+MediaItem.COLUMN_SECTION_RANK+" = "+getUpcomingSectionRank()+" AND "+MediaItem.COLUMN_RELEASE_DATE+" <= ?1))";
+            }
+        }, Clock.getInstance().now(), category.getId());
+    }
+
+    /**
+     * Helper to build a continuation token for the keyset pagination
+     * @param values the sort key values of the last media item of the page
+     * @return the continuation token
+     */
+    private String buildContinuationToken(long... values)
+    {
+        StringBuilder token = new StringBuilder();
+        for(int i=0; i<values.length; i++)
+        {
+            if(i>0) token.append(':');
+            token.append(values[i]);
+        }
+        return token.toString();
+    }
+
+    /**
+     * Helper to parse a continuation token built by {@link MediaItemsAbstractController#buildContinuationToken(long...)}
+     * @param continuationToken the continuation token
+     * @param expectedValues the number of values in the token
+     * @return the sort key values
+     */
+    private long[] parseContinuationToken(String continuationToken, int expectedValues)
+    {
+        String[] parts = continuationToken.split(":");
+        if(parts.length!=expectedValues) throw new IllegalArgumentException("Malformed continuation token: "+continuationToken);
+
+        long[] values = new long[expectedValues];
+        try
+        {
+            for(int i=0; i<expectedValues; i++)
+            {
+                values[i] = Long.parseLong(parts[i]);
+            }
+        }
+        catch(NumberFormatException e)
+        {
+            throw new IllegalArgumentException("Malformed continuation token: "+continuationToken, e);
+        }
+        return values;
+    }
+
     /**
      * Gets all tracked media items in the given category
      * @param page the current page for the media items (e.g. 0 retrieves the first "PAGE_LENGTH" elements, 1 the elements from PAGE_LENGTH to 2*PAGE_LENGTH-1, etc.)
      * @param category the media items category
      * @return all tracked media items
      */
-    @SuppressWarnings("unchecked")
     public List<MediaItem> getTrackedMediaItemsInCategory(int page, Category category)
     {
         List<MediaItem> mediaItems = null;
         if(category.getId()!=null)
         {
-            String where = MediaItem.COLUMN_CATEGORY+" = ? AND "+ MediaItem.COLUMN_COMPLETION_DATE+" IS NULL";
-            String[] whereArgs = new String[]{category.getId().toString()};
+            if(page==0) refreshTrackedSectionSortKeys(category);
+            mediaItems = getQueriesRegistry().queryMediaItems("TRACKED_PAGE", new CompiledQueriesRegistry.QueryBuilder()
+            {
+                @Override
+                public String build()
+                {
+                    return buildSelectQuery(MediaItem.COLUMN_CATEGORY+" = ? AND "+MediaItem.COLUMN_COMPLETION_DATE+" IS NULL", buildTrackedOrderBy(), "?, ?");
+                }
+            }, category.getId().toString(), String.valueOf(page*PAGE_LENGTH), String.valueOf(PAGE_LENGTH));
+        }
+        return mediaItems;
+    }
 
-            Integer minIl = null, maxIl = null;
-            for(ImportanceLevel il: ImportanceLevel.values())
+    /**
+     * Gets a page of tracked media items in the given category using keyset pagination, i.e. the page starts right after
+     * the last media item of the previous page instead of skipping "page*PAGE_LENGTH" rows: every page costs the same
+     * no matter how deep the user has scrolled
+     * @param continuationToken the token returned with the previous page ({@link MediaItemsPage#getContinuationToken()}), null to get the first page
+     * @param category the media items category
+     * @return the page of tracked media items
+     */
+    public MediaItemsPage getTrackedMediaItemsPageInCategory(String continuationToken, Category category)
+    {
+        if(category.getId()==null) return new MediaItemsPage(new ArrayList<MediaItem>(), null);
+
+        final String where = MediaItem.COLUMN_CATEGORY+" = ?1 AND "+MediaItem.COLUMN_COMPLETION_DATE+" IS NULL";
+        List<MediaItem> mediaItems;
+
+        // The sort keys are refreshed only with the first page, so that they never change while scrolling
+        if(continuationToken==null)
+        {
+            refreshTrackedSectionSortKeys(category);
+            mediaItems = getQueriesRegistry().queryMediaItems("TRACKED_FIRST_PAGE", new CompiledQueriesRegistry.QueryBuilder()
             {
-                if(minIl==null || il.getDbValue()<minIl)
+                @Override
+                public String build()
                 {
-                    minIl = il.getDbValue();
+                    return buildSelectQuery(where, buildTrackedOrderBy(), "?2");
                 }
-                if(maxIl==null || il.getDbValue()>maxIl)
+            }, category.getId().toString(), String.valueOf(PAGE_LENGTH));
+        }
+        else
+        {
+            // Token: section rank, order inside the section and ID of the last media item of the previous page
+            long[] token = parseContinuationToken(continuationToken, 3);
+
+            // Rows after the last one: lower rank, or same rank and greater order, or same rank and order and greater ID
+            mediaItems = getQueriesRegistry().queryMediaItems("TRACKED_NEXT_PAGE", new CompiledQueriesRegistry.QueryBuilder()
+            {
+                @Override
+                public String build()
                 {
-                    maxIl = il.getDbValue();
+                    return buildSelectQuery(where+" AND ("+
+                            MediaItem.COLUMN_SECTION_RANK+" < ?3 OR "+
+                            "("+MediaItem.COLUMN_SECTION_RANK+" = ?3 AND "+MediaItem.COLUMN_SECTION_ORDER+" > ?4) OR "+
+                            "("+MediaItem.COLUMN_SECTION_RANK+" = ?3 AND "+MediaItem.COLUMN_SECTION_ORDER+" = ?4 AND "+MediaItem.COLUMN_ID+" > ?5))",
+                            buildTrackedOrderBy(), "?2");
                 }
-            }
-            if(minIl==null) throw new IllegalStateException("Something went really wrong with importance levels");
-            long now = Calendar.getInstance().getTimeInMillis();
-            final String IS_DOING_NOW = MediaItem.COLUMN_DOING_NOW+" = 1";
-            final String IS_UPCOMING = "("+MediaItem.COLUMN_RELEASE_DATE+" IS NOT NULL AND "+MediaItem.COLUMN_RELEASE_DATE+" > "+now+")";
-            String orderBy =
-                    "(CASE WHEN "+IS_DOING_NOW+" "+
-                        "THEN "+(maxIl+1)+" "+
-                        "ELSE "+
-                            "(CASE WHEN "+IS_UPCOMING+" "+
-                                "THEN "+(minIl-1)+" "+
-                                "ELSE "+MediaItem.COLUMN_IMPORTANCE_LEVEL+" END) END) DESC, "+
-                    "(CASE WHEN "+IS_UPCOMING+" "+
-                        "THEN "+MediaItem.COLUMN_RELEASE_DATE+" "+
-                        "ELSE "+MediaItem.COLUMN_ORDER_IN_SECTION+" END) ASC";
-
-            String limit = buildSelectLimitWithPage(page);
-            mediaItems = MediaItem.find(getModelClass(), where, whereArgs, "", orderBy, limit);
+            }, category.getId().toString(), String.valueOf(PAGE_LENGTH), String.valueOf(token[0]), String.valueOf(token[1]), String.valueOf(token[2]));
         }
-        return mediaItems;
+
+        // Build the token for the next page from the last media item (no token if this was the last page)
+        String nextContinuationToken = null;
+        if(mediaItems.size()==PAGE_LENGTH)
+        {
+            MediaItem last = mediaItems.get(mediaItems.size()-1);
+            nextContinuationToken = buildContinuationToken(last.getSectionRank(), last.getSectionOrder(), last.getId());
+        }
+
+        return new MediaItemsPage(mediaItems, nextContinuationToken);
     }
 
     /**
@@ -171,21 +543,83 @@ public abstract class MediaItemsAbstractController
      * @param category the media items category
      * @return all completed media items
      */
-    @SuppressWarnings("unchecked")
     public List<MediaItem> getCompletedMediaItemsInCategory(int page, Category category)
     {
         List<MediaItem> mediaItems = null;
         if(category.getId()!=null)
         {
-            String where = MediaItem.COLUMN_CATEGORY+" = ? AND "+ MediaItem.COLUMN_COMPLETION_DATE+" IS NOT NULL";
-            String[] whereArgs = new String[]{category.getId().toString()};
-            String orderBy = MediaItem.COLUMN_COMPLETION_DATE+" DESC";
-            String limit = buildSelectLimitWithPage(page);
-            mediaItems = MediaItem.find(getModelClass(), where, whereArgs, "", orderBy, limit);
+            mediaItems = getQueriesRegistry().queryMediaItems("COMPLETED_PAGE", new CompiledQueriesRegistry.QueryBuilder()
+            {
+                @Override
+                public String build()
+                {
+                    return buildSelectQuery(MediaItem.COLUMN_CATEGORY+" = ? AND "+MediaItem.COLUMN_COMPLETION_DATE+" IS NOT NULL", buildCompletedOrderBy(), "?, ?");
+                }
+            }, category.getId().toString(), String.valueOf(page*PAGE_LENGTH), String.valueOf(PAGE_LENGTH));
         }
         return mediaItems;
     }
 
+    /**
+     * Like {@link MediaItemsAbstractController#getTrackedMediaItemsPageInCategory(String, Category)} but for the completed media items
+     * @param continuationToken the token returned with the previous page ({@link MediaItemsPage#getContinuationToken()}), null to get the first page
+     * @param category the media items category
+     * @return the page of completed media items
+     */
+    public MediaItemsPage getCompletedMediaItemsPageInCategory(String continuationToken, Category category)
+    {
+        if(category.getId()==null) return new MediaItemsPage(new ArrayList<MediaItem>(), null);
+
+        final String where = MediaItem.COLUMN_CATEGORY+" = ?1 AND "+MediaItem.COLUMN_COMPLETION_DATE+" IS NOT NULL";
+        List<MediaItem> mediaItems;
+
+        if(continuationToken==null)
+        {
+            mediaItems = getQueriesRegistry().queryMediaItems("COMPLETED_FIRST_PAGE", new CompiledQueriesRegistry.QueryBuilder()
+            {
+                @Override
+                public String build()
+                {
+                    return buildSelectQuery(where, buildCompletedOrderBy(), "?2");
+                }
+            }, category.getId().toString(), String.valueOf(PAGE_LENGTH));
+        }
+        else
+        {
+            // Token: completion date and ID of the last media item of the previous page
+            long[] token = parseContinuationToken(continuationToken, 2);
+            mediaItems = getQueriesRegistry().queryMediaItems("COMPLETED_NEXT_PAGE", new CompiledQueriesRegistry.QueryBuilder()
+            {
+                @Override
+                public String build()
+                {
+                    return buildSelectQuery(where+" AND ("+
+                            MediaItem.COLUMN_COMPLETION_DATE+" < ?3 OR ("+MediaItem.COLUMN_COMPLETION_DATE+" = ?3 AND "+MediaItem.COLUMN_ID+" < ?4))",
+                            buildCompletedOrderBy(), "?2");
+                }
+            }, category.getId().toString(), String.valueOf(PAGE_LENGTH), String.valueOf(token[0]), String.valueOf(token[1]));
+        }
+
+        // Build the token for the next page from the last media item (no token if this was the last page)
+        String nextContinuationToken = null;
+        if(mediaItems.size()==PAGE_LENGTH)
+        {
+            MediaItem last = mediaItems.get(mediaItems.size()-1);
+            nextContinuationToken = buildContinuationToken(last.getCompletionDate().getTime(), last.getId());
+        }
+
+        return new MediaItemsPage(mediaItems, nextContinuationToken);
+    }
+
+    /**
+     * Helper to build the ORDER BY value of the completed media items list
+     * @return the ORDER BY value
+     */
+    private String buildCompletedOrderBy()
+    {
+        return MediaItem.COLUMN_COMPLETION_DATE+" DESC, "+MediaItem.COLUMN_ID+" DESC";
+    }
+
     /**
      * Searches for media items matching the given query
      * @param page the current page for the media items (e.g. 0 retrieves the first "PAGE_LENGTH" elements, 1 the elements from PAGE_LENGTH to 2*PAGE_LENGTH-1, etc.)
@@ -194,32 +628,172 @@ public abstract class MediaItemsAbstractController
      * @param completed true if only completed media items, false if only tracked (= not completed), null if any
      * @return the media items that match the query
      */
-    @SuppressWarnings("unchecked")
-    public List<MediaItem> searchMediaItemsInCategory(int page, Category category, String query, Boolean completed)
+    public List<MediaItem> searchMediaItemsInCategory(int page, Category category, String query, final Boolean completed)
     {
         List<MediaItem> mediaItems = null;
         if(category.getId()!=null)
         {
-            String where = MediaItem.COLUMN_CATEGORY+" = ? AND "+MediaItem.COLUMN_NAME+" LIKE ?";
-            if(completed!=null)
+            mediaItems = getQueriesRegistry().queryMediaItems("SEARCH_"+completed, new CompiledQueriesRegistry.QueryBuilder()
             {
-                if(completed) where += " AND "+ MediaItem.COLUMN_COMPLETION_DATE+" IS NOT NULL";
-                else where += " AND "+ MediaItem.COLUMN_COMPLETION_DATE+" IS NULL";
+                @Override
+                public String build()
+                {
+                    return buildSelectQuery(MediaItem.COLUMN_CATEGORY+" = ? AND "+MediaItem.COLUMN_NAME+" LIKE ?"+buildCompletedCondition(completed),
+                            MediaItem.COLUMN_NAME+" ASC", "?, ?");
+                }
+            }, category.getId().toString(), "%"+query+"%", String.valueOf(page*PAGE_LENGTH), String.valueOf(PAGE_LENGTH));
+        }
+        return mediaItems;
+    }
+
+    /**
+     * Helper to build the optional search condition on the completion
+     * @param completed true if only completed media items, false if only tracked (= not completed), null if any
+     * @return the condition (starting with AND), empty if none
+     */
+    private String buildCompletedCondition(Boolean completed)
+    {
+        if(completed==null) return "";
+        else if(completed) return " AND "+MediaItem.COLUMN_COMPLETION_DATE+" IS NOT NULL";
+        else return " AND "+MediaItem.COLUMN_COMPLETION_DATE+" IS NULL";
+    }
+
+    /**
+     * Like {@link MediaItemsAbstractController#searchMediaItemsInCategory(int, Category, String, Boolean)} but uses the full-text
+     * search index: each word of the query matches any word starting with it in the media item title, genres, description or
+     * comment. Results are sorted by relevance (title matches first, then genres matches, then the others).
+     * @param page the current page for the media items (e.g. 0 retrieves the first "PAGE_LENGTH" elements, 1 the elements from PAGE_LENGTH to 2*PAGE_LENGTH-1, etc.)
+     * @param category the media items category
+     * @param query the string to search for
+     * @param completed true if only completed media items, false if only tracked (= not completed), null if any
+     * @return the media items that match the query
+     */
+    public List<MediaItem> fullTextSearchMediaItemsInCategory(int page, Category category, String query, final Boolean completed)
+    {
+        List<MediaItem> mediaItems = new ArrayList<>();
+        if(category.getId()!=null)
+        {
+            // Get the query words (quotes and asterisks are removed, the words without letters or digits are ignored)
+            List<String> terms = new ArrayList<>();
+            for(String term: query.split("[\\s\"*]+"))
+            {
+                if(isFullTextTerm(term)) terms.add(term);
             }
-            String[] whereArgs = new String[]{category.getId().toString(), "%"+query+"%"};
-            String orderBy = MediaItem.COLUMN_NAME+" ASC";
-            String limit = buildSelectLimitWithPage(page);
-            mediaItems = MediaItem.find(getModelClass(), where, whereArgs, "", orderBy, limit);
+            if(terms.isEmpty()) return mediaItems;
+
+            ensureSearchIndex();
+            mediaItems = getQueriesRegistry().queryMediaItems("FULL_TEXT_SEARCH_"+completed, new CompiledQueriesRegistry.QueryBuilder()
+            {
+                @Override
+                public String build()
+                {
+                    String searchTable = getSearchTableName();
+
+                    // All words must match, each one as a prefix
+                    String where = "t."+MediaItem.COLUMN_ID+" IN (SELECT docid FROM "+searchTable+" WHERE "+searchTable+" MATCH ?) AND t."+MediaItem.COLUMN_CATEGORY+" = ?";
+                    if(completed!=null)
+                    {
+                        if(completed) where += " AND t."+ MediaItem.COLUMN_COMPLETION_DATE+" IS NOT NULL";
+                        else where += " AND t."+ MediaItem.COLUMN_COMPLETION_DATE+" IS NULL";
+                    }
+
+                    // Relevance: a title match weighs more than a genres match, that weighs more than a description/comment match
+                    String orderBy =
+                            "(CASE WHEN t."+MediaItem.COLUMN_ID+" IN (SELECT docid FROM "+searchTable+" WHERE "+searchTable+" MATCH ?) THEN 2 ELSE 0 END) + "+
+                            "(CASE WHEN t."+MediaItem.COLUMN_ID+" IN (SELECT docid FROM "+searchTable+" WHERE "+searchTable+" MATCH ?) THEN 1 ELSE 0 END) DESC, "+
+                            "t."+MediaItem.COLUMN_NAME+" ASC";
+
+                    return "SELECT t.* FROM "+getTableName()+" t WHERE "+where+" ORDER BY "+orderBy+" LIMIT ?, ?";
+                }
+            },
+                    buildFullTextMatch(null, terms),
+                    category.getId().toString(),
+                    buildFullTextMatch(MediaItem.COLUMN_NAME, terms),
+                    buildFullTextMatch(MediaItem.COLUMN_GENRES, terms),
+                    String.valueOf(page*PAGE_LENGTH), String.valueOf(PAGE_LENGTH));
         }
         return mediaItems;
     }
 
+    /**
+     * Helper to build a full-text MATCH value where each term is matched as a prefix. Each term is a quoted phrase, so that
+     * the user input is never read as FTS syntax (e.g. OR, NOT, NEAR, "-" or parentheses); FTS4 reads the prefix asterisk
+     * inside the quotes
+     * @param column the column to restrict the match to, null for all columns
+     * @param terms the query words, without quotes
+     * @return the MATCH value
+     */
+    private String buildFullTextMatch(String column, List<String> terms)
+    {
+        List<String> matchTerms = new ArrayList<>();
+        for(String term: terms)
+        {
+            matchTerms.add((column==null ? "" : column+":")+"\""+term+"*\"");
+        }
+        return TextUtils.join(" ", matchTerms);
+    }
+
+    /**
+     * Helper to check if a query word can be searched in the full-text index, i.e. if it contains at least a letter or a digit
+     * (the index tokenizer drops everything else)
+     * @param term the query word
+     * @return true if it's a valid term
+     */
+    private boolean isFullTextTerm(String term)
+    {
+        for(int i=0; i<term.length(); i++)
+        {
+            if(Character.isLetterOrDigit(term.charAt(i))) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Getter
+     * @return the name of the full-text search table of this media type
+     */
+    private String getSearchTableName()
+    {
+        return getTableName()+"_FTS";
+    }
+
+    /**
+     * Makes sure that the full-text search table of this media type exists, is filled and is kept in sync by triggers
+     * (checked only the first time)
+     */
+    private void ensureSearchIndex()
+    {
+        if(searchIndexChecked) return;
+
+        String table = getTableName();
+        String searchTable = getSearchTableName();
+        String columns = MediaItem.COLUMN_NAME+", "+MediaItem.COLUMN_GENRES+", "+MediaItem.COLUMN_DESCRIPTION+", "+MediaItem.COLUMN_USER_COMMENT;
+        String newValues = "new."+MediaItem.COLUMN_NAME+", new."+MediaItem.COLUMN_GENRES+", new."+MediaItem.COLUMN_DESCRIPTION+", new."+MediaItem.COLUMN_USER_COMMENT;
+
+        // Search table (it keeps its own copy of the text: Sugar saves with INSERT OR REPLACE, that doesn't fire delete triggers)
+        MediaItem.executeQuery("CREATE VIRTUAL TABLE IF NOT EXISTS "+searchTable+" USING fts4("+columns+")");
+
+        // Sync triggers
+        String deleteNew = "DELETE FROM "+searchTable+" WHERE docid = new."+MediaItem.COLUMN_ID+"; ";
+        String insertNew = "INSERT INTO "+searchTable+" (docid, "+columns+") VALUES (new."+MediaItem.COLUMN_ID+", "+newValues+"); ";
+        MediaItem.executeQuery("CREATE TRIGGER IF NOT EXISTS "+searchTable+"_AI AFTER INSERT ON "+table+" BEGIN "+deleteNew+insertNew+"END");
+        MediaItem.executeQuery("CREATE TRIGGER IF NOT EXISTS "+searchTable+"_AU AFTER UPDATE ON "+table+" BEGIN "+
+                "DELETE FROM "+searchTable+" WHERE docid = old."+MediaItem.COLUMN_ID+"; "+deleteNew+insertNew+"END");
+        MediaItem.executeQuery("CREATE TRIGGER IF NOT EXISTS "+searchTable+"_AD AFTER DELETE ON "+table+" BEGIN "+
+                "DELETE FROM "+searchTable+" WHERE docid = old."+MediaItem.COLUMN_ID+"; END");
+
+        // Add the rows that existed before the search table
+        MediaItem.executeQuery("INSERT INTO "+searchTable+" (docid, "+columns+") "+
+                "SELECT "+MediaItem.COLUMN_ID+", "+columns+" FROM "+table+" WHERE "+MediaItem.COLUMN_ID+" NOT IN (SELECT docid FROM "+searchTable+")");
+
+        searchIndexChecked = true;
+    }
+
     /**
      * Gets all media items whose release date is today
      * @param category the media items category
      * @return all media items released today
      */
-    @SuppressWarnings("unchecked")
     public List<MediaItem> getMediaItemsReleasedToday(Category category)
     {
         Calendar calendar = Calendar.getInstance();
@@ -238,14 +812,48 @@ public abstract class MediaItemsAbstractController
         List<MediaItem> mediaItems = null;
         if(category.getId()!=null)
         {
-            String where = MediaItem.COLUMN_CATEGORY+" = ? AND "+MediaItem.COLUMN_RELEASE_DATE+" BETWEEN ? AND ?";
-            String[] whereArgs = new String[]{category.getId().toString(), todayStart, todayEnd};
-            mediaItems = MediaItem.find(getModelClass(), where, whereArgs);
+            mediaItems = getQueriesRegistry().queryMediaItems("RELEASED_TODAY", new CompiledQueriesRegistry.QueryBuilder()
+            {
+                @Override
+                public String build()
+                {
+                    return buildSelectQuery(MediaItem.COLUMN_CATEGORY+" = ? AND "+MediaItem.COLUMN_RELEASE_DATE+" BETWEEN ? AND ?", null, null);
+                }
+            }, category.getId().toString(), todayStart, todayEnd);
         }
 
         return mediaItems;
     }
 
+    /**
+     * Gets the tracked media items whose external service data may still change, i.e. the upcoming ones and the ones
+     * that satisfy {@link MediaItemsAbstractController#getRefreshCondition()} (e.g. TV shows in production)
+     * @return the media items to refresh, in all categories
+     */
+    public List<MediaItem> getMediaItemsToRefresh()
+    {
+        return getQueriesRegistry().queryMediaItems("TO_REFRESH", new CompiledQueriesRegistry.QueryBuilder()
+        {
+            @Override
+            public String build()
+            {
+                String refreshCondition = getRefreshCondition();
+                return buildSelectQuery(MediaItem.COLUMN_COMPLETION_DATE+" IS NULL AND "+
+                        MediaItem.COLUMN_EXTERNAL_SERVICE_ID+" IS NOT NULL AND "+MediaItem.COLUMN_EXTERNAL_SERVICE_ID+" <> '' AND "+
+                        "("+buildIsUpcomingCondition("?1")+(refreshCondition==null ? "" : " OR ("+refreshCondition+")")+")", null, null);
+            }
+        }, String.valueOf(Clock.getInstance().now()));
+    }
+
+    /**
+     * Allows the subclasses to refresh other media items besides the upcoming ones
+     * @return the SQL condition of the other media items to refresh, null if none
+     */
+    protected String getRefreshCondition()
+    {
+        return null;
+    }
+
     /**
      * Gets the count of all media items (tracked or completed) in this category
      * @param category the media items category
@@ -253,7 +861,49 @@ public abstract class MediaItemsAbstractController
      */
     public long getAllMediaItemsNumberInCategory(Category category)
     {
-        return MediaItem.count(getModelClass(), MediaItem.COLUMN_CATEGORY + " = ?", new String[]{category.getId().toString()});
+        return CategoryRepository.getInstance().getCounts(category.getId()).getTotal();
+    }
+
+    /**
+     * Helper to get the saved state of a media item that affects the category counts
+     * @param mediaItemId the media item ID, may be null
+     * @return the saved state, null if the media item is not in the database
+     */
+    private CategoryRepository.MediaItemState getSavedCountsState(Long mediaItemId)
+    {
+        SavedState savedState = getSavedState(mediaItemId);
+        return savedState==null ? null : savedState.countsState;
+    }
+
+    /**
+     * Helper to get the saved values of a media item that a save needs to compare with the new ones (category counts
+     * state and genres)
+     * @param mediaItemId the media item ID, may be null
+     * @return the saved values, null if the media item is not in the database
+     */
+    private SavedState getSavedState(Long mediaItemId)
+    {
+        if(mediaItemId==null) return null;
+        final List<SavedState> states = new ArrayList<>(1);
+        getQueriesRegistry().queryRows("SAVED_STATE", new CompiledQueriesRegistry.QueryBuilder()
+        {
+            @Override
+            public String build()
+            {
+                return "SELECT "+MediaItem.COLUMN_CATEGORY+", "+MediaItem.COLUMN_COMPLETION_DATE+" IS NOT NULL, "+
+                        MediaItem.COLUMN_DOING_NOW+", "+MediaItem.COLUMN_RELEASE_DATE+", "+MediaItem.COLUMN_GENRES+" "+
+                        "FROM "+getTableName()+" WHERE "+MediaItem.COLUMN_ID+" = ?";
+            }
+        }, new CompiledQueriesRegistry.RowReader()
+        {
+            @Override
+            public void readRow(Cursor cursor)
+            {
+                states.add(new SavedState(new CategoryRepository.MediaItemState(cursor.getLong(0), cursor.getInt(1)==1, cursor.getInt(2)==1,
+                        cursor.isNull(3) ? null : cursor.getLong(3)), cursor.getString(4)));
+            }
+        }, String.valueOf(mediaItemId));
+        return states.isEmpty() ? null : states.get(0);
     }
 
     /**
@@ -267,11 +917,28 @@ public abstract class MediaItemsAbstractController
         MediaItem mediaItem = null;
         if(category.getId()!=null)
         {
-            mediaItem = (MediaItem) MediaItem.findById(getModelClass(), itemId);
+            mediaItem = getSavedMediaItem(itemId);
         }
         return mediaItem;
     }
 
+    /**
+     * Helper to read a media item by its ID, in any category
+     * @param itemId the media item ID
+     * @return the media item if found, null otherwise
+     */
+    private MediaItem getSavedMediaItem(Long itemId)
+    {
+        return getQueriesRegistry().queryMediaItem("BY_ID", new CompiledQueriesRegistry.QueryBuilder()
+        {
+            @Override
+            public String build()
+            {
+                return buildSelectQuery(MediaItem.COLUMN_ID+" = ?", null, null);
+            }
+        }, String.valueOf(itemId));
+    }
+
     /**
      * Retrieves a random tracked media item in the given category that satisfies the given constraints
      * @param category the media item category
@@ -283,6 +950,22 @@ public abstract class MediaItemsAbstractController
      * @return a random media item or null if no match
      */
     public MediaItem getRandomTrackedMediaItem(Category category, Long idDifferentFromIfPossible, String genresContains, Boolean owned, int minDuration, int maxDuration)
+    {
+        return getRandomTrackedMediaItem(category, idDifferentFromIfPossible, genresContains, owned, minDuration, maxDuration, false);
+    }
+
+    /**
+     * Retrieves a random tracked media item in the given category that satisfies the given constraints
+     * @param category the media item category
+     * @param idDifferentFromIfPossible if possible, the retrieved media item has a different ID from this one ("if possible" means that if there's only one item that matches in the whole database, it is returned anyway). May be null
+     * @param genresContains genres contains this value. May be null
+     * @param owned true if the media item is owned by the user, false if it's not owned, null if it doesn't matter (owned or not)
+     * @param minDuration min duration (e.g. pages number, runtime,...). May be <= 0 if not interested in this constraint
+     * @param maxDuration max duration (e.g. pages number, runtime,...). May be <= 0 if not interested in this constraint
+     * @param weighted true to prefer the important, owned and older media items, false for a uniform pick
+     * @return a random media item or null if no match
+     */
+    public MediaItem getRandomTrackedMediaItem(Category category, Long idDifferentFromIfPossible, String genresContains, Boolean owned, int minDuration, int maxDuration, boolean weighted)
     {
         List<String> whereAndTerms = new ArrayList<>();
         List<String> whereArgs = new ArrayList<>();
@@ -303,10 +986,10 @@ public abstract class MediaItemsAbstractController
 
         // Add release date constraint (no upcoming media items in suggestions)
         whereAndTerms.add(MediaItem.COLUMN_RELEASE_DATE + " <= ?");
-        whereArgs.add(String.valueOf(Calendar.getInstance().getTimeInMillis()));
+        whereArgs.add(String.valueOf(getSuggestionsNow()));
 
         // Call helper method
-        return getRandomMediaItem(category, idDifferentFromIfPossible, whereAndTerms, whereArgs, genresContains, minDuration, maxDuration);
+        return getRandomMediaItem(category, idDifferentFromIfPossible, whereAndTerms, whereArgs, genresContains, minDuration, maxDuration, weighted);
     }
 
     /**
@@ -320,6 +1003,22 @@ public abstract class MediaItemsAbstractController
      * @return a random media item or null if no match
      */
     public MediaItem getRandomCompletedMediaItem(Category category, Long idDifferentFromIfPossible, String genresContains, int completedYearsAgo, int minDuration, int maxDuration)
+    {
+        return getRandomCompletedMediaItem(category, idDifferentFromIfPossible, genresContains, completedYearsAgo, minDuration, maxDuration, false);
+    }
+
+    /**
+     * Retrieves a random completed media item in the given category that satisfies the given constraints
+     * @param category the media item category
+     * @param idDifferentFromIfPossible if possible, the retrieved media item has a different ID from this one ("if possible" means that if there's only one item that matches in the whole database, it is returned anyway). May be null
+     * @param genresContains genres contains this value. May be null
+     * @param completedYearsAgo completion date is at least the given amount of years ago. May be 0
+     * @param minDuration min duration (e.g. pages number, runtime,...). May be 0
+     * @param maxDuration max duration (e.g. pages number, runtime,...). May be 0
+     * @param weighted true to prefer the important, owned, older and less completed media items, false for a uniform pick
+     * @return a random media item or null if no match
+     */
+    public MediaItem getRandomCompletedMediaItem(Category category, Long idDifferentFromIfPossible, String genresContains, int completedYearsAgo, int minDuration, int maxDuration, boolean weighted)
     {
         List<String> whereAndTerms = new ArrayList<>();
         List<String> whereArgs = new ArrayList<>();
@@ -331,21 +1030,20 @@ public abstract class MediaItemsAbstractController
         if(completedYearsAgo>0)
         {
             whereAndTerms.add(MediaItem.COLUMN_COMPLETION_DATE+" < ?");
-            long now = Calendar.getInstance().getTimeInMillis();
+            long now = getSuggestionsNow();
             long yearsAgoMs = (long) completedYearsAgo*GlobalConstants.MILLISECONDS_IN_YEAR;
             whereArgs.add(String.valueOf(now-yearsAgoMs));
         }
 
         // Call helper method
-        return getRandomMediaItem(category, idDifferentFromIfPossible, whereAndTerms, whereArgs, genresContains, minDuration, maxDuration);
+        return getRandomMediaItem(category, idDifferentFromIfPossible, whereAndTerms, whereArgs, genresContains, minDuration, maxDuration, weighted);
     }
 
     /**
-     * Internal helper to manage the common parts of {@link MediaItemsAbstractController#getRandomCompletedMediaItem(Category, Long, String, int, int, int)}
-     * and {@link MediaItemsAbstractController#getRandomTrackedMediaItem(Category, Long, String, Boolean, int, int)}
+     * Internal helper to manage the common parts of {@link MediaItemsAbstractController#getRandomCompletedMediaItem(Category, Long, String, int, int, int, boolean)}
+     * and {@link MediaItemsAbstractController#getRandomTrackedMediaItem(Category, Long, String, Boolean, int, int, boolean)}
      */
-    @SuppressWarnings("unchecked")
-    private MediaItem getRandomMediaItem(Category category, Long idDifferentFromIfPossible, List<String> whereAndTerms, List<String> whereArgs, String genresContains, int minDuration, int maxDuration)
+    private MediaItem getRandomMediaItem(Category category, Long idDifferentFromIfPossible, List<String> whereAndTerms, List<String> whereArgs, String genresContains, int minDuration, int maxDuration, boolean weighted)
     {
         // Check category
         if(category.getId()!=null)
@@ -354,11 +1052,11 @@ public abstract class MediaItemsAbstractController
             whereAndTerms.add(MediaItem.COLUMN_CATEGORY+" = ?");
             whereArgs.add(category.getId().toString());
 
-            // Add constraint for genres, if any
-            if(!Utils.isEmpty(genresContains))
+            // Add constraint for genres, if any (indexed lookup of the whole genre name)
+            if(!Utils.isEmpty(genresContains) && !genresContains.trim().isEmpty())
             {
-                whereAndTerms.add(MediaItem.COLUMN_GENRES+" LIKE ?");
-                whereArgs.add("%"+genresContains+"%");
+                whereAndTerms.add(getGenreIndex().getGenreFilterTerm());
+                whereArgs.add(genresContains.trim());
             }
 
             // Add constraint for duration, if any
@@ -386,33 +1084,74 @@ public abstract class MediaItemsAbstractController
                 whereArgs.add("0");
             }
 
-            // Build query parameters
+            // Build query parameters (the terms only contain placeholders, so the WHERE value identifies the query shape)
             String where = "("+ TextUtils.join(") AND (", whereAndTerms)+")";
-            String orderBy = "RANDOM()";
-            String limit = "2";
-            List<MediaItem> mediaItems = MediaItem.find(getModelClass(), where, whereArgs.toArray(new String[whereArgs.size()]), "", orderBy, limit);
+            String[] whereArgsArray = whereArgs.toArray(new String[whereArgs.size()]);
 
-            // If we have some match...
-            if(mediaItems!=null && mediaItems.size()>0)
+            // Pick a random ID and load the media item (pick again if it was deleted in the meantime)
+            for(int i=0; i<RANDOM_PICK_ATTEMPTS; i++)
             {
-                // If we have a "idDifferentFromIfPossible" parameter and we have at least two results, make sure to return a result different from that one
-                if(mediaItems.size()>1 && idDifferentFromIfPossible!=null && idDifferentFromIfPossible.equals(mediaItems.get(0).getId()))
-                {
-                    return mediaItems.get(1);
-                }
+                Long id = weighted ? getRandomSampler().nextWeightedId(where, whereArgsArray, SUGGESTIONS_WEIGHT, idDifferentFromIfPossible)
+                                   : getRandomSampler().nextId(where, whereArgsArray, idDifferentFromIfPossible);
+                if(id==null) return null;
 
-                // Otherwise (no "idDifferentFromIfPossible" or just one result) return the first one
-                else
-                {
-                    return mediaItems.get(0);
-                }
+                MediaItem mediaItem = getMediaItemById(category, id);
+                if(mediaItem!=null) return mediaItem;
             }
-            else return null;
         }
 
         return null;
     }
 
+    /**
+     * Helper to get the current time for the suggestions constraints. It's rounded down to the hour so that consecutive
+     * suggestions have the same constraints (and then use the same random sampler cursor)
+     * @return the current time rounded down to the hour
+     */
+    private long getSuggestionsNow()
+    {
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * Counts the media items of each genre in the given category (e.g. to show the available genres in the suggestions)
+     * @param category the media items category
+     * @param completed true for the completed media items only, false for the tracked ones only, null for all of them
+     * @return the genre names with their media items count, the most used genres first
+     */
+    public Map<String, Integer> getGenreCounts(Category category, Boolean completed)
+    {
+        final Map<String, Integer> counts = new LinkedHashMap<>();
+        if(category.getId()==null) return counts;
+
+        // Filter on the media items table (aliased as "m" in the query)
+        String where = "m."+MediaItem.COLUMN_CATEGORY+" = ?";
+        if(completed!=null) where += " AND m."+MediaItem.COLUMN_COMPLETION_DATE+(completed ? " IS NOT NULL" : " IS NULL");
+
+        final String finalWhere = where;
+        final GenreIndex index = getGenreIndex();
+        getQueriesRegistry().queryRows("GENRE_COUNTS "+where, new CompiledQueriesRegistry.QueryBuilder()
+        {
+            @Override
+            public String build()
+            {
+                return index.getGenreCountsQuery(finalWhere);
+            }
+        }, new CompiledQueriesRegistry.RowReader()
+        {
+            @Override
+            public void readRow(Cursor cursor)
+            {
+                counts.put(cursor.getString(0), cursor.getInt(1));
+            }
+        }, category.getId().toString());
+        return counts;
+    }
+
     /**
      * Retrieves a media item (tracked or completed) that has the same name as the given one
      * @param category the media item category ID
@@ -420,16 +1159,19 @@ public abstract class MediaItemsAbstractController
      * @param name the name of the media item to search
      * @return null if no match, the media item that has that name otherwise
      */
-    @SuppressWarnings("unchecked")
     private MediaItem getMediaItemWithSameName(Long category, Long currentMediaItemId, String name)
     {
         List<MediaItem> mediaItems = null;
         if(category!=null)
         {
-            String where = MediaItem.COLUMN_CATEGORY+" = ? AND "+MediaItem.COLUMN_ID+" != ? AND "+MediaItem.COLUMN_NAME+" = ?";
-            String[] whereArgs = new String[]{category.toString(), String.valueOf(currentMediaItemId), name};
-            String limit = "1";
-            mediaItems = MediaItem.find(getModelClass(), where, whereArgs, "", "", limit);
+            mediaItems = getQueriesRegistry().queryMediaItems("SAME_NAME", new CompiledQueriesRegistry.QueryBuilder()
+            {
+                @Override
+                public String build()
+                {
+                    return buildSelectQuery(MediaItem.COLUMN_CATEGORY+" = ? AND "+MediaItem.COLUMN_ID+" != ? AND "+MediaItem.COLUMN_NAME+" = ?", null, "1");
+                }
+            }, category.toString(), String.valueOf(currentMediaItemId), name);
         }
         return mediaItems!=null && mediaItems.size()>0 ? mediaItems.get(0) : null;
     }
@@ -440,7 +1182,6 @@ public abstract class MediaItemsAbstractController
      * @param section the media item section
      * @return the media item with highest order value
      */
-    @SuppressWarnings("unchecked")
     private MediaItem getLastMediaItemInSection(Category category, Section section)
     {
         List<MediaItem> mediaItems = getAllMediaItemsInSection(category, section);
@@ -453,7 +1194,6 @@ public abstract class MediaItemsAbstractController
      * @param section the media item section
      * @return the list of media items with the given importance level
      */
-    @SuppressWarnings("unchecked")
     private List<MediaItem> getAllMediaItemsInSection(Category category, Section section)
     {
         List<MediaItem> mediaItems = null;
@@ -473,7 +1213,7 @@ public abstract class MediaItemsAbstractController
 
                 case GlobalConstants.SECTION_UPCOMING:
                     where += " AND "+MediaItem.COLUMN_RELEASE_DATE+" > ?";
-                    whereArgs.add(String.valueOf(Calendar.getInstance().getTimeInMillis()));
+                    whereArgs.add(String.valueOf(Clock.getInstance().now()));
                     break;
 
                 default:
@@ -483,15 +1223,22 @@ public abstract class MediaItemsAbstractController
                         {
                             where += " AND "+MediaItem.COLUMN_IMPORTANCE_LEVEL+" = ? AND ("+MediaItem.COLUMN_RELEASE_DATE+" IS NULL OR "+MediaItem.COLUMN_RELEASE_DATE+" <= ?) AND "+MediaItem.COLUMN_DOING_NOW+" = ?";
                             whereArgs.add(String.valueOf(il.getDbValue()));
-                            whereArgs.add(String.valueOf(Calendar.getInstance().getTimeInMillis()));
+                            whereArgs.add(String.valueOf(Clock.getInstance().now()));
                             whereArgs.add("0");
                             break sectionSwitch;
                         }
                     }
             }
 
-            String orderBy = MediaItem.COLUMN_ORDER_IN_SECTION+" ASC";
-            mediaItems = MediaItem.find(getModelClass(), where, whereArgs.toArray(new String[whereArgs.size()]), "", orderBy, null);
+            final String sectionWhere = where;
+            mediaItems = getQueriesRegistry().queryMediaItems("SECTION "+sectionWhere, new CompiledQueriesRegistry.QueryBuilder()
+            {
+                @Override
+                public String build()
+                {
+                    return buildSelectQuery(sectionWhere, MediaItem.COLUMN_ORDER_IN_SECTION+" ASC", null);
+                }
+            }, whereArgs.toArray(new String[whereArgs.size()]));
         }
         return mediaItems;
     }
@@ -574,7 +1321,166 @@ public abstract class MediaItemsAbstractController
      */
     public void saveMediaItem(MediaItem mediaItem)
     {
-        mediaItem.save();
+        saveMediaItems(Collections.singletonList(mediaItem));
+    }
+
+    /**
+     * Inserts or updates some media items in the database, in a single transaction
+     * @param mediaItems the media items to update/insert
+     */
+    public void saveMediaItems(List<MediaItem> mediaItems)
+    {
+        SQLiteDatabase db = SugarDatabaseAccessor.getDatabase();
+        GenreIndex genreIndex = getGenreIndex();
+        long now = Clock.getInstance().now();
+        List<CategoryRepository.MediaItemState> statesBefore = new ArrayList<>(mediaItems.size());
+        CategoryRepository categoryRepository = CategoryRepository.getInstance();
+
+        categoryRepository.beginChange();
+        try
+        {
+            db.beginTransaction();
+            try
+            {
+                for(MediaItem mediaItem: mediaItems)
+                {
+                    // Keep the persisted tracked list sort key up to date
+                    mediaItem.setSectionSortKey(getTrackedSectionRank(mediaItem, now), getTrackedValueInSection(mediaItem, now));
+
+                    // Mark the change for incremental backups
+                    mediaItem.setChangeVersion(ChangeTracker.getInstance().nextChangeVersion());
+
+                    // Save
+                    SavedState before = getSavedState(mediaItem.getId());
+                    mediaItem.save();
+                    statesBefore.add(before==null ? null : before.countsState);
+
+                    // Keep the genre index up to date, if the genres changed
+                    if(before==null || !TextUtils.equals(before.genres, mediaItem.getGenres()))
+                    {
+                        genreIndex.indexMediaItem(db, mediaItem.getId(), mediaItem.getGenres());
+                    }
+                }
+                db.setTransactionSuccessful();
+            }
+            finally
+            {
+                db.endTransaction();
+            }
+
+            // Keep the category counts up to date, once committed
+            for(int i=0; i<mediaItems.size(); i++)
+            {
+                categoryRepository.applyChange(statesBefore.get(i), CategoryRepository.MediaItemState.of(mediaItems.get(i)));
+            }
+        }
+        finally
+        {
+            categoryRepository.endChange();
+        }
+
+        // Keep the weighted suggestions up to date without reloading them
+        for(MediaItem mediaItem: mediaItems)
+        {
+            getRandomSampler().onMediaItemSaved(mediaItem.getId(), mediaItem.getChangeVersion());
+        }
+    }
+
+    /**
+     * Writes the refreshed external service data of the given media items, in a single transaction. Each media item is read
+     * again inside the transaction (the external service requests may take minutes, and the user may have changed, completed
+     * or deleted it in the meantime): the deleted and completed ones are skipped, the others are updated only if the fetched
+     * values changed, and only in the changed columns (plus the tracked list sort key, computed from the saved row, and the
+     * change version)
+     * @param mediaItems the media items to update, as returned by {@link MediaItemsAbstractController#getMediaItemsToRefresh()}
+     *                   (only their IDs and external service IDs are used)
+     * @param fetchedMediaItems the media items loaded from the external service, by external service ID
+     * @return the number of updated media items
+     */
+    public int updateRefreshedMediaItems(List<MediaItem> mediaItems, Map<String, MediaItem> fetchedMediaItems)
+    {
+        SQLiteDatabase db = SugarDatabaseAccessor.getDatabase();
+        String table = getTableName();
+        long now = Clock.getInstance().now();
+        List<MediaItem> updatedMediaItems = new ArrayList<>();
+        List<CategoryRepository.MediaItemState> statesBefore = new ArrayList<>();
+        CategoryRepository categoryRepository = CategoryRepository.getInstance();
+
+        categoryRepository.beginChange();
+        try
+        {
+            db.beginTransaction();
+            try
+            {
+                for(MediaItem refreshedMediaItem: mediaItems)
+                {
+                    MediaItem fetchedMediaItem = fetchedMediaItems.get(refreshedMediaItem.getExternalServiceId());
+                    if(fetchedMediaItem==null) continue;
+
+                    // Current saved row, if still tracked
+                    MediaItem mediaItem = getSavedMediaItem(refreshedMediaItem.getId());
+                    if(mediaItem==null || mediaItem.isCompleted()) continue;
+
+                    // Changed values only
+                    CategoryRepository.MediaItemState before = CategoryRepository.MediaItemState.of(mediaItem);
+                    ContentValues values = new ContentValues();
+                    putRefreshedValues(mediaItem, fetchedMediaItem, values);
+                    if(values.size()==0) continue;
+
+                    // The release date may move the media item in or out of the upcoming section
+                    mediaItem.setSectionSortKey(getTrackedSectionRank(mediaItem, now), getTrackedValueInSection(mediaItem, now));
+                    mediaItem.setChangeVersion(ChangeTracker.getInstance().nextChangeVersion());
+                    values.put(MediaItem.COLUMN_SECTION_RANK, mediaItem.getSectionRank());
+                    values.put(MediaItem.COLUMN_SECTION_ORDER, mediaItem.getSectionOrder());
+                    values.put(MediaItem.COLUMN_CHANGE_VERSION, mediaItem.getChangeVersion());
+
+                    if(db.update(table, values, MediaItem.COLUMN_ID+" = ?", new String[]{String.valueOf(mediaItem.getId())})==0) continue;
+                    updatedMediaItems.add(mediaItem);
+                    statesBefore.add(before);
+                }
+                db.setTransactionSuccessful();
+            }
+            finally
+            {
+                db.endTransaction();
+            }
+
+            // Keep the category counts up to date, once committed (the release date may change the upcoming count)
+            for(int i=0; i<updatedMediaItems.size(); i++)
+            {
+                categoryRepository.applyChange(statesBefore.get(i), CategoryRepository.MediaItemState.of(updatedMediaItems.get(i)));
+            }
+        }
+        finally
+        {
+            categoryRepository.endChange();
+        }
+
+        // Keep the weighted suggestions up to date without reloading them
+        for(MediaItem mediaItem: updatedMediaItems)
+        {
+            getRandomSampler().onMediaItemSaved(mediaItem.getId(), mediaItem.getChangeVersion());
+        }
+
+        return updatedMediaItems.size();
+    }
+
+    /**
+     * Compares a media item with its refreshed external service data and puts the changed column values. The changed values
+     * are also set in the media item. Subclasses can add their own refreshed fields.
+     * @param mediaItem the saved media item
+     * @param fetchedMediaItem the media item loaded from the external service
+     * @param values the changed column values
+     */
+    protected void putRefreshedValues(MediaItem mediaItem, MediaItem fetchedMediaItem, ContentValues values)
+    {
+        // A missing release date is not a change (the service may not know it yet)
+        Date releaseDate = fetchedMediaItem.getReleaseDate();
+        if(releaseDate!=null && !releaseDate.equals(mediaItem.getReleaseDate()))
+        {
+            mediaItem.setReleaseDate(releaseDate);
+            values.put(MediaItem.COLUMN_RELEASE_DATE, releaseDate.getTime());
+        }
     }
 
 
@@ -586,9 +1492,24 @@ public abstract class MediaItemsAbstractController
      * Removes a media item from the database
      * @param mediaItem the media item to remove
      */
+    @SuppressWarnings("unchecked")
     public void deleteMediaItem(MediaItem mediaItem)
     {
-        mediaItem.delete();
+        if(mediaItem.getId()!=null) ChangeTracker.getInstance().recordDeletion(getModelClass(), mediaItem.getId());
+
+        // Delete, keeping the category counts up to date
+        CategoryRepository categoryRepository = CategoryRepository.getInstance();
+        categoryRepository.beginChange();
+        try
+        {
+            CategoryRepository.MediaItemState before = getSavedCountsState(mediaItem.getId());
+            mediaItem.delete();
+            categoryRepository.applyChange(before, null);
+        }
+        finally
+        {
+            categoryRepository.endChange();
+        }
     }
 
     /**
@@ -599,7 +1520,17 @@ public abstract class MediaItemsAbstractController
     {
         if(category.getId()!=null)
         {
-            MediaItem.deleteAll(getModelClass(), MediaItem.COLUMN_CATEGORY+" = ?", category.getId().toString());
+            CategoryRepository categoryRepository = CategoryRepository.getInstance();
+            categoryRepository.beginChange();
+            try
+            {
+                MediaItem.deleteAll(getModelClass(), MediaItem.COLUMN_CATEGORY+" = ?", category.getId().toString());
+                categoryRepository.applyCategoryEmptied(category.getId());
+            }
+            finally
+            {
+                categoryRepository.endChange();
+            }
         }
     }
 
@@ -677,6 +1608,7 @@ public abstract class MediaItemsAbstractController
         List<MediaItem> mediaItems = getAllMediaItemsInSection(category, movedMediaItem.getSection());
 
         // Loop all media items in the interval and set an increasing order value
+        List<MediaItem> updatedMediaItems = new ArrayList<>(mediaItems.size());
         int count = 0;
         for(MediaItem mediaItem: mediaItems)
         {
@@ -685,7 +1617,7 @@ public abstract class MediaItemsAbstractController
 
             // Set this media item value
             mediaItem.setOrderInSection(count);
-            saveMediaItem(mediaItem);
+            updatedMediaItems.add(mediaItem);
 
             // If it's the previous media item...
             if(mediaItem.equals(previousMediaItemInSection))
@@ -700,6 +1632,9 @@ public abstract class MediaItemsAbstractController
             // Increase count
             count += ORDER_DEFAULT_STEP;
         }
+
+        // Save them all at once
+        saveMediaItems(updatedMediaItems);
     }
 
     /**
@@ -875,4 +1810,66 @@ public abstract class MediaItemsAbstractController
      * @see MediaItemsAbstractController#validateMediaItemDbRow(Context, HashMap)
      */
     protected abstract String validateSpecificMediaItemDbRow(Context context, HashMap<String, Object> values);
+
+
+
+    /************************************************ HELPER CLASSES ************************************************/
+
+    /**
+     * A page of media items returned by the keyset pagination methods
+     */
+    public static class MediaItemsPage
+    {
+        private List<MediaItem> mediaItems;
+        private String continuationToken;
+
+        /**
+         * Constructor
+         * @param mediaItems the media items in the page
+         * @param continuationToken the token to get the next page, null if this is the last one
+         */
+        MediaItemsPage(List<MediaItem> mediaItems, String continuationToken)
+        {
+            this.mediaItems = mediaItems;
+            this.continuationToken = continuationToken;
+        }
+
+        /**
+         * Getter
+         * @return the media items in the page
+         */
+        public List<MediaItem> getMediaItems()
+        {
+            return mediaItems;
+        }
+
+        /**
+         * Getter
+         * @return the token to get the next page, null if this is the last one
+         */
+        public String getContinuationToken()
+        {
+            return continuationToken;
+        }
+    }
+
+    /**
+     * The saved values of a media item compared by a save
+     */
+    private static class SavedState
+    {
+        private CategoryRepository.MediaItemState countsState;
+        private String genres;
+
+        /**
+         * Constructor
+         * @param countsState the state that affects the category counts
+         * @param genres the GENRES column value
+         */
+        private SavedState(CategoryRepository.MediaItemState countsState, String genres)
+        {
+            this.countsState = countsState;
+            this.genres = genres;
+        }
+    }
 }
@@ -0,0 +1,307 @@
+package it.polimi.dima.mediatracker.controllers;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import it.polimi.dima.mediatracker.controllers.database.DatabaseExecutor;
+import it.polimi.dima.mediatracker.model.Category;
+import it.polimi.dima.mediatracker.model.MediaItem;
+
+/**
+ * Asynchronous version of the {@link MediaItemsAbstractController} methods used by the list screens: the database is
+ * accessed by the {@link DatabaseExecutor} threads and the results are delivered on the main thread.
+ * Writes are serialized in submission order and each read sees all the writes submitted before it. The write methods
+ * update a copy of the given media item on the writer thread, so the instances held by the UI are only touched by the
+ * main thread: the result is applied back to the given media item just before its callback. A new media item gets its ID
+ * only at that point, so further writes on it must wait for the callback.
+ */
+public class MediaItemsAsyncController
+{
+    private MediaItemsAbstractController controller;
+    private DatabaseExecutor executor;
+
+    /**
+     * Constructor
+     * @param controller the synchronous controller
+     */
+    public MediaItemsAsyncController(MediaItemsAbstractController controller)
+    {
+        this.controller = controller;
+        this.executor = DatabaseExecutor.getInstance();
+    }
+
+
+    /************************************************ DB READ QUERIES ************************************************/
+
+
+    /**
+     * @see MediaItemsAbstractController#getTrackedMediaItemsPageInCategory(String, Category)
+     * @param callback called on the main thread with the page
+     */
+    public Future<MediaItemsAbstractController.MediaItemsPage> getTrackedMediaItemsPageInCategory(final String continuationToken, final Category category, DatabaseExecutor.ResultCallback<MediaItemsAbstractController.MediaItemsPage> callback)
+    {
+        return executor.read(new Callable<MediaItemsAbstractController.MediaItemsPage>()
+        {
+            @Override
+            public MediaItemsAbstractController.MediaItemsPage call()
+            {
+                return controller.getTrackedMediaItemsPageInCategory(continuationToken, category);
+            }
+        }, callback);
+    }
+
+    /**
+     * @see MediaItemsAbstractController#getCompletedMediaItemsPageInCategory(String, Category)
+     * @param callback called on the main thread with the page
+     */
+    public Future<MediaItemsAbstractController.MediaItemsPage> getCompletedMediaItemsPageInCategory(final String continuationToken, final Category category, DatabaseExecutor.ResultCallback<MediaItemsAbstractController.MediaItemsPage> callback)
+    {
+        return executor.read(new Callable<MediaItemsAbstractController.MediaItemsPage>()
+        {
+            @Override
+            public MediaItemsAbstractController.MediaItemsPage call()
+            {
+                return controller.getCompletedMediaItemsPageInCategory(continuationToken, category);
+            }
+        }, callback);
+    }
+
+    /**
+     * @see MediaItemsAbstractController#fullTextSearchMediaItemsInCategory(int, Category, String, Boolean)
+     * @param callback called on the main thread with the search results
+     */
+    public Future<List<MediaItem>> fullTextSearchMediaItemsInCategory(final int page, final Category category, final String query, final Boolean completed, DatabaseExecutor.ResultCallback<List<MediaItem>> callback)
+    {
+        return executor.read(new Callable<List<MediaItem>>()
+        {
+            @Override
+            public List<MediaItem> call()
+            {
+                return controller.fullTextSearchMediaItemsInCategory(page, category, query, completed);
+            }
+        }, callback);
+    }
+
+    /**
+     * @see MediaItemsAbstractController#getGenreCounts(Category, Boolean)
+     * @param callback called on the main thread with the genre counts
+     */
+    public Future<Map<String, Integer>> getGenreCounts(final Category category, final Boolean completed, DatabaseExecutor.ResultCallback<Map<String, Integer>> callback)
+    {
+        return executor.read(new Callable<Map<String, Integer>>()
+        {
+            @Override
+            public Map<String, Integer> call()
+            {
+                return controller.getGenreCounts(category, completed);
+            }
+        }, callback);
+    }
+
+
+    /************************************************ DB UPDATE QUERIES ************************************************/
+
+
+    /**
+     * @see MediaItemsAbstractController#setMediaItemAsCompleted(MediaItem, Date)
+     * @param callback called on the main thread when done, can be null
+     */
+    public Future<MediaItem> setMediaItemAsCompleted(final MediaItem mediaItem, final Date completionDate, DatabaseExecutor.ResultCallback<MediaItem> callback)
+    {
+        return writeOnCopy(mediaItem, new MediaItemWrite()
+        {
+            @Override
+            public void write(MediaItem copy)
+            {
+                controller.setMediaItemAsCompleted(copy, completionDate);
+            }
+        }, callback);
+    }
+
+    /**
+     * @see MediaItemsAbstractController#updateMediaItemCompletionDate(MediaItem, Date)
+     * @param callback called on the main thread when done, can be null
+     */
+    public Future<MediaItem> updateMediaItemCompletionDate(final MediaItem mediaItem, final Date completionDate, DatabaseExecutor.ResultCallback<MediaItem> callback)
+    {
+        return writeOnCopy(mediaItem, new MediaItemWrite()
+        {
+            @Override
+            public void write(MediaItem copy)
+            {
+                controller.updateMediaItemCompletionDate(copy, completionDate);
+            }
+        }, callback);
+    }
+
+    /**
+     * @see MediaItemsAbstractController#setMediaItemAsDoingNow(MediaItem, boolean)
+     * @param callback called on the main thread when done, can be null
+     */
+    public Future<MediaItem> setMediaItemAsDoingNow(final MediaItem mediaItem, final boolean doingNow, DatabaseExecutor.ResultCallback<MediaItem> callback)
+    {
+        return writeOnCopy(mediaItem, new MediaItemWrite()
+        {
+            @Override
+            public void write(MediaItem copy)
+            {
+                controller.setMediaItemAsDoingNow(copy, doingNow);
+            }
+        }, callback);
+    }
+
+    /**
+     * @see MediaItemsAbstractController#setMediaItemAsOwned(MediaItem, boolean)
+     * @param callback called on the main thread when done, can be null
+     */
+    public Future<MediaItem> setMediaItemAsOwned(final MediaItem mediaItem, final boolean owned, DatabaseExecutor.ResultCallback<MediaItem> callback)
+    {
+        return writeOnCopy(mediaItem, new MediaItemWrite()
+        {
+            @Override
+            public void write(MediaItem copy)
+            {
+                controller.setMediaItemAsOwned(copy, owned);
+            }
+        }, callback);
+    }
+
+    /**
+     * @see MediaItemsAbstractController#undoSetAsCompleted(MediaItem)
+     * @param callback called on the main thread when done, can be null
+     */
+    public Future<MediaItem> undoSetAsCompleted(final MediaItem mediaItem, DatabaseExecutor.ResultCallback<MediaItem> callback)
+    {
+        return writeOnCopy(mediaItem, new MediaItemWrite()
+        {
+            @Override
+            public void write(MediaItem copy)
+            {
+                controller.undoSetAsCompleted(copy);
+            }
+        }, callback);
+    }
+
+    /**
+     * @see MediaItemsAbstractController#setMediaItemAsToRedo(MediaItem)
+     * @param callback called on the main thread when done, can be null
+     */
+    public Future<MediaItem> setMediaItemAsToRedo(final MediaItem mediaItem, DatabaseExecutor.ResultCallback<MediaItem> callback)
+    {
+        return writeOnCopy(mediaItem, new MediaItemWrite()
+        {
+            @Override
+            public void write(MediaItem copy)
+            {
+                controller.setMediaItemAsToRedo(copy);
+            }
+        }, callback);
+    }
+
+    /**
+     * @see MediaItemsAbstractController#saveMediaItem(MediaItem)
+     * @param callback called on the main thread when done, can be null
+     */
+    public Future<MediaItem> saveMediaItem(final MediaItem mediaItem, DatabaseExecutor.ResultCallback<MediaItem> callback)
+    {
+        return writeOnCopy(mediaItem, new MediaItemWrite()
+        {
+            @Override
+            public void write(MediaItem copy)
+            {
+                controller.saveMediaItem(copy);
+            }
+        }, callback);
+    }
+
+    /**
+     * Updates the order of a media item after a drag&drop (and its "doing now" value, if it changed section) and saves it, in a
+     * single write
+     * @see MediaItemsAbstractController#setOrderInSectionAfterMove(Category, MediaItem, MediaItem, MediaItem)
+     * @param doingNow the new "doing now" value if the media item was moved in or out of the "doing now" section, null otherwise
+     * @param callback called on the main thread when done, can be null
+     */
+    public Future<MediaItem> saveMediaItemAfterMove(final Category category, final MediaItem movedMediaItem, final Boolean doingNow, MediaItem previousMediaItemInSection, MediaItem nextMediaItemInSection, DatabaseExecutor.ResultCallback<MediaItem> callback)
+    {
+        final MediaItem previousCopy = previousMediaItemInSection==null ? null : previousMediaItemInSection.copy();
+        final MediaItem nextCopy = nextMediaItemInSection==null ? null : nextMediaItemInSection.copy();
+        return writeOnCopy(movedMediaItem, new MediaItemWrite()
+        {
+            @Override
+            public void write(MediaItem copy)
+            {
+                if(doingNow!=null) controller.setMediaItemAsDoingNow(copy, doingNow);
+                controller.setOrderInSectionAfterMove(category, copy, previousCopy, nextCopy);
+                controller.saveMediaItem(copy);
+            }
+        }, callback);
+    }
+
+
+    /************************************************ DB DELETE QUERIES ************************************************/
+
+
+    /**
+     * @see MediaItemsAbstractController#deleteMediaItem(MediaItem)
+     * @param callback called on the main thread when done, can be null
+     */
+    public Future<MediaItem> deleteMediaItem(final MediaItem mediaItem, DatabaseExecutor.ResultCallback<MediaItem> callback)
+    {
+        return writeOnCopy(mediaItem, new MediaItemWrite()
+        {
+            @Override
+            public void write(MediaItem copy)
+            {
+                controller.deleteMediaItem(copy);
+            }
+        }, callback);
+    }
+
+
+    /************************************************ HELPERS ************************************************/
+
+
+    /**
+     * Helper to run a write on a copy of the given media item (see the class description)
+     * @param mediaItem the media item held by the UI
+     * @param write the write operation
+     * @param callback called on the main thread with the given media item, after applying the result to it, can be null
+     * @return the future of the updated copy
+     */
+    private Future<MediaItem> writeOnCopy(final MediaItem mediaItem, final MediaItemWrite write, final DatabaseExecutor.ResultCallback<MediaItem> callback)
+    {
+        final MediaItem copy = mediaItem.copy();
+        return executor.write(new Callable<MediaItem>()
+        {
+            @Override
+            public MediaItem call()
+            {
+                write.write(copy);
+                return copy;
+            }
+        }, new DatabaseExecutor.ResultCallback<MediaItem>()
+        {
+            @Override
+            public void onResult(MediaItem result)
+            {
+                mediaItem.setFrom(result);
+                if(callback!=null) callback.onResult(mediaItem);
+            }
+        });
+    }
+
+    /**
+     * A write operation on a media item
+     */
+    private interface MediaItemWrite
+    {
+        /**
+         * Called on the writer thread
+         * @param copy the copy of the media item to update
+         */
+        void write(MediaItem copy);
+    }
+}
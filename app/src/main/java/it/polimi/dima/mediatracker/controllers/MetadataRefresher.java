@@ -0,0 +1,138 @@
+package it.polimi.dima.mediatracker.controllers;
+
+import android.content.Context;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import it.polimi.dima.mediatracker.controllers.database.DatabaseExecutor;
+import it.polimi.dima.mediatracker.external_services.services.MediaItemInfoBatchLoader;
+import it.polimi.dima.mediatracker.model.MediaItem;
+import it.polimi.dima.mediatracker.model.MediaType;
+
+/**
+ * Refreshes the external service data that may change after a media item is saved (e.g. the release date of an upcoming
+ * movie or the next episode air date of a TV show in production), so that the upcoming section and the new releases
+ * notifications don't depend on the user opening the media item form
+ */
+public class MetadataRefresher
+{
+    private final static int MAX_CONCURRENT_REQUESTS = 4;
+    private final static int REQUESTS_PER_WINDOW = 20;
+    private final static long WINDOW_MS = 10*1000;
+    private final static int MAX_ATTEMPTS = 4;
+    private final static long INITIAL_BACKOFF_MS = 2*1000;
+    private final static long MEDIA_TYPE_TIMEOUT_MS = 5*60*1000;
+
+    private static MetadataRefresher instance;
+
+    private Context appContext;
+
+    /**
+     * Private constructor
+     * @param context the context
+     */
+    private MetadataRefresher(Context context)
+    {
+        this.appContext = context.getApplicationContext();
+    }
+
+    /**
+     * Singleton pattern
+     * @param context the context
+     */
+    public static synchronized MetadataRefresher getInstance(Context context)
+    {
+        if(instance==null) instance = new MetadataRefresher(context);
+        return instance;
+    }
+
+    /**
+     * Refreshes the media items of all media types. It blocks until the refresh is completed, so it must not be called
+     * on the main thread (the service callbacks are delivered there)
+     * @return the number of updated media items
+     */
+    public synchronized int refreshAll()
+    {
+        int updated = 0;
+        for(MediaType mediaType: MediaType.values())
+        {
+            updated += refreshMediaItems(mediaType.getController());
+        }
+        return updated;
+    }
+
+    /**
+     * Helper to refresh the media items of a media type
+     * @param controller the media type controller
+     * @return the number of updated media items
+     */
+    private int refreshMediaItems(final MediaItemsAbstractController controller)
+    {
+        // Get media items to refresh
+        final List<MediaItem> mediaItems = controller.getMediaItemsToRefresh();
+        if(mediaItems.isEmpty()) return 0;
+        List<String> externalServiceIds = new ArrayList<>();
+        Map<String, MediaItem> knownMediaItems = new HashMap<>();
+        for(MediaItem mediaItem: mediaItems)
+        {
+            externalServiceIds.add(mediaItem.getExternalServiceId());
+            knownMediaItems.put(mediaItem.getExternalServiceId(), mediaItem);
+        }
+
+        // Load them from the external service (not from the memory cache, that may be older than the saved data) and wait
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<Map<String, MediaItem>> results = new AtomicReference<>();
+        MediaItemInfoBatchLoader loader = new MediaItemInfoBatchLoader(controller.getMediaItemService(appContext),
+                MAX_CONCURRENT_REQUESTS, REQUESTS_PER_WINDOW, WINDOW_MS, MAX_ATTEMPTS, INITIAL_BACKOFF_MS);
+        loader.load(externalServiceIds, knownMediaItems, true, new MediaItemInfoBatchLoader.BatchCallback()
+        {
+            @Override
+            public void onComplete(Map<String, MediaItem> loadedMediaItems, Set<String> failed)
+            {
+                results.set(loadedMediaItems);
+                latch.countDown();
+            }
+        });
+        try
+        {
+            if(!latch.await(MEDIA_TYPE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) return 0;
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+
+        // Write the changes, after the writes already submitted by the UI (a failure is only logged, the app may not be running)
+        try
+        {
+            return DatabaseExecutor.getInstance().writeInBackground(new Callable<Integer>()
+            {
+                @Override
+                public Integer call()
+                {
+                    return controller.updateRefreshedMediaItems(mediaItems, results.get());
+                }
+            }).get();
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+        catch(ExecutionException e)
+        {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+}
@@ -5,6 +5,8 @@ import android.content.Context;
 import java.util.HashMap;
 
 import it.polimi.dima.mediatracker.R;
+import it.polimi.dima.mediatracker.controllers.database.MediaItemCursorMapper;
+import it.polimi.dima.mediatracker.controllers.database.MovieCursorMapper;
 import it.polimi.dima.mediatracker.external_services.services.MediaItemService;
 import it.polimi.dima.mediatracker.external_services.services.MovieService;
 import it.polimi.dima.mediatracker.fragments.FormMediaItemAbstractFragment;
@@ -95,6 +97,15 @@ public class MoviesController extends MediaItemsAbstractController
         return Movie.COLUMN_DURATION;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected MediaItemCursorMapper<Movie> getCursorMapper()
+    {
+        return new MovieCursorMapper();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -7,10 +7,12 @@ import android.content.Context;
 import android.content.Intent;
 import android.support.v4.app.NotificationCompat;
 
-import java.util.Iterator;
+import java.util.Calendar;
 import java.util.List;
+import java.util.Map;
 
 import it.polimi.dima.mediatracker.R;
+import it.polimi.dima.mediatracker.controllers.database.ReleasesQuery;
 import it.polimi.dima.mediatracker.model.Category;
 import it.polimi.dima.mediatracker.model.MediaItem;
 import it.polimi.dima.mediatracker.utils.Utils;
@@ -45,58 +47,62 @@ public class NotificationsManager
     }
 
     /**
-     * Queries the database for media items released today and, if any, sends a notification for each media type
+     * Queries the database for media items released today and, if any, sends a notification for each category
+     * (a single query for all categories, to keep the alarm wakelock short)
      * @param context the context
      */
     public void sendNewReleasesNotifications(Context context)
     {
-        Category category;
-        List<MediaItem> releasedToday;
-        String[] itemTitles;
-        String content;
-        PendingIntent notificationClickPendingIntent;
-        Intent notificationClickIntent;
-
-        // Loop all categories
-        Iterator<Category> categories = CategoriesController.getInstance().getAllCategories();
-        while(categories.hasNext())
+        // Today window
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        long todayStart = calendar.getTimeInMillis();
+        calendar.add(Calendar.DAY_OF_MONTH, 1);
+        long todayEnd = calendar.getTimeInMillis()-1;
+
+        // Loop the categories with media items released today
+        Map<Long, List<ReleasesQuery.Release>> releasesByCategory = ReleasesQuery.getInstance().getReleasesByCategory(todayStart, todayEnd);
+        for(Map.Entry<Long, List<ReleasesQuery.Release>> entry: releasesByCategory.entrySet())
         {
-            category = categories.next();
-
-            // Get media items in this category that were released today
-            MediaItemsAbstractController controller = category.getMediaType().getController();
-            releasedToday = controller.getMediaItemsReleasedToday(category);
-
-            // If we have media items...
-            if(releasedToday!=null && releasedToday.size()>0)
+            Category category = CategoriesController.getInstance().getCategoryById(entry.getKey());
+            if(category==null) continue;
+            List<ReleasesQuery.Release> releasedToday = entry.getValue();
+
+            // Get all their titles
+            String[] itemTitles = new String[releasedToday.size()];
+            for(int i=0; i<itemTitles.length; i++) itemTitles[i] = releasedToday.get(i).getTitle();
+            String content = context.getString(R.string.new_releases_notification_content, Utils.joinIfNotEmpty(", ", itemTitles), context.getResources().getQuantityString(R.plurals.released_today, releasedToday.size(), releasedToday.size()));
+
+            // If only one media item notification click brings to its form, otherwise to the category list
+            Intent notificationClickIntent;
+            MediaItem releasedMediaItem = null;
+            if(releasedToday.size()==1)
+            {
+                releasedMediaItem = category.getMediaType().getController().getMediaItemById(category, releasedToday.get(0).getMediaItemId());
+            }
+            if(releasedMediaItem!=null)
             {
-                // Get all their titles
-                itemTitles = new String[releasedToday.size()];
-                for(int i=0; i<itemTitles.length; i++) itemTitles[i] = releasedToday.get(i).getTitle();
-                content = context.getString(R.string.new_releases_notification_content, Utils.joinIfNotEmpty(", ", itemTitles), context.getResources().getQuantityString(R.plurals.released_today, releasedToday.size(), releasedToday.size()));
-
-                // If only one media item notification click brings to its form, otherwise to the category list
-                if(releasedToday.size()==1)
-                {
-                    notificationClickIntent = ScreenController.getMediaItemFormIntent(context, category, releasedToday.get(0));
-                }
-                else
-                {
-                    notificationClickIntent = ScreenController.getCategoryPageIntent(context, category, null);
-                }
-
-                // Build pending intent
-                notificationClickPendingIntent = PendingIntent.getActivity(context, category.getId().intValue(), notificationClickIntent, PendingIntent.FLAG_UPDATE_CURRENT);
-
-                // Send notification
-                sendNotification(context,
-                        category.getId().intValue(),
-                        category.getMediaType().getIcon(),
-                        category.getName(),
-                        content,
-                        notificationClickPendingIntent,
-                        Notification.PRIORITY_DEFAULT);
+                notificationClickIntent = ScreenController.getMediaItemFormIntent(context, category, releasedMediaItem);
             }
+            else
+            {
+                notificationClickIntent = ScreenController.getCategoryPageIntent(context, category, null);
+            }
+
+            // Build pending intent
+            PendingIntent notificationClickPendingIntent = PendingIntent.getActivity(context, category.getId().intValue(), notificationClickIntent, PendingIntent.FLAG_UPDATE_CURRENT);
+
+            // Send notification
+            sendNotification(context,
+                    category.getId().intValue(),
+                    category.getMediaType().getIcon(),
+                    category.getName(),
+                    content,
+                    notificationClickPendingIntent,
+                    Notification.PRIORITY_DEFAULT);
         }
     }
 
@@ -17,6 +17,8 @@ public class SettingsManager
     private final static boolean DEFAULT_RECEIVE_NOTIFICATIONS = true;
     private final static boolean DEFAULT_NOTIFICATIONS_VIBRATE = false;
     private final static String DEFAULT_NOTIFICATIONS_SOUND = null;
+    private final static long DEFAULT_LAST_BACKUP_CHANGE_VERSION = -1;
+    private final static long DEFAULT_PENDING_BACKUP_CHANGE_VERSION = -1;
 
     private static SettingsManager instance;
     private SharedPreferences sharedPreferences;
@@ -119,6 +121,24 @@ public class SettingsManager
         return Uri.parse(uriString);
     }
 
+    /**
+     * Getter
+     * @return the database change counter value at the last backup export (-1 if never exported)
+     */
+    public long getLastBackupChangeVersion()
+    {
+        return sharedPreferences.getLong(appContext.getString(R.string.key_last_backup_change_version), DEFAULT_LAST_BACKUP_CHANGE_VERSION);
+    }
+
+    /**
+     * Getter
+     * @return the database change counter value of the last backup exported but not yet confirmed as saved by the user (-1 if none)
+     */
+    public long getPendingBackupChangeVersion()
+    {
+        return sharedPreferences.getLong(appContext.getString(R.string.key_pending_backup_change_version), DEFAULT_PENDING_BACKUP_CHANGE_VERSION);
+    }
+
 
 
     /************************************************ SETTERS ************************************************/
@@ -156,4 +176,26 @@ public class SettingsManager
         editor.putInt(appContext.getString(R.string.key_new_releases_notification_minutes), minutes);
         editor.apply();
     }
+
+    /**
+     * Setter
+     * @param changeVersion the database change counter value at the last backup export
+     */
+    public void setLastBackupChangeVersion(long changeVersion)
+    {
+        SharedPreferences.Editor editor = this.sharedPreferences.edit();
+        editor.putLong(appContext.getString(R.string.key_last_backup_change_version), changeVersion);
+        editor.apply();
+    }
+
+    /**
+     * Setter
+     * @param changeVersion the database change counter value of the last backup exported but not yet confirmed as saved by the user (-1 if none)
+     */
+    public void setPendingBackupChangeVersion(long changeVersion)
+    {
+        SharedPreferences.Editor editor = this.sharedPreferences.edit();
+        editor.putLong(appContext.getString(R.string.key_pending_backup_change_version), changeVersion);
+        editor.apply();
+    }
 }
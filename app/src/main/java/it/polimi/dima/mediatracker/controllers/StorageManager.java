@@ -4,16 +4,14 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.net.Uri;
 
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
 
 /**
 * Manages creation and deletion of files on the device storage
@@ -21,37 +19,41 @@ import java.io.OutputStreamWriter;
 public class StorageManager
 {
     /**
-     * Saves a JSON object to the device internal storage
+     * Opens a buffered stream to a file in the device internal storage
      * @param file the file where we need to write
-     * @param jsonObject the JSON object to be written in the file
+     * @return the stream (the caller must close it)
+     * @throws IOException if the file cannot be opened
      */
-    public static void saveJsonObjectToInternalStorage(File file, JSONObject jsonObject)
+    public static OutputStream openOutputStreamToInternalStorage(File file) throws IOException
     {
+        return new BufferedOutputStream(new FileOutputStream(file));
+    }
+
+    /**
+     * Closes a stream ignoring errors
+     * @param closeable the stream to close, may be null
+     */
+    public static void closeQuietly(Closeable closeable)
+    {
+        if(closeable==null) return;
         try
         {
-            FileOutputStream fos = new FileOutputStream(file);
-
-            OutputStreamWriter outputWriter = new OutputStreamWriter(fos);
-            outputWriter.write(jsonObject.toString());
-            outputWriter.close();
-
-            fos.close();
+            closeable.close();
         }
-        catch (Exception e)
+        catch(IOException e)
         {
             e.printStackTrace();
         }
     }
 
     /**
-     * Gets a JSON object from a JSON file located at the given Uri
+     * Opens a buffered stream on a file located at the given Uri
      * @param context the context
      * @param uri the file Uri
-     * @return the JSONObject contained in the file
-     * @throws JSONException if the JSON object is not valid
+     * @return the stream, supports mark/reset (the caller must close it)
      * @throws IOException if the file cannot be accessed
      */
-    public static JSONObject getJsonObjectFromUri(Context context, Uri uri) throws JSONException, IOException
+    public static InputStream openInputStreamFromUri(Context context, Uri uri) throws IOException
     {
         final String scheme = uri.getScheme();
 
@@ -62,15 +64,7 @@ public class StorageManager
 
             if (is == null) throw new IOException();
 
-            BufferedReader r = new BufferedReader(new InputStreamReader(is));
-            StringBuilder total = new StringBuilder();
-            String line;
-            while ((line = r.readLine()) != null)
-            {
-                total.append(line);
-            }
-
-            return new JSONObject(total.toString());
+            return new BufferedInputStream(is);
         }
         else
         {
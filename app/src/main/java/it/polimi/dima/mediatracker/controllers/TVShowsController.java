@@ -1,10 +1,14 @@
 package it.polimi.dima.mediatracker.controllers;
 
+import android.content.ContentValues;
 import android.content.Context;
 
+import java.util.Date;
 import java.util.HashMap;
 
 import it.polimi.dima.mediatracker.R;
+import it.polimi.dima.mediatracker.controllers.database.MediaItemCursorMapper;
+import it.polimi.dima.mediatracker.controllers.database.TVShowCursorMapper;
 import it.polimi.dima.mediatracker.external_services.services.MediaItemService;
 import it.polimi.dima.mediatracker.external_services.services.TVShowService;
 import it.polimi.dima.mediatracker.fragments.FormMediaItemAbstractFragment;
@@ -95,6 +99,54 @@ public class TVShowsController extends MediaItemsAbstractController
         return TVShow.COLUMN_EPISODE_RUNTIME;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected MediaItemCursorMapper<TVShow> getCursorMapper()
+    {
+        return new TVShowCursorMapper();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * TV shows in production are refreshed too, for their next episode air date
+     */
+    @Override
+    protected String getRefreshCondition()
+    {
+        return TVShow.COLUMN_IN_PRODUCTION+" = 1";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void putRefreshedValues(MediaItem mediaItem, MediaItem fetchedMediaItem, ContentValues values)
+    {
+        super.putRefreshedValues(mediaItem, fetchedMediaItem, values);
+
+        TVShow tvShow = (TVShow) mediaItem;
+        TVShow fetchedTVShow = (TVShow) fetchedMediaItem;
+
+        if(fetchedTVShow.isInProduction()!=tvShow.isInProduction())
+        {
+            tvShow.setInProduction(fetchedTVShow.isInProduction());
+            values.put(TVShow.COLUMN_IN_PRODUCTION, fetchedTVShow.isInProduction());
+        }
+
+        // A missing next episode date is a change only if the show ended (otherwise the season request may have failed)
+        Date nextEpisodeAirDate = fetchedTVShow.getNextEpisodeAirDate();
+        boolean changed = nextEpisodeAirDate==null ? tvShow.getNextEpisodeAirDate()!=null && !fetchedTVShow.isInProduction() : !nextEpisodeAirDate.equals(tvShow.getNextEpisodeAirDate());
+        if(changed)
+        {
+            tvShow.setNextEpisodeAirDate(nextEpisodeAirDate);
+            if(nextEpisodeAirDate==null) values.putNull(TVShow.COLUMN_NEXT_EPISODE_AIR_DATE);
+            else values.put(TVShow.COLUMN_NEXT_EPISODE_AIR_DATE, nextEpisodeAirDate.getTime());
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
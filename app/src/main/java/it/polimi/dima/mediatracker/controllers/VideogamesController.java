@@ -5,6 +5,8 @@ import android.content.Context;
 import java.util.HashMap;
 
 import it.polimi.dima.mediatracker.R;
+import it.polimi.dima.mediatracker.controllers.database.MediaItemCursorMapper;
+import it.polimi.dima.mediatracker.controllers.database.VideogameCursorMapper;
 import it.polimi.dima.mediatracker.external_services.services.MediaItemService;
 import it.polimi.dima.mediatracker.external_services.services.VideogameService;
 import it.polimi.dima.mediatracker.fragments.FormMediaItemAbstractFragment;
@@ -95,6 +97,15 @@ public class VideogamesController extends MediaItemsAbstractController
         return Videogame.COLUMN_AVERAGE_LENGTH;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected MediaItemCursorMapper<Videogame> getCursorMapper()
+    {
+        return new VideogameCursorMapper();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,92 @@
+package it.polimi.dima.mediatracker.controllers.backup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The available database backup formats
+ */
+public enum BackupFormat
+{
+    JSON(".JSON")
+    {
+        @Override
+        public BackupWriter newWriter(OutputStream out) throws IOException
+        {
+            return new JsonBackupWriter(out);
+        }
+
+        @Override
+        public BackupReader newReader(InputStream in) throws IOException
+        {
+            return new JsonBackupReader(in);
+        }
+    },
+
+    BINARY(".mtbk")
+    {
+        @Override
+        public BackupWriter newWriter(OutputStream out) throws IOException
+        {
+            return new BinaryBackupWriter(out, true);
+        }
+
+        @Override
+        public BackupReader newReader(InputStream in) throws IOException
+        {
+            return new BinaryBackupReader(in);
+        }
+    };
+
+    private final static String FULL_BACKUP_FILE_NAME = "MediaTrackerDatabase";
+    private final static String DELTA_BACKUP_FILE_NAME = "MediaTrackerChanges";
+
+    private String fileExtension;
+
+    /**
+     * Constructor
+     * @param fileExtension the extension of the exported files
+     */
+    BackupFormat(String fileExtension)
+    {
+        this.fileExtension = fileExtension;
+    }
+
+    /**
+     * Getter
+     * @param delta true for a delta backup
+     * @return the name of the exported file
+     */
+    public String getFileName(boolean delta)
+    {
+        return (delta ? DELTA_BACKUP_FILE_NAME : FULL_BACKUP_FILE_NAME)+fileExtension;
+    }
+
+    /**
+     * Creates a writer for this format
+     * @param out the stream where the backup is written
+     * @return the writer (the caller must close it)
+     * @throws IOException if the stream cannot be used
+     */
+    public abstract BackupWriter newWriter(OutputStream out) throws IOException;
+
+    /**
+     * Creates a reader for this format
+     * @param in the stream where the backup is read
+     * @return the reader (the caller must close it)
+     * @throws IOException if the stream cannot be used
+     */
+    public abstract BackupReader newReader(InputStream in) throws IOException;
+
+    /**
+     * Detects the format of a backup, without consuming the stream
+     * @param in the stream, must support mark/reset
+     * @return the backup format
+     * @throws IOException if the stream cannot be read
+     */
+    public static BackupFormat detect(InputStream in) throws IOException
+    {
+        return BinaryBackupReader.isBinaryBackup(in) ? BINARY : JSON;
+    }
+}
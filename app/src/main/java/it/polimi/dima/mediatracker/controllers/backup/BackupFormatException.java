@@ -0,0 +1,18 @@
+package it.polimi.dima.mediatracker.controllers.backup;
+
+import java.io.IOException;
+
+/**
+ * An exception thrown if a backup file is readable but its content is not a valid backup
+ */
+public class BackupFormatException extends IOException
+{
+    /**
+     * Constructor
+     * @param message the error details
+     */
+    public BackupFormatException(String message)
+    {
+        super(message);
+    }
+}
@@ -0,0 +1,50 @@
+package it.polimi.dima.mediatracker.controllers.backup;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+
+import it.polimi.dima.mediatracker.model.DeletedRow;
+
+/**
+ * Reads a database backup, one category/media item at a time. Values are the database values as strings (NULL values are null).
+ * For each category returned by nextCategory, nextMediaItem returns all its media items (the remaining ones are skipped if nextCategory is called before).
+ * Delta backups also contain deleted rows, returned by nextDeletedRow before the first category.
+ */
+public interface BackupReader extends Closeable
+{
+    /**
+     * Getter
+     * @return the database change counter value the delta backup starts from, -1 if it's a full backup
+     * @throws IOException if the backup cannot be read
+     * @throws BackupFormatException if the backup is not valid
+     */
+    long getDeltaFromVersion() throws IOException;
+
+    /**
+     * Moves to the next deleted row (delta backups only), must be called before nextCategory
+     * @return the deleted row (not saved in the database), null if there are no more deleted rows
+     * @throws IOException if the backup cannot be read
+     * @throws BackupFormatException if the backup is not valid
+     */
+    DeletedRow nextDeletedRow() throws IOException;
+
+    /**
+     * Moves to the next category
+     * @param values cleared and filled with column => value of the category. Depending on the backup content, some values
+     *               may be added only while reading the media items: the map must not be changed until nextMediaItem returns false
+     * @return false if there are no more categories
+     * @throws IOException if the backup cannot be read
+     * @throws BackupFormatException if the backup is not valid
+     */
+    boolean nextCategory(Map<String, String> values) throws IOException;
+
+    /**
+     * Moves to the next media item of the current category
+     * @param values cleared and filled with column => value of the media item
+     * @return false if there are no more media items in the current category
+     * @throws IOException if the backup cannot be read
+     * @throws BackupFormatException if the backup is not valid
+     */
+    boolean nextMediaItem(Map<String, String> values) throws IOException;
+}
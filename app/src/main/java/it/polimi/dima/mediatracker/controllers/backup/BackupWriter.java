@@ -0,0 +1,64 @@
+package it.polimi.dima.mediatracker.controllers.backup;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+import it.polimi.dima.mediatracker.model.DeletedRow;
+
+/**
+ * Writes a database backup, one category/media item at a time. Values are the database values as strings (NULL values are null).
+ * Calls must follow this order: for delta backups only, beginDelta and writeDeletedRow (0..n times); for each category
+ * beginCategory, beginMediaItems, writeMediaItem (0..n times) and endCategory; then finish.
+ */
+public interface BackupWriter extends Closeable
+{
+    /**
+     * Marks the backup as a delta backup, i.e. containing only the changes after a previous backup
+     * @param fromVersion the database change counter value of the previous backup
+     * @param toVersion the database change counter value of this backup
+     * @throws IOException if the backup cannot be written
+     */
+    void beginDelta(long fromVersion, long toVersion) throws IOException;
+
+    /**
+     * Writes a deleted row (delta backups only)
+     * @param deletedRow the deleted row
+     * @throws IOException if the backup cannot be written
+     */
+    void writeDeletedRow(DeletedRow deletedRow) throws IOException;
+
+    /**
+     * Writes a category
+     * @param columns the category column names
+     * @param values the category values, in the same order as the columns (the array can be reused by the caller)
+     * @throws IOException if the backup cannot be written
+     */
+    void beginCategory(List<String> columns, String[] values) throws IOException;
+
+    /**
+     * Starts the media items of the current category
+     * @param columns the media item column names
+     * @throws IOException if the backup cannot be written
+     */
+    void beginMediaItems(List<String> columns) throws IOException;
+
+    /**
+     * Writes a media item of the current category
+     * @param values the media item values, in the same order as the columns (the array can be reused by the caller)
+     * @throws IOException if the backup cannot be written
+     */
+    void writeMediaItem(String[] values) throws IOException;
+
+    /**
+     * Ends the current category
+     * @throws IOException if the backup cannot be written
+     */
+    void endCategory() throws IOException;
+
+    /**
+     * Ends the backup and flushes all data (the writer still needs to be closed)
+     * @throws IOException if the backup cannot be written
+     */
+    void finish() throws IOException;
+}
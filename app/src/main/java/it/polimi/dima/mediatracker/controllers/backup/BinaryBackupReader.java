@@ -0,0 +1,371 @@
+package it.polimi.dima.mediatracker.controllers.backup;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import it.polimi.dima.mediatracker.model.DeletedRow;
+
+/**
+ * Reads the compact binary backup written by {@link BinaryBackupWriter} (see there for the layout). Media items are read
+ * one block at a time.
+ */
+public class BinaryBackupReader implements BackupReader
+{
+    private final static int BUFFER_SIZE = 8192;
+
+    private Inflater inflater;
+    private InputStream in;
+
+    private List<String> dictionary = new ArrayList<>();
+    private boolean started = false;
+    private boolean finished = false;
+    private int nextRecord = -1;
+    private long deltaFromVersion = -1;
+
+    private boolean inMediaItems = false;
+    private String[] mediaItemColumns;
+    private String[][] block;
+    private int blockRows;
+    private int blockIndex;
+
+    /**
+     * Constructor, reads the header
+     * @param in the stream where the backup is read
+     * @throws IOException if the backup cannot be read
+     * @throws BackupFormatException if the stream does not contain a supported binary backup
+     */
+    public BinaryBackupReader(InputStream in) throws IOException
+    {
+        byte[] magic = new byte[BinaryBackupWriter.MAGIC.length];
+        readFully(in, magic);
+        if(!Arrays.equals(magic, BinaryBackupWriter.MAGIC)) throw new BackupFormatException("Not a binary backup");
+
+        int version = readByte(in);
+        if(version<1 || version>BinaryBackupWriter.VERSION) throw new BackupFormatException("Unsupported binary backup version "+version);
+
+        int compression = readByte(in);
+        if(compression==BinaryBackupWriter.COMPRESSION_DEFLATE)
+        {
+            inflater = new Inflater();
+            this.in = new BufferedInputStream(new InflaterInputStream(in, inflater, BUFFER_SIZE), BUFFER_SIZE);
+        }
+        else if(compression==BinaryBackupWriter.COMPRESSION_NONE)
+        {
+            this.in = in;
+        }
+        else
+        {
+            throw new BackupFormatException("Unsupported binary backup compression "+compression);
+        }
+    }
+
+    /**
+     * Checks if a stream contains a binary backup, without consuming it
+     * @param in the stream, must support mark/reset
+     * @return true if the stream starts with the binary backup header
+     * @throws IOException if the stream cannot be read
+     */
+    public static boolean isBinaryBackup(InputStream in) throws IOException
+    {
+        byte[] magic = new byte[BinaryBackupWriter.MAGIC.length];
+        in.mark(magic.length);
+        try
+        {
+            readFully(in, magic);
+            return Arrays.equals(magic, BinaryBackupWriter.MAGIC);
+        }
+        catch(EOFException e)
+        {
+            return false;
+        }
+        finally
+        {
+            in.reset();
+        }
+    }
+
+    @Override
+    public long getDeltaFromVersion() throws IOException
+    {
+        if(!started) start();
+        return deltaFromVersion;
+    }
+
+    @Override
+    public DeletedRow nextDeletedRow() throws IOException
+    {
+        if(!started) start();
+        if(inMediaItems || peekRecord()!=BinaryBackupWriter.RECORD_DELETED) return null;
+        nextRecord = -1;
+
+        String table = readValue();
+        if(table==null) throw new BackupFormatException("Invalid binary backup deleted row");
+        return new DeletedRow(table, readVarLong(), 0);
+    }
+
+    @Override
+    public boolean nextCategory(Map<String, String> values) throws IOException
+    {
+        if(finished) return false;
+        if(!started) start();
+
+        // Skip the remaining media items of the previous category
+        while(inMediaItems)
+        {
+            if(blockIndex>=blockRows) readBlock();
+            else blockIndex = blockRows;
+        }
+
+        // Skip the deleted rows not read by the caller
+        DeletedRow deletedRow;
+        do
+        {
+            deletedRow = nextDeletedRow();
+        }
+        while(deletedRow!=null);
+
+        // Next record
+        int record = peekRecord();
+        nextRecord = -1;
+        if(record==BinaryBackupWriter.RECORD_END)
+        {
+            finished = true;
+            return false;
+        }
+        if(record!=BinaryBackupWriter.RECORD_CATEGORY) throw new BackupFormatException("Unknown binary backup record "+record);
+
+        // Category row
+        String[] categoryColumns = readColumnNames();
+        values.clear();
+        for(String column: categoryColumns)
+        {
+            values.put(column, readValue());
+        }
+
+        // Media items columns
+        mediaItemColumns = readColumnNames();
+        inMediaItems = mediaItemColumns.length>0;
+        if(!inMediaItems) readCount();
+        blockRows = 0;
+        blockIndex = 0;
+        return true;
+    }
+
+    @Override
+    public boolean nextMediaItem(Map<String, String> values) throws IOException
+    {
+        if(!inMediaItems) return false;
+
+        // Current block is over: read the next one
+        if(blockIndex>=blockRows)
+        {
+            readBlock();
+            if(!inMediaItems) return false;
+        }
+
+        values.clear();
+        String[] row = block[blockIndex++];
+        for(int c=0; c<mediaItemColumns.length; c++)
+        {
+            values.put(mediaItemColumns[c], row[c]);
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            in.close();
+        }
+        finally
+        {
+            if(inflater!=null) inflater.end();
+        }
+    }
+
+    /**
+     * Helper to read the delta record, if any
+     * @throws IOException if the backup cannot be read
+     */
+    private void start() throws IOException
+    {
+        started = true;
+        if(peekRecord()==BinaryBackupWriter.RECORD_DELTA)
+        {
+            nextRecord = -1;
+            deltaFromVersion = readVarLong();
+            readVarLong();
+        }
+    }
+
+    /**
+     * Helper to get the type of the next record without consuming it
+     * @return the record type
+     * @throws IOException if the backup cannot be read
+     */
+    private int peekRecord() throws IOException
+    {
+        if(nextRecord<0) nextRecord = readByte(in);
+        return nextRecord;
+    }
+
+    /**
+     * Helper to read a block of media items (stored column by column). A block with 0 rows ends the media items.
+     * @throws IOException if the backup cannot be read
+     */
+    private void readBlock() throws IOException
+    {
+        blockRows = readCount();
+        blockIndex = 0;
+        if(blockRows==0)
+        {
+            inMediaItems = false;
+            return;
+        }
+        if(blockRows>BinaryBackupWriter.BLOCK_ROWS) throw new BackupFormatException("Invalid binary backup block size "+blockRows);
+
+        if(block==null || block[0].length!=mediaItemColumns.length)
+        {
+            block = new String[BinaryBackupWriter.BLOCK_ROWS][mediaItemColumns.length];
+        }
+        for(int c=0; c<mediaItemColumns.length; c++)
+        {
+            for(int r=0; r<blockRows; r++)
+            {
+                block[r][c] = readValue();
+            }
+        }
+    }
+
+    /**
+     * Helper to read a list of column names
+     * @return the column names
+     * @throws IOException if the backup cannot be read
+     */
+    private String[] readColumnNames() throws IOException
+    {
+        String[] columns = new String[readCount()];
+        for(int i=0; i<columns.length; i++)
+        {
+            columns[i] = readValue();
+            if(columns[i]==null) throw new BackupFormatException("Invalid binary backup column name");
+        }
+        return columns;
+    }
+
+    /**
+     * Helper to read a tagged value
+     * @return the value
+     * @throws IOException if the backup cannot be read
+     */
+    private String readValue() throws IOException
+    {
+        int tag = readByte(in);
+        switch(tag)
+        {
+            case BinaryBackupWriter.VALUE_NULL:
+                return null;
+
+            case BinaryBackupWriter.VALUE_INTEGER:
+                long zigZag = readVarLong();
+                return String.valueOf((zigZag >>> 1) ^ -(zigZag & 1));
+
+            case BinaryBackupWriter.VALUE_DICTIONARY:
+                int index = readCount();
+                if(index>=dictionary.size()) throw new BackupFormatException("Invalid binary backup dictionary index "+index);
+                return dictionary.get(index);
+
+            case BinaryBackupWriter.VALUE_STRING:
+                String value = readString();
+                dictionary.add(value);
+                return value;
+
+            case BinaryBackupWriter.VALUE_STRING_NO_DICTIONARY:
+                return readString();
+
+            default:
+                throw new BackupFormatException("Unknown binary backup value tag "+tag);
+        }
+    }
+
+    /**
+     * Helper to read a length-prefixed UTF-8 string
+     * @return the string
+     * @throws IOException if the backup cannot be read
+     */
+    private String readString() throws IOException
+    {
+        byte[] bytes = new byte[readCount()];
+        readFully(in, bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * Helper to read a count (a varint that must fit an int)
+     * @return the count
+     * @throws IOException if the backup cannot be read
+     */
+    private int readCount() throws IOException
+    {
+        long value = readVarLong();
+        if(value<0 || value>Integer.MAX_VALUE) throw new BackupFormatException("Invalid binary backup count "+value);
+        return (int) value;
+    }
+
+    /**
+     * Helper to read an unsigned varint (7 bits per byte, least significant first)
+     * @return the value
+     * @throws IOException if the backup cannot be read
+     */
+    private long readVarLong() throws IOException
+    {
+        long value = 0;
+        for(int shift=0; shift<64; shift+=7)
+        {
+            int b = readByte(in);
+            value |= (long) (b & 0x7F) << shift;
+            if((b & 0x80)==0) return value;
+        }
+        throw new BackupFormatException("Invalid binary backup varint");
+    }
+
+    /**
+     * Helper to read a byte
+     * @param in the stream
+     * @return the byte (0-255)
+     * @throws IOException if the stream is over
+     */
+    private static int readByte(InputStream in) throws IOException
+    {
+        int b = in.read();
+        if(b<0) throw new EOFException();
+        return b;
+    }
+
+    /**
+     * Helper to fill an array with bytes from the stream
+     * @param in the stream
+     * @param bytes the array
+     * @throws IOException if the stream is over before the array is full
+     */
+    private static void readFully(InputStream in, byte[] bytes) throws IOException
+    {
+        int read = 0;
+        while(read<bytes.length)
+        {
+            int count = in.read(bytes, read, bytes.length-read);
+            if(count<0) throw new EOFException();
+            read += count;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package it.polimi.dima.mediatracker.controllers.backup;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import it.polimi.dima.mediatracker.model.DeletedRow;
+
+/**
+ * Writes the compact binary backup. Layout (version 1):
+ *
+ * HEADER (never compressed): MAGIC (4 bytes), VERSION (1 byte), COMPRESSION (1 byte, COMPRESSION_NONE or COMPRESSION_DEFLATE)
+ * BODY (deflated if requested), a sequence of records:
+ * - RECORD_DELTA (delta backups only, first record): "from" and "to" database change counter values
+ * - RECORD_DELETED (delta backups only, before the categories): table name value and row ID
+ * - RECORD_CATEGORY: category column count, names, values; media item column count, names; then blocks of media items,
+ *   each block is the row count followed by the values column by column (all values of the first column, then the second...).
+ *   A block with 0 rows ends the category.
+ * - RECORD_END: end of the backup
+ *
+ * Counts are unsigned varints. Each value (column names too) starts with a tag:
+ * - VALUE_NULL
+ * - VALUE_INTEGER: zig-zag varint, used for all values that are the canonical representation of a long (IDs, dates, flags...)
+ * - VALUE_STRING: length + UTF-8 bytes, the string is also added to the dictionary
+ * - VALUE_DICTIONARY: index in the dictionary, for strings already written (column names, genres, creators, platforms...)
+ * - VALUE_STRING_NO_DICTIONARY: length + UTF-8 bytes, for long strings (e.g. descriptions) that are unlikely to repeat
+ *
+ * The dictionary is never written as a whole: both writer and reader build it while going through the values, so the
+ * backup can be written and read one row block at a time.
+ */
+public class BinaryBackupWriter implements BackupWriter
+{
+    final static byte[] MAGIC = new byte[]{'M', 'T', 'B', 'K'};
+    final static int VERSION = 1;
+
+    final static int COMPRESSION_NONE = 0;
+    final static int COMPRESSION_DEFLATE = 1;
+
+    final static int RECORD_END = 0;
+    final static int RECORD_CATEGORY = 1;
+    final static int RECORD_DELTA = 2;
+    final static int RECORD_DELETED = 3;
+
+    final static int VALUE_NULL = 0;
+    final static int VALUE_INTEGER = 1;
+    final static int VALUE_STRING = 2;
+    final static int VALUE_DICTIONARY = 3;
+    final static int VALUE_STRING_NO_DICTIONARY = 4;
+
+    final static int BLOCK_ROWS = 512;
+
+    private final static int DICTIONARY_MAX_STRING_LENGTH = 64;
+    private final static int DICTIONARY_MAX_SIZE = 65536;
+    private final static int BUFFER_SIZE = 8192;
+
+    private OutputStream rawOut;
+    private DeflaterOutputStream deflaterOut;
+    private Deflater deflater;
+    private OutputStream out;
+
+    private Map<String, Integer> dictionary = new HashMap<>();
+
+    private boolean mediaItemsStarted = false;
+    private int mediaItemColumnsCount;
+    private String[][] block;
+    private int blockRows;
+
+    /**
+     * Constructor, writes the header
+     * @param out the stream where the backup is written
+     * @param compress true to deflate the backup body
+     * @throws IOException if the backup cannot be written
+     */
+    public BinaryBackupWriter(OutputStream out, boolean compress) throws IOException
+    {
+        this.rawOut = out;
+        out.write(MAGIC);
+        out.write(VERSION);
+        out.write(compress ? COMPRESSION_DEFLATE : COMPRESSION_NONE);
+
+        // Deflater input is buffered: it's very slow when receiving one byte at a time
+        if(compress)
+        {
+            deflater = new Deflater(Deflater.BEST_COMPRESSION);
+            deflaterOut = new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+            this.out = new BufferedOutputStream(deflaterOut, BUFFER_SIZE);
+        }
+        else
+        {
+            this.out = out;
+        }
+    }
+
+    @Override
+    public void beginDelta(long fromVersion, long toVersion) throws IOException
+    {
+        out.write(RECORD_DELTA);
+        writeVarLong(fromVersion);
+        writeVarLong(toVersion);
+    }
+
+    @Override
+    public void writeDeletedRow(DeletedRow deletedRow) throws IOException
+    {
+        out.write(RECORD_DELETED);
+        writeValue(deletedRow.getTableName());
+        writeVarLong(deletedRow.getRowId());
+    }
+
+    @Override
+    public void beginCategory(List<String> columns, String[] values) throws IOException
+    {
+        out.write(RECORD_CATEGORY);
+        writeColumnNames(columns);
+        for(String value: values)
+        {
+            writeValue(value);
+        }
+        mediaItemsStarted = false;
+    }
+
+    @Override
+    public void beginMediaItems(List<String> columns) throws IOException
+    {
+        writeColumnNames(columns);
+        mediaItemsStarted = true;
+        mediaItemColumnsCount = columns.size();
+        if(block==null || block[0].length!=mediaItemColumnsCount)
+        {
+            block = new String[BLOCK_ROWS][mediaItemColumnsCount];
+        }
+        blockRows = 0;
+    }
+
+    @Override
+    public void writeMediaItem(String[] values) throws IOException
+    {
+        System.arraycopy(values, 0, block[blockRows], 0, mediaItemColumnsCount);
+        blockRows++;
+        if(blockRows==BLOCK_ROWS) writeBlock();
+    }
+
+    @Override
+    public void endCategory() throws IOException
+    {
+        // No media items: empty column list
+        if(!mediaItemsStarted)
+        {
+            writeVarLong(0);
+        }
+
+        // Last block (if not empty) and end block
+        else if(blockRows>0)
+        {
+            writeBlock();
+        }
+        writeVarLong(0);
+    }
+
+    @Override
+    public void finish() throws IOException
+    {
+        out.write(RECORD_END);
+        out.flush();
+        if(deflaterOut!=null) deflaterOut.finish();
+        rawOut.flush();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            out.close();
+        }
+        finally
+        {
+            if(deflater!=null) deflater.end();
+        }
+    }
+
+    /**
+     * Helper to write the buffered media items column by column
+     * @throws IOException if the backup cannot be written
+     */
+    private void writeBlock() throws IOException
+    {
+        writeVarLong(blockRows);
+        for(int c=0; c<mediaItemColumnsCount; c++)
+        {
+            for(int r=0; r<blockRows; r++)
+            {
+                writeValue(block[r][c]);
+            }
+        }
+        blockRows = 0;
+    }
+
+    /**
+     * Helper to write a list of column names
+     * @param columns the column names
+     * @throws IOException if the backup cannot be written
+     */
+    private void writeColumnNames(List<String> columns) throws IOException
+    {
+        writeVarLong(columns.size());
+        for(String column: columns)
+        {
+            writeValue(column);
+        }
+    }
+
+    /**
+     * Helper to write a tagged value
+     * @param value the value
+     * @throws IOException if the backup cannot be written
+     */
+    private void writeValue(String value) throws IOException
+    {
+        // NULL
+        if(value==null)
+        {
+            out.write(VALUE_NULL);
+            return;
+        }
+
+        // Integer (only if converting it back gives exactly the same string)
+        if(isCanonicalLong(value))
+        {
+            try
+            {
+                long number = Long.parseLong(value);
+                out.write(VALUE_INTEGER);
+                writeVarLong((number << 1) ^ (number >> 63));
+                return;
+            }
+            catch(NumberFormatException e)
+            {
+                // Out of range, write as a string
+            }
+        }
+
+        // String already in the dictionary
+        Integer dictionaryIndex = dictionary.get(value);
+        if(dictionaryIndex!=null)
+        {
+            out.write(VALUE_DICTIONARY);
+            writeVarLong(dictionaryIndex);
+            return;
+        }
+
+        // New string
+        if(value.length()<=DICTIONARY_MAX_STRING_LENGTH && dictionary.size()<DICTIONARY_MAX_SIZE)
+        {
+            dictionary.put(value, dictionary.size());
+            out.write(VALUE_STRING);
+        }
+        else
+        {
+            out.write(VALUE_STRING_NO_DICTIONARY);
+        }
+        byte[] bytes = value.getBytes("UTF-8");
+        writeVarLong(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Helper to write an unsigned varint (7 bits per byte, least significant first)
+     * @param value the value
+     * @throws IOException if the backup cannot be written
+     */
+    private void writeVarLong(long value) throws IOException
+    {
+        while((value & ~0x7FL)!=0)
+        {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * Helper to check if a string is written exactly as Long.toString() would write it (no sign, no leading zeros, no "-0")
+     * @param value the string
+     * @return true if the string can be stored as an integer
+     */
+    static boolean isCanonicalLong(String value)
+    {
+        int length = value.length();
+        if(length==0) return false;
+        int start = value.charAt(0)=='-' ? 1 : 0;
+        if(length==start || length-start>19) return false;
+        if(value.charAt(start)=='0') return length==1;
+        for(int i=start; i<length; i++)
+        {
+            char c = value.charAt(i);
+            if(c<'0' || c>'9') return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,328 @@
+package it.polimi.dima.mediatracker.controllers.backup;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import it.polimi.dima.mediatracker.model.Category;
+import it.polimi.dima.mediatracker.model.DeletedRow;
+
+/**
+ * Reads the JSON backup written by {@link JsonBackupWriter} with a pull parser, so the memory used does not depend on the file size.
+ * Exported files have the media items after all category columns and each media item is parsed only when requested. If a
+ * (manually edited) file has the media items before the category media type, they are kept in memory until the end of the category.
+ * Syntax errors are reported by the underlying {@link JsonReader} (MalformedJsonException, IllegalStateException, EOFException).
+ */
+public class JsonBackupReader implements BackupReader
+{
+    private JsonReader reader;
+    private boolean started = false;
+    private boolean finished = false;
+
+    private long deltaFromVersion = -1;
+    private boolean inDeletedArray = false;
+
+    private Map<String, String> category;
+    private boolean inCategoryObject = false;
+    private boolean inMediaItemsArray = false;
+    private boolean mediaItemsRead = false;
+    private List<Map<String, String>> pendingMediaItems;
+    private int pendingMediaItemsIndex;
+
+    /**
+     * Constructor
+     * @param in the stream where the backup is read
+     * @throws IOException if the stream cannot be used
+     */
+    public JsonBackupReader(InputStream in) throws IOException
+    {
+        reader = new JsonReader(new BufferedReader(new InputStreamReader(in, "UTF-8")));
+    }
+
+    @Override
+    public long getDeltaFromVersion() throws IOException
+    {
+        if(!started) start();
+        return deltaFromVersion;
+    }
+
+    @Override
+    public DeletedRow nextDeletedRow() throws IOException
+    {
+        if(!started) start();
+        if(!inDeletedArray) return null;
+
+        // End of the deleted rows: move to the categories
+        if(!reader.hasNext())
+        {
+            reader.endArray();
+            inDeletedArray = false;
+            moveToCategories();
+            return null;
+        }
+
+        // Next deleted row
+        String table = null;
+        long id = -1;
+        reader.beginObject();
+        while(reader.hasNext())
+        {
+            String name = reader.nextName();
+            if(JsonBackupWriter.DELETED_TABLE_FIELD_NAME.equals(name)) table = reader.nextString();
+            else if(JsonBackupWriter.DELETED_ID_FIELD_NAME.equals(name)) id = readLong();
+            else reader.skipValue();
+        }
+        reader.endObject();
+        if(table==null || id<0) throw new BackupFormatException("Invalid deleted row");
+        return new DeletedRow(table, id, 0);
+    }
+
+    @Override
+    public boolean nextCategory(Map<String, String> values) throws IOException
+    {
+        if(finished) return false;
+        if(!started) start();
+
+        // Skip the deleted rows not read by the caller
+        while(inDeletedArray)
+        {
+            nextDeletedRow();
+        }
+
+        // Skip whatever is left of the previous category
+        if(inMediaItemsArray)
+        {
+            while(reader.hasNext()) reader.skipValue();
+            reader.endArray();
+            inMediaItemsArray = false;
+        }
+        if(inCategoryObject) readCategoryFields();
+
+        // No more categories: consume the rest of the root object
+        if(!reader.hasNext())
+        {
+            reader.endArray();
+            while(reader.hasNext())
+            {
+                reader.nextName();
+                reader.skipValue();
+            }
+            reader.endObject();
+            finished = true;
+            return false;
+        }
+
+        // Read the category fields, up to the media items
+        values.clear();
+        category = values;
+        mediaItemsRead = false;
+        pendingMediaItems = null;
+        pendingMediaItemsIndex = 0;
+        reader.beginObject();
+        inCategoryObject = true;
+        readCategoryFields();
+        return true;
+    }
+
+    @Override
+    public boolean nextMediaItem(Map<String, String> values) throws IOException
+    {
+        // Media items already read
+        if(pendingMediaItems!=null)
+        {
+            if(pendingMediaItemsIndex>=pendingMediaItems.size()) return false;
+            values.clear();
+            values.putAll(pendingMediaItems.get(pendingMediaItemsIndex++));
+            return true;
+        }
+
+        if(!inMediaItemsArray) return false;
+
+        // Next media item in the file
+        if(reader.hasNext())
+        {
+            readRow(values);
+            return true;
+        }
+
+        // End of the media items: read the remaining category fields, if any
+        reader.endArray();
+        inMediaItemsArray = false;
+        readCategoryFields();
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        reader.close();
+    }
+
+    /**
+     * Helper to open the root object and move to the deleted rows or to the categories
+     * @throws IOException if the file cannot be read or it's not valid JSON
+     */
+    private void start() throws IOException
+    {
+        started = true;
+        reader.beginObject();
+        moveToCategories();
+    }
+
+    /**
+     * Helper to read the root fields until the start of the deleted rows or categories array. The delta information is
+     * read only if it comes before them (as written by {@link JsonBackupWriter})
+     * @throws IOException if the file cannot be read or it's not valid JSON
+     */
+    private void moveToCategories() throws IOException
+    {
+        while(reader.hasNext())
+        {
+            String name = reader.nextName();
+            if(JsonBackupWriter.ROOT_FIELD_NAME.equals(name))
+            {
+                reader.beginArray();
+                return;
+            }
+            else if(JsonBackupWriter.DELETED_FIELD_NAME.equals(name) && reader.peek()!=JsonToken.NULL)
+            {
+                reader.beginArray();
+                inDeletedArray = true;
+                return;
+            }
+            else if(JsonBackupWriter.DELTA_FIELD_NAME.equals(name) && reader.peek()!=JsonToken.NULL)
+            {
+                reader.beginObject();
+                while(reader.hasNext())
+                {
+                    if(JsonBackupWriter.DELTA_FROM_FIELD_NAME.equals(reader.nextName())) deltaFromVersion = readLong();
+                    else reader.skipValue();
+                }
+                reader.endObject();
+                if(deltaFromVersion<0) throw new BackupFormatException("Invalid delta");
+            }
+            else
+            {
+                reader.skipValue();
+            }
+        }
+        throw new BackupFormatException("No value for "+JsonBackupWriter.ROOT_FIELD_NAME);
+    }
+
+    /**
+     * Helper to read a number (also if written as a string)
+     * @return the number
+     * @throws IOException if the file cannot be read or it's not valid JSON
+     */
+    private long readLong() throws IOException
+    {
+        try
+        {
+            return Long.parseLong(reader.nextString());
+        }
+        catch(NumberFormatException e)
+        {
+            throw new BackupFormatException("Invalid number");
+        }
+    }
+
+    /**
+     * Helper to read the fields of the current category until the start of the media items (if the category media type is known)
+     * or until the end of the category object
+     * @throws IOException if the file cannot be read or it's not valid JSON
+     */
+    private void readCategoryFields() throws IOException
+    {
+        while(reader.hasNext())
+        {
+            String name = reader.nextName();
+            if(JsonBackupWriter.MEDIA_ITEMS_FIELD_NAME.equals(name))
+            {
+                if(mediaItemsRead || reader.peek()==JsonToken.NULL)
+                {
+                    reader.skipValue();
+                    continue;
+                }
+                mediaItemsRead = true;
+                reader.beginArray();
+
+                // Media type available: media items are read one at a time by nextMediaItem()
+                if(category.get(Category.COLUMN_MEDIA_TYPE_NAME)!=null)
+                {
+                    inMediaItemsArray = true;
+                    return;
+                }
+
+                // Otherwise keep them in memory
+                pendingMediaItems = new ArrayList<>();
+                while(reader.hasNext())
+                {
+                    Map<String, String> mediaItem = new HashMap<>();
+                    readRow(mediaItem);
+                    pendingMediaItems.add(mediaItem);
+                }
+                reader.endArray();
+            }
+            else
+            {
+                readField(category, name);
+            }
+        }
+        reader.endObject();
+        inCategoryObject = false;
+    }
+
+    /**
+     * Helper to read a row object
+     * @param values cleared and filled with column => value
+     * @throws IOException if the file cannot be read or it's not valid JSON
+     */
+    private void readRow(Map<String, String> values) throws IOException
+    {
+        values.clear();
+        reader.beginObject();
+        while(reader.hasNext())
+        {
+            readField(values, reader.nextName());
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Helper to read a single field (numbers and booleans are read as strings, like exported values; nested objects and arrays
+     * are not column values and are skipped)
+     * @param values the map where the field is added
+     * @param name the field name
+     * @throws IOException if the file cannot be read or it's not valid JSON
+     */
+    private void readField(Map<String, String> values, String name) throws IOException
+    {
+        switch(reader.peek())
+        {
+            case NULL:
+                reader.nextNull();
+                values.put(name, null);
+                break;
+
+            case BOOLEAN:
+                values.put(name, reader.nextBoolean() ? "1" : "0");
+                break;
+
+            case STRING:
+            case NUMBER:
+                values.put(name, reader.nextString());
+                break;
+
+            default:
+                reader.skipValue();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package it.polimi.dima.mediatracker.controllers.backup;
+
+import android.util.JsonWriter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.List;
+
+import it.polimi.dima.mediatracker.model.DeletedRow;
+
+/**
+ * Writes the JSON backup: {CATEGORIES=>[{COLUMN_NAME1=>VALUE1,...,MEDIA_ITEMS=>[{COLUMN_NAME1=>VALUE1,...},...]},...]}
+ * Delta backups start with DELTA=>{FROM=>VERSION1,TO=>VERSION2},DELETED=>[{TABLE=>NAME,ID=>ID},...]
+ * NULL values are not written.
+ */
+public class JsonBackupWriter implements BackupWriter
+{
+    final static String ROOT_FIELD_NAME = "CATEGORIES";
+    final static String MEDIA_ITEMS_FIELD_NAME = "MEDIA_ITEMS";
+    final static String DELTA_FIELD_NAME = "DELTA";
+    final static String DELTA_FROM_FIELD_NAME = "FROM";
+    final static String DELTA_TO_FIELD_NAME = "TO";
+    final static String DELETED_FIELD_NAME = "DELETED";
+    final static String DELETED_TABLE_FIELD_NAME = "TABLE";
+    final static String DELETED_ID_FIELD_NAME = "ID";
+
+    private JsonWriter writer;
+    private boolean rootStarted = false;
+    private boolean deletedStarted = false;
+    private boolean categoriesStarted = false;
+    private boolean mediaItemsStarted = false;
+    private List<String> mediaItemColumns;
+
+    /**
+     * Constructor
+     * @param out the stream where the backup is written
+     * @throws IOException if the stream cannot be used
+     */
+    public JsonBackupWriter(OutputStream out) throws IOException
+    {
+        writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(out, "UTF-8")));
+    }
+
+    @Override
+    public void beginDelta(long fromVersion, long toVersion) throws IOException
+    {
+        startRoot();
+        writer.name(DELTA_FIELD_NAME);
+        writer.beginObject();
+        writer.name(DELTA_FROM_FIELD_NAME).value(fromVersion);
+        writer.name(DELTA_TO_FIELD_NAME).value(toVersion);
+        writer.endObject();
+    }
+
+    @Override
+    public void writeDeletedRow(DeletedRow deletedRow) throws IOException
+    {
+        startRoot();
+        if(!deletedStarted)
+        {
+            deletedStarted = true;
+            writer.name(DELETED_FIELD_NAME);
+            writer.beginArray();
+        }
+        writer.beginObject();
+        writer.name(DELETED_TABLE_FIELD_NAME).value(deletedRow.getTableName());
+        writer.name(DELETED_ID_FIELD_NAME).value(String.valueOf(deletedRow.getRowId()));
+        writer.endObject();
+    }
+
+    @Override
+    public void beginCategory(List<String> columns, String[] values) throws IOException
+    {
+        startCategories();
+        writer.beginObject();
+        writeRow(columns, values);
+        mediaItemsStarted = false;
+    }
+
+    @Override
+    public void beginMediaItems(List<String> columns) throws IOException
+    {
+        mediaItemColumns = columns;
+        mediaItemsStarted = true;
+        writer.name(MEDIA_ITEMS_FIELD_NAME);
+        writer.beginArray();
+    }
+
+    @Override
+    public void writeMediaItem(String[] values) throws IOException
+    {
+        writer.beginObject();
+        writeRow(mediaItemColumns, values);
+        writer.endObject();
+    }
+
+    @Override
+    public void endCategory() throws IOException
+    {
+        if(mediaItemsStarted) writer.endArray();
+        writer.endObject();
+    }
+
+    @Override
+    public void finish() throws IOException
+    {
+        startCategories();
+        writer.endArray();
+        writer.endObject();
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        writer.close();
+    }
+
+    /**
+     * Helper to open the root object, if not already done
+     * @throws IOException if the backup cannot be written
+     */
+    private void startRoot() throws IOException
+    {
+        if(rootStarted) return;
+        rootStarted = true;
+        writer.beginObject();
+    }
+
+    /**
+     * Helper to open the categories array (closing the deleted rows array if needed), if not already done
+     * @throws IOException if the backup cannot be written
+     */
+    private void startCategories() throws IOException
+    {
+        if(categoriesStarted) return;
+        categoriesStarted = true;
+        startRoot();
+        if(deletedStarted) writer.endArray();
+        writer.name(ROOT_FIELD_NAME);
+        writer.beginArray();
+    }
+
+    /**
+     * Helper to write the columns of a row (NULL columns are skipped)
+     * @param columns the column names
+     * @param values the values
+     * @throws IOException if the backup cannot be written
+     */
+    private void writeRow(List<String> columns, String[] values) throws IOException
+    {
+        for(int i=0; i<values.length; i++)
+        {
+            if(values[i]!=null)
+            {
+                writer.name(columns.get(i)).value(values[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package it.polimi.dima.mediatracker.controllers.database;
+
+import android.database.Cursor;
+
+import it.polimi.dima.mediatracker.model.Book;
+
+/**
+ * Cursor mapper for the books table
+ */
+public class BookCursorMapper extends MediaItemCursorMapper<Book>
+{
+    private final static String[] SPECIFIC_COLUMNS = new String[]{Book.COLUMN_AUTHOR, Book.COLUMN_PAGES_NUMBER};
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected String[] getSpecificColumns()
+    {
+        return SPECIFIC_COLUMNS;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Book newInstance()
+    {
+        return new Book();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void mapSpecificColumns(Cursor cursor, int[] indexes, Book book)
+    {
+        book.setAuthor(getString(cursor, indexes[0]));
+        book.setPagesNumber(getInt(cursor, indexes[1]));
+    }
+}
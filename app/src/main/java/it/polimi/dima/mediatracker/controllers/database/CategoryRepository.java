@@ -0,0 +1,548 @@
+package it.polimi.dima.mediatracker.controllers.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.orm.SugarDatabaseAccessor;
+import com.orm.util.NamingHelper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import it.polimi.dima.mediatracker.model.Category;
+import it.polimi.dima.mediatracker.model.MediaItem;
+import it.polimi.dima.mediatracker.model.MediaType;
+import it.polimi.dima.mediatracker.utils.Clock;
+
+/**
+ * In-process cache of the categories and of the media items counts of each category (tracked, completed, doing now and
+ * upcoming), so that the drawer, the home and the notifications don't query the database every time.
+ * Both are loaded on first use and then kept up to date by the controllers after each write. The counts are updated
+ * incrementally with the difference between the media item state before and after the write; bulk writes (e.g. the DB import)
+ * invalidate the cache instead.
+ * The cached categories are never handed out: callers get copies, since they are often modified before being validated
+ * and saved (e.g. in the category form).
+ */
+public class CategoryRepository
+{
+    private static CategoryRepository instance;
+
+    private Map<Long, Category> categories;
+    private Map<Long, Counters> counters;
+
+    // A load is installed only if no write was running when it started and none happened meanwhile (otherwise the write
+    // could be counted twice, by the load and by its delta)
+    private long generation = 0;
+    private int runningChanges = 0;
+
+    /**
+     * Private constructor
+     */
+    private CategoryRepository()
+    {
+
+    }
+
+    /**
+     * Singleton pattern
+     */
+    public static synchronized CategoryRepository getInstance()
+    {
+        if(instance==null) instance = new CategoryRepository();
+        return instance;
+    }
+
+
+
+    /************************************************ CATEGORIES ************************************************/
+
+
+    /**
+     * Getter
+     * @return copies of all categories, in insertion order
+     */
+    public List<Category> getCategories()
+    {
+        Map<Long, Category> loaded = getCategoriesMap();
+        List<Category> copies = new ArrayList<>(loaded.size());
+        synchronized(this)
+        {
+            for(Category category: loaded.values())
+            {
+                copies.add(new Category(category));
+            }
+        }
+        return copies;
+    }
+
+    /**
+     * Getter
+     * @param categoryId the category ID
+     * @return a copy of the category, or null if not found
+     */
+    public Category getCategory(Long categoryId)
+    {
+        if(categoryId==null) return null;
+        Map<Long, Category> loaded = getCategoriesMap();
+        synchronized(this)
+        {
+            Category category = loaded.get(categoryId);
+            return category==null ? null : new Category(category);
+        }
+    }
+
+    /**
+     * Called after a category is saved
+     * @param category the saved category
+     */
+    public synchronized void onCategorySaved(Category category)
+    {
+        generation++;
+        if(categories!=null) categories.put(category.getId(), new Category(category));
+        if(counters!=null && !counters.containsKey(category.getId())) counters.put(category.getId(), new Counters());
+    }
+
+    /**
+     * Called after a category is deleted, together with its media items
+     * @param categoryId the category ID
+     */
+    public synchronized void onCategoryDeleted(Long categoryId)
+    {
+        generation++;
+        if(categories!=null) categories.remove(categoryId);
+        if(counters!=null) counters.remove(categoryId);
+    }
+
+    /**
+     * Helper to get (and load if necessary) the cached categories. The returned map must be read holding the lock
+     * @return the categories by ID
+     */
+    private Map<Long, Category> getCategoriesMap()
+    {
+        long loadGeneration;
+        synchronized(this)
+        {
+            if(categories!=null) return categories;
+            loadGeneration = generation;
+        }
+
+        // Load outside the lock, the database may be busy with a transaction that will call back here
+        Map<Long, Category> loaded = new LinkedHashMap<>();
+        Iterator<Category> iterator = Category.findAll(Category.class);
+        while(iterator.hasNext())
+        {
+            Category category = iterator.next();
+            loaded.put(category.getId(), category);
+        }
+
+        synchronized(this)
+        {
+            if(categories==null && generation==loadGeneration) categories = loaded;
+        }
+        return loaded;
+    }
+
+
+
+    /************************************************ COUNTS ************************************************/
+
+
+    /**
+     * Getter
+     * @param categoryId the category ID
+     * @return the media items counts of the category (all zero if the category has no media items)
+     */
+    public CategoryCounts getCounts(Long categoryId)
+    {
+        CategoryCounts counts = getAllCounts().get(categoryId);
+        return counts==null ? new CategoryCounts(0, 0, 0, 0) : counts;
+    }
+
+    /**
+     * Getter. After the first call, it only reads the cached values
+     * @return the media items counts, by category ID
+     */
+    public Map<Long, CategoryCounts> getAllCounts()
+    {
+        long now = Clock.getInstance().now();
+        long loadGeneration;
+        synchronized(this)
+        {
+            if(counters!=null) return snapshot(counters, now);
+            loadGeneration = generation;
+        }
+
+        // Load outside the lock, the database may be busy with a transaction that will call back here
+        Map<Long, Counters> loaded = loadCounters(now);
+
+        synchronized(this)
+        {
+            if(counters==null && runningChanges==0 && generation==loadGeneration) counters = loaded;
+            return snapshot(loaded, now);
+        }
+    }
+
+    /**
+     * Marks the start of a media item write. Must be followed by {@link CategoryRepository#endChange()}, even if the write fails
+     */
+    public synchronized void beginChange()
+    {
+        generation++;
+        runningChanges++;
+    }
+
+    /**
+     * Updates the counts after a media item write
+     * @param before the media item state before the write, null if it was inserted
+     * @param after the media item state after the write, null if it was deleted
+     */
+    public synchronized void applyChange(MediaItemState before, MediaItemState after)
+    {
+        generation++;
+        if(counters==null) return;
+        if(before!=null) getCounters(before.categoryId).add(before, -1);
+        if(after!=null) getCounters(after.categoryId).add(after, 1);
+    }
+
+    /**
+     * Updates the counts after all media items of a category are deleted
+     * @param categoryId the category ID
+     */
+    public synchronized void applyCategoryEmptied(Long categoryId)
+    {
+        generation++;
+        if(counters!=null && counters.containsKey(categoryId)) counters.put(categoryId, new Counters());
+    }
+
+    /**
+     * Marks the end of a media item write started with {@link CategoryRepository#beginChange()}
+     */
+    public synchronized void endChange()
+    {
+        generation++;
+        runningChanges--;
+    }
+
+    /**
+     * Drops the cached values, e.g. after a bulk write. They are loaded again on next use
+     */
+    public synchronized void invalidate()
+    {
+        generation++;
+        categories = null;
+        counters = null;
+    }
+
+    /**
+     * Helper to get (and create if necessary) the counters of a category
+     * @param categoryId the category ID
+     * @return the category counters
+     */
+    private Counters getCounters(long categoryId)
+    {
+        Counters categoryCounters = counters.get(categoryId);
+        if(categoryCounters==null)
+        {
+            categoryCounters = new Counters();
+            counters.put(categoryId, categoryCounters);
+        }
+        return categoryCounters;
+    }
+
+    /**
+     * Helper to copy the counters, after removing the media items released in the meantime from the upcoming ones
+     * @param source the counters
+     * @param now the current time
+     * @return the counts, by category ID
+     */
+    private static Map<Long, CategoryCounts> snapshot(Map<Long, Counters> source, long now)
+    {
+        Map<Long, CategoryCounts> counts = new HashMap<>();
+        for(Map.Entry<Long, Counters> entry: source.entrySet())
+        {
+            Counters categoryCounters = entry.getValue();
+            categoryCounters.removeReleased(now);
+            counts.put(entry.getKey(), new CategoryCounts(categoryCounters.tracked, categoryCounters.completed, categoryCounters.doingNow, categoryCounters.upcoming));
+        }
+        return counts;
+    }
+
+    /**
+     * Helper to load the counters of all categories, with two queries over all media type tables
+     * @param now the current time
+     * @return the counters, by category ID
+     */
+    private static Map<Long, Counters> loadCounters(long now)
+    {
+        SQLiteDatabase db = SugarDatabaseAccessor.getDatabase();
+        Map<Long, Counters> loaded = new HashMap<>();
+        Iterator<Category> iterator = Category.findAll(Category.class);
+        while(iterator.hasNext())
+        {
+            loaded.put(iterator.next().getId(), new Counters());
+        }
+
+        List<String> countSelects = new ArrayList<>();
+        List<String> upcomingSelects = new ArrayList<>();
+        for(MediaType mediaType: MediaType.values())
+        {
+            String table = NamingHelper.toSQLName(mediaType.getController().getModelClass());
+            countSelects.add("SELECT "+MediaItem.COLUMN_CATEGORY+", "+
+                    "SUM("+MediaItem.COLUMN_COMPLETION_DATE+" IS NULL), "+
+                    "SUM("+MediaItem.COLUMN_COMPLETION_DATE+" IS NOT NULL), "+
+                    "SUM("+MediaItem.COLUMN_COMPLETION_DATE+" IS NULL AND "+MediaItem.COLUMN_DOING_NOW+" = 1) "+
+                    "FROM "+table+" GROUP BY "+MediaItem.COLUMN_CATEGORY);
+            upcomingSelects.add("SELECT "+MediaItem.COLUMN_CATEGORY+", "+MediaItem.COLUMN_RELEASE_DATE+" FROM "+table+" "+
+                    "WHERE "+MediaItem.COLUMN_RELEASE_DATE+" > ?1 AND "+MediaItem.COLUMN_COMPLETION_DATE+" IS NULL");
+        }
+
+        // Step 1: tracked, completed and doing now counts
+        Cursor cursor = db.rawQuery(joinSelects(countSelects), null);
+        try
+        {
+            while(cursor.moveToNext())
+            {
+                Counters categoryCounters = getOrCreate(loaded, cursor.getLong(0));
+                categoryCounters.tracked += cursor.getInt(1);
+                categoryCounters.completed += cursor.getInt(2);
+                categoryCounters.doingNow += cursor.getInt(3);
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+
+        // Step 2: release dates of the upcoming media items (so that they can leave the upcoming count without a new query)
+        cursor = db.rawQuery(joinSelects(upcomingSelects), new String[]{String.valueOf(now)});
+        try
+        {
+            while(cursor.moveToNext())
+            {
+                getOrCreate(loaded, cursor.getLong(0)).addUpcoming(cursor.getLong(1), 1);
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+
+        return loaded;
+    }
+
+    /**
+     * Helper to join SELECT queries with UNION ALL
+     * @param selects the queries
+     * @return the joined query
+     */
+    private static String joinSelects(List<String> selects)
+    {
+        StringBuilder builder = new StringBuilder();
+        for(String select: selects)
+        {
+            if(builder.length()>0) builder.append(" UNION ALL ");
+            builder.append(select);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Helper to get (and create if necessary) the counters of a category in the given map
+     * @param map the counters, by category ID
+     * @param categoryId the category ID
+     * @return the category counters
+     */
+    private static Counters getOrCreate(Map<Long, Counters> map, long categoryId)
+    {
+        Counters categoryCounters = map.get(categoryId);
+        if(categoryCounters==null)
+        {
+            categoryCounters = new Counters();
+            map.put(categoryId, categoryCounters);
+        }
+        return categoryCounters;
+    }
+
+
+
+    /************************************************ HELPER CLASSES ************************************************/
+
+
+    /**
+     * Mutable counters of a category. The upcoming media items are kept by release date, so that the ones released since the
+     * load can be removed
+     */
+    private static class Counters
+    {
+        private int tracked = 0;
+        private int completed = 0;
+        private int doingNow = 0;
+        private int upcoming = 0;
+        private TreeMap<Long, Integer> upcomingReleaseDates = new TreeMap<>();
+
+        /**
+         * Adds or removes a media item
+         * @param state the media item state
+         * @param sign 1 to add it, -1 to remove it
+         */
+        private void add(MediaItemState state, int sign)
+        {
+            if(state.completed)
+            {
+                completed += sign;
+            }
+            else
+            {
+                tracked += sign;
+                if(state.doingNow) doingNow += sign;
+                if(state.releaseDate!=null) addUpcoming(state.releaseDate, sign);
+            }
+        }
+
+        /**
+         * Adds or removes an upcoming media item. Released media items are added too, they are removed by the next
+         * {@link Counters#removeReleased(long)} before being counted
+         * @param releaseDate the media item release date
+         * @param sign 1 to add it, -1 to remove it
+         */
+        private void addUpcoming(long releaseDate, int sign)
+        {
+            // Nothing to remove if it was already released
+            Integer current = upcomingReleaseDates.get(releaseDate);
+            if(current==null && sign<0) return;
+
+            int updated = (current==null ? 0 : current) + sign;
+            if(updated>0) upcomingReleaseDates.put(releaseDate, updated);
+            else upcomingReleaseDates.remove(releaseDate);
+            upcoming += sign;
+        }
+
+        /**
+         * Removes the media items released up to the given time from the upcoming ones
+         * @param now the current time
+         */
+        private void removeReleased(long now)
+        {
+            Map<Long, Integer> released = upcomingReleaseDates.headMap(now, true);
+            for(Integer count: released.values())
+            {
+                upcoming -= count;
+            }
+            released.clear();
+        }
+    }
+
+    /**
+     * The state of a media item that affects the counts
+     */
+    public static class MediaItemState
+    {
+        private final long categoryId;
+        private final boolean completed;
+        private final boolean doingNow;
+        private final Long releaseDate;
+
+        /**
+         * Constructor
+         * @param categoryId the media item category ID
+         * @param completed true if the media item is completed
+         * @param doingNow true if the user is "doing" the media item now
+         * @param releaseDate the media item release date in milliseconds, may be null
+         */
+        public MediaItemState(long categoryId, boolean completed, boolean doingNow, Long releaseDate)
+        {
+            this.categoryId = categoryId;
+            this.completed = completed;
+            this.doingNow = doingNow;
+            this.releaseDate = releaseDate;
+        }
+
+        /**
+         * Builds the state of a media item in memory
+         * @param mediaItem the media item
+         * @return the media item state, null if it has no category
+         */
+        public static MediaItemState of(MediaItem mediaItem)
+        {
+            if(mediaItem.getCategory()==null) return null;
+            return new MediaItemState(mediaItem.getCategory(), mediaItem.isCompleted(), mediaItem.isDoingNow(),
+                    mediaItem.getReleaseDate()==null ? null : mediaItem.getReleaseDate().getTime());
+        }
+    }
+
+    /**
+     * The media items counts of a category
+     */
+    public static class CategoryCounts
+    {
+        private final int tracked;
+        private final int completed;
+        private final int doingNow;
+        private final int upcoming;
+
+        /**
+         * Constructor
+         * @param tracked the number of tracked media items
+         * @param completed the number of completed media items
+         * @param doingNow the number of tracked media items the user is "doing" now
+         * @param upcoming the number of tracked media items not yet released
+         */
+        private CategoryCounts(int tracked, int completed, int doingNow, int upcoming)
+        {
+            this.tracked = tracked;
+            this.completed = completed;
+            this.doingNow = doingNow;
+            this.upcoming = upcoming;
+        }
+
+        /**
+         * Getter
+         * @return the number of tracked media items
+         */
+        public int getTracked()
+        {
+            return tracked;
+        }
+
+        /**
+         * Getter
+         * @return the number of completed media items
+         */
+        public int getCompleted()
+        {
+            return completed;
+        }
+
+        /**
+         * Getter
+         * @return the number of tracked media items the user is "doing" now (upcoming ones included)
+         */
+        public int getDoingNow()
+        {
+            return doingNow;
+        }
+
+        /**
+         * Getter
+         * @return the number of tracked media items not yet released
+         */
+        public int getUpcoming()
+        {
+            return upcoming;
+        }
+
+        /**
+         * Getter
+         * @return the number of media items, tracked or completed
+         */
+        public int getTotal()
+        {
+            return tracked+completed;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package it.polimi.dima.mediatracker.controllers.database;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.orm.SugarDatabaseAccessor;
+import com.orm.SugarRecord;
+import com.orm.util.NamingHelper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import it.polimi.dima.mediatracker.model.Category;
+import it.polimi.dima.mediatracker.model.DeletedRow;
+import it.polimi.dima.mediatracker.model.MediaType;
+
+/**
+ * Keeps the database change counter: each save of a category/media item stores the next counter value in the row
+ * CHANGE_VERSION column, each deletion stores it in a {@link DeletedRow}. Incremental backups contain the rows with a
+ * counter value greater than the one of the previous backup.
+ * The counter itself is not saved anywhere: it's the maximum value in the database, read once and then kept in memory.
+ */
+public class ChangeTracker
+{
+    private static ChangeTracker instance;
+
+    private long lastChangeVersion = -1;
+
+    /**
+     * Private constructor
+     */
+    private ChangeTracker()
+    {
+
+    }
+
+    /**
+     * Singleton pattern
+     */
+    public static synchronized ChangeTracker getInstance()
+    {
+        if(instance==null) instance = new ChangeTracker();
+        return instance;
+    }
+
+    /**
+     * Getter
+     * @return the counter value of the last change in the database (0 if none)
+     */
+    public synchronized long getLastChangeVersion()
+    {
+        if(lastChangeVersion<0) lastChangeVersion = readLastChangeVersion();
+        return lastChangeVersion;
+    }
+
+    /**
+     * Increases the counter, to be called before each save
+     * @return the counter value for the change
+     */
+    public synchronized long nextChangeVersion()
+    {
+        lastChangeVersion = getLastChangeVersion()+1;
+        return lastChangeVersion;
+    }
+
+    /**
+     * Saves the tombstone of a deleted row
+     * @param modelClass the model of the deleted row
+     * @param id the ID of the deleted row
+     */
+    public void recordDeletion(Class<? extends SugarRecord> modelClass, long id)
+    {
+        new DeletedRow(NamingHelper.toSQLName(modelClass), id, nextChangeVersion()).save();
+    }
+
+    /**
+     * Forgets the counter value, to be called when the database is changed without this class (e.g. import)
+     */
+    public synchronized void reset()
+    {
+        lastChangeVersion = -1;
+    }
+
+    /**
+     * Getter
+     * @return the names of all tables with a CHANGE_VERSION column
+     */
+    public static List<String> getTrackedTableNames()
+    {
+        List<String> tables = new ArrayList<>();
+        tables.add(NamingHelper.toSQLName(Category.class));
+        for(MediaType mediaType: MediaType.values())
+        {
+            tables.add(NamingHelper.toSQLName(mediaType.getController().getModelClass()));
+        }
+        tables.add(NamingHelper.toSQLName(DeletedRow.class));
+        return tables;
+    }
+
+    /**
+     * Helper to read the maximum counter value in the database (indexes on the CHANGE_VERSION columns are created if
+     * missing, e.g. on a fresh install, so that this and the incremental backups do not scan the whole tables)
+     * @return the counter value of the last change
+     */
+    private long readLastChangeVersion()
+    {
+        SQLiteDatabase db = SugarDatabaseAccessor.getDatabase();
+        long max = 0;
+        for(String table: getTrackedTableNames())
+        {
+            db.execSQL("CREATE INDEX IF NOT EXISTS IDX_"+table+"_CHANGE_VERSION ON "+table+" ("+DeletedRow.COLUMN_CHANGE_VERSION+")");
+            SQLiteStatement statement = db.compileStatement("SELECT IFNULL(MAX("+DeletedRow.COLUMN_CHANGE_VERSION+"), 0) FROM "+table);
+            try
+            {
+                max = Math.max(max, statement.simpleQueryForLong());
+            }
+            finally
+            {
+                statement.close();
+            }
+        }
+        return max;
+    }
+}
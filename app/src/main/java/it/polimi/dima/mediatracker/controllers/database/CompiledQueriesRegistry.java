@@ -0,0 +1,239 @@
+package it.polimi.dima.mediatracker.controllers.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.orm.SugarDatabaseAccessor;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import it.polimi.dima.mediatracker.model.MediaItem;
+
+/**
+ * Registry of the queries of a media type, keyed by query "shape" (e.g. "tracked list, first page"). The SQL of each
+ * shape is built only once and the values are always passed as arguments, so that:
+ * - SELECT queries always have the same SQL string and are compiled only once by the SQLite connection statement cache
+ * - scalar and update queries are kept as compiled {@link SQLiteStatement}
+ * Rows are converted to media items by a {@link MediaItemCursorMapper}, without the reflection used by Sugar ORM.
+ */
+public class CompiledQueriesRegistry
+{
+    private final MediaItemCursorMapper<? extends MediaItem> mapper;
+
+    private final Map<String, String> selectQueries = new HashMap<>();
+    private final Map<String, SQLiteStatement> statements = new HashMap<>();
+    private SQLiteDatabase statementsDatabase;
+
+    /**
+     * Constructor
+     * @param mapper the mapper for the rows of the media type table
+     */
+    public CompiledQueriesRegistry(MediaItemCursorMapper<? extends MediaItem> mapper)
+    {
+        this.mapper = mapper;
+    }
+
+    /**
+     * Runs a SELECT query on the media type table
+     * @param queryKey the query shape key
+     * @param builder builds the query SQL, called only the first time the key is used
+     * @param args the query arguments
+     * @return the media items returned by the query
+     */
+    public List<MediaItem> queryMediaItems(String queryKey, QueryBuilder builder, String... args)
+    {
+        Cursor cursor = SugarDatabaseAccessor.getDatabase().rawQuery(getSelectQuery(queryKey, builder), args);
+        try
+        {
+            return mapper.mapAll(cursor);
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Runs a SELECT query on the media type table that returns at most one media item
+     * @param queryKey the query shape key
+     * @param builder builds the query SQL, called only the first time the key is used
+     * @param args the query arguments
+     * @return the first media item returned by the query, null if none
+     */
+    public MediaItem queryMediaItem(String queryKey, QueryBuilder builder, String... args)
+    {
+        List<MediaItem> mediaItems = queryMediaItems(queryKey, builder, args);
+        return mediaItems.size()>0 ? mediaItems.get(0) : null;
+    }
+
+    /**
+     * Runs a query that returns a single number (e.g. COUNT)
+     * @param queryKey the query shape key
+     * @param builder builds the query SQL, called only the first time the key is used
+     * @param args the query arguments
+     * @return the number returned by the query
+     */
+    public long queryForLong(String queryKey, QueryBuilder builder, Object... args)
+    {
+        SQLiteStatement statement = getStatement(queryKey, builder);
+        synchronized(statement)
+        {
+            bindArgs(statement, args);
+            return statement.simpleQueryForLong();
+        }
+    }
+
+    /**
+     * Runs a SELECT query that returns a single number column (e.g. IDs)
+     * @param queryKey the query shape key
+     * @param builder builds the query SQL, called only the first time the key is used
+     * @param args the query arguments
+     * @return the numbers returned by the query
+     */
+    public long[] queryForLongArray(String queryKey, QueryBuilder builder, String... args)
+    {
+        Cursor cursor = SugarDatabaseAccessor.getDatabase().rawQuery(getSelectQuery(queryKey, builder), args);
+        try
+        {
+            long[] values = new long[cursor.getCount()];
+            for(int i=0; cursor.moveToNext(); i++)
+            {
+                values[i] = cursor.getLong(0);
+            }
+            return values;
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Runs a SELECT query and passes each row to the given reader (for rows that are not media items)
+     * @param queryKey the query shape key
+     * @param builder builds the query SQL, called only the first time the key is used
+     * @param reader reads the rows
+     * @param args the query arguments
+     */
+    public void queryRows(String queryKey, QueryBuilder builder, RowReader reader, String... args)
+    {
+        Cursor cursor = SugarDatabaseAccessor.getDatabase().rawQuery(getSelectQuery(queryKey, builder), args);
+        try
+        {
+            while(cursor.moveToNext())
+            {
+                reader.readRow(cursor);
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Runs an UPDATE/DELETE query
+     * @param queryKey the query shape key
+     * @param builder builds the query SQL, called only the first time the key is used
+     * @param args the query arguments
+     * @return the number of affected rows
+     */
+    public int executeUpdate(String queryKey, QueryBuilder builder, Object... args)
+    {
+        SQLiteStatement statement = getStatement(queryKey, builder);
+        synchronized(statement)
+        {
+            bindArgs(statement, args);
+            return statement.executeUpdateDelete();
+        }
+    }
+
+    /**
+     * Helper to get (and build if necessary) the SQL of a SELECT query
+     * @param queryKey the query shape key
+     * @param builder builds the query SQL
+     * @return the SQL
+     */
+    private synchronized String getSelectQuery(String queryKey, QueryBuilder builder)
+    {
+        String sql = selectQueries.get(queryKey);
+        if(sql==null)
+        {
+            sql = builder.build();
+            selectQueries.put(queryKey, sql);
+        }
+        return sql;
+    }
+
+    /**
+     * Helper to get (and compile if necessary) a statement
+     * @param queryKey the query shape key
+     * @param builder builds the query SQL
+     * @return the compiled statement
+     */
+    private synchronized SQLiteStatement getStatement(String queryKey, QueryBuilder builder)
+    {
+        // Statements are bound to a connection: if the database was reopened, compile them again
+        SQLiteDatabase db = SugarDatabaseAccessor.getDatabase();
+        if(db!=statementsDatabase)
+        {
+            for(SQLiteStatement statement: statements.values())
+            {
+                statement.close();
+            }
+            statements.clear();
+            statementsDatabase = db;
+        }
+
+        SQLiteStatement statement = statements.get(queryKey);
+        if(statement==null)
+        {
+            statement = db.compileStatement(builder.build());
+            statements.put(queryKey, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * Helper to bind the arguments to a statement (numbers are bound as integers, everything else as strings)
+     * @param statement the statement
+     * @param args the arguments
+     */
+    private void bindArgs(SQLiteStatement statement, Object... args)
+    {
+        statement.clearBindings();
+        for(int i=0; i<args.length; i++)
+        {
+            if(args[i]==null) statement.bindNull(i+1);
+            else if(args[i] instanceof Number) statement.bindLong(i+1, ((Number) args[i]).longValue());
+            else statement.bindString(i+1, args[i].toString());
+        }
+    }
+
+    /**
+     * Builds the SQL of a query shape
+     */
+    public interface QueryBuilder
+    {
+        /**
+         * Builds the SQL
+         * @return the SQL of the query
+         */
+        String build();
+    }
+
+    /**
+     * Reads the rows of a query
+     */
+    public interface RowReader
+    {
+        /**
+         * Called for each row
+         * @param cursor the cursor, positioned on the row
+         */
+        void readRow(Cursor cursor);
+    }
+}
@@ -0,0 +1,226 @@
+package it.polimi.dima.mediatracker.controllers.database;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the database operations off the main thread: writes are serialized on a single thread, reads run on a small
+ * pool. A read always sees the writes submitted before it (it waits for them), so a screen can submit an update and
+ * immediately after a reload of its data. Results are delivered on the main thread.
+ */
+public class DatabaseExecutor
+{
+    private final static int READER_THREADS = 2;
+
+    private static DatabaseExecutor instance;
+
+    private ExecutorService writer;
+    private ExecutorService readers;
+    private Handler mainThreadHandler = new Handler(Looper.getMainLooper());
+
+    private Future<?> lastWrite;
+
+    /**
+     * Private constructor
+     */
+    private DatabaseExecutor()
+    {
+        writer = Executors.newSingleThreadExecutor(new NamedThreadFactory("DatabaseWriter"));
+        readers = Executors.newFixedThreadPool(READER_THREADS, new NamedThreadFactory("DatabaseReader"));
+    }
+
+    /**
+     * Singleton pattern
+     */
+    public static synchronized DatabaseExecutor getInstance()
+    {
+        if(instance==null) instance = new DatabaseExecutor();
+        return instance;
+    }
+
+    /**
+     * Runs a read operation on the readers pool, after the writes submitted before it
+     * @param query the read operation
+     * @param callback called on the main thread with the result, can be null
+     * @param <T> the result type
+     * @return the future of the result
+     */
+    public <T> Future<T> read(Callable<T> query, ResultCallback<T> callback)
+    {
+        Future<?> previousWrite;
+        synchronized(this)
+        {
+            previousWrite = lastWrite;
+        }
+        return readers.submit(new DatabaseTask<>(query, callback, previousWrite, true));
+    }
+
+    /**
+     * Runs a write operation on the writer thread, after all the writes submitted before it
+     * @param operation the write operation
+     * @param callback called on the main thread with the result, can be null
+     * @param <T> the result type
+     * @return the future of the result
+     */
+    public synchronized <T> Future<T> write(Callable<T> operation, ResultCallback<T> callback)
+    {
+        Future<T> future = writer.submit(new DatabaseTask<>(operation, callback, null, true));
+        lastWrite = future;
+        return future;
+    }
+
+    /**
+     * Same as {@link DatabaseExecutor#write(Callable, ResultCallback)}, for background callers (e.g. a periodic job) that
+     * handle the errors themselves: a failed operation is only reported by the returned future, not thrown on the main
+     * thread
+     * @param operation the write operation
+     * @param <T> the result type
+     * @return the future of the result
+     */
+    public synchronized <T> Future<T> writeInBackground(Callable<T> operation)
+    {
+        Future<T> future = writer.submit(new DatabaseTask<>(operation, null, null, false));
+        lastWrite = future;
+        return future;
+    }
+
+    /**
+     * Callback for the result of an operation
+     * @param <T> the result type
+     */
+    public interface ResultCallback<T>
+    {
+        /**
+         * Called on the main thread when the operation is completed
+         * @param result the operation result
+         */
+        void onResult(T result);
+    }
+
+    /**
+     * An operation with its callback
+     * @param <T> the result type
+     */
+    private class DatabaseTask<T> implements Callable<T>
+    {
+        private Callable<T> operation;
+        private ResultCallback<T> callback;
+        private Future<?> previousWrite;
+        private boolean throwOnMainThread;
+
+        /**
+         * Constructor
+         * @param operation the operation
+         * @param callback the callback, can be null
+         * @param previousWrite the write to wait for before running, can be null
+         * @param throwOnMainThread true to throw the operation errors on the main thread, false to report them only in the future
+         */
+        private DatabaseTask(Callable<T> operation, ResultCallback<T> callback, Future<?> previousWrite, boolean throwOnMainThread)
+        {
+            this.operation = operation;
+            this.callback = callback;
+            this.previousWrite = previousWrite;
+            this.throwOnMainThread = throwOnMainThread;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public T call() throws Exception
+        {
+            // Wait for the previous writes (their errors are reported by the writes themselves)
+            if(previousWrite!=null)
+            {
+                try
+                {
+                    previousWrite.get();
+                }
+                catch(ExecutionException e)
+                {
+                    // Ignore
+                }
+            }
+
+            // Run the operation: errors are thrown on the main thread, as if the operation was run there (unless the caller
+            // handles them)
+            final T result;
+            try
+            {
+                result = operation.call();
+            }
+            catch(final Exception e)
+            {
+                if(throwOnMainThread)
+                {
+                    mainThreadHandler.post(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            throw new RuntimeException("Database operation failed", e);
+                        }
+                    });
+                }
+                throw e;
+            }
+
+            // Deliver the result
+            if(callback!=null)
+            {
+                mainThreadHandler.post(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        callback.onResult(result);
+                    }
+                });
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Thread factory for the executor threads, that run in background priority
+     */
+    private static class NamedThreadFactory implements ThreadFactory
+    {
+        private String name;
+        private AtomicInteger count = new AtomicInteger();
+
+        /**
+         * Constructor
+         * @param name the threads name
+         */
+        private NamedThreadFactory(String name)
+        {
+            this.name = name;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Thread newThread(final Runnable runnable)
+        {
+            return new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, name+"-"+count.incrementAndGet());
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package it.polimi.dima.mediatracker.controllers.database;
+
+import java.util.Arrays;
+
+/**
+ * Fenwick (binary indexed) tree of non-negative weights: allows to change a weight, append a weight and find the
+ * element at a given cumulative weight in O(log n), so that weighted random picks do not need to scan all the weights
+ */
+class FenwickTree
+{
+    private final static int INITIAL_CAPACITY = 16;
+
+    private double[] tree;
+    private double[] values;
+    private int size;
+
+    /**
+     * Constructor
+     * @param initialValues the initial weights
+     * @param count the number of weights to use from the array
+     */
+    FenwickTree(double[] initialValues, int count)
+    {
+        reset(initialValues, count);
+    }
+
+    /**
+     * Replaces all the weights, in O(n)
+     * @param newValues the new weights
+     * @param count the number of weights to use from the array
+     */
+    void reset(double[] newValues, int count)
+    {
+        int capacity = Math.max(INITIAL_CAPACITY, count);
+        values = Arrays.copyOf(newValues, capacity);
+        size = count;
+        rebuild(capacity);
+    }
+
+    /**
+     * Getter
+     * @return the number of weights
+     */
+    int size()
+    {
+        return size;
+    }
+
+    /**
+     * Getter
+     * @param index the element index
+     * @return the element weight
+     */
+    double get(int index)
+    {
+        return values[index];
+    }
+
+    /**
+     * Changes the weight of an element
+     * @param index the element index
+     * @param value the new weight
+     */
+    void set(int index, double value)
+    {
+        double delta = value-values[index];
+        values[index] = value;
+        for(int i=index+1; i<=size; i+=i&(-i))
+        {
+            tree[i] += delta;
+        }
+    }
+
+    /**
+     * Adds an element at the end
+     * @param value the element weight
+     * @return the element index
+     */
+    int append(double value)
+    {
+        // Grow if needed (rebuilding is O(n), but amortized on the doubling)
+        if(size==values.length)
+        {
+            values = Arrays.copyOf(values, size*2);
+            rebuild(values.length);
+        }
+
+        // The new node covers the elements (index - lowest bit, index], the others are already in the tree
+        int index = size++;
+        values[index] = value;
+        int node = index+1;
+        tree[node] = value+getPrefixSum(node-1)-getPrefixSum(node-(node&(-node)));
+        return index;
+    }
+
+    /**
+     * Getter
+     * @return the sum of all the weights
+     */
+    double getTotal()
+    {
+        return getPrefixSum(size);
+    }
+
+    /**
+     * Finds the element at the given cumulative weight
+     * @param target a value between 0 (inclusive) and the total weight (exclusive)
+     * @return the index of the first element whose cumulative weight (itself included) is greater than the target
+     */
+    int find(double target)
+    {
+        int position = 0;
+        for(int step=Integer.highestOneBit(size); step>0; step>>=1)
+        {
+            if(position+step<=size && tree[position+step]<=target)
+            {
+                position += step;
+                target -= tree[position];
+            }
+        }
+        return Math.min(position, size-1);
+    }
+
+    /**
+     * Helper to get the sum of the first weights
+     * @param count the number of weights to sum
+     * @return the sum
+     */
+    private double getPrefixSum(int count)
+    {
+        double sum = 0;
+        for(int i=count; i>0; i-=i&(-i))
+        {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Helper to build the tree from the weights, in O(n)
+     * @param capacity the maximum number of weights before the next rebuild
+     */
+    private void rebuild(int capacity)
+    {
+        tree = new double[capacity+1];
+        for(int i=1; i<=size; i++)
+        {
+            tree[i] += values[i-1];
+            int parent = i+(i&(-i));
+            if(parent<=size) tree[parent] += tree[i];
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package it.polimi.dima.mediatracker.controllers.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import it.polimi.dima.mediatracker.model.MediaItem;
+
+/**
+ * Normalized genres of a media type table: a dictionary of the genre names (case insensitive) and a table that links
+ * each media item to its genres. The media item GENRES column is still the displayed value (comma separated), this index
+ * allows exact and indexed genre filters (the LIKE filter on the column needs a full scan and also matches the genres that
+ * only contain the searched one).
+ * The links are written by the application when a media item is saved or imported, a trigger removes them when the
+ * media item is deleted.
+ */
+public class GenreIndex
+{
+    public final static String COLUMN_ID = "ID";
+    public final static String COLUMN_NAME = "NAME";
+    public final static String COLUMN_GENRE_ID = "GENRE_ID";
+    public final static String COLUMN_MEDIA_ITEM_ID = "MEDIA_ITEM_ID";
+
+    private final static String GENRES_SEPARATOR = ",";
+
+    private final String mediaItemTable;
+    private final String genreTable;
+    private final String linkTable;
+
+    /**
+     * Constructor
+     * @param mediaItemTable the media type table
+     */
+    public GenreIndex(String mediaItemTable)
+    {
+        this.mediaItemTable = mediaItemTable;
+        this.genreTable = mediaItemTable+"_GENRE";
+        this.linkTable = mediaItemTable+"_GENRE_ITEM";
+    }
+
+    /**
+     * Makes sure that the index tables and the delete trigger exist, then adds the media items that were saved before
+     * the index existed (e.g. after an upgrade)
+     * @param db the database
+     */
+    public void ensureIndex(SQLiteDatabase db)
+    {
+        db.beginTransaction();
+        try
+        {
+            // Tables
+            db.execSQL("CREATE TABLE IF NOT EXISTS "+genreTable+" ("+COLUMN_ID+" INTEGER PRIMARY KEY, "+COLUMN_NAME+" TEXT NOT NULL COLLATE NOCASE UNIQUE)");
+            db.execSQL("CREATE TABLE IF NOT EXISTS "+linkTable+" ("+COLUMN_GENRE_ID+" INTEGER NOT NULL, "+COLUMN_MEDIA_ITEM_ID+" INTEGER NOT NULL, "+
+                    "PRIMARY KEY ("+COLUMN_GENRE_ID+", "+COLUMN_MEDIA_ITEM_ID+"))");
+            db.execSQL("CREATE INDEX IF NOT EXISTS IDX_"+linkTable+"_MEDIA_ITEM ON "+linkTable+" ("+COLUMN_MEDIA_ITEM_ID+")");
+
+            // Sync trigger (Sugar saves with INSERT OR REPLACE, that doesn't fire delete triggers, so it's only for actual deletes)
+            db.execSQL("CREATE TRIGGER IF NOT EXISTS "+linkTable+"_AD AFTER DELETE ON "+mediaItemTable+" BEGIN "+
+                    "DELETE FROM "+linkTable+" WHERE "+COLUMN_MEDIA_ITEM_ID+" = old."+MediaItem.COLUMN_ID+"; END");
+
+            // Add the media items with genres but no links
+            Cursor cursor = db.rawQuery("SELECT "+MediaItem.COLUMN_ID+", "+MediaItem.COLUMN_GENRES+" FROM "+mediaItemTable+" "+
+                    "WHERE "+MediaItem.COLUMN_GENRES+" IS NOT NULL AND "+MediaItem.COLUMN_GENRES+" <> '' "+
+                    "AND "+MediaItem.COLUMN_ID+" NOT IN (SELECT "+COLUMN_MEDIA_ITEM_ID+" FROM "+linkTable+")", null);
+            try
+            {
+                while(cursor.moveToNext())
+                {
+                    indexMediaItem(db, cursor.getLong(0), cursor.getString(1));
+                }
+            }
+            finally
+            {
+                cursor.close();
+            }
+
+            // Forget the genres no longer used
+            db.execSQL("DELETE FROM "+genreTable+" WHERE "+COLUMN_ID+" NOT IN (SELECT "+COLUMN_GENRE_ID+" FROM "+linkTable+")");
+
+            db.setTransactionSuccessful();
+        }
+        finally
+        {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Replaces the genres of a media item
+     * @param db the database
+     * @param mediaItemId the media item ID
+     * @param genres the media item genres, as in the GENRES column. May be null
+     */
+    public void indexMediaItem(SQLiteDatabase db, long mediaItemId, String genres)
+    {
+        String[] idArg = new String[]{String.valueOf(mediaItemId)};
+        db.execSQL("DELETE FROM "+linkTable+" WHERE "+COLUMN_MEDIA_ITEM_ID+" = ?", idArg);
+        for(String genre: splitGenres(genres))
+        {
+            String[] genreArg = new String[]{genre};
+            db.execSQL("INSERT OR IGNORE INTO "+genreTable+" ("+COLUMN_NAME+") VALUES (?)", genreArg);
+            db.execSQL("INSERT OR IGNORE INTO "+linkTable+" ("+COLUMN_GENRE_ID+", "+COLUMN_MEDIA_ITEM_ID+") "+
+                    "SELECT "+COLUMN_ID+", ? FROM "+genreTable+" WHERE "+COLUMN_NAME+" = ?", new String[]{idArg[0], genre});
+        }
+    }
+
+    /**
+     * Getter
+     * @return the WHERE term on the media type table that matches the media items with the genre passed as its argument
+     * (the whole genre name, case insensitive)
+     */
+    public String getGenreFilterTerm()
+    {
+        return MediaItem.COLUMN_ID+" IN (SELECT "+COLUMN_MEDIA_ITEM_ID+" FROM "+linkTable+" WHERE "+COLUMN_GENRE_ID+" = "+
+                "(SELECT "+COLUMN_ID+" FROM "+genreTable+" WHERE "+COLUMN_NAME+" = ?))";
+    }
+
+    /**
+     * Getter
+     * @param where the filter on the media type table
+     * @return the query that counts the media items of the filter for each genre (name and count columns, the most
+     * used genres first)
+     */
+    public String getGenreCountsQuery(String where)
+    {
+        return "SELECT g."+COLUMN_NAME+", COUNT(*) FROM "+linkTable+" l "+
+                "JOIN "+genreTable+" g ON g."+COLUMN_ID+" = l."+COLUMN_GENRE_ID+" "+
+                "JOIN "+mediaItemTable+" m ON m."+MediaItem.COLUMN_ID+" = l."+COLUMN_MEDIA_ITEM_ID+" "+
+                "WHERE "+where+" GROUP BY g."+COLUMN_ID+" ORDER BY COUNT(*) DESC, g."+COLUMN_NAME;
+    }
+
+    /**
+     * Splits the value of the GENRES column (comma separated, as built by the external services and the form)
+     * @param genres the column value. May be null
+     * @return the trimmed genres, without empty values and duplicates (case insensitive)
+     */
+    public static List<String> splitGenres(String genres)
+    {
+        List<String> result = new ArrayList<>();
+        if(genres==null) return result;
+
+        Map<String, String> unique = new LinkedHashMap<>();
+        for(String genre: genres.split(GENRES_SEPARATOR))
+        {
+            String trimmed = genre.trim();
+            String key = trimmed.toLowerCase(Locale.ROOT);
+            if(!trimmed.isEmpty() && !unique.containsKey(key)) unique.put(key, trimmed);
+        }
+        result.addAll(unique.values());
+        return result;
+    }
+}
@@ -0,0 +1,179 @@
+package it.polimi.dima.mediatracker.controllers.database;
+
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import it.polimi.dima.mediatracker.model.ImportanceLevel;
+import it.polimi.dima.mediatracker.model.MediaItem;
+import it.polimi.dima.mediatracker.utils.Clock;
+
+/**
+ * Converts the rows of a media type table into media items using the setters, i.e. without the reflection used by Sugar ORM.
+ * Column indexes are resolved once per cursor, not once per row.
+ * @param <T> the media item implementation
+ */
+public abstract class MediaItemCursorMapper<T extends MediaItem>
+{
+    private final static String[] COMMON_COLUMNS = new String[]{
+            MediaItem.COLUMN_ID, MediaItem.COLUMN_NAME, MediaItem.COLUMN_GENRES, MediaItem.COLUMN_DESCRIPTION, MediaItem.COLUMN_USER_COMMENT,
+            MediaItem.COLUMN_COMPLETION_DATE, MediaItem.COLUMN_TIMES_COMPLETED, MediaItem.COLUMN_IMPORTANCE_LEVEL, MediaItem.COLUMN_CATEGORY,
+            MediaItem.COLUMN_OWNED, MediaItem.COLUMN_RELEASE_DATE, MediaItem.COLUMN_DOING_NOW, MediaItem.COLUMN_EXTERNAL_SERVICE_ID,
+            MediaItem.COLUMN_IMAGE, MediaItem.COLUMN_ORDER_IN_SECTION, MediaItem.COLUMN_SECTION_RANK, MediaItem.COLUMN_SECTION_ORDER,
+            MediaItem.COLUMN_CHANGE_VERSION};
+
+    /**
+     * Converts all rows of the cursor. The upcoming state of all media items is computed with the same time
+     * @param cursor the cursor (the caller must close it)
+     * @return the media items
+     */
+    public List<MediaItem> mapAll(Cursor cursor)
+    {
+        int[] common = getColumnIndexes(cursor, COMMON_COLUMNS);
+        int[] specific = getColumnIndexes(cursor, getSpecificColumns());
+        long now = Clock.getInstance().now();
+
+        List<MediaItem> mediaItems = new ArrayList<>(cursor.getCount());
+        while(cursor.moveToNext())
+        {
+            T mediaItem = newInstance();
+            mapCommonColumns(cursor, common, mediaItem);
+            mapSpecificColumns(cursor, specific, mediaItem);
+            mediaItem.updateUpcoming(now);
+            mediaItems.add(mediaItem);
+        }
+        return mediaItems;
+    }
+
+    /**
+     * Helper to set the columns shared by all media types
+     * @param cursor the cursor, on the current row
+     * @param indexes the indexes of {@link MediaItemCursorMapper#COMMON_COLUMNS}
+     * @param mediaItem the media item to fill
+     */
+    private void mapCommonColumns(Cursor cursor, int[] indexes, T mediaItem)
+    {
+        mediaItem.setId(getLongObject(cursor, indexes[0]));
+        mediaItem.setTitle(getString(cursor, indexes[1]));
+        mediaItem.setGenres(getString(cursor, indexes[2]));
+        mediaItem.setDescription(getString(cursor, indexes[3]));
+        mediaItem.setUserComment(getString(cursor, indexes[4]));
+        mediaItem.setCompletionDate(getDate(cursor, indexes[5]));
+        mediaItem.setTimesCompleted(getInt(cursor, indexes[6]));
+        ImportanceLevel importanceLevel = ImportanceLevel.fromDbValue(getInt(cursor, indexes[7]));
+        if(importanceLevel!=null) mediaItem.setImportanceLevel(importanceLevel);
+        mediaItem.setCategory(getLongObject(cursor, indexes[8]));
+        mediaItem.setOwned(getBoolean(cursor, indexes[9]));
+        mediaItem.setReleaseDate(getDate(cursor, indexes[10]));
+        mediaItem.setDoingNow(getBoolean(cursor, indexes[11]));
+        mediaItem.setExternalServiceId(getString(cursor, indexes[12]));
+        mediaItem.setImage(getString(cursor, indexes[13]));
+        mediaItem.setOrderInSection(getInt(cursor, indexes[14]));
+        mediaItem.setSectionSortKey(getInt(cursor, indexes[15]), getLong(cursor, indexes[16]));
+        mediaItem.setChangeVersion(getLong(cursor, indexes[17]));
+    }
+
+    /**
+     * Getter
+     * @return the columns specific to this media type
+     */
+    protected abstract String[] getSpecificColumns();
+
+    /**
+     * Creates an empty media item of this media type
+     * @return the new media item
+     */
+    protected abstract T newInstance();
+
+    /**
+     * Sets the columns specific to this media type
+     * @param cursor the cursor, on the current row
+     * @param indexes the indexes of the columns returned by {@link MediaItemCursorMapper#getSpecificColumns()}
+     * @param mediaItem the media item to fill
+     */
+    protected abstract void mapSpecificColumns(Cursor cursor, int[] indexes, T mediaItem);
+
+    /**
+     * Helper to resolve column indexes
+     * @param cursor the cursor
+     * @param columns the column names
+     * @return the column indexes (-1 if the cursor does not have a column)
+     */
+    private static int[] getColumnIndexes(Cursor cursor, String[] columns)
+    {
+        int[] indexes = new int[columns.length];
+        for(int i=0; i<columns.length; i++)
+        {
+            indexes[i] = cursor.getColumnIndex(columns[i]);
+        }
+        return indexes;
+    }
+
+    /**
+     * Helper to read a string column
+     * @param cursor the cursor
+     * @param index the column index
+     * @return the value, null if NULL or missing
+     */
+    protected static String getString(Cursor cursor, int index)
+    {
+        return index<0 || cursor.isNull(index) ? null : cursor.getString(index);
+    }
+
+    /**
+     * Helper to read an integer column
+     * @param cursor the cursor
+     * @param index the column index
+     * @return the value, 0 if NULL or missing
+     */
+    protected static int getInt(Cursor cursor, int index)
+    {
+        return index<0 || cursor.isNull(index) ? 0 : cursor.getInt(index);
+    }
+
+    /**
+     * Helper to read a long column
+     * @param cursor the cursor
+     * @param index the column index
+     * @return the value, 0 if NULL or missing
+     */
+    protected static long getLong(Cursor cursor, int index)
+    {
+        return index<0 || cursor.isNull(index) ? 0 : cursor.getLong(index);
+    }
+
+    /**
+     * Helper to read a nullable long column
+     * @param cursor the cursor
+     * @param index the column index
+     * @return the value, null if NULL or missing
+     */
+    protected static Long getLongObject(Cursor cursor, int index)
+    {
+        return index<0 || cursor.isNull(index) ? null : cursor.getLong(index);
+    }
+
+    /**
+     * Helper to read a boolean column (saved by Sugar ORM as 0/1)
+     * @param cursor the cursor
+     * @param index the column index
+     * @return the value, false if NULL or missing
+     */
+    protected static boolean getBoolean(Cursor cursor, int index)
+    {
+        return getInt(cursor, index)==1;
+    }
+
+    /**
+     * Helper to read a date column (saved by Sugar ORM as milliseconds)
+     * @param cursor the cursor
+     * @param index the column index
+     * @return the value, null if NULL or missing
+     */
+    protected static Date getDate(Cursor cursor, int index)
+    {
+        return index<0 || cursor.isNull(index) ? null : new Date(cursor.getLong(index));
+    }
+}
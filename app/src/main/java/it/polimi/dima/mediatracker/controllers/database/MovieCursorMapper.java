@@ -0,0 +1,41 @@
+package it.polimi.dima.mediatracker.controllers.database;
+
+import android.database.Cursor;
+
+import it.polimi.dima.mediatracker.model.Movie;
+
+/**
+ * Cursor mapper for the movies table
+ */
+public class MovieCursorMapper extends MediaItemCursorMapper<Movie>
+{
+    private final static String[] SPECIFIC_COLUMNS = new String[]{Movie.COLUMN_DIRECTOR, Movie.COLUMN_DURATION};
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected String[] getSpecificColumns()
+    {
+        return SPECIFIC_COLUMNS;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Movie newInstance()
+    {
+        return new Movie();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void mapSpecificColumns(Cursor cursor, int[] indexes, Movie movie)
+    {
+        movie.setDirector(getString(cursor, indexes[0]));
+        movie.setDurationMin(getInt(cursor, indexes[1]));
+    }
+}
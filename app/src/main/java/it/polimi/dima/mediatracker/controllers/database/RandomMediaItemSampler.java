@@ -0,0 +1,414 @@
+package it.polimi.dima.mediatracker.controllers.database;
+
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import it.polimi.dima.mediatracker.model.MediaItem;
+
+/**
+ * Picks random media items that match a filter without sorting all the matching rows (no "ORDER BY RANDOM()").
+ * The picks use a shuffled cursor on the IDs of the matching rows, loaded once (only the IDs are read): a media item is
+ * not picked again until all the others have been. Cursors are kept for the last used filters and reloaded when the
+ * database changes.
+ * The weighted picks use a Fenwick tree of the weights of the matching rows, loaded once per filter and then kept up to
+ * date one media item at a time when it's saved (see {@link #onMediaItemSaved(long, long)}).
+ */
+public class RandomMediaItemSampler
+{
+    private final static int MAX_CURSORS = 8;
+    private final static double MIN_WEIGHT = 0.01;
+
+    private final CompiledQueriesRegistry queriesRegistry;
+    private final String tableName;
+    private final Random random = new Random();
+
+    private final Map<String, IdsCursor> cursors = createCursorsCache();
+    private final Map<String, WeightedCursor> weightedCursors = createCursorsCache();
+
+    /**
+     * Constructor
+     * @param queriesRegistry the registry of the media type queries
+     * @param tableName the media type table
+     */
+    public RandomMediaItemSampler(CompiledQueriesRegistry queriesRegistry, String tableName)
+    {
+        this.queriesRegistry = queriesRegistry;
+        this.tableName = tableName;
+    }
+
+    /**
+     * Picks the ID of a random media item that matches the filter
+     * @param where the filter (the terms only contain placeholders, so the WHERE value identifies the query shape)
+     * @param whereArgs the filter values
+     * @param idDifferentFromIfPossible if possible, the picked ID is different from this one. May be null
+     * @return the media item ID, null if no media item matches
+     */
+    public synchronized Long nextId(final String where, String[] whereArgs, Long idDifferentFromIfPossible)
+    {
+        long changeVersion = ChangeTracker.getInstance().getLastChangeVersion();
+        String cursorKey = where+" "+Arrays.toString(whereArgs);
+        IdsCursor cursor = cursors.get(cursorKey);
+        if(cursor==null)
+        {
+            cursor = new IdsCursor();
+            cursors.put(cursorKey, cursor);
+        }
+
+        // Shuffled cursor on the matching IDs, (re)loaded if needed
+        if(cursor.ids==null || cursor.changeVersion!=changeVersion)
+        {
+            long[] ids = queriesRegistry.queryForLongArray("RANDOM_IDS "+where, new CompiledQueriesRegistry.QueryBuilder()
+            {
+                @Override
+                public String build()
+                {
+                    return "SELECT "+MediaItem.COLUMN_ID+" FROM "+tableName+" WHERE "+where;
+                }
+            }, whereArgs);
+            cursor.load(ids, changeVersion);
+        }
+        return cursor.next(idDifferentFromIfPossible);
+    }
+
+    /**
+     * Picks the ID of a random media item that matches the filter, with probability proportional to its weight. A media
+     * item is not picked again until all the others have been
+     * @param where the filter (the terms only contain placeholders, so the WHERE value identifies the query shape)
+     * @param whereArgs the filter values
+     * @param weightExpression the SQL expression of the media item weight (positive). The media items added first (lower
+     *                         IDs) get up to twice this weight
+     * @param idDifferentFromIfPossible if possible, the picked ID is different from this one. May be null
+     * @return the media item ID, null if no media item matches
+     */
+    public synchronized Long nextWeightedId(final String where, String[] whereArgs, final String weightExpression, Long idDifferentFromIfPossible)
+    {
+        long changeVersion = ChangeTracker.getInstance().getLastChangeVersion();
+        String cursorKey = weightExpression+" "+where+" "+Arrays.toString(whereArgs);
+        WeightedCursor cursor = weightedCursors.get(cursorKey);
+        if(cursor==null)
+        {
+            cursor = new WeightedCursor(where, whereArgs, weightExpression);
+            weightedCursors.put(cursorKey, cursor);
+        }
+
+        // (Re)load the weights if the database changed in a way not already applied to the cursor
+        if(cursor.tree==null || cursor.changeVersion!=changeVersion)
+        {
+            final List<Long> ids = new ArrayList<>();
+            final List<Double> weights = new ArrayList<>();
+            queriesRegistry.queryRows("WEIGHTED_IDS "+weightExpression+" "+where, new CompiledQueriesRegistry.QueryBuilder()
+            {
+                @Override
+                public String build()
+                {
+                    return "SELECT "+MediaItem.COLUMN_ID+", "+weightExpression+" FROM "+tableName+" WHERE "+where;
+                }
+            }, new CompiledQueriesRegistry.RowReader()
+            {
+                @Override
+                public void readRow(Cursor row)
+                {
+                    ids.add(row.getLong(0));
+                    weights.add(row.getDouble(1));
+                }
+            }, whereArgs);
+            cursor.load(ids, weights, changeVersion);
+        }
+        return cursor.next(idDifferentFromIfPossible);
+    }
+
+    /**
+     * Applies a saved media item to the weighted cursors, so that they don't need to be reloaded. Must be called right
+     * after the save; the cursors that missed other changes are left stale and reloaded at the next pick
+     * @param id the media item ID
+     * @param changeVersion the media item change version
+     */
+    public synchronized void onMediaItemSaved(long id, long changeVersion)
+    {
+        for(final WeightedCursor cursor: weightedCursors.values())
+        {
+            if(cursor.tree==null || cursor.changeVersion!=changeVersion-1) continue;
+
+            // Read the new weight (no rows if the media item does not match the filter anymore)
+            String[] args = Arrays.copyOf(cursor.whereArgs, cursor.whereArgs.length+1);
+            args[cursor.whereArgs.length] = String.valueOf(id);
+            final double[] weight = {0};
+            queriesRegistry.queryRows("WEIGHTED_ID "+cursor.weightExpression+" "+cursor.where, new CompiledQueriesRegistry.QueryBuilder()
+            {
+                @Override
+                public String build()
+                {
+                    return "SELECT "+cursor.weightExpression+" FROM "+tableName+" WHERE "+cursor.where+" AND "+MediaItem.COLUMN_ID+" = ?";
+                }
+            }, new CompiledQueriesRegistry.RowReader()
+            {
+                @Override
+                public void readRow(Cursor row)
+                {
+                    weight[0] = Math.max(MIN_WEIGHT, row.getDouble(0));
+                }
+            }, args);
+
+            cursor.update(id, weight[0]);
+            cursor.changeVersion = changeVersion;
+        }
+    }
+
+    /**
+     * Helper to create a cache of cursors that keeps the last used ones
+     * @param <T> the cursor type
+     * @return the cache
+     */
+    private static <T> Map<String, T> createCursorsCache()
+    {
+        return new LinkedHashMap<String, T>(MAX_CURSORS, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, T> eldest)
+            {
+                return size()>MAX_CURSORS;
+            }
+        };
+    }
+
+    /**
+     * Random permutation of the IDs of a filter, built one step at a time (Fisher-Yates)
+     */
+    private class IdsCursor
+    {
+        private long[] ids;
+        private int position;
+        private long changeVersion;
+        private Set<Long> suggested = new HashSet<>();
+
+        /**
+         * Sets the IDs of the matching rows, keeping the ones already picked in the current round out of the next picks
+         * @param newIds the IDs
+         * @param newChangeVersion the database change counter value when the IDs were read
+         */
+        private void load(long[] newIds, long newChangeVersion)
+        {
+            ids = newIds;
+            changeVersion = newChangeVersion;
+            position = 0;
+            for(int i=0; i<ids.length; i++)
+            {
+                if(suggested.contains(ids[i])) swap(i, position++);
+            }
+        }
+
+        /**
+         * Picks the next ID
+         * @param idDifferentFromIfPossible if possible, the picked ID is different from this one. May be null
+         * @return the ID, null if there are no IDs
+         */
+        private Long next(Long idDifferentFromIfPossible)
+        {
+            if(ids.length==0) return null;
+
+            // All IDs picked: start a new round
+            if(position==ids.length)
+            {
+                position = 0;
+                suggested.clear();
+            }
+
+            // Pick one of the remaining IDs (another one if it's the one to avoid)
+            int remaining = ids.length-position;
+            int pick = position+random.nextInt(remaining);
+            if(remaining>1 && idDifferentFromIfPossible!=null && ids[pick]==idDifferentFromIfPossible)
+            {
+                int otherPick = position+random.nextInt(remaining-1);
+                pick = otherPick>=pick ? otherPick+1 : otherPick;
+            }
+
+            swap(pick, position);
+            suggested.add(ids[position]);
+            return ids[position++];
+        }
+
+        /**
+         * Helper to swap two IDs
+         * @param i the first position
+         * @param j the second position
+         */
+        private void swap(int i, int j)
+        {
+            long temp = ids[i];
+            ids[i] = ids[j];
+            ids[j] = temp;
+        }
+    }
+
+    /**
+     * Weights of the media items of a filter: the ones already picked in the current round have a weight of 0 in the
+     * tree, their actual weight is restored when a new round starts
+     */
+    private class WeightedCursor
+    {
+        private final String where;
+        private final String[] whereArgs;
+        private final String weightExpression;
+
+        private FenwickTree tree;
+        private long[] ids;
+        private double[] weights;
+        private Map<Long, Integer> indices;
+        private int remaining;
+        private long minId;
+        private long maxId;
+        private long changeVersion;
+        private Set<Long> suggested = new HashSet<>();
+
+        /**
+         * Constructor
+         * @param where the filter
+         * @param whereArgs the filter values
+         * @param weightExpression the SQL expression of the weight
+         */
+        private WeightedCursor(String where, String[] whereArgs, String weightExpression)
+        {
+            this.where = where;
+            this.whereArgs = whereArgs;
+            this.weightExpression = weightExpression;
+        }
+
+        /**
+         * Sets the weights of the matching rows, keeping the ones already picked in the current round out of the next picks
+         * @param newIds the IDs
+         * @param baseWeights the weights read from the database
+         * @param newChangeVersion the database change counter value when the weights were read
+         */
+        private void load(List<Long> newIds, List<Double> baseWeights, long newChangeVersion)
+        {
+            int count = newIds.size();
+            ids = new long[Math.max(1, count)];
+            weights = new double[ids.length];
+            indices = new HashMap<>();
+            minId = Long.MAX_VALUE;
+            maxId = Long.MIN_VALUE;
+            for(int i=0; i<count; i++)
+            {
+                ids[i] = newIds.get(i);
+                indices.put(ids[i], i);
+                minId = Math.min(minId, ids[i]);
+                maxId = Math.max(maxId, ids[i]);
+            }
+
+            double[] roundWeights = new double[count];
+            remaining = 0;
+            for(int i=0; i<count; i++)
+            {
+                weights[i] = Math.max(MIN_WEIGHT, baseWeights.get(i))*getAgeFactor(ids[i]);
+                if(!suggested.contains(ids[i]))
+                {
+                    roundWeights[i] = weights[i];
+                    remaining++;
+                }
+            }
+            tree = new FenwickTree(roundWeights, count);
+            changeVersion = newChangeVersion;
+        }
+
+        /**
+         * Changes, adds or removes (weight 0) a media item
+         * @param id the media item ID
+         * @param baseWeight the weight read from the database, 0 if the media item does not match the filter
+         */
+        private void update(long id, double baseWeight)
+        {
+            double weight = baseWeight*getAgeFactor(id);
+            Integer index = indices.get(id);
+            if(index==null)
+            {
+                if(weight<=0) return;
+                index = tree.append(0);
+                if(index==ids.length)
+                {
+                    ids = Arrays.copyOf(ids, ids.length*2);
+                    weights = Arrays.copyOf(weights, ids.length);
+                }
+                ids[index] = id;
+                indices.put(id, index);
+            }
+
+            weights[index] = weight;
+            if(!suggested.contains(id)) setRoundWeight(index, weight);
+        }
+
+        /**
+         * Picks the next ID
+         * @param idDifferentFromIfPossible if possible, the picked ID is different from this one. May be null
+         * @return the ID, null if there are no IDs
+         */
+        private Long next(Long idDifferentFromIfPossible)
+        {
+            // All IDs picked: start a new round
+            if(remaining==0)
+            {
+                suggested.clear();
+                tree.reset(weights, tree.size());
+                for(int i=0; i<tree.size(); i++)
+                {
+                    if(weights[i]>0) remaining++;
+                }
+                if(remaining==0) return null;
+            }
+
+            // Take the ID to avoid out of the tree while picking, if there are others
+            Integer avoided = idDifferentFromIfPossible!=null ? indices.get(idDifferentFromIfPossible) : null;
+            double avoidedWeight = 0;
+            if(avoided!=null && remaining>1 && tree.get(avoided)>0)
+            {
+                avoidedWeight = tree.get(avoided);
+                tree.set(avoided, 0);
+            }
+            else avoided = null;
+
+            // Weighted pick (if rounding errors land on an element already picked, take the next one)
+            int pick = tree.find(random.nextDouble()*tree.getTotal());
+            while(tree.get(pick)<=0 || (avoided!=null && pick==avoided))
+            {
+                pick = (pick+1)%tree.size();
+            }
+            if(avoided!=null) tree.set(avoided, avoidedWeight);
+
+            setRoundWeight(pick, 0);
+            suggested.add(ids[pick]);
+            return ids[pick];
+        }
+
+        /**
+         * Helper to set the weight of an element in the current round
+         * @param index the element index
+         * @param weight the weight
+         */
+        private void setRoundWeight(int index, double weight)
+        {
+            if(tree.get(index)>0) remaining--;
+            if(weight>0) remaining++;
+            tree.set(index, weight);
+        }
+
+        /**
+         * Helper to get the weight multiplier of the time the media item has been in the library: the IDs are assigned in
+         * insertion order, so the oldest media item of the filter gets 2 and the newest 1
+         * @param id the media item ID
+         * @return the multiplier
+         */
+        private double getAgeFactor(long id)
+        {
+            if(maxId<=minId || id>=maxId) return 1;
+            return 1+(double) (maxId-Math.max(id, minId))/(maxId-minId);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package it.polimi.dima.mediatracker.controllers.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.orm.SugarDatabaseAccessor;
+import com.orm.util.NamingHelper;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import it.polimi.dima.mediatracker.model.MediaItem;
+import it.polimi.dima.mediatracker.model.MediaType;
+
+/**
+ * Finds the media items of all media types released in a time window with a single query (a UNION over the media type
+ * tables, each one with an index on the release date), e.g. for the daily new releases notifications
+ */
+public class ReleasesQuery
+{
+    private static ReleasesQuery instance;
+
+    private String sql;
+
+    /**
+     * Private constructor
+     */
+    private ReleasesQuery()
+    {
+
+    }
+
+    /**
+     * Singleton pattern
+     */
+    public static synchronized ReleasesQuery getInstance()
+    {
+        if(instance==null) instance = new ReleasesQuery();
+        return instance;
+    }
+
+    /**
+     * Gets the media items released in the given window
+     * @param windowStart the window start time (inclusive)
+     * @param windowEnd the window end time (inclusive)
+     * @return the released media items, grouped by category ID
+     */
+    public Map<Long, List<Release>> getReleasesByCategory(long windowStart, long windowEnd)
+    {
+        Map<Long, List<Release>> releases = new LinkedHashMap<>();
+        Cursor cursor = SugarDatabaseAccessor.getDatabase().rawQuery(getQuery(), new String[]{String.valueOf(windowStart), String.valueOf(windowEnd)});
+        try
+        {
+            // The rows are sorted by category, so each group is built in a single pass
+            List<Release> categoryReleases = null;
+            long currentCategoryId = -1;
+            while(cursor.moveToNext())
+            {
+                long categoryId = cursor.getLong(0);
+                if(categoryReleases==null || categoryId!=currentCategoryId)
+                {
+                    categoryReleases = new ArrayList<>();
+                    releases.put(categoryId, categoryReleases);
+                    currentCategoryId = categoryId;
+                }
+                categoryReleases.add(new Release(categoryId, cursor.getLong(1), cursor.getString(2)));
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+        return releases;
+    }
+
+    /**
+     * Helper to get (and build if necessary) the query SQL. The first time, the release date indexes are created if
+     * missing (e.g. on a fresh install, where the upgrade scripts don't run)
+     * @return the query SQL (?1 = window start, ?2 = window end)
+     */
+    private synchronized String getQuery()
+    {
+        if(sql==null)
+        {
+            SQLiteDatabase db = SugarDatabaseAccessor.getDatabase();
+            List<String> selects = new ArrayList<>();
+            for(MediaType mediaType: MediaType.values())
+            {
+                String table = NamingHelper.toSQLName(mediaType.getController().getModelClass());
+                db.execSQL("CREATE INDEX IF NOT EXISTS IDX_"+table+"_RELEASES ON "+table+" ("+MediaItem.COLUMN_RELEASE_DATE+", "+MediaItem.COLUMN_CATEGORY+")");
+                selects.add("SELECT "+MediaItem.COLUMN_CATEGORY+", "+MediaItem.COLUMN_ID+", "+MediaItem.COLUMN_NAME+" FROM "+table+" "+
+                        "WHERE "+MediaItem.COLUMN_RELEASE_DATE+" BETWEEN ?1 AND ?2");
+            }
+
+            StringBuilder builder = new StringBuilder();
+            for(String select: selects)
+            {
+                if(builder.length()>0) builder.append(" UNION ALL ");
+                builder.append(select);
+            }
+            builder.append(" ORDER BY 1, 3");
+            sql = builder.toString();
+        }
+        return sql;
+    }
+
+    /**
+     * A released media item
+     */
+    public static class Release
+    {
+        private final long categoryId;
+        private final long mediaItemId;
+        private final String title;
+
+        /**
+         * Constructor
+         * @param categoryId the media item category ID
+         * @param mediaItemId the media item ID
+         * @param title the media item title
+         */
+        private Release(long categoryId, long mediaItemId, String title)
+        {
+            this.categoryId = categoryId;
+            this.mediaItemId = mediaItemId;
+            this.title = title;
+        }
+
+        /**
+         * Getter
+         * @return the media item category ID
+         */
+        public long getCategoryId()
+        {
+            return categoryId;
+        }
+
+        /**
+         * Getter
+         * @return the media item ID
+         */
+        public long getMediaItemId()
+        {
+            return mediaItemId;
+        }
+
+        /**
+         * Getter
+         * @return the media item title
+         */
+        public String getTitle()
+        {
+            return title;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package it.polimi.dima.mediatracker.controllers.database;
+
+import android.database.Cursor;
+
+import it.polimi.dima.mediatracker.model.TVShow;
+
+/**
+ * Cursor mapper for the TV shows table
+ */
+public class TVShowCursorMapper extends MediaItemCursorMapper<TVShow>
+{
+    private final static String[] SPECIFIC_COLUMNS = new String[]{TVShow.COLUMN_CREATED_BY, TVShow.COLUMN_EPISODE_RUNTIME, TVShow.COLUMN_EPISODES_NUMBER, TVShow.COLUMN_SEASONS_NUMBER, TVShow.COLUMN_IN_PRODUCTION, TVShow.COLUMN_NEXT_EPISODE_AIR_DATE};
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected String[] getSpecificColumns()
+    {
+        return SPECIFIC_COLUMNS;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected TVShow newInstance()
+    {
+        return new TVShow();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void mapSpecificColumns(Cursor cursor, int[] indexes, TVShow tvShow)
+    {
+        tvShow.setCreatedBy(getString(cursor, indexes[0]));
+        tvShow.setEpisodeRuntimeMin(getInt(cursor, indexes[1]));
+        tvShow.setEpisodesNumber(getInt(cursor, indexes[2]));
+        tvShow.setSeasonsNumber(getInt(cursor, indexes[3]));
+        tvShow.setInProduction(getBoolean(cursor, indexes[4]));
+        tvShow.setNextEpisodeAirDate(getDate(cursor, indexes[5]));
+    }
+}
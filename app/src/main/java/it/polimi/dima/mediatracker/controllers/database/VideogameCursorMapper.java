@@ -0,0 +1,43 @@
+package it.polimi.dima.mediatracker.controllers.database;
+
+import android.database.Cursor;
+
+import it.polimi.dima.mediatracker.model.Videogame;
+
+/**
+ * Cursor mapper for the videogames table
+ */
+public class VideogameCursorMapper extends MediaItemCursorMapper<Videogame>
+{
+    private final static String[] SPECIFIC_COLUMNS = new String[]{Videogame.COLUMN_DEVELOPER, Videogame.COLUMN_PUBLISHER, Videogame.COLUMN_PLATFORMS, Videogame.COLUMN_AVERAGE_LENGTH};
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected String[] getSpecificColumns()
+    {
+        return SPECIFIC_COLUMNS;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Videogame newInstance()
+    {
+        return new Videogame();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void mapSpecificColumns(Cursor cursor, int[] indexes, Videogame videogame)
+    {
+        videogame.setDeveloper(getString(cursor, indexes[0]));
+        videogame.setPublisher(getString(cursor, indexes[1]));
+        videogame.setPlatforms(getString(cursor, indexes[2]));
+        videogame.setAverageLengthHours(getInt(cursor, indexes[3]));
+    }
+}
@@ -33,7 +33,7 @@ public class BookService extends MediaItemService
      */
     private BookService(Context context)
     {
-        super();
+        super(context);
         this.appContext = context.getApplicationContext();
     }
 
@@ -68,9 +68,10 @@ public class BookService extends MediaItemService
      * {@inheritDoc}
      */
     @Override
-    public void searchMediaItems(String query, final MediaItemSearchCallback mediaItemSearchCallback)
+    protected Call<?> loadSearchResults(String query, final MediaItemSearchCallback mediaItemSearchCallback)
     {
-        restInterface.searchBooks(query, MediaItemService.MAX_SEARCH_RESULTS).enqueue(new Callback<BookSearchJSON>()
+        Call<BookSearchJSON> searchCall = restInterface.searchBooks(query, MediaItemService.MAX_SEARCH_RESULTS);
+        searchCall.enqueue(new Callback<BookSearchJSON>()
         {
             @Override
             public void onResponse(Call<BookSearchJSON> call, Response<BookSearchJSON> response)
@@ -93,13 +94,14 @@ public class BookService extends MediaItemService
                 mediaItemSearchCallback.onFailure();
             }
         });
+        return searchCall;
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public void getMediaItemInfo(String externalServiceId, final MediaItemInfoCallback mediaItemInfoCallback)
+    protected void loadMediaItemInfo(String externalServiceId, final MediaItemInfoCallback mediaItemInfoCallback)
     {
         restInterface.getBookInfo(externalServiceId).enqueue(new Callback<BookJSON>()
         {
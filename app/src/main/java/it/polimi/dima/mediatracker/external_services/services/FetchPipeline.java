@@ -0,0 +1,260 @@
+package it.polimi.dima.mediatracker.external_services.services;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+/**
+ * Composite fetch of a media item that needs several requests to the external service (e.g. a TV show info and its last
+ * season). Each stage is a request, started as soon as its inputs are known (even speculatively, before the stage it depends
+ * on is completed) and cancelled if its result turns out to be useless. The pipeline is completed when no stage is running
+ * and the service can merge the stage results.
+ * The duration of each stage is recorded, so that the fetch latency can be checked.
+ */
+public class FetchPipeline
+{
+    private final long startTime;
+    private final PipelineCallback callback;
+
+    private final Map<String, Call<?>> runningStages = new HashMap<>();
+    private final List<StageTiming> timings = new ArrayList<>();
+    private boolean ready = false;
+    private boolean completed = false;
+
+    /**
+     * Constructor
+     * @param callback called when all stages are completed
+     */
+    FetchPipeline(PipelineCallback callback)
+    {
+        this.startTime = SystemClock.elapsedRealtime();
+        this.callback = callback;
+    }
+
+    /**
+     * Starts a stage
+     * @param stageName the stage name (unique in the pipeline)
+     * @param call the stage request, not yet enqueued
+     * @param stageCallback receives the stage result, before the pipeline checks if it is completed (so it can start the
+     *                      dependent stages)
+     * @param <T> the response type
+     */
+    <T> void startStage(final String stageName, Call<T> call, final StageCallback<T> stageCallback)
+    {
+        final long stageStart = SystemClock.elapsedRealtime();
+        synchronized(this)
+        {
+            runningStages.put(stageName, call);
+        }
+
+        call.enqueue(new Callback<T>()
+        {
+            @Override
+            public void onResponse(Call<T> call, Response<T> response)
+            {
+                endStage(stageName, stageStart, response.isSuccessful() ? StageOutcome.SUCCESS : StageOutcome.ERROR_RESPONSE);
+                stageCallback.onResponse(response.body());
+                completeIfDone();
+            }
+
+            @Override
+            public void onFailure(Call<T> call, Throwable t)
+            {
+                if(call.isCanceled())
+                {
+                    endStage(stageName, stageStart, StageOutcome.CANCELLED);
+                }
+                else
+                {
+                    endStage(stageName, stageStart, StageOutcome.FAILURE);
+                    stageCallback.onFailure();
+                }
+                completeIfDone();
+            }
+        });
+    }
+
+    /**
+     * Cancels a running stage (its callback is not called)
+     * @param stageName the stage name
+     */
+    void cancelStage(String stageName)
+    {
+        Call<?> call;
+        synchronized(this)
+        {
+            call = runningStages.get(stageName);
+        }
+        if(call!=null) call.cancel();
+    }
+
+    /**
+     * Getter
+     * @param stageName the stage name
+     * @return true if the stage is running
+     */
+    synchronized boolean isStageRunning(String stageName)
+    {
+        return runningStages.containsKey(stageName);
+    }
+
+    /**
+     * Marks the end of the initial stages: from now on, the pipeline is completed as soon as no stage is running
+     */
+    void ready()
+    {
+        synchronized(this)
+        {
+            ready = true;
+        }
+        completeIfDone();
+    }
+
+    /**
+     * Helper to record the end of a stage
+     * @param stageName the stage name
+     * @param stageStart the stage start time
+     * @param outcome the stage outcome
+     */
+    private synchronized void endStage(String stageName, long stageStart, StageOutcome outcome)
+    {
+        runningStages.remove(stageName);
+        timings.add(new StageTiming(stageName, stageStart-startTime, SystemClock.elapsedRealtime()-stageStart, outcome));
+    }
+
+    /**
+     * Helper to call the pipeline callback once all stages are completed
+     */
+    private void completeIfDone()
+    {
+        long totalTime;
+        synchronized(this)
+        {
+            if(completed || !ready || !runningStages.isEmpty()) return;
+            completed = true;
+            totalTime = SystemClock.elapsedRealtime()-startTime;
+        }
+        callback.onCompleted(Collections.unmodifiableList(timings), totalTime);
+    }
+
+    /**
+     * Outcome of a stage
+     */
+    public enum StageOutcome
+    {
+        SUCCESS,
+        ERROR_RESPONSE,
+        FAILURE,
+        CANCELLED
+    }
+
+    /**
+     * Timing of a stage
+     */
+    public static class StageTiming
+    {
+        private final String stageName;
+        private final long startOffsetMs;
+        private final long durationMs;
+        private final StageOutcome outcome;
+
+        /**
+         * Constructor
+         * @param stageName the stage name
+         * @param startOffsetMs the stage start time, from the pipeline start
+         * @param durationMs the stage duration
+         * @param outcome the stage outcome
+         */
+        private StageTiming(String stageName, long startOffsetMs, long durationMs, StageOutcome outcome)
+        {
+            this.stageName = stageName;
+            this.startOffsetMs = startOffsetMs;
+            this.durationMs = durationMs;
+            this.outcome = outcome;
+        }
+
+        /**
+         * Getter
+         * @return the stage name
+         */
+        public String getStageName()
+        {
+            return stageName;
+        }
+
+        /**
+         * Getter
+         * @return the stage start time in milliseconds, from the pipeline start
+         */
+        public long getStartOffsetMs()
+        {
+            return startOffsetMs;
+        }
+
+        /**
+         * Getter
+         * @return the stage duration in milliseconds
+         */
+        public long getDurationMs()
+        {
+            return durationMs;
+        }
+
+        /**
+         * Getter
+         * @return the stage outcome
+         */
+        public StageOutcome getOutcome()
+        {
+            return outcome;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString()
+        {
+            return stageName+" +"+startOffsetMs+"ms, "+durationMs+"ms, "+outcome;
+        }
+    }
+
+    /**
+     * Callback called with the result of a stage
+     * @param <T> the response type
+     */
+    interface StageCallback<T>
+    {
+        /**
+         * Called when the stage gets a response
+         * @param body the response body, null for error responses
+         */
+        void onResponse(T body);
+
+        /**
+         * Called in case of failure (e.g. no internet), not if the stage was cancelled
+         */
+        void onFailure();
+    }
+
+    /**
+     * Callback called when the pipeline is completed
+     */
+    interface PipelineCallback
+    {
+        /**
+         * Called when all stages are completed
+         * @param timings the stages timings, in completion order
+         * @param totalTimeMs the pipeline duration in milliseconds
+         */
+        void onCompleted(List<StageTiming> timings, long totalTimeMs);
+    }
+}
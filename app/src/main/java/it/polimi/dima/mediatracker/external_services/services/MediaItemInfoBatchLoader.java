@@ -0,0 +1,262 @@
+package it.polimi.dima.mediatracker.external_services.services;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import it.polimi.dima.mediatracker.model.MediaItem;
+
+/**
+ * Loads the info of many media items from an external service (e.g. for a periodic refresh) without flooding it:
+ * - at most a given number of requests is running at the same time
+ * - at most a given number of requests is sent in each time window (sliding window)
+ * - a request that fails (e.g. no internet, timeout) is sent again after an exponential backoff, up to a maximum number of
+ * attempts. A request that gets a response without data (e.g. a 404) is not retried.
+ * All the batch state is managed on the main thread, like the service callbacks
+ */
+public class MediaItemInfoBatchLoader
+{
+    private final MediaItemService service;
+    private final int maxConcurrentRequests;
+    private final int requestsPerWindow;
+    private final long windowMs;
+    private final int maxAttempts;
+    private final long initialBackoffMs;
+
+    private Handler mainThreadHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Constructor
+     * @param service the external service
+     * @param maxConcurrentRequests the maximum number of requests running at the same time
+     * @param requestsPerWindow the maximum number of requests sent in a time window
+     * @param windowMs the time window length in milliseconds
+     * @param maxAttempts the maximum number of attempts for each media item (1 = no retries)
+     * @param initialBackoffMs the time waited before the first retry, doubled at each following retry
+     */
+    public MediaItemInfoBatchLoader(MediaItemService service, int maxConcurrentRequests, int requestsPerWindow, long windowMs, int maxAttempts, long initialBackoffMs)
+    {
+        if(maxConcurrentRequests<1 || requestsPerWindow<1 || maxAttempts<1) throw new IllegalArgumentException("Batch limits must be positive");
+
+        this.service = service;
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.requestsPerWindow = requestsPerWindow;
+        this.windowMs = windowMs;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMs = initialBackoffMs;
+    }
+
+    /**
+     * Loads the info of the given media items
+     * @param externalServiceIds the external service IDs of the media items (duplicates are loaded once)
+     * @param callback called on the main thread when all media items are loaded or failed
+     */
+    public void load(List<String> externalServiceIds, BatchCallback callback)
+    {
+        load(externalServiceIds, new HashMap<String, MediaItem>(), callback);
+    }
+
+    /**
+     * Loads the info of the given media items, knowing their previous data (see
+     * {@link MediaItemService#getMediaItemInfo(String, MediaItem, MediaItemService.MediaItemInfoCallback)})
+     * @param externalServiceIds the external service IDs of the media items (duplicates are loaded once)
+     * @param knownMediaItems the media items as previously loaded from the service, by external service ID (may not
+     *                        contain all of them)
+     * @param callback called on the main thread when all media items are loaded or failed
+     */
+    public void load(List<String> externalServiceIds, Map<String, MediaItem> knownMediaItems, BatchCallback callback)
+    {
+        load(externalServiceIds, knownMediaItems, false, callback);
+    }
+
+    /**
+     * Same as {@link MediaItemInfoBatchLoader#load(List, Map, BatchCallback)}, optionally skipping the memory cache of the
+     * service (see {@link MediaItemService#getMediaItemInfo(String, MediaItem, boolean, MediaItemService.MediaItemInfoCallback)})
+     * @param externalServiceIds the external service IDs of the media items (duplicates are loaded once)
+     * @param knownMediaItems the media items as previously loaded from the service, by external service ID (may not
+     *                        contain all of them)
+     * @param forceRefresh true to ignore the memory cached media items
+     * @param callback called on the main thread when all media items are loaded or failed
+     */
+    public void load(List<String> externalServiceIds, Map<String, MediaItem> knownMediaItems, boolean forceRefresh, BatchCallback callback)
+    {
+        final Batch batch = new Batch(externalServiceIds, knownMediaItems, forceRefresh, callback);
+        mainThreadHandler.post(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                batch.sendRequests();
+            }
+        });
+    }
+
+    /**
+     * The state of a batch (only accessed on the main thread)
+     */
+    private class Batch
+    {
+        private final Map<String, MediaItem> knownMediaItems;
+        private final boolean forceRefresh;
+        private final BatchCallback callback;
+
+        private final ArrayDeque<String> readyIds = new ArrayDeque<>();
+        private final Map<String, Integer> attempts = new HashMap<>();
+        private final ArrayDeque<Long> sentTimes = new ArrayDeque<>();
+        private int runningRequests = 0;
+        private int waitingRetries = 0;
+        private boolean sendScheduled = false;
+        private boolean completed = false;
+
+        private final Map<String, MediaItem> results = new HashMap<>();
+        private final Set<String> failed = new HashSet<>();
+
+        /**
+         * Constructor
+         * @param externalServiceIds the external service IDs of the media items
+         * @param knownMediaItems the media items as previously loaded from the service, by external service ID
+         * @param forceRefresh true to ignore the memory cached media items
+         * @param callback the batch callback
+         */
+        private Batch(List<String> externalServiceIds, Map<String, MediaItem> knownMediaItems, boolean forceRefresh, BatchCallback callback)
+        {
+            this.knownMediaItems = knownMediaItems;
+            this.forceRefresh = forceRefresh;
+            this.callback = callback;
+            readyIds.addAll(new LinkedHashSet<>(externalServiceIds));
+        }
+
+        /**
+         * Sends the ready requests, as long as the limits allow it. If the time window limit is reached, it's called
+         * again when the oldest request leaves the window
+         */
+        private void sendRequests()
+        {
+            long now = SystemClock.uptimeMillis();
+            while(!readyIds.isEmpty() && runningRequests<maxConcurrentRequests)
+            {
+                // Forget the requests that left the time window
+                while(!sentTimes.isEmpty() && now-sentTimes.peekFirst()>=windowMs)
+                {
+                    sentTimes.pollFirst();
+                }
+
+                // Window full: wait for the oldest request to leave it
+                if(sentTimes.size()>=requestsPerWindow)
+                {
+                    scheduleSendRequests(sentTimes.peekFirst()+windowMs-now);
+                    return;
+                }
+
+                sentTimes.addLast(now);
+                sendRequest(readyIds.pollFirst());
+            }
+
+            completeIfDone();
+        }
+
+        /**
+         * Helper to call {@link Batch#sendRequests()} later (only once, even if asked many times)
+         * @param delayMs the delay in milliseconds
+         */
+        private void scheduleSendRequests(long delayMs)
+        {
+            if(sendScheduled) return;
+            sendScheduled = true;
+            mainThreadHandler.postDelayed(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    sendScheduled = false;
+                    sendRequests();
+                }
+            }, delayMs);
+        }
+
+        /**
+         * Helper to send the request of a media item
+         * @param externalServiceId the external service ID of the media item
+         */
+        private void sendRequest(final String externalServiceId)
+        {
+            Integer previousAttempts = attempts.get(externalServiceId);
+            final int attempt = previousAttempts==null ? 1 : previousAttempts+1;
+            attempts.put(externalServiceId, attempt);
+            runningRequests++;
+
+            service.getMediaItemInfo(externalServiceId, knownMediaItems.get(externalServiceId), forceRefresh, new MediaItemService.MediaItemInfoCallback()
+            {
+                @Override
+                public void onLoad(MediaItem mediaItem)
+                {
+                    runningRequests--;
+                    if(mediaItem!=null) results.put(externalServiceId, mediaItem);
+                    else failed.add(externalServiceId);
+                    sendRequests();
+                }
+
+                @Override
+                public void onFailure()
+                {
+                    runningRequests--;
+                    if(attempt>=maxAttempts) failed.add(externalServiceId);
+                    else scheduleRetry(externalServiceId, initialBackoffMs<<(attempt-1));
+                    sendRequests();
+                }
+            });
+        }
+
+        /**
+         * Helper to send again the request of a media item after the given delay
+         * @param externalServiceId the external service ID of the media item
+         * @param delayMs the delay in milliseconds
+         */
+        private void scheduleRetry(final String externalServiceId, long delayMs)
+        {
+            waitingRetries++;
+            mainThreadHandler.postDelayed(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    waitingRetries--;
+                    readyIds.addLast(externalServiceId);
+                    sendRequests();
+                }
+            }, delayMs);
+        }
+
+        /**
+         * Helper to call the batch callback once all media items are loaded or failed
+         */
+        private void completeIfDone()
+        {
+            if(completed || !readyIds.isEmpty() || runningRequests>0 || waitingRetries>0) return;
+            completed = true;
+            callback.onComplete(results, failed);
+        }
+    }
+
+    /**
+     * Callback called when a batch is completed
+     */
+    public interface BatchCallback
+    {
+        /**
+         * Called when all media items of the batch are loaded or failed
+         * @param results the loaded media items, by external service ID (they may be shared with other callers of the
+         *                service: do not modify them)
+         * @param failed the external service IDs of the media items not loaded (no data or all attempts failed)
+         */
+        void onComplete(Map<String, MediaItem> results, Set<String> failed);
+    }
+}
@@ -1,41 +1,121 @@
 package it.polimi.dima.mediatracker.external_services.services;
 
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 
+import it.polimi.dima.mediatracker.R;
 import it.polimi.dima.mediatracker.model.MediaItem;
 import it.polimi.dima.mediatracker.model.MediaItemSearchResult;
+import it.polimi.dima.mediatracker.utils.Clock;
+import okhttp3.Cache;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+import retrofit2.Call;
 import retrofit2.Retrofit;
 import retrofit2.converter.gson.GsonConverterFactory;
 
 /**
  * Abstract service for a generic media item that allows to connect to an external API to retrieve data
- * Uses Retrofit external library to manage the connection
+ * Uses Retrofit external library to manage the connection. All services share the same HTTP client, with a disk
+ * cache of the responses; each service also keeps the last results in memory (for the same time the disk cache keeps the
+ * responses without caching headers) and coalesces identical requests
+ * (a request equal to one still running does not go to the network, it gets the results of the running one).
+ * The media item info that needs several requests is loaded by a {@link FetchPipeline}, whose timings can be observed
+ * with a {@link FetchTimingListener}
  */
 public abstract class MediaItemService
 {
     public static final int MAX_SEARCH_RESULTS = 10;
 
+    private static final String HTTP_CACHE_DIR = "http_cache";
+    private static final long HTTP_CACHE_SIZE = 10*1024*1024;
+    private static final int HTTP_CACHE_DEFAULT_MAX_AGE_SECONDS = 60*60;
+    private static final long MEMORY_CACHE_MAX_AGE_MS = HTTP_CACHE_DEFAULT_MAX_AGE_SECONDS*1000L;
+
+    private static OkHttpClient httpClient;
+
+    private LruCache<String, CacheEntry<List<MediaItemSearchResult>>> searchResultsCache;
+    private LruCache<String, CacheEntry<MediaItem>> mediaItemsCache;
+
+    private final HashMap<String, RunningRequest<MediaItemSearchCallback>> runningSearches = new HashMap<>();
+    private final HashMap<String, RunningRequest<MediaItemInfoCallback>> runningInfoRequests = new HashMap<>();
+
+    private Handler mainThreadHandler = new Handler(Looper.getMainLooper());
+
+    private volatile FetchTimingListener fetchTimingListener;
+
     /**
      * Constructor
+     * @param context the context
      */
-    MediaItemService()
+    MediaItemService(Context context)
     {
-        // For logging
-        /*HttpLoggingInterceptor interceptor = new HttpLoggingInterceptor();
-        interceptor.setLevel(HttpLoggingInterceptor.Level.BODY);
-        OkHttpClient client = new OkHttpClient.Builder().addInterceptor(interceptor).build();*/
-
         // Build retrofit object
         Retrofit retrofit = new Retrofit.Builder()
                 .baseUrl(getBaseUrl())
-                //.client(client)
+                .client(getHttpClient(context))
                 .addConverterFactory(GsonConverterFactory.create())
                 .build();
 
+        // Memory caches
+        setMemoryCacheSize(context.getResources().getInteger(R.integer.external_service_search_cache_size),
+                context.getResources().getInteger(R.integer.external_service_info_cache_size));
+
         // Allow the subclass to set its own rest interface to the retrofit object
         initializeRestInterface(retrofit);
     }
 
+    /**
+     * Getter
+     * @param context the context
+     * @return the HTTP client shared by all services (created on first call)
+     */
+    static synchronized OkHttpClient getHttpClient(Context context)
+    {
+        if(httpClient==null)
+        {
+            // For logging
+            /*HttpLoggingInterceptor interceptor = new HttpLoggingInterceptor();
+            interceptor.setLevel(HttpLoggingInterceptor.Level.BODY);*/
+
+            httpClient = new OkHttpClient.Builder()
+                    //.addInterceptor(interceptor)
+                    .cache(new Cache(new File(context.getApplicationContext().getCacheDir(), HTTP_CACHE_DIR), HTTP_CACHE_SIZE))
+                    .addNetworkInterceptor(new DefaultCacheControlInterceptor())
+                    .build();
+        }
+        return httpClient;
+    }
+
+    /**
+     * Setter (all cached results are removed)
+     * @param searchResults the number of searches kept in memory
+     * @param mediaItems the number of media items info kept in memory
+     */
+    public synchronized void setMemoryCacheSize(int searchResults, int mediaItems)
+    {
+        searchResultsCache = new LruCache<>(searchResults);
+        mediaItemsCache = new LruCache<>(mediaItems);
+    }
+
+    /**
+     * Setter
+     * @param fetchTimingListener the listener of the fetch pipelines timings, null to remove it
+     */
+    public void setFetchTimingListener(FetchTimingListener fetchTimingListener)
+    {
+        this.fetchTimingListener = fetchTimingListener;
+    }
+
     /**
      * Get the external API base URL
      * @return the base url
@@ -49,18 +129,440 @@ public abstract class MediaItemService
     protected abstract void initializeRestInterface(Retrofit retrofit);
 
     /**
-     * Allows to search for media items
+     * Allows to search for media items. Results are taken from the memory cache if available, otherwise the request is
+     * sent (or joined, if an identical one is running)
+     * @param query the title to search
+     * @param mediaItemSearchCallback the callback that will receive the results, always on the main thread
+     * @return the handle to cancel the search (the callback is not called after the cancellation)
+     */
+    public RequestHandle searchMediaItems(final String query, final MediaItemSearchCallback mediaItemSearchCallback)
+    {
+        // Cached results
+        final List<MediaItemSearchResult> cachedResults = getCachedSearchResults(query);
+        if(cachedResults!=null)
+        {
+            final CachedResultHandle handle = new CachedResultHandle();
+            mainThreadHandler.post(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    if(!handle.isCancelled()) mediaItemSearchCallback.onLoad(cachedResults);
+                }
+            });
+            return handle;
+        }
+
+        // Join the running request, if any
+        final RunningRequest<MediaItemSearchCallback> request;
+        synchronized(runningSearches)
+        {
+            RunningRequest<MediaItemSearchCallback> runningRequest = runningSearches.get(query);
+            if(runningRequest!=null)
+            {
+                runningRequest.callbacks.add(mediaItemSearchCallback);
+                return new RunningRequestHandle<>(runningSearches, query, runningRequest, mediaItemSearchCallback);
+            }
+
+            request = new RunningRequest<>();
+            request.callbacks.add(mediaItemSearchCallback);
+            runningSearches.put(query, request);
+        }
+
+        // Send the request
+        Call<?> call = loadSearchResults(query, new MediaItemSearchCallback()
+        {
+            @Override
+            public void onLoad(List<MediaItemSearchResult> searchResults)
+            {
+                // Empty results are not cached (they may come from an error response)
+                if(searchResults!=null && searchResults.size()>0) putCachedSearchResults(query, searchResults);
+
+                for(MediaItemSearchCallback callback: endRunningRequest(runningSearches, query, request))
+                {
+                    callback.onLoad(searchResults);
+                }
+            }
+
+            @Override
+            public void onFailure()
+            {
+                for(MediaItemSearchCallback callback: endRunningRequest(runningSearches, query, request))
+                {
+                    callback.onFailure();
+                }
+            }
+        });
+
+        // Keep the call to cancel it (immediately, if all callers already cancelled)
+        synchronized(runningSearches)
+        {
+            request.call = call;
+            if(request.callbacks.isEmpty()) call.cancel();
+        }
+
+        return new RunningRequestHandle<>(runningSearches, query, request, mediaItemSearchCallback);
+    }
+
+    /**
+     * Allows to get information about a specific media item. The media item is taken from the memory cache if available,
+     * otherwise the request is sent (or joined, if an identical one is running)
+     * @param externalServiceId the external service ID linked with the media item
+     * @param mediaItemInfoCallback the callback that will receive the results, always on the main thread
+     */
+    public void getMediaItemInfo(String externalServiceId, MediaItemInfoCallback mediaItemInfoCallback)
+    {
+        getMediaItemInfo(externalServiceId, null, mediaItemInfoCallback);
+    }
+
+    /**
+     * Same as {@link MediaItemService#getMediaItemInfo(String, MediaItemInfoCallback)}, with the data already known about
+     * the media item (e.g. the saved one), that some services use to start their requests earlier
+     * @param externalServiceId the external service ID linked with the media item
+     * @param knownMediaItem the media item as previously loaded from the service, may be null
+     * @param mediaItemInfoCallback the callback that will receive the results, always on the main thread
+     */
+    public void getMediaItemInfo(String externalServiceId, MediaItem knownMediaItem, MediaItemInfoCallback mediaItemInfoCallback)
+    {
+        getMediaItemInfo(externalServiceId, knownMediaItem, false, mediaItemInfoCallback);
+    }
+
+    /**
+     * Same as {@link MediaItemService#getMediaItemInfo(String, MediaItem, MediaItemInfoCallback)}, optionally skipping the
+     * memory cache (e.g. for a refresh of the saved data). The loaded media item replaces the cached one anyway
+     * @param externalServiceId the external service ID linked with the media item
+     * @param knownMediaItem the media item as previously loaded from the service, may be null
+     * @param forceRefresh true to ignore the memory cached media item
+     * @param mediaItemInfoCallback the callback that will receive the results, always on the main thread
+     */
+    public void getMediaItemInfo(final String externalServiceId, MediaItem knownMediaItem, boolean forceRefresh, final MediaItemInfoCallback mediaItemInfoCallback)
+    {
+        // Cached media item
+        final MediaItem cachedMediaItem = forceRefresh ? null : getCachedMediaItem(externalServiceId);
+        if(cachedMediaItem!=null)
+        {
+            mainThreadHandler.post(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    mediaItemInfoCallback.onLoad(cachedMediaItem);
+                }
+            });
+            return;
+        }
+
+        // Join the running request, if any
+        final RunningRequest<MediaItemInfoCallback> request;
+        synchronized(runningInfoRequests)
+        {
+            RunningRequest<MediaItemInfoCallback> runningRequest = runningInfoRequests.get(externalServiceId);
+            if(runningRequest!=null)
+            {
+                runningRequest.callbacks.add(mediaItemInfoCallback);
+                return;
+            }
+
+            request = new RunningRequest<>();
+            request.callbacks.add(mediaItemInfoCallback);
+            runningInfoRequests.put(externalServiceId, request);
+        }
+
+        // Send the request
+        loadMediaItemInfo(externalServiceId, knownMediaItem, new MediaItemInfoCallback()
+        {
+            @Override
+            public void onLoad(MediaItem mediaItem)
+            {
+                if(mediaItem!=null) putCachedMediaItem(externalServiceId, mediaItem);
+
+                for(MediaItemInfoCallback callback: endRunningRequest(runningInfoRequests, externalServiceId, request))
+                {
+                    callback.onLoad(mediaItem);
+                }
+            }
+
+            @Override
+            public void onFailure()
+            {
+                for(MediaItemInfoCallback callback: endRunningRequest(runningInfoRequests, externalServiceId, request))
+                {
+                    callback.onFailure();
+                }
+            }
+        });
+    }
+
+    /**
+     * Sends the search request to the external service
      * @param query the title to search
      * @param mediaItemSearchCallback the callback that will receive the results
+     * @return the enqueued call
      */
-    public abstract void searchMediaItems(String query, final MediaItemSearchCallback mediaItemSearchCallback);
+    protected abstract Call<?> loadSearchResults(String query, final MediaItemSearchCallback mediaItemSearchCallback);
 
     /**
-     * Allows to get information about a specific media item
+     * Sends the media item info request to the external service
      * @param externalServiceId the external service ID linked with the media item
      * @param mediaItemInfoCallback the callback that will receive the results
      */
-    public abstract void getMediaItemInfo(String externalServiceId, final MediaItemInfoCallback mediaItemInfoCallback);
+    protected abstract void loadMediaItemInfo(String externalServiceId, final MediaItemInfoCallback mediaItemInfoCallback);
+
+    /**
+     * Sends the media item info request to the external service, knowing the previous data of the media item. By default
+     * the known data is ignored
+     * @param externalServiceId the external service ID linked with the media item
+     * @param knownMediaItem the media item as previously loaded from the service, may be null
+     * @param mediaItemInfoCallback the callback that will receive the results
+     */
+    protected void loadMediaItemInfo(String externalServiceId, MediaItem knownMediaItem, final MediaItemInfoCallback mediaItemInfoCallback)
+    {
+        loadMediaItemInfo(externalServiceId, mediaItemInfoCallback);
+    }
+
+    /**
+     * Creates a fetch pipeline whose timings are sent to the {@link FetchTimingListener}, if any
+     * @param externalServiceId the external service ID of the fetched media item
+     * @param callback called when all stages are completed, after the listener
+     * @return the pipeline
+     */
+    FetchPipeline createFetchPipeline(final String externalServiceId, final FetchPipeline.PipelineCallback callback)
+    {
+        return new FetchPipeline(new FetchPipeline.PipelineCallback()
+        {
+            @Override
+            public void onCompleted(List<FetchPipeline.StageTiming> timings, long totalTimeMs)
+            {
+                FetchTimingListener listener = fetchTimingListener;
+                if(listener!=null) listener.onFetchCompleted(externalServiceId, timings, totalTimeMs);
+                callback.onCompleted(timings, totalTimeMs);
+            }
+        });
+    }
+
+    /**
+     * Getter
+     * @param query the title to search
+     * @return the cached search results, null if not available or expired
+     */
+    private synchronized List<MediaItemSearchResult> getCachedSearchResults(String query)
+    {
+        return getValidEntry(searchResultsCache, query);
+    }
+
+    /**
+     * Setter
+     * @param query the title to search
+     * @param searchResults the search results to cache
+     */
+    private synchronized void putCachedSearchResults(String query, List<MediaItemSearchResult> searchResults)
+    {
+        searchResultsCache.put(query, new CacheEntry<>(searchResults, Clock.getInstance().now()));
+    }
+
+    /**
+     * Getter
+     * @param externalServiceId the external service ID linked with the media item
+     * @return the cached media item, null if not available or expired
+     */
+    private synchronized MediaItem getCachedMediaItem(String externalServiceId)
+    {
+        return getValidEntry(mediaItemsCache, externalServiceId);
+    }
+
+    /**
+     * Setter
+     * @param externalServiceId the external service ID linked with the media item
+     * @param mediaItem the media item to cache
+     */
+    private synchronized void putCachedMediaItem(String externalServiceId, MediaItem mediaItem)
+    {
+        mediaItemsCache.put(externalServiceId, new CacheEntry<>(mediaItem, Clock.getInstance().now()));
+    }
+
+    /**
+     * Helper to get a memory cache entry, removing it if it's older than the default max age of the HTTP responses
+     * @param cache the memory cache
+     * @param key the entry key
+     * @param <T> the cached value type
+     * @return the cached value, null if not available or expired
+     */
+    private static <T> T getValidEntry(LruCache<String, CacheEntry<T>> cache, String key)
+    {
+        CacheEntry<T> entry = cache.get(key);
+        if(entry==null) return null;
+
+        long age = Clock.getInstance().now()-entry.time;
+        if(age<0 || age>=MEMORY_CACHE_MAX_AGE_MS)
+        {
+            cache.remove(key);
+            return null;
+        }
+        return entry.value;
+    }
+
+    /**
+     * Helper to end a running request
+     * @param runningRequests the running requests
+     * @param key the request key
+     * @param request the ended request
+     * @param <T> the callback type
+     * @return the callbacks waiting for the request (the cancelled ones are not included)
+     */
+    private static <T> List<T> endRunningRequest(HashMap<String, RunningRequest<T>> runningRequests, String key, RunningRequest<T> request)
+    {
+        synchronized(runningRequests)
+        {
+            if(runningRequests.get(key)==request) runningRequests.remove(key);
+            List<T> callbacks = new ArrayList<>(request.callbacks);
+            request.callbacks.clear();
+            return callbacks;
+        }
+    }
+
+    /**
+     * A value of the memory caches, with the time it was loaded
+     * @param <T> the cached value type
+     */
+    private static class CacheEntry<T>
+    {
+        private T value;
+        private long time;
+
+        /**
+         * Constructor
+         * @param value the cached value
+         * @param time the time the value was loaded, in milliseconds
+         */
+        private CacheEntry(T value, long time)
+        {
+            this.value = value;
+            this.time = time;
+        }
+    }
+
+    /**
+     * A request sent to the external service, with all callers waiting for it
+     * @param <T> the callback type
+     */
+    private static class RunningRequest<T>
+    {
+        private List<T> callbacks = new ArrayList<>();
+        private Call<?> call;
+    }
+
+    /**
+     * Handle of a caller waiting for a running request: the request itself is cancelled only when all its callers cancel it
+     * @param <T> the callback type
+     */
+    private static class RunningRequestHandle<T> implements RequestHandle
+    {
+        private HashMap<String, RunningRequest<T>> runningRequests;
+        private String key;
+        private RunningRequest<T> request;
+        private T callback;
+
+        /**
+         * Constructor
+         * @param runningRequests the running requests
+         * @param key the request key
+         * @param request the running request
+         * @param callback the caller callback
+         */
+        private RunningRequestHandle(HashMap<String, RunningRequest<T>> runningRequests, String key, RunningRequest<T> request, T callback)
+        {
+            this.runningRequests = runningRequests;
+            this.key = key;
+            this.request = request;
+            this.callback = callback;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void cancel()
+        {
+            synchronized(runningRequests)
+            {
+                if(!request.callbacks.remove(callback) || !request.callbacks.isEmpty()) return;
+
+                if(runningRequests.get(key)==request) runningRequests.remove(key);
+                if(request.call!=null) request.call.cancel();
+            }
+        }
+    }
+
+    /**
+     * Handle of a result taken from the memory cache (the callback is posted to the main thread)
+     */
+    private static class CachedResultHandle implements RequestHandle
+    {
+        private volatile boolean cancelled = false;
+
+        /**
+         * Getter
+         * @return true if the caller cancelled the request
+         */
+        private boolean isCancelled()
+        {
+            return cancelled;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void cancel()
+        {
+            cancelled = true;
+        }
+    }
+
+    /**
+     * Network interceptor that allows the disk cache to store the responses without caching headers for a while (the
+     * ones with caching headers follow them)
+     */
+    private static class DefaultCacheControlInterceptor implements Interceptor
+    {
+        @Override
+        public Response intercept(Chain chain) throws IOException
+        {
+            Response response = chain.proceed(chain.request());
+            if(!response.isSuccessful() || response.header("Cache-Control")!=null || response.header("Expires")!=null) return response;
+
+            return response.newBuilder()
+                    .removeHeader("Pragma")
+                    .header("Cache-Control", "public, max-age="+HTTP_CACHE_DEFAULT_MAX_AGE_SECONDS)
+                    .build();
+        }
+    }
+
+    /**
+     * Handle of a request, allows to cancel it
+     */
+    public interface RequestHandle
+    {
+        /**
+         * Cancels the request: its callback will not be called (the network call is cancelled too, unless other
+         * callers are waiting for it)
+         */
+        void cancel();
+    }
+
+    /**
+     * Listener of the fetch pipelines timings (e.g. to measure the form loading latency)
+     */
+    public interface FetchTimingListener
+    {
+        /**
+         * Called when a fetch pipeline is completed
+         * @param externalServiceId the external service ID of the fetched media item
+         * @param timings the stages timings, in completion order
+         * @param totalTimeMs the pipeline duration in milliseconds
+         */
+        void onFetchCompleted(String externalServiceId, List<FetchPipeline.StageTiming> timings, long totalTimeMs);
+    }
 
     /**
      * Callback called when the external service search results are available
@@ -69,7 +571,7 @@ public abstract class MediaItemService
     {
         /**
          * Called when the search results are correctly retrieved
-         * @param searchResults the list of search results (may be empty)
+         * @param searchResults the list of search results (may be empty), may be shared with other callers: do not modify it
          */
         void onLoad(List<MediaItemSearchResult> searchResults);
 
@@ -86,7 +588,7 @@ public abstract class MediaItemService
     {
         /**
          * Called when the media item details are correctly retrieved
-         * @param mediaItem the retrieved media item (may be null)
+         * @param mediaItem the retrieved media item (may be null), may be shared with other callers: do not modify it
          */
         void onLoad(MediaItem mediaItem);
 
@@ -34,7 +34,7 @@ public class MovieService extends MediaItemService
      */
     private MovieService(Context context)
     {
-        super();
+        super(context);
         this.appContext = context.getApplicationContext();
     }
 
@@ -69,9 +69,10 @@ public class MovieService extends MediaItemService
      * {@inheritDoc}
      */
     @Override
-    public void searchMediaItems(String query, final MediaItemSearchCallback mediaItemSearchCallback)
+    protected Call<?> loadSearchResults(String query, final MediaItemSearchCallback mediaItemSearchCallback)
     {
-        restInterface.searchMovies(query, appContext.getString(R.string.themoviedb_api_key)).enqueue(new Callback<MovieSearchJSON>()
+        Call<MovieSearchJSON> searchCall = restInterface.searchMovies(query, appContext.getString(R.string.themoviedb_api_key));
+        searchCall.enqueue(new Callback<MovieSearchJSON>()
         {
             @Override
             public void onResponse(Call<MovieSearchJSON> call, Response<MovieSearchJSON> response)
@@ -94,13 +95,14 @@ public class MovieService extends MediaItemService
                 mediaItemSearchCallback.onFailure();
             }
         });
+        return searchCall;
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public void getMediaItemInfo(String externalServiceId, final MediaItemInfoCallback mediaItemInfoCallback)
+    protected void loadMediaItemInfo(String externalServiceId, final MediaItemInfoCallback mediaItemInfoCallback)
     {
         restInterface.getMovieInfo(externalServiceId, appContext.getString(R.string.themoviedb_api_key)).enqueue(new Callback<MovieJSON>()
         {
@@ -4,14 +4,16 @@ import android.content.Context;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import it.polimi.dima.mediatracker.R;
-import it.polimi.dima.mediatracker.external_services.model_json.MediaItemJSON;
 import it.polimi.dima.mediatracker.external_services.model_json.TVShowJSON;
 import it.polimi.dima.mediatracker.external_services.model_json.TVShowSearchJSON;
 import it.polimi.dima.mediatracker.external_services.model_json.TVShowSeasonJSON;
 import it.polimi.dima.mediatracker.external_services.rest_interfaces.TVShowRestInterface;
+import it.polimi.dima.mediatracker.model.MediaItem;
 import it.polimi.dima.mediatracker.model.MediaItemSearchResult;
 import it.polimi.dima.mediatracker.model.TVShow;
 import retrofit2.Call;
@@ -25,6 +27,10 @@ import retrofit2.Retrofit;
  */
 public class TVShowService extends MediaItemService
 {
+    private final static String STAGE_INFO = "info";
+    private final static String STAGE_SPECULATIVE_SEASON = "speculative season";
+    private final static String STAGE_SEASON = "season";
+
     private Context appContext;
 
     private static TVShowService instance;
@@ -32,12 +38,12 @@ public class TVShowService extends MediaItemService
     private TVShowRestInterface restInterface;
 
     /**
-     * Private constructor
+     * Constructor (package-private for the tests, use the singleton)
      * @param context the context
      */
-    private TVShowService(Context context)
+    TVShowService(Context context)
     {
-        super();
+        super(context);
         this.appContext = context.getApplicationContext();
     }
 
@@ -72,9 +78,10 @@ public class TVShowService extends MediaItemService
      * {@inheritDoc}
      */
     @Override
-    public void searchMediaItems(String query, final MediaItemSearchCallback mediaItemSearchCallback)
+    protected Call<?> loadSearchResults(String query, final MediaItemSearchCallback mediaItemSearchCallback)
     {
-        restInterface.searchTVShows(query, appContext.getString(R.string.themoviedb_api_key)).enqueue(new Callback<TVShowSearchJSON>()
+        Call<TVShowSearchJSON> searchCall = restInterface.searchTVShows(query, appContext.getString(R.string.themoviedb_api_key));
+        searchCall.enqueue(new Callback<TVShowSearchJSON>()
         {
             @Override
             public void onResponse(Call<TVShowSearchJSON> call, Response<TVShowSearchJSON> response)
@@ -97,69 +104,126 @@ public class TVShowService extends MediaItemService
                 mediaItemSearchCallback.onFailure();
             }
         });
+        return searchCall;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void loadMediaItemInfo(String externalServiceId, MediaItemInfoCallback mediaItemInfoCallback)
+    {
+        loadMediaItemInfo(externalServiceId, null, mediaItemInfoCallback);
     }
 
     /**
      * {@inheritDoc}
+     *
+     * The next episode date of a TV show in production comes from its last season, so a second request is needed. If the
+     * seasons number is already known (saved TV show), the season request is sent together with the info request; otherwise,
+     * or if the seasons number changed, it's sent as soon as the info response arrives.
      */
     @Override
-    public void getMediaItemInfo(final String externalServiceId, final MediaItemInfoCallback mediaItemInfoCallback)
+    protected void loadMediaItemInfo(final String externalServiceId, MediaItem knownMediaItem, final MediaItemInfoCallback mediaItemInfoCallback)
     {
-        restInterface.getTVShowInfo(externalServiceId, appContext.getString(R.string.themoviedb_api_key)).enqueue(new Callback<TVShowJSON>()
+        final String apiKey = appContext.getString(R.string.themoviedb_api_key);
+        final TVShowFetch fetch = new TVShowFetch();
+        final FetchPipeline pipeline = createFetchPipeline(externalServiceId, new FetchPipeline.PipelineCallback()
         {
             @Override
-            public void onResponse(Call<TVShowJSON> call, Response<TVShowJSON> response)
+            public void onCompleted(List<FetchPipeline.StageTiming> timings, long totalTimeMs)
             {
-                if(response.body()!=null)
+                // Merge the stage results
+                if(fetch.infoFailed)
                 {
-                    MediaItemJSON mediaItemJSON = response.body();
-                    final TVShow tvShow = (TVShow) mediaItemJSON.convertToMediaItem();
-
-                    // If it's in production, other query to get the next episode
-                    if(tvShow.isInProduction() && tvShow.getSeasonsNumber()>0)
-                    {
-                        restInterface.getTVShowNextEpisodeDate(externalServiceId, tvShow.getSeasonsNumber(), appContext.getString(R.string.themoviedb_api_key)).enqueue(new Callback<TVShowSeasonJSON>()
-                        {
-                            @Override
-                            public void onResponse(Call<TVShowSeasonJSON> call, Response<TVShowSeasonJSON> response)
-                            {
-                                if(response.body()!=null)
-                                {
-                                    TVShowSeasonJSON TVShowSeasonJSON = response.body();
-
-                                    Date nextEpisodeDate = TVShowSeasonJSON.getNextEpisodeAirDate();
-                                    tvShow.setNextEpisodeAirDate(nextEpisodeDate);
-
-                                }
-
-                                mediaItemInfoCallback.onLoad(tvShow);
-                            }
-
-                            @Override
-                            public void onFailure(Call<TVShowSeasonJSON> call, Throwable t)
-                            {
-                                t.printStackTrace();
-                                mediaItemInfoCallback.onLoad(tvShow);
-                            }
-                        });
-                    }
-                    else
+                    mediaItemInfoCallback.onFailure();
+                }
+                else
+                {
+                    if(fetch.tvShow!=null && fetch.nextEpisodeDates.containsKey(fetch.tvShow.getSeasonsNumber()))
                     {
-                        mediaItemInfoCallback.onLoad(tvShow);
+                        fetch.tvShow.setNextEpisodeAirDate(fetch.nextEpisodeDates.get(fetch.tvShow.getSeasonsNumber()));
                     }
+                    mediaItemInfoCallback.onLoad(fetch.tvShow);
                 }
-                else
+            }
+        });
+
+        // Speculative season stage, with the known seasons number
+        if(knownMediaItem instanceof TVShow && ((TVShow) knownMediaItem).isInProduction() && ((TVShow) knownMediaItem).getSeasonsNumber()>0)
+        {
+            fetch.speculativeSeason = ((TVShow) knownMediaItem).getSeasonsNumber();
+            startSeasonStage(pipeline, STAGE_SPECULATIVE_SEASON, externalServiceId, fetch.speculativeSeason, apiKey, fetch);
+        }
+
+        // Info stage
+        pipeline.startStage(STAGE_INFO, restInterface.getTVShowInfo(externalServiceId, apiKey), new FetchPipeline.StageCallback<TVShowJSON>()
+        {
+            @Override
+            public void onResponse(TVShowJSON body)
+            {
+                fetch.tvShow = body==null ? null : (TVShow) body.convertToMediaItem();
+
+                // The speculative season request is useful only if it's the last season of a TV show in production
+                boolean needsSeason = fetch.tvShow!=null && fetch.tvShow.isInProduction() && fetch.tvShow.getSeasonsNumber()>0;
+                boolean speculationRight = needsSeason && fetch.speculativeSeason!=null && fetch.speculativeSeason==fetch.tvShow.getSeasonsNumber();
+                if(!speculationRight) pipeline.cancelStage(STAGE_SPECULATIVE_SEASON);
+
+                // Season stage, unless the speculative one already got (or is getting) it
+                if(needsSeason && !fetch.nextEpisodeDates.containsKey(fetch.tvShow.getSeasonsNumber()) &&
+                        !(speculationRight && pipeline.isStageRunning(STAGE_SPECULATIVE_SEASON)))
                 {
-                    mediaItemInfoCallback.onLoad(null);
+                    startSeasonStage(pipeline, STAGE_SEASON, externalServiceId, fetch.tvShow.getSeasonsNumber(), apiKey, fetch);
                 }
             }
 
             @Override
-            public void onFailure(Call<TVShowJSON> call, Throwable t)
+            public void onFailure()
             {
-                t.printStackTrace();
-                mediaItemInfoCallback.onFailure();
+                fetch.infoFailed = true;
+                pipeline.cancelStage(STAGE_SPECULATIVE_SEASON);
             }
         });
+
+        pipeline.ready();
+    }
+
+    /**
+     * Helper to start the stage that gets the next episode date from a season
+     * @param pipeline the fetch pipeline
+     * @param stageName the stage name
+     * @param externalServiceId the TV show external service ID
+     * @param seasonNumber the season number
+     * @param apiKey the service API key
+     * @param fetch the fetch results
+     */
+    private void startSeasonStage(FetchPipeline pipeline, String stageName, String externalServiceId, final int seasonNumber, String apiKey, final TVShowFetch fetch)
+    {
+        pipeline.startStage(stageName, restInterface.getTVShowNextEpisodeDate(externalServiceId, seasonNumber, apiKey), new FetchPipeline.StageCallback<TVShowSeasonJSON>()
+        {
+            @Override
+            public void onResponse(TVShowSeasonJSON body)
+            {
+                fetch.nextEpisodeDates.put(seasonNumber, body==null ? null : body.getNextEpisodeAirDate());
+            }
+
+            @Override
+            public void onFailure()
+            {
+                // The TV show is loaded anyway, without the next episode date (unless the failed stage was the
+                // speculative one and the info stage is still running: it will send the season request again)
+            }
+        });
+    }
+
+    /**
+     * The results of the stages of a TV show fetch (only accessed by the pipeline callbacks)
+     */
+    private static class TVShowFetch
+    {
+        private TVShow tvShow;
+        private boolean infoFailed = false;
+        private Integer speculativeSeason;
+        private Map<Integer, Date> nextEpisodeDates = new HashMap<>();
     }
 }
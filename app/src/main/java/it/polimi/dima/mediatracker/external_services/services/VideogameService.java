@@ -34,7 +34,7 @@ public class VideogameService extends MediaItemService
      */
     private VideogameService(Context context)
     {
-        super();
+        super(context);
         this.appContext = context.getApplicationContext();
     }
 
@@ -69,9 +69,10 @@ public class VideogameService extends MediaItemService
      * {@inheritDoc}
      */
     @Override
-    public void searchMediaItems(String query, final MediaItemSearchCallback mediaItemSearchCallback)
+    protected Call<?> loadSearchResults(String query, final MediaItemSearchCallback mediaItemSearchCallback)
     {
-        restInterface.searchVideogames(query, MAX_SEARCH_RESULTS, appContext.getString(R.string.giantbomb_api_key)).enqueue(new Callback<VideogameSearchJSON>()
+        Call<VideogameSearchJSON> searchCall = restInterface.searchVideogames(query, MAX_SEARCH_RESULTS, appContext.getString(R.string.giantbomb_api_key));
+        searchCall.enqueue(new Callback<VideogameSearchJSON>()
         {
             @Override
             public void onResponse(Call<VideogameSearchJSON> call, Response<VideogameSearchJSON> response)
@@ -94,13 +95,14 @@ public class VideogameService extends MediaItemService
                 mediaItemSearchCallback.onFailure();
             }
         });
+        return searchCall;
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public void getMediaItemInfo(String externalServiceId, final MediaItemInfoCallback mediaItemInfoCallback)
+    protected void loadMediaItemInfo(String externalServiceId, final MediaItemInfoCallback mediaItemInfoCallback)
     {
         restInterface.getVideogameInfo(externalServiceId, appContext.getString(R.string.giantbomb_api_key)).enqueue(new Callback<VideogameJSON>()
         {
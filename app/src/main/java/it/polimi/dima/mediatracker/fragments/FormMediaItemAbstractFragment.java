@@ -4,10 +4,7 @@ import android.app.AlertDialog;
 import android.app.ProgressDialog;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v4.content.ContextCompat;
 import android.view.LayoutInflater;
@@ -20,7 +17,6 @@ import android.widget.LinearLayout;
 import android.widget.ProgressBar;
 import android.widget.Toast;
 
-import java.io.InputStream;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Date;
@@ -31,6 +27,7 @@ import it.polimi.dima.mediatracker.adapters.AutoCompleteMediaItemsAdapter;
 import it.polimi.dima.mediatracker.controllers.CategoriesController;
 import it.polimi.dima.mediatracker.controllers.MediaItemsAbstractController;
 import it.polimi.dima.mediatracker.external_services.services.MediaItemService;
+import it.polimi.dima.mediatracker.images.ImageLoader;
 import it.polimi.dima.mediatracker.inputs.AbstractInput;
 import it.polimi.dima.mediatracker.inputs.DatePickerInput;
 import it.polimi.dima.mediatracker.inputs.EditTextInput;
@@ -52,7 +49,6 @@ public abstract class FormMediaItemAbstractFragment extends FormAbstractFragment
     private final static String CATEGORY_ID_PARAMETER = "CATEGORY_ID_PARAMETER";
     private final static String MEDIA_ITEM_ID_PARAMETER = "MEDIA_ITEM_ID_PARAMETER";
 
-    private final static String IMAGE_BITMAP_SAVED_INSTANCE = "IMAGE_BITMAP_SAVED_INSTANCE";
     private final static String IMAGE_URL_SAVED_INSTANCE = "IMAGE_URL_SAVED_INSTANCE";
     private final static String API_ID_SAVED_INSTANCE = "API_ID_SAVED_INSTANCE";
 
@@ -63,9 +59,7 @@ public abstract class FormMediaItemAbstractFragment extends FormAbstractFragment
 
     private MediaItemsAbstractController controller;
 
-    private Bitmap imageBitmap;
     private ImageView image;
-    private ImageAsyncLoader imageAsyncLoader;
     private LinearLayout imageContainer;
 
     private EditTextInput<MediaItem> titleInput;
@@ -177,12 +171,6 @@ public abstract class FormMediaItemAbstractFragment extends FormAbstractFragment
                 input.setAreValueChangeListenersDisabled(false);
             }
 
-            // Restore image
-            if(savedInstanceState.containsKey(IMAGE_BITMAP_SAVED_INSTANCE))
-            {
-                imageBitmap = savedInstanceState.getParcelable(IMAGE_BITMAP_SAVED_INSTANCE);
-            }
-
             // Restore non-input media item data
             if(savedInstanceState.containsKey(IMAGE_URL_SAVED_INSTANCE))
             {
@@ -196,7 +184,7 @@ public abstract class FormMediaItemAbstractFragment extends FormAbstractFragment
             // If we are adding a new media item but the user already selected a media item from the autocomplete, show the image
             if(!isEditingForm() && !Utils.isEmpty(mediaItem.getExternalServiceId()))
             {
-                setImageFromCurrentUrl(true);
+                setImageFromCurrentUrl();
                 showImageAndExtraOptions(true);
             }
         }
@@ -217,13 +205,7 @@ public abstract class FormMediaItemAbstractFragment extends FormAbstractFragment
             input.saveInstance(outState);
         }
 
-        // Save image
-        if(imageBitmap!=null)
-        {
-            outState.putParcelable(IMAGE_BITMAP_SAVED_INSTANCE, imageBitmap);
-        }
-
-        // Save non-input media item data
+        // Save non-input media item data (only the image URL, the image itself is cached by the image loader)
         if(mediaItem!=null && mediaItem.getImageUrl()!=null)
         {
             outState.putSerializable(IMAGE_URL_SAVED_INSTANCE, mediaItem.getImageUrl());
@@ -250,6 +232,18 @@ public abstract class FormMediaItemAbstractFragment extends FormAbstractFragment
         }
     }
 
+    /**
+     * Stops the image load, if any, before destroying the view
+     * {@inheritDoc}
+     */
+    @Override
+    public void onDestroyView()
+    {
+        if(image!=null) ImageLoader.getInstance(getActivity()).cancelImage(image);
+
+        super.onDestroyView();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -510,7 +504,7 @@ public abstract class FormMediaItemAbstractFragment extends FormAbstractFragment
 
         // At startup, show the image container only if we are editing
         showImageAndExtraOptions(isEditingForm());
-        if(isEditingForm()) setImageFromCurrentUrl(true);
+        if(isEditingForm()) setImageFromCurrentUrl();
 
         // Add Google link
         if(googleLink!=null) googleLink.setOnClickListener(new View.OnClickListener()
@@ -595,9 +589,11 @@ public abstract class FormMediaItemAbstractFragment extends FormAbstractFragment
                         getResources().getString(R.string.fetch_media_item_data_wait_message), true, false);
         progressDialog.setProgressStyle(ProgressDialog.STYLE_SPINNER);
 
-        // Call the media item service to retrieve the information
+        // Call the media item service to retrieve the information (the saved data, if it's the same media item, allows
+        // the service to send its requests earlier)
         MediaItemService mediaItemService = controller.getMediaItemService(getActivity());
-        mediaItemService.getMediaItemInfo(externalServiceId, new MediaItemService.MediaItemInfoCallback()
+        MediaItem knownMediaItem = externalServiceId.equals(mediaItem.getExternalServiceId()) ? mediaItem : null;
+        mediaItemService.getMediaItemInfo(externalServiceId, knownMediaItem, new MediaItemService.MediaItemInfoCallback()
         {
             @Override
             public void onLoad(MediaItem loadedMediaItem)
@@ -615,7 +611,7 @@ public abstract class FormMediaItemAbstractFragment extends FormAbstractFragment
                     if (loadedMediaItem.getImageUrl() != null)
                     {
                         mediaItem.setImageUrl(loadedMediaItem.getImageUrl());
-                        setImageFromCurrentUrl(false);
+                        setImageFromCurrentUrl();
                     }
 
                     // Show image
@@ -643,20 +639,13 @@ public abstract class FormMediaItemAbstractFragment extends FormAbstractFragment
     }
 
     /**
-     * Helper to re(load) the image from the current image URL parameter
-     * @param firstRun true if we are calling this method from onCreateView
+     * Helper to re(load) the image from the current image URL parameter (immediately if it's in the image loader memory cache)
      */
-    private void setImageFromCurrentUrl(boolean firstRun)
+    private void setImageFromCurrentUrl()
     {
-        if(firstRun && imageBitmap!=null)
+        if(mediaItem.getImageUrl()!=null)
         {
-            image.setImageBitmap(imageBitmap);
-        }
-        else if(mediaItem.getImageUrl()!=null)
-        {
-            if(imageAsyncLoader!=null) imageAsyncLoader.cancel(true);
-            imageAsyncLoader = new ImageAsyncLoader();
-            imageAsyncLoader.execute(mediaItem.getImageUrl());
+            ImageLoader.getInstance(getActivity()).loadImage(mediaItem.getImageUrl(), image);
         }
     }
 
@@ -726,48 +715,4 @@ public abstract class FormMediaItemAbstractFragment extends FormAbstractFragment
      * @return the list of the inputs of the subclass
      */
     protected abstract List<AbstractInput<MediaItem>> getSpecificInputs(View view, MediaItem initialMediaItem);
-
-
-
-    /************************************************ CLASSES ************************************************/
-
-    /**
-     * AsyncTask to load an image from URL asynchronously
-     */
-    private class ImageAsyncLoader extends AsyncTask<URL, String, Bitmap>
-    {
-        /**
-         * {@inheritDoc}
-         */
-        @Override
-        protected Bitmap doInBackground(URL... args)
-        {
-            Bitmap bitmap;
-            try
-            {
-                bitmap = BitmapFactory.decodeStream((InputStream) args[0].getContent());
-            }
-            catch(Exception e)
-            {
-                e.printStackTrace();
-                bitmap = null;
-            }
-
-            return bitmap;
-        }
-
-        /**
-         * {@inheritDoc}
-         */
-        @Override
-        protected void onPostExecute(Bitmap bitmap)
-        {
-            imageBitmap = bitmap;
-
-            if(bitmap!=null)
-            {
-                image.setImageBitmap(bitmap);
-            }
-        }
-    }
 }
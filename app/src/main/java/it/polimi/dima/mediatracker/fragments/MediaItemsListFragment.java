@@ -34,12 +34,15 @@ import it.polimi.dima.mediatracker.adapters.media_items_list.SectionedRecyclerVi
 import it.polimi.dima.mediatracker.adapters.media_items_list.TrackedMediaItemsAdapter;
 import it.polimi.dima.mediatracker.controllers.CategoriesController;
 import it.polimi.dima.mediatracker.controllers.MediaItemsAbstractController;
+import it.polimi.dima.mediatracker.controllers.MediaItemsAsyncController;
+import it.polimi.dima.mediatracker.controllers.database.DatabaseExecutor;
+import it.polimi.dima.mediatracker.images.ImageLoader;
 import it.polimi.dima.mediatracker.layout.RecyclerViewDividerItemDecoration;
 import it.polimi.dima.mediatracker.listeners.EndlessRecyclerViewScrollListener;
 import it.polimi.dima.mediatracker.model.Category;
 import it.polimi.dima.mediatracker.model.ImportanceLevel;
 import it.polimi.dima.mediatracker.model.MediaItem;
-import it.polimi.dima.mediatracker.utils.GlobalConstants;
+import it.polimi.dima.mediatracker.model.SectionRegistry;
 import it.polimi.dima.mediatracker.utils.Utils;
 
 /**
@@ -52,6 +55,8 @@ public class MediaItemsListFragment extends ContentAbstractFragment
 
     private String currentSearchQuery = null;
 
+    private String nextPageContinuationToken = null;
+
     private MediaItemsAbstractAdapter adapter;
 
     private SearchView searchView;
@@ -61,6 +66,9 @@ public class MediaItemsListFragment extends ContentAbstractFragment
     private Category category;
 
     private MediaItemsAbstractController controller;
+    private MediaItemsAsyncController asyncController;
+
+    private int listGeneration = 0;
 
     /**
      * Instance creation
@@ -94,6 +102,7 @@ public class MediaItemsListFragment extends ContentAbstractFragment
         category = CategoriesController.getInstance().getCategoryById(categoryId);
         isCompletedItemsPage = args.getBoolean(IS_COMPLETED_LIST_PARAMETER);
         controller = category.getMediaType().getController();
+        asyncController = controller.getAsyncController();
 
         // Build toolbar
         Toolbar toolbar = (Toolbar) view.findViewById(R.id.toolbar);
@@ -192,13 +201,51 @@ public class MediaItemsListFragment extends ContentAbstractFragment
         return view;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onResume()
+    {
+        super.onResume();
+
+        // Move the media items released while the list is displayed
+        if(adapter instanceof TrackedMediaItemsAdapter) ((TrackedMediaItemsAdapter) adapter).startUpcomingChecks();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onPause()
+    {
+        super.onPause();
+
+        if(adapter instanceof TrackedMediaItemsAdapter) ((TrackedMediaItemsAdapter) adapter).stopUpcomingChecks();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onDestroyView()
+    {
+        super.onDestroyView();
+
+        // Ignore the loads still running
+        listGeneration++;
+
+        // The list may be destroyed during a fling, before the image loads are resumed
+        ImageLoader.getInstance(getActivity()).setPaused(false);
+    }
+
     /**
      * Creates the recycler view that manages the media items list
      */
     private void loadRecyclerView(View view)
     {
-        // Get all media items in this category and type (at page 0)
-        List<MediaItem> mediaItems = getMediaItems(0);
+        // The media items are loaded in background, the list is initially empty
+        List<MediaItem> mediaItems = new ArrayList<>();
 
         // Get recycler view
         RecyclerView recyclerView = (RecyclerView) view.findViewById(R.id.media_items_list);
@@ -212,7 +259,7 @@ public class MediaItemsListFragment extends ContentAbstractFragment
         else
         {
             // In the tracked list media items are grouped by doing/importance/upcoming
-            adapter = new TrackedMediaItemsAdapter(mediaItems, controller.getCompleteOptionName(), controller.getDoingOptionName());
+            adapter = new TrackedMediaItemsAdapter(mediaItems, controller.getCompleteOptionName(), controller.getDoingOptionName(), controller.getTrackedOrderComparator());
         }
 
         // Manage layout
@@ -228,22 +275,39 @@ public class MediaItemsListFragment extends ContentAbstractFragment
             @Override
             public void onLoadMore(int page, int totalItemsCount)
             {
+                // When loaded, add the next media items to the adapter
+                final int generation = listGeneration;
+                DatabaseExecutor.ResultCallback<List<MediaItem>> callback = new DatabaseExecutor.ResultCallback<List<MediaItem>>()
+                {
+                    @Override
+                    public void onResult(List<MediaItem> mediaItems)
+                    {
+                        if(generation==listGeneration && mediaItems.size()>0)
+                        {
+                            adapter.addItemsAtTheEndAndNotify(mediaItems);
+                        }
+                    }
+                };
+
                 // Get next media items
-                List<MediaItem> mediaItems;
                 if(Utils.isEmpty(currentSearchQuery))
                 {
-                    mediaItems = getMediaItems(page);
+                    // Last page already loaded
+                    if(nextPageContinuationToken==null) return;
+
+                    loadMediaItemsPage(nextPageContinuationToken, callback);
                 }
                 else
                 {
-                    mediaItems = controller.searchMediaItemsInCategory(page, category, currentSearchQuery, isCompletedItemsPage);
+                    asyncController.fullTextSearchMediaItemsInCategory(page, category, currentSearchQuery, isCompletedItemsPage, callback);
                 }
+            }
 
-                // Add them to the adapter
-                if(mediaItems.size()>0)
-                {
-                    adapter.addItemsAtTheEndAndNotify(mediaItems);
-                }
+            @Override
+            public void onPrefetch(int fromPosition, int toPosition)
+            {
+                // Thumbnails of the next screen
+                adapter.prefetchThumbnails(getActivity(), fromPosition, toPosition);
             }
         });
 
@@ -281,7 +345,7 @@ public class MediaItemsListFragment extends ContentAbstractFragment
                                         }
 
                                         // Delete media item
-                                        controller.deleteMediaItem(deletedMediaItem);
+                                        asyncController.deleteMediaItem(deletedMediaItem, null);
 
                                         // Remove it from the adapter
                                         adapter.removeItemAndNotify(selectedPosition);
@@ -304,14 +368,20 @@ public class MediaItemsListFragment extends ContentAbstractFragment
 
                     // [TRACKED LIST ONLY] To set a media item as doing now we do so and then we reload the list
                     case R.id.media_item_options_doing:
-                        controller.setMediaItemAsDoingNow(adapter.get(selectedPosition), true);
+                        asyncController.setMediaItemAsDoingNow(adapter.get(selectedPosition), true, null);
                         refreshMediaItemsListFromDatabase();
                         return;
 
                     // [TRACKED LIST ONLY] To set a media item as owned we do so and then we notify the adapter of the change
                     case R.id.media_item_options_own:
-                        controller.setMediaItemAsOwned(adapter.get(selectedPosition), true);
-                        adapter.notifyItemChanged(selectedPosition);
+                        asyncController.setMediaItemAsOwned(adapter.get(selectedPosition), true, new DatabaseExecutor.ResultCallback<MediaItem>()
+                        {
+                            @Override
+                            public void onResult(MediaItem result)
+                            {
+                                adapter.notifyItemChanged(selectedPosition);
+                            }
+                        });
                         return;
 
                     // [COMPLETED LIST ONLY] To change the media item completion date we show a dialog and we reload the list
@@ -325,7 +395,7 @@ public class MediaItemsListFragment extends ContentAbstractFragment
                             public void onDateSet(DatePicker view, int year, int monthOfYear, int dayOfMonth)
                             {
                                 completionDateCalendar.set(year, monthOfYear, dayOfMonth);
-                                controller.updateMediaItemCompletionDate(selectedMediaItem, completionDateCalendar.getTime());
+                                asyncController.updateMediaItemCompletionDate(selectedMediaItem, completionDateCalendar.getTime(), null);
                                 refreshMediaItemsListFromDatabase();
                             }
                         }, completionDateCalendar.get(Calendar.YEAR), completionDateCalendar.get(Calendar.MONTH), completionDateCalendar.get(Calendar.DAY_OF_MONTH));
@@ -339,7 +409,7 @@ public class MediaItemsListFragment extends ContentAbstractFragment
                         {
                             mediaItemListener.onMediaItemRemoved(redoingMediaItem);
                         }
-                        controller.setMediaItemAsToRedo(redoingMediaItem);
+                        asyncController.setMediaItemAsToRedo(redoingMediaItem, null);
                         adapter.removeItemAndNotify(selectedPosition);
                         //return;
                 }
@@ -383,7 +453,7 @@ public class MediaItemsListFragment extends ContentAbstractFragment
                 public boolean onItemMove(int itemPosition, int targetItemPosition, Section itemSection, Section targetItemSection, RecyclerView recyclerView, RecyclerView.ViewHolder viewHolder, RecyclerView.ViewHolder target)
                 {
                     // Disallow moving an item INTO the upcoming section
-                    if(GlobalConstants.SECTION_UPCOMING.equals(targetItemSection.getSectionId()))
+                    if(targetItemSection==SectionRegistry.getUpcomingSection())
                     {
                         return false;
                     }
@@ -409,7 +479,7 @@ public class MediaItemsListFragment extends ContentAbstractFragment
                                 @Override
                                 public void onClick(View view)
                                 {
-                                    controller.undoSetAsCompleted(mediaItemToSetAsCompleted);
+                                    asyncController.undoSetAsCompleted(mediaItemToSetAsCompleted, null);
                                     refreshMediaItemsListFromDatabase();
                                 }
                             });
@@ -420,33 +490,31 @@ public class MediaItemsListFragment extends ContentAbstractFragment
                 public void onItemDropped(int itemPosition, int targetItemPosition, Section itemSection, Section targetItemSection)
                 {
                     // If the section changed during the drag&drop...
-                    if(!itemSection.equals(targetItemSection))
+                    Boolean doingNow = null;
+                    if(itemSection!=targetItemSection)
                     {
                         boolean checkImportanceSection = true;
 
                         // If the item is now in "Doing Now" set it as such
-                        if(GlobalConstants.SECTION_DOING_NOW.equals(targetItemSection.getSectionId()))
+                        if(SectionRegistry.isDoingNowSection(targetItemSection))
                         {
-                            controller.setMediaItemAsDoingNow(adapter.get(targetItemPosition), true);
+                            doingNow = true;
                             checkImportanceSection = false;
                         }
 
                         // If the item was in "Doing Now" set it as not doing now anymore
-                        else if(GlobalConstants.SECTION_DOING_NOW.equals(itemSection.getSectionId()))
+                        else if(SectionRegistry.isDoingNowSection(itemSection))
                         {
-                            controller.setMediaItemAsDoingNow(adapter.get(targetItemPosition), false);
+                            doingNow = false;
                         }
 
-                        // If the importance level changed, update it
+                        // If the importance level changed, update it (saved below with the new order)
                         if(checkImportanceSection)
                         {
-                            for(ImportanceLevel level: ImportanceLevel.values())
+                            ImportanceLevel level = SectionRegistry.getImportanceLevel(targetItemSection);
+                            if(level!=null)
                             {
-                                if(level.name().equals(targetItemSection.getSectionId()))
-                                {
-                                    adapter.get(targetItemPosition).setImportanceLevel(level);
-                                    controller.saveMediaItem(adapter.get(targetItemPosition));
-                                }
+                                adapter.get(targetItemPosition).setImportanceLevel(level);
                             }
                         }
                     }
@@ -459,7 +527,7 @@ public class MediaItemsListFragment extends ContentAbstractFragment
                     if(targetItemPosition>0)
                     {
                         MediaItem temp = adapter.get(targetItemPosition-1);
-                        if(targetItemSection.equals(temp.getSection()))
+                        if(targetItemSection==temp.getSection())
                         {
                             previousMediaItemInSection = temp;
                         }
@@ -470,20 +538,24 @@ public class MediaItemsListFragment extends ContentAbstractFragment
                     if(targetItemPosition<adapter.getItemCount()-1)
                     {
                         MediaItem temp = adapter.get(targetItemPosition+1);
-                        if(targetItemSection.equals(temp.getSection()))
+                        if(targetItemSection==temp.getSection())
                         {
                             nextMediaItemInSection = temp;
                         }
                     }
 
-                    // Update order value
-                    controller.setOrderInSectionAfterMove(category, movedMediaItem, previousMediaItemInSection, nextMediaItemInSection);
-
-                    // Save media item
-                    controller.saveMediaItem(movedMediaItem);
-
-                    // Notify that all mediaItems between old and new position have changed (actual edits done above or just the option menu index)
-                    adapter.notifyItemRangeChanged(itemPosition<targetItemPosition ? itemPosition : targetItemPosition, Math.abs(itemPosition-targetItemPosition)+1);
+                    // Update order value (and "doing now" value) and save media item
+                    final int firstChangedPosition = itemPosition<targetItemPosition ? itemPosition : targetItemPosition;
+                    final int changedPositionsCount = Math.abs(itemPosition-targetItemPosition)+1;
+                    asyncController.saveMediaItemAfterMove(category, movedMediaItem, doingNow, previousMediaItemInSection, nextMediaItemInSection, new DatabaseExecutor.ResultCallback<MediaItem>()
+                    {
+                        @Override
+                        public void onResult(MediaItem result)
+                        {
+                            // Notify that all mediaItems between old and new position have changed (actual edits done above or just the option menu index)
+                            adapter.notifyItemRangeChanged(firstChangedPosition, changedPositionsCount);
+                        }
+                    });
                 }
             };
 
@@ -512,42 +584,70 @@ public class MediaItemsListFragment extends ContentAbstractFragment
         // Add decorator for list elements borders
         recyclerView.addItemDecoration(new RecyclerViewDividerItemDecoration(ContextCompat.getDrawable(getActivity(), R.drawable.abc_list_divider_mtrl_alpha)));
 
-        // Set empty view
-        adapter.setEmptyView(view.findViewById(R.id.list_empty_view));
+        // Load the first page, then set the empty view (it must not be displayed while loading)
+        final View emptyView = view.findViewById(R.id.list_empty_view);
+        emptyView.setVisibility(View.GONE);
+        loadMediaItemsPage(null, new DatabaseExecutor.ResultCallback<List<MediaItem>>()
+        {
+            @Override
+            public void onResult(List<MediaItem> mediaItems)
+            {
+                adapter.setItemsAndNotifyDataSetChanged(mediaItems);
+                adapter.setEmptyView(emptyView);
+            }
+        });
     }
 
     /**
-     * Helper to load media items from the database
-     * @param page the current page
-     * @return the media items on that page
+     * Helper to load media items from the database in background. Also stores the continuation token to load the
+     * following page. If the list is reloaded meanwhile, the page is discarded.
+     * @param continuationToken the token of the current page, null for the first page
+     * @param callback called on the main thread with the media items on that page
      */
-    private List<MediaItem> getMediaItems(int page)
+    private void loadMediaItemsPage(String continuationToken, final DatabaseExecutor.ResultCallback<List<MediaItem>> callback)
     {
-        List<MediaItem> mediaItems;
+        final int generation = listGeneration;
+        DatabaseExecutor.ResultCallback<MediaItemsAbstractController.MediaItemsPage> pageCallback = new DatabaseExecutor.ResultCallback<MediaItemsAbstractController.MediaItemsPage>()
+        {
+            @Override
+            public void onResult(MediaItemsAbstractController.MediaItemsPage page)
+            {
+                if(generation!=listGeneration) return;
+
+                nextPageContinuationToken = page.getContinuationToken();
+
+                List<MediaItem> mediaItems = page.getMediaItems();
+                if(mediaItems==null) mediaItems = new ArrayList<>();
+                callback.onResult(mediaItems);
+            }
+        };
 
         if(isCompletedItemsPage)
         {
-            mediaItems = controller.getCompletedMediaItemsInCategory(page, category);
+            asyncController.getCompletedMediaItemsPageInCategory(continuationToken, category, pageCallback);
         }
         else
         {
-            mediaItems = controller.getTrackedMediaItemsInCategory(page, category);
+            asyncController.getTrackedMediaItemsPageInCategory(continuationToken, category, pageCallback);
         }
-
-        if(mediaItems==null) mediaItems = new ArrayList<>();
-        return mediaItems;
     }
 
     /**
-     * Reloads the media items list querying the data from the database
+     * Reloads the media items list querying the data from the database (in background, after any update submitted
+     * before)
      */
     public void refreshMediaItemsListFromDatabase()
     {
-        // Get data
-        List<MediaItem> tempMediaItems = getMediaItems(0);
-
-        // Set it in the adapter
-        adapter.setItemsAndNotifyDataSetChanged(tempMediaItems);
+        // Get data and set it in the adapter (the loads still running are now outdated)
+        listGeneration++;
+        loadMediaItemsPage(null, new DatabaseExecutor.ResultCallback<List<MediaItem>>()
+        {
+            @Override
+            public void onResult(List<MediaItem> mediaItems)
+            {
+                adapter.setItemsAndNotifyDataSetChanged(mediaItems);
+            }
+        });
 
         // Reset search query
         searchView.setQuery("", false);
@@ -560,11 +660,16 @@ public class MediaItemsListFragment extends ContentAbstractFragment
      */
     private void searchMediaItems(String query)
     {
-        // Get data
-        List<MediaItem> searchResults = controller.searchMediaItemsInCategory(0, category, query, isCompletedItemsPage);
-
-        // Set it in the adapter
-        adapter.setItemsAndNotifyDataSetChanged(searchResults);
+        // Get data and set it in the adapter (the loads still running are now outdated)
+        final int generation = ++listGeneration;
+        asyncController.fullTextSearchMediaItemsInCategory(0, category, query, isCompletedItemsPage, new DatabaseExecutor.ResultCallback<List<MediaItem>>()
+        {
+            @Override
+            public void onResult(List<MediaItem> searchResults)
+            {
+                if(generation==listGeneration) adapter.setItemsAndNotifyDataSetChanged(searchResults);
+            }
+        });
     }
 
     /**
@@ -579,7 +684,7 @@ public class MediaItemsListFragment extends ContentAbstractFragment
         {
             mediaItemListener.onMediaItemRemoved(mediaItemToSetAsCompleted);
         }
-        controller.setMediaItemAsCompleted(mediaItemToSetAsCompleted, new Date());
+        asyncController.setMediaItemAsCompleted(mediaItemToSetAsCompleted, new Date(), null);
         adapter.removeItemAndNotify(position);
         return mediaItemToSetAsCompleted;
     }
@@ -8,6 +8,7 @@ import android.support.v7.widget.Toolbar;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AutoCompleteTextView;
 import android.widget.EditText;
 import android.widget.ImageButton;
 import android.widget.LinearLayout;
@@ -15,11 +16,14 @@ import android.widget.TextView;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import it.polimi.dima.mediatracker.R;
+import it.polimi.dima.mediatracker.adapters.GenreCountsAdapter;
 import it.polimi.dima.mediatracker.controllers.CategoriesController;
 import it.polimi.dima.mediatracker.controllers.MediaItemsAbstractController;
 import it.polimi.dima.mediatracker.controllers.ScreenController;
+import it.polimi.dima.mediatracker.controllers.database.DatabaseExecutor;
 import it.polimi.dima.mediatracker.inputs.AbstractInput;
 import it.polimi.dima.mediatracker.inputs.EditTextInput;
 import it.polimi.dima.mediatracker.inputs.SelectDialogInput;
@@ -40,9 +44,11 @@ public abstract class SuggestionsAbstractFragment extends ContentAbstractFragmen
     private List<AbstractInput<Void>> inputs;
     private SelectDialogInput<Void> status;
     private EditTextInput<Void> genres;
+    private GenreCountsAdapter genresAdapter;
     private SelectDialogInput<Void> duration;
     private SelectDialogInput<Void> owned;
     private SelectDialogInput<Void> completion;
+    private SelectDialogInput<Void> mode;
 
     private MediaItem suggestedMediaItem;
     private LinearLayout resultArea;
@@ -98,6 +104,7 @@ public abstract class SuggestionsAbstractFragment extends ContentAbstractFragmen
         // Setup extra stuff
         setupSuggestionsButtonAndResultArea(view);
         updateOptionsVisibility();
+        loadGenreCounts();
 
         return view;
     }
@@ -123,6 +130,7 @@ public abstract class SuggestionsAbstractFragment extends ContentAbstractFragmen
 
             // Show the right options based on the selected status
             updateOptionsVisibility();
+            loadGenreCounts();
 
             // Submit suggestion
             getAndDisplayRandomSuggestion();
@@ -197,6 +205,7 @@ public abstract class SuggestionsAbstractFragment extends ContentAbstractFragmen
             {
                 // Show the right options based on the selected status
                 updateOptionsVisibility();
+                loadGenreCounts();
 
                 // Submit suggestion
                 getAndDisplayRandomSuggestion();
@@ -223,7 +232,11 @@ public abstract class SuggestionsAbstractFragment extends ContentAbstractFragmen
             @Override
             public void setExtraAttributes(View view, EditText editText)
             {
-                // Do nothing
+                // Autocomplete with the available genres (loaded asynchronously with their counts)
+                genresAdapter = new GenreCountsAdapter(getActivity());
+                AutoCompleteTextView genresAutoComplete = (AutoCompleteTextView) editText;
+                genresAutoComplete.setThreshold(1);
+                genresAutoComplete.setAdapter(genresAdapter);
             }
 
             @Override
@@ -349,6 +362,40 @@ public abstract class SuggestionsAbstractFragment extends ContentAbstractFragmen
             }
         });
         inputs.add(completion);
+
+        // Mode
+        final ModeOption[] modeOptions = ModeOption.values();
+        String[] modeOptionNames = new String[modeOptions.length];
+        for(int i = 0; i < modeOptions.length; i++) modeOptionNames[i] = modeOptions[i].getName(getActivity());
+        mode = new SelectDialogInput<>(false, getFragmentManager(), view, R.id.suggestions_mode, R.string.suggestions_mode_dialog_title, modeOptions, modeOptionNames, null, new SelectDialogInput.CallbackExtended<Void>()
+        {
+            @Override
+            public void setExtraAttributes(View view, EditText editText)
+            {
+                // Do nothing
+            }
+
+            @Override
+            public void onValueChange(Object selectedOption)
+            {
+                // Submit suggestion
+                getAndDisplayRandomSuggestion();
+            }
+
+            @Override
+            public void setModelObjectValue(Void modelObject, Object selectedOption)
+            {
+                // Do nothing
+            }
+
+            @Override
+            public Object getModelObjectValue(Void modelObject)
+            {
+                // Default value
+                return modeOptions[0];
+            }
+        });
+        inputs.add(mode);
     }
 
     /**
@@ -429,6 +476,22 @@ public abstract class SuggestionsAbstractFragment extends ContentAbstractFragmen
         completion.setVisibility(isCompletionOptionVisible ? View.VISIBLE : View.GONE);
     }
 
+    /**
+     * Helper that loads the genres available for the selected status, with their media items count, in the genre autocomplete options
+     */
+    private void loadGenreCounts()
+    {
+        boolean completed = StatusOption.COMPLETED.equals(status.getSelectedOptionValue());
+        controller.getAsyncController().getGenreCounts(category, completed, new DatabaseExecutor.ResultCallback<Map<String, Integer>>()
+        {
+            @Override
+            public void onResult(Map<String, Integer> genreCounts)
+            {
+                if(getActivity()!=null) genresAdapter.setGenreCounts(genreCounts);
+            }
+        });
+    }
+
     /**
      * Called to actually retrieve and print the suggested media item
      */
@@ -440,16 +503,17 @@ public abstract class SuggestionsAbstractFragment extends ContentAbstractFragmen
         OwnedOption ownedValue = (OwnedOption) owned.getSelectedOptionValue();
         DurationOptionInterface durationValue = (DurationOptionInterface) duration.getSelectedOptionValue();
         CompletionOption completionValue = (CompletionOption) completion.getSelectedOptionValue();
+        boolean weighted = ModeOption.WEIGHTED.equals(mode.getSelectedOptionValue());
 
         // Get a suggestion from the controller
         if(statusValue==StatusOption.NEW)
         {
             Boolean ownedBooleanValue = OwnedOption.ANY.equals(ownedValue) ? null : OwnedOption.OWNED.equals(ownedValue);
-            suggestedMediaItem = controller.getRandomTrackedMediaItem(category, (suggestedMediaItem == null ? null : suggestedMediaItem.getId()), genreValue, ownedBooleanValue, durationValue.getMinDuration(), durationValue.getMaxDuration());
+            suggestedMediaItem = controller.getRandomTrackedMediaItem(category, (suggestedMediaItem == null ? null : suggestedMediaItem.getId()), genreValue, ownedBooleanValue, durationValue.getMinDuration(), durationValue.getMaxDuration(), weighted);
         }
         else if(statusValue==StatusOption.COMPLETED)
         {
-            suggestedMediaItem = controller.getRandomCompletedMediaItem(category, (suggestedMediaItem==null ? null : suggestedMediaItem.getId()), genreValue, completionValue.yearsAgo, durationValue.getMinDuration(), durationValue.getMaxDuration());
+            suggestedMediaItem = controller.getRandomCompletedMediaItem(category, (suggestedMediaItem==null ? null : suggestedMediaItem.getId()), genreValue, completionValue.yearsAgo, durationValue.getMinDuration(), durationValue.getMaxDuration(), weighted);
         }
 
         // If no result, show a message
@@ -607,6 +671,34 @@ public abstract class SuggestionsAbstractFragment extends ContentAbstractFragmen
         }
     }
 
+    /**
+     * Available options for the suggestion mode (uniform or weighted by importance, owned status, age and completions)
+     */
+    private enum ModeOption
+    {
+        RANDOM, WEIGHTED;
+
+        /**
+         * Getter
+         * @param context the activity
+         * @return the name of the option to show to the user
+         */
+        String getName(Context context)
+        {
+            switch(this)
+            {
+                case RANDOM:
+                    return context.getString(R.string.suggestions_mode_option_random);
+
+                case WEIGHTED:
+                    return context.getString(R.string.suggestions_mode_option_weighted);
+
+                default:
+                    return "";
+            }
+        }
+    }
+
     /**
      * Available options for the media item completion status
      */
@@ -0,0 +1,62 @@
+package it.polimi.dima.mediatracker.images;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.io.File;
+
+/**
+ * Decodes image files directly at (about) the size they will be displayed, instead of the full resolution
+ */
+public class BitmapDecoder
+{
+    /**
+     * Private constructor
+     */
+    private BitmapDecoder()
+    {
+
+    }
+
+    /**
+     * Decodes an image file in two passes: the first one only reads the image size, the second one decodes it with the
+     * largest power of two sample size that keeps it at least as large as the requested size
+     * @param file the image file
+     * @param requestedWidth the requested width in pixels (<=0 if any)
+     * @param requestedHeight the requested height in pixels (<=0 if any)
+     * @return the bitmap, null if the file is not a valid image
+     */
+    public static Bitmap decodeSampledBitmap(File file, int requestedWidth, int requestedHeight)
+    {
+        // First pass: bounds only
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+        if(options.outWidth<=0 || options.outHeight<=0) return null;
+
+        // Second pass: subsampled bitmap
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, requestedWidth, requestedHeight);
+        options.inJustDecodeBounds = false;
+        return BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+    }
+
+    /**
+     * Computes the sample size for the decoding
+     * @param width the image width
+     * @param height the image height
+     * @param requestedWidth the requested width (<=0 if any)
+     * @param requestedHeight the requested height (<=0 if any)
+     * @return the largest power of two that keeps both image sides at least as large as the requested ones
+     */
+    public static int calculateInSampleSize(int width, int height, int requestedWidth, int requestedHeight)
+    {
+        int inSampleSize = 1;
+        if(requestedWidth<=0 && requestedHeight<=0) return inSampleSize;
+
+        while((requestedWidth<=0 || width/(inSampleSize*2)>=requestedWidth) && (requestedHeight<=0 || height/(inSampleSize*2)>=requestedHeight))
+        {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+}
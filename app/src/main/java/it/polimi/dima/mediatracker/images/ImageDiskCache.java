@@ -0,0 +1,181 @@
+package it.polimi.dima.mediatracker.images;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Disk cache of the downloaded image files (one file per URL, least recently used files are deleted when the cache
+ * exceeds its maximum size)
+ */
+class ImageDiskCache
+{
+    private final static String TEMP_FILE_EXTENSION = ".tmp";
+
+    private File directory;
+    private long maxSize;
+    private long size = -1;
+
+    /**
+     * Constructor
+     * @param directory the cache directory (created if missing)
+     * @param maxSize the maximum size in bytes
+     */
+    ImageDiskCache(File directory, long maxSize)
+    {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Getter
+     * @param key the image key (its URL)
+     * @return the cached file, null if not available
+     */
+    synchronized File get(String key)
+    {
+        File file = getFile(key);
+        if(!file.exists()) return null;
+
+        // Mark as recently used
+        //noinspection ResultOfMethodCallIgnored
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    /**
+     * Copies the given stream into the cache (the file is visible only when complete)
+     * @param key the image key (its URL)
+     * @param in the image data
+     * @return the cached file
+     * @throws IOException if the data cannot be read or written
+     */
+    File put(String key, InputStream in) throws IOException
+    {
+        // Write to a temporary file (outside the lock, the download can be slow)
+        File file = getFile(key);
+        File tempFile = new File(directory, file.getName()+"."+Thread.currentThread().getId()+TEMP_FILE_EXTENSION);
+        //noinspection ResultOfMethodCallIgnored
+        directory.mkdirs();
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile));
+        try
+        {
+            byte[] buffer = new byte[8192];
+            int read;
+            while((read = in.read(buffer))!=-1)
+            {
+                out.write(buffer, 0, read);
+            }
+        }
+        catch(IOException e)
+        {
+            out.close();
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+            throw e;
+        }
+        out.close();
+
+        // Move it in the cache
+        synchronized(this)
+        {
+            if(size<0) size = computeSize();
+            if(file.exists()) size -= file.length();
+            if(!tempFile.renameTo(file))
+            {
+                //noinspection ResultOfMethodCallIgnored
+                tempFile.delete();
+                throw new IOException("Cannot write image cache file "+file);
+            }
+            size += file.length();
+            trim();
+        }
+        return file;
+    }
+
+    /**
+     * Deletes the least recently used files until the cache size is below the maximum
+     */
+    private void trim()
+    {
+        if(size<=maxSize) return;
+
+        File[] files = directory.listFiles();
+        if(files==null) return;
+        Arrays.sort(files, new Comparator<File>()
+        {
+            @Override
+            public int compare(File lhs, File rhs)
+            {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l<r ? -1 : (l==r ? 0 : 1);
+            }
+        });
+
+        for(int i=0; i<files.length && size>maxSize; i++)
+        {
+            if(files[i].getName().endsWith(TEMP_FILE_EXTENSION)) continue;
+            long length = files[i].length();
+            if(files[i].delete()) size -= length;
+        }
+    }
+
+    /**
+     * Helper to compute the current cache size
+     * @return the sum of the cached files sizes
+     */
+    private long computeSize()
+    {
+        long total = 0;
+        File[] files = directory.listFiles();
+        if(files!=null) for(File file: files)
+        {
+            if(!file.getName().endsWith(TEMP_FILE_EXTENSION)) total += file.length();
+        }
+        return total;
+    }
+
+    /**
+     * Getter
+     * @param key the image key (its URL)
+     * @return the cache file linked with the key (may not exist)
+     */
+    private File getFile(String key)
+    {
+        return new File(directory, hash(key));
+    }
+
+    /**
+     * Helper to get a file name from a key
+     * @param key the image key (its URL)
+     * @return the SHA-1 of the key in hexadecimal
+     */
+    private static String hash(String key)
+    {
+        try
+        {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(Charset.forName("UTF-8")));
+            StringBuilder builder = new StringBuilder(digest.length*2);
+            for(byte b: digest)
+            {
+                builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+                builder.append(Character.forDigit(b & 0xF, 16));
+            }
+            return builder.toString();
+        }
+        catch(NoSuchAlgorithmException e)
+        {
+            // SHA-1 is always available
+            return String.valueOf(key.hashCode());
+        }
+    }
+}
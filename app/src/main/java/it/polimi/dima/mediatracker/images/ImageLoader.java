@@ -0,0 +1,438 @@
+package it.polimi.dima.mediatracker.images;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.DisplayMetrics;
+import android.util.LruCache;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import it.polimi.dima.mediatracker.R;
+
+/**
+ * Loads the media item images: bitmaps are kept in a memory cache (sized as a fraction of the heap), downloaded files
+ * in a disk cache, and images are decoded at the size of the view that displays them. Concurrent loads of the same
+ * image share the same work. Loads can be paused (e.g. during a list fling): new loads wait until they are resumed, so
+ * that only the images still needed at that point are decoded
+ */
+public class ImageLoader
+{
+    private final static int MEMORY_CACHE_HEAP_FRACTION = 8;
+    private final static String DISK_CACHE_DIR = "images";
+    private final static long DISK_CACHE_SIZE = 20*1024*1024;
+    private final static int LOADER_THREADS = 2;
+
+    private static ImageLoader instance;
+
+    private Context appContext;
+    private LruCache<String, Bitmap> memoryCache;
+    private ImageDiskCache diskCache;
+    private ExecutorService executor;
+    private Handler mainThreadHandler = new Handler(Looper.getMainLooper());
+
+    private final HashMap<String, RunningLoad> runningLoads = new HashMap<>();
+    private final List<RunningLoad> pausedLoads = new ArrayList<>();
+    private boolean paused = false;
+
+    private final static ImageCallback PREFETCH_CALLBACK = new ImageCallback()
+    {
+        @Override
+        public void onLoad(Bitmap bitmap)
+        {
+
+        }
+    };
+
+    /**
+     * Private constructor
+     * @param context the context
+     */
+    private ImageLoader(Context context)
+    {
+        this.appContext = context.getApplicationContext();
+
+        // Memory cache (sizes in KB)
+        int memoryCacheSize = (int) (Runtime.getRuntime().maxMemory()/1024/MEMORY_CACHE_HEAP_FRACTION);
+        memoryCache = new LruCache<String, Bitmap>(memoryCacheSize)
+        {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap)
+            {
+                return Math.max(1, bitmap.getByteCount()/1024);
+            }
+        };
+
+        diskCache = new ImageDiskCache(new File(appContext.getCacheDir(), DISK_CACHE_DIR), DISK_CACHE_SIZE);
+        executor = Executors.newFixedThreadPool(LOADER_THREADS, new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(final Runnable runnable)
+            {
+                // Decoding must not compete with the UI thread
+                return new Thread(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "ImageLoader");
+            }
+        });
+    }
+
+    /**
+     * Singleton pattern
+     */
+    public static synchronized ImageLoader getInstance(Context context)
+    {
+        if(instance==null) instance = new ImageLoader(context);
+        return instance;
+    }
+
+    /**
+     * Loads an image in the given view, at the view size. A previous load in the same view is cancelled
+     * @param url the image URL
+     * @param imageView the view
+     */
+    public void loadImage(URL url, ImageView imageView)
+    {
+        loadImage(url, imageView, getTargetWidth(imageView), getTargetHeight(imageView));
+    }
+
+    /**
+     * Loads an image in the given view, at the given size. A previous load in the same view is cancelled
+     * @param url the image URL
+     * @param imageView the view
+     * @param width the target width in pixels
+     * @param height the target height in pixels
+     */
+    public void loadImage(URL url, final ImageView imageView, int width, int height)
+    {
+        // Cancel the previous load in the same view
+        cancelImage(imageView);
+
+        ImageRequest request = loadImage(url, width, height, new ImageCallback()
+        {
+            @Override
+            public void onLoad(Bitmap bitmap)
+            {
+                imageView.setTag(R.id.image_loader_request, null);
+                if(bitmap!=null) imageView.setImageBitmap(bitmap);
+            }
+        });
+        imageView.setTag(R.id.image_loader_request, request.isDone() ? null : request);
+    }
+
+    /**
+     * Cancels the load running in the given view, if any
+     * @param imageView the view
+     */
+    public void cancelImage(ImageView imageView)
+    {
+        ImageRequest request = (ImageRequest) imageView.getTag(R.id.image_loader_request);
+        if(request!=null) request.cancel();
+        imageView.setTag(R.id.image_loader_request, null);
+    }
+
+    /**
+     * Loads an image. If the bitmap is in the memory cache, the callback is called immediately, otherwise it's called
+     * on the main thread when the image is loaded
+     * @param url the image URL
+     * @param width the target width in pixels (the image is decoded at least this large, if possible)
+     * @param height the target height in pixels (the image is decoded at least this large, if possible)
+     * @param callback the callback
+     * @return the request, to cancel it
+     */
+    public ImageRequest loadImage(URL url, int width, int height, ImageCallback callback)
+    {
+        final String urlKey = url.toString();
+        final String bitmapKey = urlKey+"@"+width+"x"+height;
+
+        // Memory cache
+        Bitmap bitmap = memoryCache.get(bitmapKey);
+        if(bitmap!=null)
+        {
+            callback.onLoad(bitmap);
+            return new ImageRequest(bitmapKey, null, callback);
+        }
+
+        // Join the running load, if any, otherwise start a new one
+        synchronized(runningLoads)
+        {
+            RunningLoad load = runningLoads.get(bitmapKey);
+            if(load==null)
+            {
+                load = new RunningLoad();
+                load.task = new LoadTask(urlKey, bitmapKey, width, height, load);
+                runningLoads.put(bitmapKey, load);
+                if(paused) pausedLoads.add(load);
+                else load.future = executor.submit(load.task);
+            }
+            load.callbacks.add(callback);
+            return new ImageRequest(bitmapKey, load, callback);
+        }
+    }
+
+    /**
+     * Loads an image in the caches, without displaying it (e.g. for the rows that are about to be displayed)
+     * @param url the image URL
+     * @param width the target width in pixels
+     * @param height the target height in pixels
+     */
+    public void prefetchImage(URL url, int width, int height)
+    {
+        loadImage(url, width, height, PREFETCH_CALLBACK);
+    }
+
+    /**
+     * Pauses or resumes the loads. While paused, the images in the memory cache are still returned immediately, while
+     * the others wait; loads cancelled meanwhile are never started
+     * @param paused true to pause, false to resume
+     */
+    public void setPaused(boolean paused)
+    {
+        synchronized(runningLoads)
+        {
+            if(this.paused==paused) return;
+            this.paused = paused;
+            if(paused) return;
+
+            // Start the loads still requested by someone
+            for(RunningLoad load: pausedLoads)
+            {
+                load.future = executor.submit(load.task);
+            }
+            pausedLoads.clear();
+        }
+    }
+
+    /**
+     * Helper to get an image file from the disk cache or, if not available, from the network (then saved in the cache)
+     * @param urlKey the image URL
+     * @return the image file
+     * @throws IOException if the image cannot be downloaded
+     */
+    private File getImageFile(String urlKey) throws IOException
+    {
+        File file = diskCache.get(urlKey);
+        if(file!=null) return file;
+
+        InputStream in = new URL(urlKey).openStream();
+        try
+        {
+            return diskCache.put(urlKey, in);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Helper to get the decoding width for a view (if it's not measured yet, its layout width or the screen width)
+     * @param imageView the view
+     * @return the width in pixels
+     */
+    private int getTargetWidth(ImageView imageView)
+    {
+        if(imageView.getWidth()>0) return imageView.getWidth();
+        ViewGroup.LayoutParams params = imageView.getLayoutParams();
+        if(params!=null && params.width>0) return params.width;
+        DisplayMetrics metrics = appContext.getResources().getDisplayMetrics();
+        return metrics.widthPixels;
+    }
+
+    /**
+     * Helper to get the decoding height for a view (if it's not measured yet, its layout height or the screen height)
+     * @param imageView the view
+     * @return the height in pixels
+     */
+    private int getTargetHeight(ImageView imageView)
+    {
+        if(imageView.getHeight()>0) return imageView.getHeight();
+        ViewGroup.LayoutParams params = imageView.getLayoutParams();
+        if(params!=null && params.height>0) return params.height;
+        DisplayMetrics metrics = appContext.getResources().getDisplayMetrics();
+        return metrics.heightPixels;
+    }
+
+    /**
+     * Callback called when an image is loaded
+     */
+    public interface ImageCallback
+    {
+        /**
+         * Called on the main thread (or immediately, if the image is in the memory cache)
+         * @param bitmap the image, null if it cannot be loaded
+         */
+        void onLoad(Bitmap bitmap);
+    }
+
+    /**
+     * An image load of a caller
+     */
+    public class ImageRequest
+    {
+        private String bitmapKey;
+        private RunningLoad load;
+        private ImageCallback callback;
+
+        /**
+         * Constructor
+         * @param bitmapKey the bitmap key
+         * @param load the running load, null if the image was already available
+         * @param callback the caller callback
+         */
+        private ImageRequest(String bitmapKey, RunningLoad load, ImageCallback callback)
+        {
+            this.bitmapKey = bitmapKey;
+            this.load = load;
+            this.callback = callback;
+        }
+
+        /**
+         * Getter
+         * @return true if the callback was already called
+         */
+        public boolean isDone()
+        {
+            if(load==null) return true;
+            synchronized(runningLoads)
+            {
+                return !load.callbacks.contains(callback);
+            }
+        }
+
+        /**
+         * Cancels the request: the callback will not be called (the load itself is cancelled only if no other caller
+         * is waiting for it and it did not start yet)
+         */
+        public void cancel()
+        {
+            if(load==null) return;
+            synchronized(runningLoads)
+            {
+                if(!load.callbacks.remove(callback) || !load.callbacks.isEmpty()) return;
+
+                // Waiting for a resume: simply forget it
+                if(load.future==null)
+                {
+                    pausedLoads.remove(load);
+                    if(runningLoads.get(bitmapKey)==load) runningLoads.remove(bitmapKey);
+                }
+                else if(load.future.cancel(false) && runningLoads.get(bitmapKey)==load)
+                {
+                    runningLoads.remove(bitmapKey);
+                }
+            }
+        }
+    }
+
+    /**
+     * A load running in the executor (or waiting for a resume, if its future is null), with all callers waiting for it
+     */
+    private static class RunningLoad
+    {
+        private List<ImageCallback> callbacks = new ArrayList<>();
+        private LoadTask task;
+        private Future<?> future;
+    }
+
+    /**
+     * Background task that loads an image (disk cache or network), decodes it and delivers it to the callers
+     */
+    private class LoadTask implements Runnable
+    {
+        private String urlKey;
+        private String bitmapKey;
+        private int width;
+        private int height;
+        private RunningLoad load;
+
+        /**
+         * Constructor
+         * @param urlKey the image URL
+         * @param bitmapKey the bitmap key in the memory cache
+         * @param width the target width
+         * @param height the target height
+         * @param load the running load
+         */
+        private LoadTask(String urlKey, String bitmapKey, int width, int height, RunningLoad load)
+        {
+            this.urlKey = urlKey;
+            this.bitmapKey = bitmapKey;
+            this.width = width;
+            this.height = height;
+            this.load = load;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void run()
+        {
+            // Paused after the submit: wait for the resume like the new loads
+            synchronized(runningLoads)
+            {
+                if(paused)
+                {
+                    load.future = null;
+                    pausedLoads.add(load);
+                    return;
+                }
+            }
+
+            // Load and decode
+            Bitmap bitmap = null;
+            try
+            {
+                bitmap = BitmapDecoder.decodeSampledBitmap(getImageFile(urlKey), width, height);
+            }
+            catch(IOException | OutOfMemoryError e)
+            {
+                e.printStackTrace();
+            }
+            if(bitmap!=null) memoryCache.put(bitmapKey, bitmap);
+
+            // Deliver to the callers on the main thread
+            final Bitmap result = bitmap;
+            mainThreadHandler.post(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    List<ImageCallback> callbacks;
+                    synchronized(runningLoads)
+                    {
+                        if(runningLoads.get(bitmapKey)==load) runningLoads.remove(bitmapKey);
+                        callbacks = new ArrayList<>(load.callbacks);
+                        load.callbacks.clear();
+                    }
+
+                    for(ImageCallback callback: callbacks)
+                    {
+                        callback.onLoad(result);
+                    }
+                }
+            });
+        }
+    }
+}
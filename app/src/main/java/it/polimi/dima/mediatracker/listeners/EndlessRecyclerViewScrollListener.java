@@ -5,8 +5,11 @@ import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.StaggeredGridLayoutManager;
 
+import it.polimi.dima.mediatracker.images.ImageLoader;
+
 /**
- * Scroll listener that allows to load more data in a list when the user scrolls down
+ * Scroll listener that allows to load more data in a list when the user scrolls down. It also pauses the image loads
+ * during a fling and allows to prefetch the data of the next screen when the scrolling is slow or stopped
  */
 public abstract class EndlessRecyclerViewScrollListener extends RecyclerView.OnScrollListener
 {
@@ -14,6 +17,8 @@ public abstract class EndlessRecyclerViewScrollListener extends RecyclerView.OnS
     private int currentPage = 0;
     private int previousTotalItemCount = 0;
     private boolean loading = true;
+    private boolean flinging = false;
+    private int lastPrefetchPosition = -1;
 
     private RecyclerView.LayoutManager layoutManager;
 
@@ -73,24 +78,47 @@ public abstract class EndlessRecyclerViewScrollListener extends RecyclerView.OnS
     }
 
     /**
-     * {@inheritDoc}
+     * Helper to get the last visible position
+     *
+     * @return the last visible position, RecyclerView.NO_POSITION if not available
      */
-    @Override
-    public void onScrolled(RecyclerView view, int dx, int dy)
+    private int getLastVisibleItemPosition()
     {
-        int lastVisibleItemPosition = 0;
-        int totalItemCount = layoutManager.getItemCount();
-
         if(layoutManager instanceof StaggeredGridLayoutManager)
         {
             int[] lastVisibleItemPositions = ((StaggeredGridLayoutManager) layoutManager).findLastVisibleItemPositions(null);
-            lastVisibleItemPosition = getLastVisibleItem(lastVisibleItemPositions);
+            return getLastVisibleItem(lastVisibleItemPositions);
         }
         else if(layoutManager instanceof LinearLayoutManager)
         {
-            lastVisibleItemPosition = ((LinearLayoutManager) layoutManager).findLastVisibleItemPosition();
-            if(lastVisibleItemPosition==RecyclerView.NO_POSITION) return;
+            return ((LinearLayoutManager) layoutManager).findLastVisibleItemPosition();
         }
+        return 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Image loads are paused while the list is flinging (the rows go by too fast to be worth decoding) and resumed when
+     * the user drags or the scrolling stops
+     */
+    @Override
+    public void onScrollStateChanged(RecyclerView view, int newState)
+    {
+        flinging = newState==RecyclerView.SCROLL_STATE_SETTLING;
+        ImageLoader.getInstance(view.getContext()).setPaused(flinging);
+        if(!flinging) prefetchNextScreen(getLastVisibleItemPosition());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onScrolled(RecyclerView view, int dx, int dy)
+    {
+        int totalItemCount = layoutManager.getItemCount();
+        int lastVisibleItemPosition = getLastVisibleItemPosition();
+        if(lastVisibleItemPosition==RecyclerView.NO_POSITION) return;
 
         // If we have LESS items than before, assume the list is invalidated and reset back to initial state
         if(totalItemCount<previousTotalItemCount)
@@ -98,6 +126,7 @@ public abstract class EndlessRecyclerViewScrollListener extends RecyclerView.OnS
             this.currentPage = 0;
             this.previousTotalItemCount = totalItemCount;
             this.loading = false;
+            this.lastPrefetchPosition = -1;
         }
 
         // If it’s still loading, we check to see if the dataset count has changed, if so we conclude it has finished loading and update the current page number and total item count
@@ -107,6 +136,9 @@ public abstract class EndlessRecyclerViewScrollListener extends RecyclerView.OnS
             previousTotalItemCount = totalItemCount;
         }
 
+        // Data for the next screen
+        if(!flinging) prefetchNextScreen(lastVisibleItemPosition);
+
         // If it isn’t currently loading, we check to see if we have breached the visibleThreshold and need to reload more data.
         // TODO the "view.isComputingLayout()" prevents an IllegalStateException but when going back to the list from the form it prevents loading of the elements that should be in view
         if(!loading && !view.isComputingLayout() && (lastVisibleItemPosition+visibleThreshold)>totalItemCount)
@@ -117,6 +149,32 @@ public abstract class EndlessRecyclerViewScrollListener extends RecyclerView.OnS
         }
     }
 
+    /**
+     * Helper to call {@link #onPrefetch(int, int)} for the positions in the screen after the current one (only if they
+     * changed since the last call)
+     *
+     * @param lastVisibleItemPosition the last visible position
+     */
+    private void prefetchNextScreen(int lastVisibleItemPosition)
+    {
+        if(lastVisibleItemPosition==RecyclerView.NO_POSITION || lastVisibleItemPosition==lastPrefetchPosition) return;
+        lastPrefetchPosition = lastVisibleItemPosition;
+
+        int toPosition = Math.min(lastVisibleItemPosition+layoutManager.getChildCount(), layoutManager.getItemCount()-1);
+        if(toPosition>lastVisibleItemPosition) onPrefetch(lastVisibleItemPosition+1, toPosition);
+    }
+
+    /**
+     * What to do to prefetch the data of the positions that will be displayed next (does nothing by default)
+     *
+     * @param fromPosition the first position to prefetch
+     * @param toPosition   the last position to prefetch
+     */
+    public void onPrefetch(int fromPosition, int toPosition)
+    {
+
+    }
+
     /**
      * What to do when a new page needs to be loaded
      *
@@ -10,6 +10,7 @@ import it.polimi.dima.mediatracker.R;
 public class Book extends MediaItem
 {
     public final static String COLUMN_PAGES_NUMBER = "PAGES_NUMBER";
+    public final static String COLUMN_AUTHOR = "AUTHOR";
 
     private int pagesNumber;
     private String author;
@@ -93,4 +94,16 @@ public class Book extends MediaItem
     {
         this.pagesNumber = pagesNumber;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setFrom(MediaItem mediaItem)
+    {
+        super.setFrom(mediaItem);
+        Book book = (Book) mediaItem;
+        this.pagesNumber = book.pagesNumber;
+        this.author = book.author;
+    }
 }
@@ -17,6 +17,7 @@ public class Category extends SugarRecord implements Serializable
     public static final String COLUMN_NAME = "NAME";
     public static final String COLUMN_MEDIA_TYPE_NAME = "MEDIA_TYPE_NAME";
     public static final String COLUMN_COLOR_RESOURCE_NAME = "COLOR_RESOURCE_NAME";
+    public static final String COLUMN_CHANGE_VERSION = "CHANGE_VERSION";
 
     private String name;
     @Ignore
@@ -25,6 +26,7 @@ public class Category extends SugarRecord implements Serializable
     @Ignore
     private MediaType mediaType;
     private String mediaTypeName;
+    private long changeVersion;
 
     /**
      * Constructor
@@ -66,6 +68,21 @@ public class Category extends SugarRecord implements Serializable
         this.mediaTypeName = mediaType.name();
     }
 
+    /**
+     * Copy constructor
+     * @param category the category to copy (ID included)
+     */
+    public Category(Category category)
+    {
+        setId(category.getId());
+        this.name = category.name;
+        this.color = category.color;
+        this.colorResourceName = category.colorResourceName;
+        this.mediaType = category.mediaType;
+        this.mediaTypeName = category.mediaTypeName;
+        this.changeVersion = category.changeVersion;
+    }
+
     /************************************************ GETTERS ************************************************/
 
 
@@ -99,6 +116,15 @@ public class Category extends SugarRecord implements Serializable
         return mediaType;
     }
 
+    /**
+     * Getter
+     * @return the database change counter value of the last save of this category
+     */
+    public long getChangeVersion()
+    {
+        return changeVersion;
+    }
+
 
 
     /************************************************ SETTERS ************************************************/
@@ -134,6 +160,15 @@ public class Category extends SugarRecord implements Serializable
         this.mediaTypeName = mediaType.name();
     }
 
+    /**
+     * Setter
+     * @param changeVersion the database change counter value of the last save of this category
+     */
+    public void setChangeVersion(long changeVersion)
+    {
+        this.changeVersion = changeVersion;
+    }
+
 
 
     /************************************************ MISC ************************************************/
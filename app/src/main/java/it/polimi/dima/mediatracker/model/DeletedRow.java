@@ -0,0 +1,65 @@
+package it.polimi.dima.mediatracker.model;
+
+import com.orm.SugarRecord;
+
+/**
+ * A "tombstone" for a deleted category or media item, kept so that incremental backups can also contain the deletions
+ */
+public class DeletedRow extends SugarRecord
+{
+    public static final String COLUMN_TABLE_NAME = "TABLE_NAME";
+    public static final String COLUMN_ROW_ID = "ROW_ID";
+    public static final String COLUMN_CHANGE_VERSION = "CHANGE_VERSION";
+
+    private String tableName;
+    private long rowId;
+    private long changeVersion;
+
+    /**
+     * Constructor
+     */
+    public DeletedRow()
+    {
+        // Empty
+    }
+
+    /**
+     * Constructor
+     * @param tableName the table of the deleted row
+     * @param rowId the ID of the deleted row
+     * @param changeVersion the database change counter value of the deletion
+     */
+    public DeletedRow(String tableName, long rowId, long changeVersion)
+    {
+        this.tableName = tableName;
+        this.rowId = rowId;
+        this.changeVersion = changeVersion;
+    }
+
+    /**
+     * Getter
+     * @return the table of the deleted row
+     */
+    public String getTableName()
+    {
+        return tableName;
+    }
+
+    /**
+     * Getter
+     * @return the ID of the deleted row
+     */
+    public long getRowId()
+    {
+        return rowId;
+    }
+
+    /**
+     * Getter
+     * @return the database change counter value of the deletion
+     */
+    public long getChangeVersion()
+    {
+        return changeVersion;
+    }
+}
@@ -38,6 +38,20 @@ public enum ImportanceLevel
         return dbValue;
     }
 
+    /**
+     * Gets the importance level with the given "weight"
+     * @param dbValue the importance level "weight" saved in the database
+     * @return the importance level, null if no importance level has that value
+     */
+    public static ImportanceLevel fromDbValue(int dbValue)
+    {
+        for(ImportanceLevel il: values())
+        {
+            if(il.dbValue==dbValue) return il;
+        }
+        return null;
+    }
+
     /**
      * Getter
      * @param context the context
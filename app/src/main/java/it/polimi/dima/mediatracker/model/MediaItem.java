@@ -8,11 +8,9 @@ import com.orm.dsl.Ignore;
 import java.io.Serializable;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Calendar;
 import java.util.Date;
 
-import it.polimi.dima.mediatracker.R;
-import it.polimi.dima.mediatracker.utils.GlobalConstants;
+import it.polimi.dima.mediatracker.utils.Clock;
 import it.polimi.dima.mediatracker.utils.Utils;
 
 /**
@@ -32,6 +30,13 @@ public abstract class MediaItem extends SugarRecord implements Serializable, Sec
     public final static String COLUMN_ORDER_IN_SECTION = "ORDER_IN_SECTION";
     public final static String COLUMN_OWNED = "OWNED";
     public final static String COLUMN_GENRES = "GENRES";
+    public final static String COLUMN_DESCRIPTION = "DESCRIPTION";
+    public final static String COLUMN_USER_COMMENT = "USER_COMMENT";
+    public final static String COLUMN_EXTERNAL_SERVICE_ID = "EXTERNAL_SERVICE_ID";
+    public final static String COLUMN_IMAGE = "IMAGE";
+    public final static String COLUMN_SECTION_RANK = "SECTION_RANK";
+    public final static String COLUMN_SECTION_ORDER = "SECTION_ORDER";
+    public final static String COLUMN_CHANGE_VERSION = "CHANGE_VERSION";
 
     private String name;
     private String genres;
@@ -52,9 +57,14 @@ public abstract class MediaItem extends SugarRecord implements Serializable, Sec
     @Ignore
     private boolean isUpcomingSet = false;
     @Ignore
+    private long upcomingFlipTime = Long.MAX_VALUE;
+    @Ignore
     private URL imageUrl;
     private String image;
     private int orderInSection;
+    private int sectionRank;
+    private long sectionOrder;
+    private long changeVersion;
 
 
     /************************************************ GETTERS ************************************************/
@@ -139,14 +149,7 @@ public abstract class MediaItem extends SugarRecord implements Serializable, Sec
     {
         if(importanceLevelEnum==null && importanceLevel>0)
         {
-            for(ImportanceLevel il: ImportanceLevel.values())
-            {
-                if(importanceLevel==il.getDbValue())
-                {
-                    importanceLevelEnum = il;
-                    break;
-                }
-            }
+            importanceLevelEnum = ImportanceLevel.fromDbValue(importanceLevel);
         }
         return importanceLevelEnum;
     }
@@ -166,16 +169,37 @@ public abstract class MediaItem extends SugarRecord implements Serializable, Sec
      */
     public boolean isUpcoming()
     {
-        if(isUpcomingSet)
-        {
-            return upcoming;
-        }
-        else
-        {
-            upcoming = releaseDate!=null && Calendar.getInstance().getTime().before(releaseDate);
-            isUpcomingSet = true;
-            return upcoming;
-        }
+        if(!isUpcomingSet) updateUpcoming(Clock.getInstance().now());
+        return upcoming;
+    }
+
+    /**
+     * Getter
+     * @return the time when {@link MediaItem#isUpcoming()} changes value (i.e. the release time of an upcoming media item),
+     * Long.MAX_VALUE if it never changes
+     */
+    public long getUpcomingFlipTime()
+    {
+        if(!isUpcomingSet) updateUpcoming(Clock.getInstance().now());
+        return upcomingFlipTime;
+    }
+
+    /**
+     * Computes again the value of {@link MediaItem#isUpcoming()} at the given time. The media items loaded together should
+     * use the same time, so that they are all consistent
+     * @param now the current time in milliseconds
+     * @return true if the media item was upcoming and has been released (or vice versa)
+     */
+    public boolean updateUpcoming(long now)
+    {
+        boolean wasUpcoming = upcoming;
+        boolean wasSet = isUpcomingSet;
+
+        upcoming = releaseDate!=null && now<releaseDate.getTime();
+        upcomingFlipTime = upcoming ? releaseDate.getTime() : Long.MAX_VALUE;
+        isUpcomingSet = true;
+
+        return wasSet && wasUpcoming!=upcoming;
     }
 
     /**
@@ -237,6 +261,33 @@ public abstract class MediaItem extends SugarRecord implements Serializable, Sec
         return orderInSection;
     }
 
+    /**
+     * Getter
+     * @return the persisted rank of the media item section in the tracked list (higher rank = higher in the list)
+     */
+    public int getSectionRank()
+    {
+        return sectionRank;
+    }
+
+    /**
+     * Getter
+     * @return the persisted order value of the media item inside its section of the tracked list
+     */
+    public long getSectionOrder()
+    {
+        return sectionOrder;
+    }
+
+    /**
+     * Getter
+     * @return the database change counter value of the last save of this media item
+     */
+    public long getChangeVersion()
+    {
+        return changeVersion;
+    }
+
     /**
      * Getter
      * @return the number of times this media item was completed in the past
@@ -248,6 +299,7 @@ public abstract class MediaItem extends SugarRecord implements Serializable, Sec
 
     /**
      * {@inheritDoc}
+     * The returned section is the canonical instance from the {@link SectionRegistry}, so it can be compared by identity
      */
     @Override
     public Section getSection()
@@ -256,10 +308,7 @@ public abstract class MediaItem extends SugarRecord implements Serializable, Sec
         if(isCompleted())
         {
             // The section is the completion year
-            Calendar calendar = Calendar.getInstance();
-            calendar.setTime(getCompletionDate());
-            String year = String.valueOf(calendar.get(Calendar.YEAR));
-            return new Section(year, year);
+            return SectionRegistry.getCompletionYearSection(getCompletionDate());
         }
 
         // Otherwise...
@@ -268,20 +317,20 @@ public abstract class MediaItem extends SugarRecord implements Serializable, Sec
             // "Upcoming" section
             if(isUpcoming())
             {
-                return new Section(GlobalConstants.SECTION_UPCOMING, R.string.upcoming);
+                return SectionRegistry.getUpcomingSection();
             }
             else
             {
                 // "Doing Now" section
                 if(isDoingNow())
                 {
-                    return new Section(GlobalConstants.SECTION_DOING_NOW, getDoingNowName());
+                    return SectionRegistry.getDoingNowSection(getDoingNowName());
                 }
 
                 // Importance Level section
                 else
                 {
-                    return new Section(getImportanceLevel().name(), getImportanceLevel().getNameResource());
+                    return SectionRegistry.getImportanceLevelSection(getImportanceLevel());
                 }
             }
         }
@@ -409,6 +458,16 @@ public abstract class MediaItem extends SugarRecord implements Serializable, Sec
         this.image = imageUrl==null ? "" : imageUrl.toString();
     }
 
+    /**
+     * Setter
+     * @param image the URL of the image as a string (the URL object is built only when needed)
+     */
+    public void setImage(String image)
+    {
+        this.image = image;
+        this.imageUrl = null;
+    }
+
     /**
      * Setter
      * @param orderInSection the order value inside the media item's importance level (i.e. items with the same importance level are ordered by this value)
@@ -418,6 +477,26 @@ public abstract class MediaItem extends SugarRecord implements Serializable, Sec
         this.orderInSection = orderInSection;
     }
 
+    /**
+     * Setter
+     * @param sectionRank the persisted rank of the media item section in the tracked list (higher rank = higher in the list)
+     * @param sectionOrder the persisted order value of the media item inside its section of the tracked list
+     */
+    public void setSectionSortKey(int sectionRank, long sectionOrder)
+    {
+        this.sectionRank = sectionRank;
+        this.sectionOrder = sectionOrder;
+    }
+
+    /**
+     * Setter
+     * @param changeVersion the database change counter value of the last save of this media item
+     */
+    public void setChangeVersion(long changeVersion)
+    {
+        this.changeVersion = changeVersion;
+    }
+
     /**
      * Setter
      * @param timesCompleted the number of times this media item was completed in the past
@@ -430,6 +509,56 @@ public abstract class MediaItem extends SugarRecord implements Serializable, Sec
     /************************************************ MISC ************************************************/
 
 
+    /**
+     * Creates a copy of this media item (ID included), e.g. to update it on a background thread while the UI keeps using this one
+     * @return the copy
+     */
+    public MediaItem copy()
+    {
+        try
+        {
+            MediaItem copy = getClass().newInstance();
+            copy.setFrom(this);
+            return copy;
+        }
+        catch(InstantiationException | IllegalAccessException e)
+        {
+            throw new IllegalStateException("Media item class without a public empty constructor", e);
+        }
+    }
+
+    /**
+     * Sets all the values of this media item (ID included) from another one of the same type, e.g. to apply the result of a
+     * background update to the instance used by the UI
+     * @param mediaItem the media item to copy
+     */
+    public void setFrom(MediaItem mediaItem)
+    {
+        setId(mediaItem.getId());
+        this.name = mediaItem.name;
+        this.genres = mediaItem.genres;
+        this.description = mediaItem.description;
+        this.userComment = mediaItem.userComment;
+        this.completionDate = mediaItem.completionDate;
+        this.timesCompleted = mediaItem.timesCompleted;
+        this.importanceLevel = mediaItem.importanceLevel;
+        this.importanceLevelEnum = mediaItem.importanceLevelEnum;
+        this.category = mediaItem.category;
+        this.owned = mediaItem.owned;
+        this.releaseDate = mediaItem.releaseDate;
+        this.doingNow = mediaItem.doingNow;
+        this.externalServiceId = mediaItem.externalServiceId;
+        this.upcoming = mediaItem.upcoming;
+        this.isUpcomingSet = mediaItem.isUpcomingSet;
+        this.upcomingFlipTime = mediaItem.upcomingFlipTime;
+        this.imageUrl = mediaItem.imageUrl;
+        this.image = mediaItem.image;
+        this.orderInSection = mediaItem.orderInSection;
+        this.sectionRank = mediaItem.sectionRank;
+        this.sectionOrder = mediaItem.sectionOrder;
+        this.changeVersion = mediaItem.changeVersion;
+    }
+
     /**
      * {@inheritDoc}
      */
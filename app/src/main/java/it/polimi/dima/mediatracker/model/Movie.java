@@ -10,6 +10,7 @@ import it.polimi.dima.mediatracker.R;
 public class Movie extends MediaItem
 {
     public final static String COLUMN_DURATION = "DURATION_MIN";
+    public final static String COLUMN_DIRECTOR = "DIRECTOR";
 
     private int durationMin;
     private String director;
@@ -93,4 +94,16 @@ public class Movie extends MediaItem
     {
         this.durationMin = durationMin;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setFrom(MediaItem mediaItem)
+    {
+        super.setFrom(mediaItem);
+        Movie movie = (Movie) mediaItem;
+        this.durationMin = movie.durationMin;
+        this.director = movie.director;
+    }
 }
@@ -51,7 +51,8 @@ public class Section
      */
     public String getSectionName(Context context)
     {
-        if(sectionName==null && sectionNameResource!=0) sectionName = context.getString(sectionNameResource);
+        // Not cached, the instances are shared and the language may change
+        if(sectionNameResource!=0) return context.getString(sectionNameResource);
         return sectionName;
     }
 
@@ -61,6 +62,8 @@ public class Section
     @Override
     public boolean equals(Object object)
     {
+        // Canonical instances (see SectionRegistry) are the same object
+        if(object==this) return true;
         if(object==null || !(object instanceof Section)) return false;
 
         Section other = (Section) object;
@@ -68,6 +71,15 @@ public class Section
         return sectionId!=null && other.sectionId!=null && other.sectionId.equals(sectionId);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode()
+    {
+        return sectionId==null ? 0 : sectionId.hashCode();
+    }
+
     /**
      * {@inheritDoc}
      */
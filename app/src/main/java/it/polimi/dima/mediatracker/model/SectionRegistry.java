@@ -0,0 +1,136 @@
+package it.polimi.dima.mediatracker.model;
+
+import android.support.annotation.StringRes;
+import android.util.SparseArray;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.EnumMap;
+
+import it.polimi.dima.mediatracker.R;
+import it.polimi.dima.mediatracker.utils.GlobalConstants;
+
+/**
+ * Holds the canonical instances of the media items sections (importance levels, upcoming, "doing now" and completion years),
+ * so that {@link MediaItem#getSection()} does not allocate and the sections can be compared by identity.
+ * The sections only depend on the media type (the "doing now" name), so all categories share the same instances
+ */
+public class SectionRegistry
+{
+    private final static Section UPCOMING_SECTION = new Section(GlobalConstants.SECTION_UPCOMING, R.string.upcoming);
+    private final static EnumMap<ImportanceLevel, Section> IMPORTANCE_LEVEL_SECTIONS = new EnumMap<>(ImportanceLevel.class);
+    static
+    {
+        for(ImportanceLevel il: ImportanceLevel.values())
+        {
+            IMPORTANCE_LEVEL_SECTIONS.put(il, new Section(il.name(), il.getNameResource()));
+        }
+    }
+
+    private final static SparseArray<Section> DOING_NOW_SECTIONS = new SparseArray<>();
+    private final static SparseArray<Section> YEAR_SECTIONS = new SparseArray<>();
+
+    // Last completion year looked up: consecutive completed media items are usually in the same year
+    private static Calendar calendar;
+    private static long cachedYearStart = Long.MAX_VALUE;
+    private static long cachedYearEnd = Long.MIN_VALUE;
+    private static Section cachedYearSection;
+
+    /**
+     * Private constructor, only static methods
+     */
+    private SectionRegistry()
+    {
+
+    }
+
+    /**
+     * Getter
+     * @return the "upcoming" section
+     */
+    public static Section getUpcomingSection()
+    {
+        return UPCOMING_SECTION;
+    }
+
+    /**
+     * Getter
+     * @param importanceLevel the importance level
+     * @return the section of the importance level
+     */
+    public static Section getImportanceLevelSection(ImportanceLevel importanceLevel)
+    {
+        return IMPORTANCE_LEVEL_SECTIONS.get(importanceLevel);
+    }
+
+    /**
+     * Getter
+     * @param doingNowName the resource id of the "doing now" section name of the media type
+     * @return the "doing now" section of the media type
+     */
+    public static synchronized Section getDoingNowSection(@StringRes int doingNowName)
+    {
+        Section section = DOING_NOW_SECTIONS.get(doingNowName);
+        if(section==null)
+        {
+            section = new Section(GlobalConstants.SECTION_DOING_NOW, doingNowName);
+            DOING_NOW_SECTIONS.put(doingNowName, section);
+        }
+        return section;
+    }
+
+    /**
+     * Getter
+     * @param completionDate the completion date
+     * @return the section of the completion year
+     */
+    public static synchronized Section getCompletionYearSection(Date completionDate)
+    {
+        long time = completionDate.getTime();
+        if(time<cachedYearStart || time>=cachedYearEnd)
+        {
+            // Get the year and its time range
+            if(calendar==null) calendar = Calendar.getInstance();
+            calendar.setTimeInMillis(time);
+            int year = calendar.get(Calendar.YEAR);
+            calendar.clear();
+            calendar.set(Calendar.YEAR, year);
+            cachedYearStart = calendar.getTimeInMillis();
+            calendar.add(Calendar.YEAR, 1);
+            cachedYearEnd = calendar.getTimeInMillis();
+
+            cachedYearSection = YEAR_SECTIONS.get(year);
+            if(cachedYearSection==null)
+            {
+                String yearString = String.valueOf(year);
+                cachedYearSection = new Section(yearString, yearString);
+                YEAR_SECTIONS.put(year, cachedYearSection);
+            }
+        }
+        return cachedYearSection;
+    }
+
+    /**
+     * Checks if a section is a "doing now" section
+     * @param section the section
+     * @return true if it is the "doing now" section of any media type
+     */
+    public static synchronized boolean isDoingNowSection(Section section)
+    {
+        return DOING_NOW_SECTIONS.indexOfValue(section)>=0;
+    }
+
+    /**
+     * Gets the importance level of a section
+     * @param section the section
+     * @return the importance level, null if the section is not an importance level section
+     */
+    public static ImportanceLevel getImportanceLevel(Section section)
+    {
+        for(ImportanceLevel il: ImportanceLevel.values())
+        {
+            if(IMPORTANCE_LEVEL_SECTIONS.get(il)==section) return il;
+        }
+        return null;
+    }
+}
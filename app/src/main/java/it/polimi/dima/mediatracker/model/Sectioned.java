@@ -10,4 +10,10 @@ public interface Sectioned
      * @return the item section
      */
     Section getSection();
+
+    /**
+     * Returns the unique ID of the item, used to recognize it across list updates
+     * @return the item ID, null if the item has no ID yet
+     */
+    Long getId();
 }
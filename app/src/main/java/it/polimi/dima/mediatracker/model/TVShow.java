@@ -15,6 +15,9 @@ public class TVShow extends MediaItem
     public final static String COLUMN_EPISODE_RUNTIME = "EPISODE_RUNTIME_MIN";
     public final static String COLUMN_EPISODES_NUMBER = "EPISODES_NUMBER";
     public final static String COLUMN_SEASONS_NUMBER = "SEASONS_NUMBER";
+    public final static String COLUMN_CREATED_BY = "CREATED_BY";
+    public final static String COLUMN_IN_PRODUCTION = "IN_PRODUCTION";
+    public final static String COLUMN_NEXT_EPISODE_AIR_DATE = "NEXT_EPISODE_AIR_DATE";
 
     private int episodeRuntimeMin;
     private String createdBy;
@@ -177,4 +180,20 @@ public class TVShow extends MediaItem
     {
         this.nextEpisodeAirDate = nextEpisodeAirDate;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setFrom(MediaItem mediaItem)
+    {
+        super.setFrom(mediaItem);
+        TVShow tvShow = (TVShow) mediaItem;
+        this.episodeRuntimeMin = tvShow.episodeRuntimeMin;
+        this.createdBy = tvShow.createdBy;
+        this.episodesNumber = tvShow.episodesNumber;
+        this.seasonsNumber = tvShow.seasonsNumber;
+        this.inProduction = tvShow.inProduction;
+        this.nextEpisodeAirDate = tvShow.nextEpisodeAirDate;
+    }
 }
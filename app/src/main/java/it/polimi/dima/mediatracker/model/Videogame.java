@@ -10,6 +10,9 @@ import it.polimi.dima.mediatracker.R;
 public class Videogame extends MediaItem
 {
     public final static String COLUMN_AVERAGE_LENGTH = "AVERAGE_LENGTH_HOURS";
+    public final static String COLUMN_DEVELOPER = "DEVELOPER";
+    public final static String COLUMN_PUBLISHER = "PUBLISHER";
+    public final static String COLUMN_PLATFORMS = "PLATFORMS";
 
     private String developer;
     private String publisher;
@@ -133,4 +136,18 @@ public class Videogame extends MediaItem
     {
         this.platforms = platforms;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setFrom(MediaItem mediaItem)
+    {
+        super.setFrom(mediaItem);
+        Videogame videogame = (Videogame) mediaItem;
+        this.developer = videogame.developer;
+        this.publisher = videogame.publisher;
+        this.platforms = videogame.platforms;
+        this.averageLengthHours = videogame.averageLengthHours;
+    }
 }
@@ -0,0 +1,45 @@
+package it.polimi.dima.mediatracker.utils;
+
+/**
+ * Source of the current time for the checks that depend on it (e.g. if a media item is upcoming), so that they all use the
+ * same value and can be tested with a fixed time
+ */
+public class Clock
+{
+    private static Clock instance;
+
+    /**
+     * Protected constructor, a different clock can be set with {@link Clock#setInstance(Clock)}
+     */
+    protected Clock()
+    {
+
+    }
+
+    /**
+     * Singleton pattern
+     */
+    public static synchronized Clock getInstance()
+    {
+        if(instance==null) instance = new Clock();
+        return instance;
+    }
+
+    /**
+     * Replaces the clock, e.g. with a fixed one in tests
+     * @param clock the new clock, null to go back to the system clock
+     */
+    public static synchronized void setInstance(Clock clock)
+    {
+        instance = clock;
+    }
+
+    /**
+     * Getter
+     * @return the current time in milliseconds
+     */
+    public long now()
+    {
+        return System.currentTimeMillis();
+    }
+}
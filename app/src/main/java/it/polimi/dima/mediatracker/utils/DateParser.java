@@ -0,0 +1,164 @@
+package it.polimi.dima.mediatracker.utils;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Thread-safe parser of the dates returned by the external services. The ISO-like formats of the APIs ("yyyy-MM-dd",
+ * "yyyy-MM-dd HH:mm:ss" and the partial dates "yyyy" and "yyyy-MM") are read by hand, any other format or input uses a
+ * SimpleDateFormat. Both reuse one calendar/formatter per thread instead of creating them for each date
+ */
+public class DateParser
+{
+    // All supported fast formats are prefixes of this one, ending at a field boundary
+    private final static String ISO_FORMAT = "yyyy-MM-dd HH:mm:ss";
+    private final static int[] ISO_FIELDS = new int[]{Calendar.YEAR, Calendar.MONTH, Calendar.DAY_OF_MONTH, Calendar.HOUR_OF_DAY, Calendar.MINUTE, Calendar.SECOND};
+    private final static int[] ISO_FIELD_STARTS = new int[]{0, 5, 8, 11, 14, 17};
+    private final static int[] ISO_FIELD_ENDS = new int[]{4, 7, 10, 13, 16, 19};
+
+    private final static ThreadLocal<Calendar> CALENDARS = new ThreadLocal<Calendar>()
+    {
+        @Override
+        protected Calendar initialValue()
+        {
+            return new GregorianCalendar(Locale.ENGLISH);
+        }
+    };
+
+    private final static ThreadLocal<Map<String, SimpleDateFormat>> FORMATTERS = new ThreadLocal<Map<String, SimpleDateFormat>>()
+    {
+        @Override
+        protected Map<String, SimpleDateFormat> initialValue()
+        {
+            return new HashMap<>();
+        }
+    };
+
+    /**
+     * Private constructor, only static methods
+     */
+    private DateParser()
+    {
+
+    }
+
+    /**
+     * Translates a string to a date using the provided format
+     * @param dateString the string containing the date
+     * @param format the format of the date in the string
+     * @return the date, null if the string is empty or not valid
+     */
+    public static Date parseDate(String dateString, String format)
+    {
+        Calendar calendar = parseCalendar(dateString, format);
+        if(calendar==null) return null;
+        else return calendar.getTime();
+    }
+
+    /**
+     * Similar to {@link DateParser#parseDate(String, String)} but returns only the year of the date
+     * @param dateString the string containing the date
+     * @param format the format of the date in the string
+     * @return the year, 0 if the string is empty or not valid
+     */
+    public static int parseYear(String dateString, String format)
+    {
+        Calendar calendar = parseCalendar(dateString, format);
+        if(calendar==null) return 0;
+        else return calendar.get(Calendar.YEAR);
+    }
+
+    /**
+     * Helper to translate a string to the calendar of the current thread
+     * @param dateString the string containing the date
+     * @param format the format of the date in the string
+     * @return the calendar set to the given date (valid until the next parse on the same thread), null if the string is empty or not valid
+     */
+    private static Calendar parseCalendar(String dateString, String format)
+    {
+        if(dateString==null || "".equals(dateString)) return null;
+
+        // Use the current time zone, like a new formatter would do
+        Calendar calendar = CALENDARS.get();
+        TimeZone timeZone = TimeZone.getDefault();
+        if(!timeZone.getID().equals(calendar.getTimeZone().getID())) calendar.setTimeZone(timeZone);
+
+        if(parseIso(dateString, format, calendar)) return calendar;
+        else return parseWithFormatter(dateString, format, calendar, timeZone);
+    }
+
+    /**
+     * Helper to read a date in one of the ISO-like formats by hand
+     * @param dateString the string containing the date
+     * @param format the format of the date in the string
+     * @param calendar the calendar to set
+     * @return true if the calendar has been set, false if the format or the string are not supported by the fast path (the
+     * calendar may have been changed anyway)
+     */
+    private static boolean parseIso(String dateString, String format, Calendar calendar)
+    {
+        // The format must be a prefix of the ISO one and the string must have exactly its length (anything else, like trailing
+        // characters, is left to the formatter)
+        int length = format.length();
+        if(dateString.length()!=length || !ISO_FORMAT.startsWith(format)) return false;
+        int fields = 0;
+        while(fields<ISO_FIELD_ENDS.length && ISO_FIELD_ENDS[fields]<=length) fields++;
+        if(fields==0 || ISO_FIELD_ENDS[fields-1]!=length) return false;
+
+        // Check the separators and read the digits, setting the same fields of a lenient formatter (out of range values roll
+        // over, missing ones are the start of the period)
+        calendar.clear();
+        for(int i=0; i<fields; i++)
+        {
+            if(i>0 && dateString.charAt(ISO_FIELD_STARTS[i]-1)!=format.charAt(ISO_FIELD_STARTS[i]-1)) return false;
+
+            int value = 0;
+            for(int j=ISO_FIELD_STARTS[i]; j<ISO_FIELD_ENDS[i]; j++)
+            {
+                char c = dateString.charAt(j);
+                if(c<'0' || c>'9') return false;
+                value = value*10+(c-'0');
+            }
+            calendar.set(ISO_FIELDS[i], ISO_FIELDS[i]==Calendar.MONTH ? value-1 : value);
+        }
+        return true;
+    }
+
+    /**
+     * Helper to translate a string using the cached formatter of the current thread
+     * @param dateString the string containing the date
+     * @param format the format of the date in the string
+     * @param calendar the calendar to set
+     * @param timeZone the current time zone
+     * @return the calendar set to the given date, null if the string is not valid
+     */
+    private static Calendar parseWithFormatter(String dateString, String format, Calendar calendar, TimeZone timeZone)
+    {
+        Map<String, SimpleDateFormat> formatters = FORMATTERS.get();
+        SimpleDateFormat formatter = formatters.get(format);
+        if(formatter==null)
+        {
+            formatter = new SimpleDateFormat(format, Locale.ENGLISH);
+            formatters.put(format, formatter);
+        }
+        formatter.setTimeZone(timeZone);
+
+        try
+        {
+            calendar.setTime(formatter.parse(dateString));
+            return calendar;
+        }
+        catch(ParseException e)
+        {
+            e.printStackTrace();
+            return null;
+        }
+    }
+}
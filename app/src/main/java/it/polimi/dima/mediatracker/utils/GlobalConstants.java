@@ -19,4 +19,5 @@ public class GlobalConstants
     public static final String SECTION_DOING_NOW = "SECTION_DOING_NOW";
 
     public static final int PERMISSION_EXTERNAL_STORAGE_CODE = 0;
+    public static final int EXPORT_DATABASE_REQUEST_CODE = 1;
 }
@@ -11,15 +11,12 @@ import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Locale;
 import java.util.Random;
 
 import it.polimi.dima.mediatracker.R;
@@ -65,40 +62,14 @@ public class Utils
     }
 
     /**
-     * Translates a string to a calendar instance using the provided format
-     * @param dateString the string containing the date
-     * @param format the format of the date in the string
-     * @return the calendar representing the given date
-     */
-    private static Calendar parseCalendarFromString(String dateString, String format)
-    {
-        if(dateString==null || "".equals(dateString)) return null;
-
-        try
-        {
-            Calendar calendar = Calendar.getInstance();
-            Date date = (new SimpleDateFormat(format, Locale.ENGLISH)).parse(dateString);
-            calendar.setTime(date);
-            return calendar;
-        }
-        catch(ParseException e)
-        {
-            e.printStackTrace();
-            return null;
-        }
-    }
-
-    /**
-     * Translates a string to a date using the provided format
+     * Translates a string to a date using the provided format (see {@link DateParser})
      * @param dateString the string containing the date
      * @param format the format of the date in the string
      * @return the date
      */
     public static Date parseDateFromString(String dateString, String format)
     {
-        Calendar calendar = parseCalendarFromString(dateString, format);
-        if(calendar==null) return null;
-        else return calendar.getTime();
+        return DateParser.parseDate(dateString, format);
     }
 
     /**
@@ -106,9 +77,7 @@ public class Utils
      */
     public static int parseYearFromString(String dateString, String format)
     {
-        Calendar calendar = parseCalendarFromString(dateString, format);
-        if(calendar==null) return 0;
-        else return calendar.get(Calendar.YEAR);
+        return DateParser.parseYear(dateString, format);
     }
 
     /**
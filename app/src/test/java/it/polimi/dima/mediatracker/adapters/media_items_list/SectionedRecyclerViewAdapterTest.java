@@ -10,6 +10,8 @@ import org.robolectric.annotation.Config;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Objects;
 
@@ -18,6 +20,7 @@ import it.polimi.dima.mediatracker.model.Section;
 import it.polimi.dima.mediatracker.model.Sectioned;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
 
 /**
@@ -123,6 +126,109 @@ public class SectionedRecyclerViewAdapterTest
         shouldBeSections(0, 2);
     }
 
+    /**
+     * Tests that setItemsAndNotifyDataSetChanged only notifies the differences and keeps the stable IDs
+     */
+    @Test
+    public void testChangeNotifiesDifferences()
+    {
+        initAdapter();
+
+        long item2Id = sectionedAdapter.getAdapter().getItemId(2);
+        long sectionBId = sectionedAdapter.getAdapter().getItemId(3);
+
+        final List<String> notifications = new ArrayList<>();
+        sectionedAdapter.getAdapter().registerAdapterDataObserver(new RecyclerView.AdapterDataObserver()
+        {
+            @Override
+            public void onChanged()
+            {
+                notifications.add("reload");
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount)
+            {
+                notifications.add("insert "+positionStart+" "+itemCount);
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount)
+            {
+                notifications.add("remove "+positionStart+" "+itemCount);
+            }
+
+            @Override
+            public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount)
+            {
+                notifications.add("move "+fromPosition+" "+toPosition);
+            }
+        });
+
+        // Item1 removed, Item6 moved to the top of section B, new item at the end
+        List<MyItem> newItems = new ArrayList<>();
+        newItems.add(adapterItems.get(1));
+        newItems.add(adapterItems.get(5));
+        newItems.add(adapterItems.get(2));
+        newItems.add(adapterItems.get(3));
+        newItems.add(adapterItems.get(4));
+        newItems.add(new MyItem("new1", sectionB));
+        sectionedAdapter.setItemsAndNotifyDataSetChanged(newItems);
+
+        externalAdapterElementsShouldBe(newItems);
+        shouldBeSections(0, 2);
+
+        assertFalse("Whole list reloaded", notifications.contains("reload"));
+        assertEquals("Wrong notifications", Arrays.asList("remove 1 1", "move 6 3", "insert 7 1"), notifications);
+
+        assertEquals("Item ID changed", item2Id, sectionedAdapter.getAdapter().getItemId(1));
+        assertEquals("Section ID changed", sectionBId, sectionedAdapter.getAdapter().getItemId(2));
+    }
+
+    /**
+     * Tests that resectionItemsAndNotify moves the items whose section changed, without reloading the whole list
+     */
+    @Test
+    public void testResection()
+    {
+        initAdapter();
+
+        final List<String> notifications = new ArrayList<>();
+        sectionedAdapter.getAdapter().registerAdapterDataObserver(new RecyclerView.AdapterDataObserver()
+        {
+            @Override
+            public void onChanged()
+            {
+                notifications.add("reload");
+            }
+        });
+
+        // Item2 moves to section B, ordered by section and then by name
+        MyItem item2 = adapterItems.get(1);
+        item2.setSection(sectionB);
+        sectionedAdapter.resectionItemsAndNotify(Collections.singletonList(item2), new Comparator<MyItem>()
+        {
+            @Override
+            public int compare(MyItem item1, MyItem item2)
+            {
+                int result = item1.getSection().getSectionId().compareTo(item2.getSection().getSectionId());
+                return result!=0 ? result : item1.name.compareTo(item2.name);
+            }
+        });
+
+        List<MyItem> shouldBe = new ArrayList<>();
+        shouldBe.add(adapterItems.get(0));
+        shouldBe.add(item2);
+        shouldBe.add(adapterItems.get(2));
+        shouldBe.add(adapterItems.get(3));
+        shouldBe.add(adapterItems.get(4));
+        shouldBe.add(adapterItems.get(5));
+
+        externalAdapterElementsShouldBe(shouldBe);
+        shouldBeSections(0, 2);
+        assertFalse("Whole list reloaded", notifications.contains("reload"));
+    }
+
     /**
      * Tests the enableSectioning method
      */
@@ -141,6 +247,45 @@ public class SectionedRecyclerViewAdapterTest
         shouldBeSections();
     }
 
+    /**
+     * Tests the translations between items and elements positions on 50k items and 10 sections, also after some removals
+     */
+    @Test
+    public void testPositionMappingLargeList()
+    {
+        int sections = 10;
+        int itemsPerSection = 5000;
+        adapterItems = new ArrayList<>();
+        for(int i=0; i<sections; i++)
+        {
+            Section section = new Section("S"+i, "Section "+i);
+            for(int j=0; j<itemsPerSection; j++) adapterItems.add(new MyItem("Item"+i+"-"+j, section));
+        }
+
+        sectionedAdapter = new MyAdapter(adapterItems);
+
+        // Elements to items
+        int elements = sectionedAdapter.getAdapter().getItemCount();
+        for(int i=0; i<elements; i++) sectionedAdapter.getAtListPosition(i);
+
+        // Items to elements
+        for(int i=0; i<adapterItems.size(); i++) sectionedAdapter.notifyItemChanged(i);
+
+        // Removals (including a whole section)
+        for(int i=0; i<itemsPerSection; i++) sectionedAdapter.removeItemAndNotify(0);
+        for(int i=0; i<1000; i++) sectionedAdapter.removeItemAndNotify(sectionedAdapter.getItemCount()/2);
+
+        // Mappings still consistent
+        assertEquals("Wrong number of internal elements", adapterItems.size()-itemsPerSection-1000+sections-1, sectionedAdapter.getAdapter().getItemCount());
+        int itemIndex = 0;
+        for(int i=0; i<sectionedAdapter.getAdapter().getItemCount(); i++)
+        {
+            MyItem item = sectionedAdapter.getAtListPosition(i);
+            if(item!=null) assertEquals("Wrong item at "+i, sectionedAdapter.get(itemIndex++), item);
+        }
+        assertEquals("Wrong number of items", sectionedAdapter.getItemCount(), itemIndex);
+    }
+
     /*@Test
     public void testMove()
     {
@@ -205,6 +350,17 @@ public class SectionedRecyclerViewAdapterTest
             return section;
         }
 
+        public void setSection(Section section)
+        {
+            this.section = section;
+        }
+
+        @Override
+        public Long getId()
+        {
+            return (long) Math.abs(name.hashCode());
+        }
+
         @Override
         public boolean equals(Object o)
         {
@@ -0,0 +1,485 @@
+package it.polimi.dima.mediatracker.controllers.backup;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import it.polimi.dima.mediatracker.BuildConfig;
+import it.polimi.dima.mediatracker.model.DeletedRow;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+/**
+ * Tests the backup formats: the binary format must contain exactly the same data as the JSON one
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class BackupFormatsTest
+{
+    private final static List<String> CATEGORY_COLUMNS = Arrays.asList("NAME", "MEDIA_TYPE_NAME", "COLOR_RESOURCE_NAME");
+    private final static List<String> MEDIA_ITEM_COLUMNS = Arrays.asList("NAME", "GENRES", "DESCRIPTION", "RELEASE_DATE", "COMPLETION_DATE",
+            "IMPORTANCE_LEVEL", "OWNED", "TIMES_COMPLETED", "AUTHOR", "EXTERNAL_SERVICE_ID");
+
+    private final static String[] GENRES = new String[]{"Fantasy", "Science Fiction, Horror", "Drama", "Comedy, Romance", null};
+    private final static String[] AUTHORS = new String[]{"J. R. R. Tolkien", "Isaac Asimov", "Ursula K. Le Guin", "宮崎 駿"};
+
+    private static List<Map<String, Object>> smallBackup;
+
+    @BeforeClass
+    public static void beforeClass()
+    {
+        smallBackup = buildBackup(3, 1200);
+
+        // Values that must not be changed by the integer encoding
+        List<Map<String, String>> items = getMediaItems(smallBackup.get(0));
+        items.get(0).put("EXTERNAL_SERVICE_ID", "007");
+        items.get(1).put("EXTERNAL_SERVICE_ID", "-0");
+        items.get(2).put("EXTERNAL_SERVICE_ID", "1.5");
+        items.get(3).put("EXTERNAL_SERVICE_ID", "");
+        items.get(4).put("EXTERNAL_SERVICE_ID", "99999999999999999999");
+        items.get(5).put("EXTERNAL_SERVICE_ID", String.valueOf(Long.MIN_VALUE));
+        items.get(6).put("EXTERNAL_SERVICE_ID", String.valueOf(Long.MAX_VALUE));
+        items.get(7).put("EXTERNAL_SERVICE_ID", "-42");
+
+        // A category without media items
+        Map<String, Object> emptyCategory = buildCategory(99, 0);
+        smallBackup.add(emptyCategory);
+    }
+
+    /**
+     * Binary backup without compression contains the original data
+     */
+    @Test
+    public void testBinaryRoundTripUncompressed() throws IOException
+    {
+        byte[] bytes = write(smallBackup, new BinaryFactory(false));
+        assertEquals(smallBackup, read(new BinaryBackupReader(new ByteArrayInputStream(bytes))));
+    }
+
+    /**
+     * Binary backup with compression contains the original data
+     */
+    @Test
+    public void testBinaryRoundTripCompressed() throws IOException
+    {
+        byte[] bytes = write(smallBackup, new BinaryFactory(true));
+        assertEquals(smallBackup, read(new BinaryBackupReader(new ByteArrayInputStream(bytes))));
+    }
+
+    /**
+     * JSON backup contains the original data
+     */
+    @Test
+    public void testJsonRoundTrip() throws IOException
+    {
+        byte[] bytes = write(smallBackup, new JsonFactory());
+        assertEquals(smallBackup, read(new JsonBackupReader(new ByteArrayInputStream(bytes))));
+    }
+
+    /**
+     * Reading a binary backup gives the same data as reading the JSON backup of the same database
+     */
+    @Test
+    public void testBinaryEquivalentToJson() throws IOException
+    {
+        List<Map<String, Object>> fromJson = read(new JsonBackupReader(new ByteArrayInputStream(write(smallBackup, new JsonFactory()))));
+        List<Map<String, Object>> fromBinary = read(new BinaryBackupReader(new ByteArrayInputStream(write(smallBackup, new BinaryFactory(true)))));
+        assertEquals(fromJson, fromBinary);
+    }
+
+    /**
+     * Format auto-detection does not consume the stream
+     */
+    @Test
+    public void testDetectFormat() throws IOException
+    {
+        InputStream json = new ByteArrayInputStream(write(smallBackup, new JsonFactory()));
+        InputStream binary = new ByteArrayInputStream(write(smallBackup, new BinaryFactory(true)));
+        InputStream empty = new ByteArrayInputStream(new byte[0]);
+
+        assertEquals(BackupFormat.JSON, BackupFormat.detect(json));
+        assertEquals(BackupFormat.BINARY, BackupFormat.detect(binary));
+        assertEquals(BackupFormat.JSON, BackupFormat.detect(empty));
+
+        assertEquals(smallBackup, read(BackupFormat.detect(json).newReader(json)));
+        assertEquals(smallBackup, read(BackupFormat.detect(binary).newReader(binary)));
+    }
+
+    /**
+     * Media items not requested by the caller are skipped
+     */
+    @Test
+    public void testSkipMediaItems() throws IOException
+    {
+        byte[][] backups = new byte[][]{write(smallBackup, new JsonFactory()), write(smallBackup, new BinaryFactory(true))};
+        for(int b=0; b<backups.length; b++)
+        {
+            BackupReader reader = b==0 ? new JsonBackupReader(new ByteArrayInputStream(backups[b])) : new BinaryBackupReader(new ByteArrayInputStream(backups[b]));
+            Map<String, String> values = new HashMap<>();
+            Map<String, String> mediaItem = new HashMap<>();
+            int categories = 0;
+            while(reader.nextCategory(values))
+            {
+                assertEquals(getCategoryValues(smallBackup.get(categories)), withoutNulls(values));
+
+                // Read only one media item of each category
+                reader.nextMediaItem(mediaItem);
+                categories++;
+            }
+            reader.close();
+            assertEquals(smallBackup.size(), categories);
+        }
+    }
+
+    /**
+     * JSON backup with the media items before the category media type (e.g. manually edited)
+     */
+    @Test
+    public void testJsonMediaItemsBeforeMediaType() throws IOException
+    {
+        String json = "{\"CATEGORIES\":[{\"NAME\":\"Books\",\"MEDIA_ITEMS\":[{\"NAME\":\"A\",\"OWNED\":true},{\"NAME\":\"B\",\"TIMES_COMPLETED\":2}]," +
+                "\"MEDIA_TYPE_NAME\":\"BOOKS\",\"EXTRA\":{\"IGNORED\":[1,2]}},{\"NAME\":\"Movies\",\"MEDIA_TYPE_NAME\":\"MOVIES\"}],\"OTHER\":1}";
+        BackupReader reader = new JsonBackupReader(new ByteArrayInputStream(json.getBytes("UTF-8")));
+        Map<String, String> category = new HashMap<>();
+        Map<String, String> mediaItem = new HashMap<>();
+
+        assertTrue(reader.nextCategory(category));
+        assertEquals("BOOKS", category.get("MEDIA_TYPE_NAME"));
+        assertTrue(reader.nextMediaItem(mediaItem));
+        assertEquals("A", mediaItem.get("NAME"));
+        assertEquals("1", mediaItem.get("OWNED"));
+        assertTrue(reader.nextMediaItem(mediaItem));
+        assertEquals("2", mediaItem.get("TIMES_COMPLETED"));
+        assertFalse(reader.nextMediaItem(mediaItem));
+        assertFalse(category.containsKey("EXTRA"));
+
+        assertTrue(reader.nextCategory(category));
+        assertEquals("Movies", category.get("NAME"));
+        assertFalse(reader.nextMediaItem(mediaItem));
+
+        assertFalse(reader.nextCategory(category));
+        reader.close();
+    }
+
+    /**
+     * Delta backups keep the previous version and the deleted rows, full backups have no previous version
+     */
+    @Test
+    public void testDeltaBackup() throws IOException
+    {
+        Factory[] factories = new Factory[]{new JsonFactory(), new BinaryFactory(false), new BinaryFactory(true)};
+        for(Factory factory: factories)
+        {
+            // Write a delta with two deleted rows and one changed category
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            BackupWriter writer = factory.newWriter(out);
+            writer.beginDelta(41, 57);
+            writer.writeDeletedRow(new DeletedRow("CATEGORY", 3, 42));
+            writer.writeDeletedRow(new DeletedRow("BOOK", 1234567890123L, 50));
+            String[] categoryValues = new String[CATEGORY_COLUMNS.size()];
+            toArray(getCategoryValues(smallBackup.get(0)), CATEGORY_COLUMNS, categoryValues);
+            writer.beginCategory(CATEGORY_COLUMNS, categoryValues);
+            writer.beginMediaItems(MEDIA_ITEM_COLUMNS);
+            String[] mediaItemValues = new String[MEDIA_ITEM_COLUMNS.size()];
+            toArray(getMediaItems(smallBackup.get(0)).get(10), MEDIA_ITEM_COLUMNS, mediaItemValues);
+            writer.writeMediaItem(mediaItemValues);
+            writer.endCategory();
+            writer.finish();
+            writer.close();
+
+            // Read it back
+            InputStream in = new ByteArrayInputStream(out.toByteArray());
+            BackupReader reader = BackupFormat.detect(in).newReader(in);
+            assertEquals(factory+" from version", 41, reader.getDeltaFromVersion());
+            DeletedRow deletedRow = reader.nextDeletedRow();
+            assertEquals(factory+" deleted table", "CATEGORY", deletedRow.getTableName());
+            assertEquals(factory+" deleted ID", 3, deletedRow.getRowId());
+            deletedRow = reader.nextDeletedRow();
+            assertEquals(factory+" deleted table", "BOOK", deletedRow.getTableName());
+            assertEquals(factory+" deleted ID", 1234567890123L, deletedRow.getRowId());
+            assertNull(factory+" deleted rows end", reader.nextDeletedRow());
+
+            List<Map<String, Object>> categories = read(reader);
+            assertEquals(factory+" categories", 1, categories.size());
+            assertEquals(factory+" category", getCategoryValues(smallBackup.get(0)), getCategoryValues(categories.get(0)));
+            assertEquals(factory+" media item", getMediaItems(smallBackup.get(0)).get(10), getMediaItems(categories.get(0)).get(0));
+
+            // Full backup
+            in = new ByteArrayInputStream(write(smallBackup, factory));
+            BackupReader fullReader = BackupFormat.detect(in).newReader(in);
+            assertEquals(factory+" full from version", -1, fullReader.getDeltaFromVersion());
+            assertNull(factory+" full deleted rows", fullReader.nextDeletedRow());
+            assertEquals(factory+" full categories", smallBackup, read(fullReader));
+        }
+    }
+
+    /**
+     * Binary backups with an unknown version or truncated are rejected
+     */
+    @Test
+    public void testInvalidBinaryBackup() throws IOException
+    {
+        byte[] bytes = write(smallBackup, new BinaryFactory(false));
+
+        byte[] newerVersion = bytes.clone();
+        newerVersion[BinaryBackupWriter.MAGIC.length] = (byte) (BinaryBackupWriter.VERSION+1);
+        try
+        {
+            read(new BinaryBackupReader(new ByteArrayInputStream(newerVersion)));
+            fail("Newer version accepted");
+        }
+        catch(BackupFormatException e)
+        {
+            // Expected
+        }
+
+        byte[] truncated = Arrays.copyOf(bytes, bytes.length/2);
+        try
+        {
+            read(new BinaryBackupReader(new ByteArrayInputStream(truncated)));
+            fail("Truncated backup accepted");
+        }
+        catch(IOException e)
+        {
+            // Expected (EOFException or BackupFormatException, depending on where the file is cut)
+        }
+    }
+
+    /**
+     * Compares the size of the formats on the small backup (size and time on a large one are measured by the
+     * BackupFormatsBenchmarkTest instrumentation test)
+     */
+    @Test
+    public void testSizes() throws IOException
+    {
+        int expectedMediaItems = 0;
+        for(Map<String, Object> category: smallBackup) expectedMediaItems += getMediaItems(category).size();
+
+        Factory[] factories = new Factory[]{new JsonFactory(), new BinaryFactory(false), new BinaryFactory(true)};
+        long[] sizes = new long[factories.length];
+        for(int i=0; i<factories.length; i++)
+        {
+            byte[] bytes = write(smallBackup, factories[i]);
+            BackupReader reader = factories[i] instanceof JsonFactory ? new JsonBackupReader(new ByteArrayInputStream(bytes)) : new BinaryBackupReader(new ByteArrayInputStream(bytes));
+            assertEquals("Wrong number of media items in the "+factories[i]+" backup", expectedMediaItems, count(reader));
+            sizes[i] = bytes.length;
+        }
+
+        assertTrue("Binary backup not smaller than JSON", sizes[1]<sizes[0]);
+        assertTrue("Compressed binary backup not smaller than uncompressed", sizes[2]<sizes[1]);
+    }
+
+    /**
+     * Helper to build a fake backup
+     * @param categories number of categories
+     * @param mediaItemsPerCategory number of media items in each category
+     * @return the backup, each category is a map with "VALUES" (column => value) and "MEDIA_ITEMS" (list of column => value)
+     */
+    private static List<Map<String, Object>> buildBackup(int categories, int mediaItemsPerCategory)
+    {
+        List<Map<String, Object>> backup = new ArrayList<>();
+        for(int c=0; c<categories; c++)
+        {
+            backup.add(buildCategory(c, mediaItemsPerCategory));
+        }
+        return backup;
+    }
+
+    /**
+     * Helper to build a fake category
+     * @param c the category number
+     * @param mediaItems number of media items
+     * @return the category
+     */
+    private static Map<String, Object> buildCategory(int c, int mediaItems)
+    {
+        Map<String, String> values = new HashMap<>();
+        values.put("NAME", "Category "+c);
+        values.put("MEDIA_TYPE_NAME", "BOOKS");
+        values.put("COLOR_RESOURCE_NAME", "colorPrimary");
+
+        List<Map<String, String>> items = new ArrayList<>();
+        long releaseDate = 1262304000000L;
+        for(int i=0; i<mediaItems; i++)
+        {
+            Map<String, String> item = new HashMap<>();
+            item.put("NAME", "Book "+c+"-"+i);
+            item.put("IMPORTANCE_LEVEL", i%3==0 ? "HIGH" : "MEDIUM");
+            item.put("OWNED", String.valueOf(i%2));
+            item.put("TIMES_COMPLETED", String.valueOf(i%4));
+            item.put("RELEASE_DATE", String.valueOf(releaseDate+i*86400000L));
+            item.put("AUTHOR", AUTHORS[i%AUTHORS.length]);
+            if(GENRES[i%GENRES.length]!=null) item.put("GENRES", GENRES[i%GENRES.length]);
+            if(i%5==0) item.put("COMPLETION_DATE", String.valueOf(releaseDate+i*3600000L));
+            if(i%7==0) item.put("DESCRIPTION", "A long description of the book number "+i+", with some accents (àèìòù) and more than sixty-four characters");
+            items.add(item);
+        }
+
+        Map<String, Object> category = new HashMap<>();
+        category.put("VALUES", values);
+        category.put("MEDIA_ITEMS", items);
+        return category;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, String> getCategoryValues(Map<String, Object> category)
+    {
+        return (Map<String, String>) category.get("VALUES");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, String>> getMediaItems(Map<String, Object> category)
+    {
+        return (List<Map<String, String>>) category.get("MEDIA_ITEMS");
+    }
+
+    /**
+     * Helper to write a backup the same way DatabaseManager does (values aligned to the table columns, NULL as null)
+     * @param backup the backup
+     * @param factory the writer factory
+     * @return the written bytes
+     */
+    private static byte[] write(List<Map<String, Object>> backup, Factory factory) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BackupWriter writer = factory.newWriter(out);
+        String[] categoryValues = new String[CATEGORY_COLUMNS.size()];
+        String[] mediaItemValues = new String[MEDIA_ITEM_COLUMNS.size()];
+        for(Map<String, Object> category: backup)
+        {
+            toArray(getCategoryValues(category), CATEGORY_COLUMNS, categoryValues);
+            writer.beginCategory(CATEGORY_COLUMNS, categoryValues);
+            writer.beginMediaItems(MEDIA_ITEM_COLUMNS);
+            for(Map<String, String> mediaItem: getMediaItems(category))
+            {
+                toArray(mediaItem, MEDIA_ITEM_COLUMNS, mediaItemValues);
+                writer.writeMediaItem(mediaItemValues);
+            }
+            writer.endCategory();
+        }
+        writer.finish();
+        writer.close();
+        return out.toByteArray();
+    }
+
+    private static void toArray(Map<String, String> values, List<String> columns, String[] array)
+    {
+        for(int i=0; i<array.length; i++)
+        {
+            array[i] = values.get(columns.get(i));
+        }
+    }
+
+    /**
+     * Helper to read a whole backup (NULL values are removed, the JSON format does not write them)
+     * @param reader the reader
+     * @return the backup
+     */
+    private static List<Map<String, Object>> read(BackupReader reader) throws IOException
+    {
+        List<Map<String, Object>> backup = new ArrayList<>();
+        Map<String, String> values = new HashMap<>();
+        while(reader.nextCategory(values))
+        {
+            List<Map<String, String>> items = new ArrayList<>();
+            Map<String, String> item = new HashMap<>();
+            while(reader.nextMediaItem(item))
+            {
+                items.add(withoutNulls(item));
+            }
+
+            Map<String, Object> category = new HashMap<>();
+            category.put("VALUES", withoutNulls(values));
+            category.put("MEDIA_ITEMS", items);
+            backup.add(category);
+        }
+        reader.close();
+        return backup;
+    }
+
+    private static Map<String, String> withoutNulls(Map<String, String> values)
+    {
+        Map<String, String> copy = new HashMap<>();
+        for(Map.Entry<String, String> pair: values.entrySet())
+        {
+            if(pair.getValue()!=null) copy.put(pair.getKey(), pair.getValue());
+        }
+        return copy;
+    }
+
+    /**
+     * Helper to count the media items of a backup
+     * @param reader the reader
+     * @return the number of media items
+     */
+    private static int count(BackupReader reader) throws IOException
+    {
+        int mediaItems = 0;
+        Map<String, String> category = new HashMap<>();
+        Map<String, String> item = new HashMap<>();
+        while(reader.nextCategory(category))
+        {
+            while(reader.nextMediaItem(item)) mediaItems++;
+        }
+        reader.close();
+        return mediaItems;
+    }
+
+    private interface Factory
+    {
+        BackupWriter newWriter(ByteArrayOutputStream out) throws IOException;
+    }
+
+    private static class JsonFactory implements Factory
+    {
+        @Override
+        public BackupWriter newWriter(ByteArrayOutputStream out) throws IOException
+        {
+            return new JsonBackupWriter(out);
+        }
+
+        @Override
+        public String toString()
+        {
+            return "JSON";
+        }
+    }
+
+    private static class BinaryFactory implements Factory
+    {
+        private boolean compress;
+
+        BinaryFactory(boolean compress)
+        {
+            this.compress = compress;
+        }
+
+        @Override
+        public BackupWriter newWriter(ByteArrayOutputStream out) throws IOException
+        {
+            return new BinaryBackupWriter(out, compress);
+        }
+
+        @Override
+        public String toString()
+        {
+            return compress ? "binary (deflate)" : "binary";
+        }
+    }
+}
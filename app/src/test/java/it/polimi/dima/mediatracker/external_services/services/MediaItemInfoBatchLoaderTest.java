@@ -0,0 +1,176 @@
+package it.polimi.dima.mediatracker.external_services.services;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import it.polimi.dima.mediatracker.BuildConfig;
+import it.polimi.dima.mediatracker.model.MediaItem;
+import it.polimi.dima.mediatracker.test_utils.LocalWebServer;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+/**
+ * Tests the limits and the retries of the media items batch loader, with a local server in place of the real API
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class MediaItemInfoBatchLoaderTest
+{
+    private final static String INFO_PATH = "movie/";
+    private final static String INFO_BODY = "{\"id\":\"603\",\"title\":\"The Matrix\",\"release_date\":\"1999-03-30\",\"runtime\":136}";
+
+    private final static long TIMEOUT_MS = 10000;
+
+    private LocalWebServer server;
+    private TestMovieService service;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        server = new LocalWebServer();
+        TestMovieService.baseUrl = server.getUrl();
+        service = new TestMovieService();
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        server.close();
+    }
+
+    /**
+     * All media items are loaded, never exceeding the concurrent requests limit (and waiting for the time window limit)
+     */
+    @Test
+    public void testConcurrencyAndWindowLimits()
+    {
+        server.setResponse(INFO_PATH, 200, INFO_BODY, "no-store");
+        server.setDelay(100);
+
+        List<String> ids = new ArrayList<>();
+        for(int i=0; i<10; i++)
+        {
+            ids.add(String.valueOf(600+i));
+        }
+        ids.add("600");
+
+        BatchResult result = new BatchResult();
+        new MediaItemInfoBatchLoader(service, 3, 4, 50, 1, 10).load(ids, result);
+        waitFor(result);
+
+        assertEquals(10, result.results.size());
+        assertEquals(0, result.failed.size());
+        assertEquals(10, server.getRequestCount());
+        assertTrue("Too many concurrent requests", server.getMaxConcurrentRequests()<=3);
+    }
+
+    /**
+     * Media items whose requests fail are requested again until they are loaded
+     */
+    @Test
+    public void testRetryAfterFailures()
+    {
+        server.setResponse(INFO_PATH, 200, INFO_BODY, "no-store");
+        server.setDroppedRequests(3);
+
+        BatchResult result = new BatchResult();
+        new MediaItemInfoBatchLoader(service, 2, 100, 1000, 5, 10).load(Arrays.asList("603", "604", "605", "606"), result);
+        waitFor(result);
+
+        assertEquals(4, result.results.size());
+        assertEquals(0, result.failed.size());
+        assertTrue(server.getRequestCount()>=4+3);
+    }
+
+    /**
+     * Media items whose requests always fail are given up after the maximum attempts
+     */
+    @Test
+    public void testMaxAttempts()
+    {
+        server.setResponse(INFO_PATH, 200, INFO_BODY, "no-store");
+        server.setDroppedRequests(Integer.MAX_VALUE);
+
+        BatchResult result = new BatchResult();
+        new MediaItemInfoBatchLoader(service, 2, 100, 1000, 3, 10).load(Arrays.asList("603", "604"), result);
+        waitFor(result);
+
+        assertEquals(0, result.results.size());
+        assertEquals(2, result.failed.size());
+        assertTrue(server.getRequestCount()>=2*3);
+    }
+
+    /**
+     * Responses without data (e.g. the media item does not exist anymore) are not retried
+     */
+    @Test
+    public void testNoRetryOnErrorResponse()
+    {
+        server.setResponse(INFO_PATH, 404, "", null);
+
+        BatchResult result = new BatchResult();
+        new MediaItemInfoBatchLoader(service, 2, 100, 1000, 3, 10).load(Arrays.asList("603"), result);
+        waitFor(result);
+
+        assertEquals(0, result.results.size());
+        assertTrue(result.failed.contains("603"));
+        assertEquals(1, server.getRequestCount());
+    }
+
+    /**
+     * Helper to wait for the batch to complete (the main thread tasks are run meanwhile)
+     * @param result the batch callback
+     */
+    private static void waitFor(BatchResult result)
+    {
+        long start = System.currentTimeMillis();
+        while(!result.isCompleted())
+        {
+            if(System.currentTimeMillis()-start>TIMEOUT_MS) fail("Timeout waiting for the batch");
+            ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+            try
+            {
+                Thread.sleep(10);
+            }
+            catch(InterruptedException e)
+            {
+                fail();
+            }
+        }
+    }
+
+    private static class BatchResult implements MediaItemInfoBatchLoader.BatchCallback
+    {
+        private Map<String, MediaItem> results;
+        private Set<String> failed;
+        private int calls = 0;
+
+        @Override
+        public synchronized void onComplete(Map<String, MediaItem> results, Set<String> failed)
+        {
+            assertEquals("Batch completed twice", 0, calls);
+            this.results = results;
+            this.failed = failed;
+            calls++;
+        }
+
+        private synchronized boolean isCompleted()
+        {
+            return calls>0;
+        }
+    }
+}
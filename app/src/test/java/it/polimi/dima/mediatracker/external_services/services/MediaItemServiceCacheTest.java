@@ -0,0 +1,339 @@
+package it.polimi.dima.mediatracker.external_services.services;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import it.polimi.dima.mediatracker.BuildConfig;
+import it.polimi.dima.mediatracker.model.MediaItem;
+import it.polimi.dima.mediatracker.model.MediaItemSearchResult;
+import it.polimi.dima.mediatracker.test_utils.LocalWebServer;
+import it.polimi.dima.mediatracker.utils.Clock;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.fail;
+
+/**
+ * Tests the caches and the request coalescing of the external services, with a local server in place of the real API
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class MediaItemServiceCacheTest
+{
+    private final static String SEARCH_PATH = "search/movie/";
+    private final static String INFO_PATH = "movie/";
+    private final static String SEARCH_BODY = "{\"results\":[{\"id\":\"603\",\"title\":\"The Matrix\",\"release_date\":\"1999-03-30\"},{\"id\":\"604\",\"title\":\"The Matrix Reloaded\",\"release_date\":\"2003-05-15\"}]}";
+    private final static String INFO_BODY = "{\"id\":\"603\",\"title\":\"The Matrix\",\"release_date\":\"1999-03-30\",\"runtime\":136}";
+
+    private final static long TIMEOUT_MS = 5000;
+
+    private LocalWebServer server;
+    private TestMovieService service;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        server = new LocalWebServer();
+        TestMovieService.baseUrl = server.getUrl();
+        service = new TestMovieService();
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        server.close();
+        Clock.setInstance(null);
+    }
+
+    /**
+     * A repeated search is served by the memory cache
+     */
+    @Test
+    public void testSearchMemoryCache()
+    {
+        server.setResponse(SEARCH_PATH, 200, SEARCH_BODY, "no-store");
+
+        SearchResults first = new SearchResults();
+        service.searchMediaItems("matrix", first);
+        waitFor(first, 1);
+
+        SearchResults second = new SearchResults();
+        service.searchMediaItems("matrix", second);
+        waitFor(second, 1);
+
+        assertEquals(1, server.getRequestCount());
+        assertEquals(2, second.results.get(0).size());
+        assertSame(first.results.get(0), second.results.get(0));
+
+        // A different query goes to the network
+        SearchResults other = new SearchResults();
+        service.searchMediaItems("matrix reloaded", other);
+        waitFor(other, 1);
+        assertEquals(2, server.getRequestCount());
+    }
+
+    /**
+     * A memory cached result is not used anymore after the default max age of the HTTP responses
+     */
+    @Test
+    public void testMemoryCacheExpires()
+    {
+        FixedClock clock = new FixedClock();
+        Clock.setInstance(clock);
+        server.setResponse(SEARCH_PATH, 200, SEARCH_BODY, "no-store");
+        server.setResponse(INFO_PATH, 200, INFO_BODY, "no-store");
+
+        SearchResults searches = new SearchResults();
+        InfoResults infos = new InfoResults();
+        service.searchMediaItems("matrix", searches);
+        service.getMediaItemInfo("603", infos);
+        waitFor(searches, 1);
+        waitFor(infos, 1);
+
+        // Still valid just before the max age
+        clock.time += 60*60*1000-1;
+        service.searchMediaItems("matrix", searches);
+        service.getMediaItemInfo("603", infos);
+        waitFor(searches, 2);
+        waitFor(infos, 2);
+        assertEquals(2, server.getRequestCount());
+
+        // Expired
+        clock.time += 1;
+        service.searchMediaItems("matrix", searches);
+        service.getMediaItemInfo("603", infos);
+        waitFor(searches, 3);
+        waitFor(infos, 3);
+        assertEquals(4, server.getRequestCount());
+        assertEquals(0, searches.failures);
+        assertEquals(0, infos.failures);
+    }
+
+    /**
+     * A forced refresh skips the memory cache, and its result replaces the cached one
+     */
+    @Test
+    public void testForceRefresh()
+    {
+        server.setResponse(INFO_PATH, 200, INFO_BODY, "no-store");
+
+        InfoResults infos = new InfoResults();
+        service.getMediaItemInfo("603", infos);
+        waitFor(infos, 1);
+
+        server.setResponse(INFO_PATH, 200, INFO_BODY.replace("The Matrix", "The Matrix (Remastered)"), "no-store");
+        service.getMediaItemInfo("603", null, true, infos);
+        waitFor(infos, 2);
+        assertEquals(2, server.getRequestCount());
+        assertEquals("The Matrix (Remastered)", infos.results.get(1).getTitle());
+
+        // The refreshed media item is now the cached one
+        service.getMediaItemInfo("603", infos);
+        waitFor(infos, 3);
+        assertEquals(2, server.getRequestCount());
+        assertEquals("The Matrix (Remastered)", infos.results.get(2).getTitle());
+    }
+
+    /**
+     * Identical requests sent while the first one is running share its response
+     */
+    @Test
+    public void testRequestCoalescing()
+    {
+        server.setResponse(SEARCH_PATH, 200, SEARCH_BODY, "no-store");
+        server.setResponse(INFO_PATH, 200, INFO_BODY, "no-store");
+        server.setDelay(300);
+
+        SearchResults searches = new SearchResults();
+        InfoResults infos = new InfoResults();
+        for(int i=0; i<3; i++)
+        {
+            service.searchMediaItems("matrix", searches);
+            service.getMediaItemInfo("603", infos);
+        }
+        waitFor(searches, 3);
+        waitFor(infos, 3);
+
+        assertEquals(2, server.getRequestCount());
+        assertEquals(0, searches.failures);
+        assertEquals(0, infos.failures);
+        assertEquals("The Matrix", infos.results.get(2).getTitle());
+    }
+
+    /**
+     * A cancelled search does not call back, the others waiting for the same request still get the results
+     */
+    @Test
+    public void testCancelSearch()
+    {
+        server.setResponse(SEARCH_PATH, 200, SEARCH_BODY, "no-store");
+        server.setDelay(300);
+
+        // Only caller: the callback is never called
+        SearchResults cancelled = new SearchResults();
+        service.searchMediaItems("matrix", cancelled).cancel();
+
+        // Two callers, one cancels
+        SearchResults kept = new SearchResults();
+        SearchResults joinedAndCancelled = new SearchResults();
+        service.searchMediaItems("matrix reloaded", kept);
+        service.searchMediaItems("matrix reloaded", joinedAndCancelled).cancel();
+        waitFor(kept, 1);
+
+        // Cached result
+        SearchResults cachedAndCancelled = new SearchResults();
+        service.searchMediaItems("matrix reloaded", cachedAndCancelled).cancel();
+
+        // Give the cancelled requests the time to call back, if they were going to
+        SearchResults last = new SearchResults();
+        service.searchMediaItems("matrix revolutions", last);
+        waitFor(last, 1);
+
+        assertEquals(0, cancelled.getCalls());
+        assertEquals(0, joinedAndCancelled.getCalls());
+        assertEquals(0, cachedAndCancelled.getCalls());
+        assertEquals(2, kept.results.get(0).size());
+    }
+
+    /**
+     * A response without caching headers is served by the disk cache when the memory cache does not have it
+     */
+    @Test
+    public void testHttpDiskCache()
+    {
+        server.setResponse(INFO_PATH, 200, INFO_BODY, null);
+
+        InfoResults first = new InfoResults();
+        service.getMediaItemInfo("603", first);
+        waitFor(first, 1);
+
+        // Empty the memory cache
+        service.setMemoryCacheSize(10, 10);
+
+        InfoResults second = new InfoResults();
+        service.getMediaItemInfo("603", second);
+        waitFor(second, 1);
+
+        assertEquals(1, server.getRequestCount());
+        assertEquals("The Matrix", second.results.get(0).getTitle());
+    }
+
+    /**
+     * Error responses are not cached
+     */
+    @Test
+    public void testErrorsNotCached()
+    {
+        server.setResponse(SEARCH_PATH, 500, "", null);
+
+        for(int i=1; i<=2; i++)
+        {
+            SearchResults results = new SearchResults();
+            service.searchMediaItems("matrix", results);
+            waitFor(results, 1);
+            assertEquals(0, results.results.get(0).size());
+            assertEquals(i, server.getRequestCount());
+        }
+    }
+
+    /**
+     * Helper to wait for the given number of callbacks (the main thread tasks are run meanwhile)
+     * @param callback the callback
+     * @param calls the number of calls
+     */
+    private static void waitFor(CountingCallback callback, int calls)
+    {
+        long start = System.currentTimeMillis();
+        while(callback.getCalls()<calls)
+        {
+            if(System.currentTimeMillis()-start>TIMEOUT_MS) fail("Timeout waiting for the service callback");
+            ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+            try
+            {
+                Thread.sleep(10);
+            }
+            catch(InterruptedException e)
+            {
+                fail();
+            }
+        }
+    }
+
+    private interface CountingCallback
+    {
+        int getCalls();
+    }
+
+    private static class SearchResults implements MediaItemService.MediaItemSearchCallback, CountingCallback
+    {
+        private final List<List<MediaItemSearchResult>> results = new ArrayList<>();
+        private int failures = 0;
+
+        @Override
+        public synchronized void onLoad(List<MediaItemSearchResult> searchResults)
+        {
+            assertNotNull(searchResults);
+            results.add(searchResults);
+        }
+
+        @Override
+        public synchronized void onFailure()
+        {
+            failures++;
+        }
+
+        @Override
+        public synchronized int getCalls()
+        {
+            return results.size()+failures;
+        }
+    }
+
+    private static class InfoResults implements MediaItemService.MediaItemInfoCallback, CountingCallback
+    {
+        private final List<MediaItem> results = new ArrayList<>();
+        private int failures = 0;
+
+        @Override
+        public synchronized void onLoad(MediaItem mediaItem)
+        {
+            results.add(mediaItem);
+        }
+
+        @Override
+        public synchronized void onFailure()
+        {
+            failures++;
+        }
+
+        @Override
+        public synchronized int getCalls()
+        {
+            return results.size()+failures;
+        }
+    }
+
+    /**
+     * Clock that only moves when the test changes it
+     */
+    private static class FixedClock extends Clock
+    {
+        private volatile long time = System.currentTimeMillis();
+
+        @Override
+        public long now()
+        {
+            return time;
+        }
+    }
+}
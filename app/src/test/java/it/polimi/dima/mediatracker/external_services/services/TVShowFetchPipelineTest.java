@@ -0,0 +1,244 @@
+package it.polimi.dima.mediatracker.external_services.services;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import it.polimi.dima.mediatracker.BuildConfig;
+import it.polimi.dima.mediatracker.model.MediaItem;
+import it.polimi.dima.mediatracker.model.TVShow;
+import it.polimi.dima.mediatracker.test_utils.LocalWebServer;
+import it.polimi.dima.mediatracker.utils.Utils;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+/**
+ * Tests the TV show fetch pipeline (info and last season requests), with a local server in place of the real API
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class TVShowFetchPipelineTest
+{
+    private final static String INFO_PATH = "tv/1399";
+    private final static String SEASON_5_PATH = "tv/1399/season/5";
+    private final static String SEASON_6_PATH = "tv/1399/season/6";
+    private final static String SEASON_5_BODY = "{\"episodes\":[{\"air_date\":\"2000-01-01\"},{\"air_date\":\"2098-01-01\"}]}";
+    private final static String SEASON_6_BODY = "{\"episodes\":[{\"air_date\":\"2000-01-01\"},{\"air_date\":\"2099-05-01\"}]}";
+
+    private final static long DELAY_MS = 300;
+    private final static long TIMEOUT_MS = 5000;
+
+    private LocalWebServer server;
+    private TestTVShowService service;
+    private List<FetchPipeline.StageTiming> timings;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        server = new LocalWebServer();
+        server.setResponse(SEASON_5_PATH, 200, SEASON_5_BODY, "no-store");
+        server.setResponse(SEASON_6_PATH, 200, SEASON_6_BODY, "no-store");
+        server.setDelay(DELAY_MS);
+        TestTVShowService.baseUrl = server.getUrl();
+        service = new TestTVShowService();
+        service.setFetchTimingListener(new MediaItemService.FetchTimingListener()
+        {
+            @Override
+            public void onFetchCompleted(String externalServiceId, List<FetchPipeline.StageTiming> stageTimings, long totalTimeMs)
+            {
+                timings = new ArrayList<>(stageTimings);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        server.close();
+    }
+
+    /**
+     * Without known data the season request waits for the info response
+     */
+    @Test
+    public void testUnknownTVShow()
+    {
+        setInfoResponse(true, 6);
+
+        MediaItem tvShow = load(null);
+
+        assertEquals(Utils.parseDateFromString("2099-05-01", "yyyy-MM-dd"), ((TVShow) tvShow).getNextEpisodeAirDate());
+        assertEquals(2, server.getRequestCount());
+        assertEquals(1, server.getMaxConcurrentRequests());
+        assertStage("season", FetchPipeline.StageOutcome.SUCCESS);
+    }
+
+    /**
+     * With the right known seasons number the two requests run at the same time
+     */
+    @Test
+    public void testSpeculativeSeason()
+    {
+        setInfoResponse(true, 6);
+
+        MediaItem tvShow = load(buildKnownTVShow(6));
+
+        assertEquals(Utils.parseDateFromString("2099-05-01", "yyyy-MM-dd"), ((TVShow) tvShow).getNextEpisodeAirDate());
+        assertEquals(2, server.getRequestCount());
+        assertEquals(2, server.getMaxConcurrentRequests());
+        assertStage("speculative season", FetchPipeline.StageOutcome.SUCCESS);
+        assertNoStage("season");
+    }
+
+    /**
+     * With an old known seasons number the speculative result is discarded and the right season is requested
+     */
+    @Test
+    public void testWrongSpeculativeSeason()
+    {
+        setInfoResponse(true, 6);
+
+        MediaItem tvShow = load(buildKnownTVShow(5));
+
+        assertEquals(Utils.parseDateFromString("2099-05-01", "yyyy-MM-dd"), ((TVShow) tvShow).getNextEpisodeAirDate());
+        assertStage("season", FetchPipeline.StageOutcome.SUCCESS);
+    }
+
+    /**
+     * If the TV show ended the speculative season request is cancelled
+     */
+    @Test
+    public void testEndedTVShow()
+    {
+        setInfoResponse(false, 6);
+
+        MediaItem tvShow = load(buildKnownTVShow(6));
+
+        assertFalse(((TVShow) tvShow).isInProduction());
+        assertNull(((TVShow) tvShow).getNextEpisodeAirDate());
+        assertNoStage("season");
+    }
+
+    /**
+     * Helper to set the TV show info response
+     * @param inProduction the TV show in production flag
+     * @param seasonsNumber the TV show seasons number
+     */
+    private void setInfoResponse(boolean inProduction, int seasonsNumber)
+    {
+        server.setResponse(INFO_PATH, 200, "{\"id\":\"1399\",\"name\":\"Game of Thrones\",\"first_air_date\":\"2011-04-17\"," +
+                "\"in_production\":"+inProduction+",\"number_of_seasons\":"+seasonsNumber+",\"number_of_episodes\":60," +
+                "\"episode_run_time\":[60],\"genres\":[],\"created_by\":[]}", "no-store");
+    }
+
+    /**
+     * Helper to build the saved TV show
+     * @param seasonsNumber the saved seasons number
+     * @return the TV show
+     */
+    private TVShow buildKnownTVShow(int seasonsNumber)
+    {
+        TVShow tvShow = new TVShow();
+        tvShow.setExternalServiceId("1399");
+        tvShow.setInProduction(true);
+        tvShow.setSeasonsNumber(seasonsNumber);
+        return tvShow;
+    }
+
+    /**
+     * Helper to load the TV show and wait for it (the main thread tasks are run meanwhile)
+     * @param knownMediaItem the saved TV show, may be null
+     * @return the loaded TV show
+     */
+    private MediaItem load(MediaItem knownMediaItem)
+    {
+        final List<MediaItem> results = new ArrayList<>();
+        service.getMediaItemInfo("1399", knownMediaItem, new MediaItemService.MediaItemInfoCallback()
+        {
+            @Override
+            public void onLoad(MediaItem mediaItem)
+            {
+                results.add(mediaItem);
+            }
+
+            @Override
+            public void onFailure()
+            {
+                fail("Request failed");
+            }
+        });
+
+        long start = System.currentTimeMillis();
+        while(results.isEmpty())
+        {
+            if(System.currentTimeMillis()-start>TIMEOUT_MS) fail("Timeout waiting for the service callback");
+            ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+            try
+            {
+                Thread.sleep(10);
+            }
+            catch(InterruptedException e)
+            {
+                fail();
+            }
+        }
+
+        assertNotNull(results.get(0));
+        assertNotNull(timings);
+        return results.get(0);
+    }
+
+    private void assertStage(String stageName, FetchPipeline.StageOutcome outcome)
+    {
+        for(FetchPipeline.StageTiming timing: timings)
+        {
+            if(timing.getStageName().equals(stageName))
+            {
+                assertEquals(timing.toString(), outcome, timing.getOutcome());
+                return;
+            }
+        }
+        fail("Stage "+stageName+" not found in "+timings);
+    }
+
+    private void assertNoStage(String stageName)
+    {
+        for(FetchPipeline.StageTiming timing: timings)
+        {
+            assertTrue("Unexpected stage "+timing, !timing.getStageName().equals(stageName));
+        }
+    }
+
+    /**
+     * TV show service pointing to the local server
+     */
+    private static class TestTVShowService extends TVShowService
+    {
+        private static String baseUrl;
+
+        TestTVShowService()
+        {
+            super(RuntimeEnvironment.application);
+        }
+
+        @Override
+        protected String getBaseUrl()
+        {
+            return baseUrl;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package it.polimi.dima.mediatracker.external_services.services;
+
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+
+import it.polimi.dima.mediatracker.external_services.model_json.MovieJSON;
+import it.polimi.dima.mediatracker.external_services.model_json.MovieSearchJSON;
+import it.polimi.dima.mediatracker.external_services.rest_interfaces.MovieRestInterface;
+import it.polimi.dima.mediatracker.model.MediaItemSearchResult;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+import retrofit2.Retrofit;
+
+/**
+ * Movie service pointing to the local server
+ */
+class TestMovieService extends MediaItemService
+{
+    static String baseUrl;
+
+    private MovieRestInterface restInterface;
+
+    TestMovieService()
+    {
+        super(RuntimeEnvironment.application);
+    }
+
+    @Override
+    protected String getBaseUrl()
+    {
+        return baseUrl;
+    }
+
+    @Override
+    protected void initializeRestInterface(Retrofit retrofit)
+    {
+        restInterface = retrofit.create(MovieRestInterface.class);
+    }
+
+    @Override
+    protected Call<?> loadSearchResults(String query, final MediaItemSearchCallback mediaItemSearchCallback)
+    {
+        Call<MovieSearchJSON> searchCall = restInterface.searchMovies(query, "");
+        searchCall.enqueue(new Callback<MovieSearchJSON>()
+        {
+            @Override
+            public void onResponse(Call<MovieSearchJSON> call, Response<MovieSearchJSON> response)
+            {
+                mediaItemSearchCallback.onLoad(response.body()!=null ? response.body().getSearchList() : new ArrayList<MediaItemSearchResult>());
+            }
+
+            @Override
+            public void onFailure(Call<MovieSearchJSON> call, Throwable t)
+            {
+                mediaItemSearchCallback.onFailure();
+            }
+        });
+        return searchCall;
+    }
+
+    @Override
+    protected void loadMediaItemInfo(String externalServiceId, final MediaItemInfoCallback mediaItemInfoCallback)
+    {
+        restInterface.getMovieInfo(externalServiceId, "").enqueue(new Callback<MovieJSON>()
+        {
+            @Override
+            public void onResponse(Call<MovieJSON> call, Response<MovieJSON> response)
+            {
+                mediaItemInfoCallback.onLoad(response.body()!=null ? response.body().convertToMediaItem() : null);
+            }
+
+            @Override
+            public void onFailure(Call<MovieJSON> call, Throwable t)
+            {
+                mediaItemInfoCallback.onFailure();
+            }
+        });
+    }
+}
@@ -0,0 +1,176 @@
+package it.polimi.dima.mediatracker.images;
+
+import android.graphics.Bitmap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+
+import it.polimi.dima.mediatracker.BuildConfig;
+import it.polimi.dima.mediatracker.test_utils.UnitTestUtils;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.fail;
+
+/**
+ * Tests the image loader disk cache, the sample size computation and the paused loads
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class ImageCachesTest
+{
+    private File directory;
+
+    @Before
+    public void setUp()
+    {
+        directory = new File(RuntimeEnvironment.application.getCacheDir(), "images_test_"+UnitTestUtils.getRandomName());
+    }
+
+    /**
+     * The sample size is the largest power of two that keeps the image at least as large as the view
+     */
+    @Test
+    public void testInSampleSize()
+    {
+        assertEquals(1, BitmapDecoder.calculateInSampleSize(780, 439, 1080, 600));
+        assertEquals(1, BitmapDecoder.calculateInSampleSize(780, 439, 700, 400));
+        assertEquals(2, BitmapDecoder.calculateInSampleSize(1280, 720, 600, 300));
+        assertEquals(4, BitmapDecoder.calculateInSampleSize(3000, 2000, 700, 400));
+        assertEquals(2, BitmapDecoder.calculateInSampleSize(3000, 2000, 700, 900));
+        assertEquals(8, BitmapDecoder.calculateInSampleSize(3000, 2000, 0, 200));
+        assertEquals(1, BitmapDecoder.calculateInSampleSize(3000, 2000, 0, 0));
+    }
+
+    /**
+     * Files are cached by URL and the least recently used ones are deleted when the cache is full
+     */
+    @Test
+    public void testDiskCache() throws IOException
+    {
+        ImageDiskCache cache = new ImageDiskCache(directory, 2500);
+
+        assertNull(cache.get("http://example.com/a.jpg"));
+        File a = cache.put("http://example.com/a.jpg", new ByteArrayInputStream(new byte[1000]));
+        File b = cache.put("http://example.com/b.jpg", new ByteArrayInputStream(new byte[1000]));
+        assertEquals(1000, a.length());
+        assertNotNull(cache.get("http://example.com/a.jpg"));
+        assertNotNull(cache.get("http://example.com/b.jpg"));
+
+        // "a" used more recently than "b"
+        //noinspection ResultOfMethodCallIgnored
+        b.setLastModified(System.currentTimeMillis()-60000);
+        //noinspection ResultOfMethodCallIgnored
+        a.setLastModified(System.currentTimeMillis()-30000);
+
+        // Over the maximum size: "b" is deleted
+        cache.put("http://example.com/c.jpg", new ByteArrayInputStream(new byte[1000]));
+        assertNotNull(cache.get("http://example.com/a.jpg"));
+        assertNull(cache.get("http://example.com/b.jpg"));
+        assertNotNull(cache.get("http://example.com/c.jpg"));
+
+        // Replacing a file does not count it twice
+        cache.put("http://example.com/c.jpg", new ByteArrayInputStream(new byte[500]));
+        assertNotNull(cache.get("http://example.com/a.jpg"));
+        assertEquals(500, cache.get("http://example.com/c.jpg").length());
+    }
+
+    /**
+     * Paused loads start only when resumed, and the ones cancelled meanwhile never call back
+     */
+    @Test
+    public void testPausedLoads() throws IOException
+    {
+        //noinspection ResultOfMethodCallIgnored
+        directory.mkdirs();
+        URL first = createImageFile("first").toURI().toURL();
+        URL second = createImageFile("second").toURI().toURL();
+
+        ImageLoader imageLoader = ImageLoader.getInstance(RuntimeEnvironment.application);
+        imageLoader.setPaused(true);
+        try
+        {
+            CountingCallback kept = new CountingCallback();
+            CountingCallback cancelled = new CountingCallback();
+            ImageLoader.ImageRequest keptRequest = imageLoader.loadImage(first, 10, 10, kept);
+            imageLoader.loadImage(second, 10, 10, cancelled).cancel();
+
+            // Nothing happens while paused
+            sleepAndRunMainThread(200);
+            assertEquals(0, kept.calls);
+            assertFalse(keptRequest.isDone());
+
+            // Resume
+            imageLoader.setPaused(false);
+            long start = System.currentTimeMillis();
+            while(kept.calls==0)
+            {
+                if(System.currentTimeMillis()-start>5000) fail("Timeout waiting for the image load");
+                sleepAndRunMainThread(10);
+            }
+            sleepAndRunMainThread(200);
+            assertEquals(1, kept.calls);
+            assertEquals(0, cancelled.calls);
+        }
+        finally
+        {
+            imageLoader.setPaused(false);
+        }
+    }
+
+    /**
+     * Helper to create a file to be loaded
+     * @param name the file name
+     * @return the file
+     * @throws IOException if the file cannot be written
+     */
+    private File createImageFile(String name) throws IOException
+    {
+        File file = new File(directory, name+".png");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[100]);
+        out.close();
+        return file;
+    }
+
+    /**
+     * Helper to wait while the main thread tasks are run
+     * @param millis the time to wait
+     */
+    private static void sleepAndRunMainThread(long millis)
+    {
+        try
+        {
+            Thread.sleep(millis);
+        }
+        catch(InterruptedException e)
+        {
+            fail();
+        }
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+    }
+
+    private static class CountingCallback implements ImageLoader.ImageCallback
+    {
+        private int calls = 0;
+
+        @Override
+        public void onLoad(Bitmap bitmap)
+        {
+            calls++;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package it.polimi.dima.mediatracker.test_utils;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A minimal local HTTP server for unit tests (stand-in for OkHttp's MockWebServer): answers each request with the
+ * response set for the longest matching path prefix and counts the requests. It can also drop requests (the connection
+ * is closed without a response, like a network failure)
+ */
+public class LocalWebServer implements Closeable
+{
+    private final static Charset CHARSET = Charset.forName("UTF-8");
+
+    private ServerSocket serverSocket;
+    private final Map<String, String[]> responses = new LinkedHashMap<>();
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private volatile long delayMs = 0;
+    private int droppedRequests = 0;
+    private int runningRequests = 0;
+    private int maxRunningRequests = 0;
+
+    /**
+     * Starts the server on a free local port
+     * @throws IOException if the server cannot be started
+     */
+    public LocalWebServer() throws IOException
+    {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+
+        Thread acceptThread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                while(!serverSocket.isClosed())
+                {
+                    try
+                    {
+                        final Socket socket = serverSocket.accept();
+                        new Thread(new Runnable()
+                        {
+                            @Override
+                            public void run()
+                            {
+                                serve(socket);
+                            }
+                        }).start();
+                    }
+                    catch(IOException e)
+                    {
+                        // Server closed
+                    }
+                }
+            }
+        });
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /**
+     * Getter
+     * @return the server base URL (with final slash)
+     */
+    public String getUrl()
+    {
+        return "http://127.0.0.1:"+serverSocket.getLocalPort()+"/";
+    }
+
+    /**
+     * Sets the response to the requests starting with the given path
+     * @param pathPrefix the path prefix (without initial slash)
+     * @param code the HTTP status code
+     * @param body the response body
+     * @param cacheControl the Cache-Control header, null to omit it
+     */
+    public synchronized void setResponse(String pathPrefix, int code, String body, String cacheControl)
+    {
+        responses.put("/"+pathPrefix, new String[]{String.valueOf(code), body, cacheControl});
+    }
+
+    /**
+     * Setter
+     * @param delayMs the time waited by the server before each response
+     */
+    public void setDelay(long delayMs)
+    {
+        this.delayMs = delayMs;
+    }
+
+    /**
+     * Setter
+     * @param droppedRequests the number of next requests to drop
+     */
+    public synchronized void setDroppedRequests(int droppedRequests)
+    {
+        this.droppedRequests = droppedRequests;
+    }
+
+    /**
+     * Getter
+     * @return the maximum number of requests served at the same time
+     */
+    public synchronized int getMaxConcurrentRequests()
+    {
+        return maxRunningRequests;
+    }
+
+    /**
+     * Getter
+     * @return the number of requests received
+     */
+    public int getRequestCount()
+    {
+        return requestCount.get();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        serverSocket.close();
+    }
+
+    /**
+     * Helper to answer a request
+     * @param socket the connection
+     */
+    private void serve(Socket socket)
+    {
+        boolean running = false;
+        try
+        {
+            // Read request line and headers
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), CHARSET));
+            String requestLine = reader.readLine();
+            if(requestLine==null) return;
+            String line;
+            do
+            {
+                line = reader.readLine();
+            }
+            while(line!=null && line.length()>0);
+            requestCount.incrementAndGet();
+            if(!startRequest()) return;
+            running = true;
+
+            if(delayMs>0) Thread.sleep(delayMs);
+
+            // Write response
+            String[] response = findResponse(requestLine.split(" ")[1]);
+            byte[] body = response[1].getBytes(CHARSET);
+            StringBuilder headers = new StringBuilder();
+            headers.append("HTTP/1.1 ").append(response[0]).append(" Response\r\n");
+            headers.append("Content-Type: application/json; charset=utf-8\r\n");
+            headers.append("Content-Length: ").append(body.length).append("\r\n");
+            headers.append("Connection: close\r\n");
+            if(response[2]!=null) headers.append("Cache-Control: ").append(response[2]).append("\r\n");
+            headers.append("\r\n");
+
+            OutputStream out = socket.getOutputStream();
+            out.write(headers.toString().getBytes(CHARSET));
+            out.write(body);
+            out.flush();
+        }
+        catch(IOException | InterruptedException e)
+        {
+            e.printStackTrace();
+        }
+        finally
+        {
+            if(running) endRequest();
+            try
+            {
+                socket.close();
+            }
+            catch(IOException e)
+            {
+                // Nothing to do
+            }
+        }
+    }
+
+    /**
+     * Helper to count a request as running, unless it must be dropped
+     * @return false if the request must be dropped
+     */
+    private synchronized boolean startRequest()
+    {
+        if(droppedRequests>0)
+        {
+            droppedRequests--;
+            return false;
+        }
+        runningRequests++;
+        maxRunningRequests = Math.max(maxRunningRequests, runningRequests);
+        return true;
+    }
+
+    /**
+     * Helper to count a request as no longer running
+     */
+    private synchronized void endRequest()
+    {
+        runningRequests--;
+    }
+
+    /**
+     * Helper to find the response to a request
+     * @param path the request path
+     * @return the response (code, body, Cache-Control header), 404 if not set
+     */
+    private synchronized String[] findResponse(String path)
+    {
+        String[] found = new String[]{"404", "", null};
+        int foundLength = -1;
+        for(Map.Entry<String, String[]> pair: responses.entrySet())
+        {
+            if(path.startsWith(pair.getKey()) && pair.getKey().length()>foundLength)
+            {
+                found = pair.getValue();
+                foundLength = pair.getKey().length();
+            }
+        }
+        return found;
+    }
+}
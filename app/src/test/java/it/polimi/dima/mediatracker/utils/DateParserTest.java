@@ -0,0 +1,142 @@
+package it.polimi.dima.mediatracker.utils;
+
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+
+/**
+ * Tests the date parser of the external services data, comparing it with a new SimpleDateFormat for each date (the previous
+ * implementation)
+ */
+public class DateParserTest
+{
+    private final static String[][] SAMPLES = new String[][]{
+            {"2016-05-21", "yyyy-MM-dd"},
+            {"1999-12-31", "yyyy-MM-dd"},
+            {"2016-02-30", "yyyy-MM-dd"},
+            {"2016-13-01", "yyyy-MM-dd"},
+            {"2016-05-21T10:00:00Z", "yyyy-MM-dd"},
+            {"2016-05-21 23:59:59", "yyyy-MM-dd HH:mm:ss"},
+            {"2016-05-21 00:00:00", "yyyy-MM-dd HH:mm:ss"},
+            {"2016-03-27 02:30:00", "yyyy-MM-dd HH:mm:ss"},
+            {"2016", "yyyy"},
+            {"2016-07", "yyyy-MM"},
+            {"16-5-1", "yyyy-MM-dd"},
+            {"21/05/2016", "dd/MM/yyyy"}};
+
+    /**
+     * Same dates and years of the previous implementation, in both the fast path and the formatter one
+     */
+    @Test
+    public void testSameResults()
+    {
+        for(String[] sample: SAMPLES)
+        {
+            assertEquals("Wrong date for "+sample[0], legacyParseDate(sample[0], sample[1]), DateParser.parseDate(sample[0], sample[1]));
+            assertEquals("Wrong year for "+sample[0], legacyParseYear(sample[0], sample[1]), DateParser.parseYear(sample[0], sample[1]));
+        }
+    }
+
+    /**
+     * Empty and not valid strings
+     */
+    @Test
+    public void testNotValid()
+    {
+        assertNull(DateParser.parseDate(null, "yyyy-MM-dd"));
+        assertNull(DateParser.parseDate("", "yyyy-MM-dd"));
+        assertNull(DateParser.parseDate("not a date", "yyyy-MM-dd"));
+        assertNull(DateParser.parseDate("2016/05/21", "yyyy-MM-dd"));
+        assertEquals(0, DateParser.parseYear("not a date", "yyyy-MM-dd"));
+    }
+
+    /**
+     * The same dates parsed on several threads at the same time
+     */
+    @Test
+    public void testThreadSafety() throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try
+        {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for(int t=0; t<8; t++)
+            {
+                results.add(executor.submit(new Callable<Boolean>()
+                {
+                    @Override
+                    public Boolean call()
+                    {
+                        for(int i=0; i<2000; i++)
+                        {
+                            String date = String.format(Locale.ENGLISH, "%04d-%02d-%02d", 1990+i%30, 1+i%12, 1+i%28);
+                            if(!legacyParseDate(date, "yyyy-MM-dd").equals(DateParser.parseDate(date, "yyyy-MM-dd"))) return false;
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for(Future<Boolean> result: results)
+            {
+                assertEquals("Wrong date on a concurrent thread", Boolean.TRUE, result.get());
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * The previous implementation, that created a formatter and a calendar for each date
+     * @param dateString the string containing the date
+     * @param format the format of the date in the string
+     * @return the calendar, null if not valid
+     */
+    private static Calendar legacyParseCalendar(String dateString, String format)
+    {
+        if(dateString==null || "".equals(dateString)) return null;
+
+        try
+        {
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTime((new SimpleDateFormat(format, Locale.ENGLISH)).parse(dateString));
+            return calendar;
+        }
+        catch(ParseException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * The previous implementation of {@link Utils#parseDateFromString(String, String)}
+     */
+    private static Date legacyParseDate(String dateString, String format)
+    {
+        Calendar calendar = legacyParseCalendar(dateString, format);
+        return calendar==null ? null : calendar.getTime();
+    }
+
+    /**
+     * The previous implementation of {@link Utils#parseYearFromString(String, String)}
+     */
+    private static int legacyParseYear(String dateString, String format)
+    {
+        Calendar calendar = legacyParseCalendar(dateString, format);
+        return calendar==null ? 0 : calendar.get(Calendar.YEAR);
+    }
+}